@@ -30,3 +30,5 @@ LOCAL_MODULE := anttasks
 
 include $(BUILD_HOST_JAVA_LIBRARY)
 
+# Build all sub-directories
+include $(call all-makefiles-under,$(LOCAL_PATH))
@@ -43,6 +43,8 @@ public class ApkBuilderTask extends SingleDependencyTask {
     private boolean mDebugPackaging = false;
     private boolean mDebugSigning = false;
     private boolean mHasCode = true;
+    private boolean mIncremental = false;
+    private int mThreadCount = 1;
 
     private Path mDexPath;
 
@@ -135,6 +137,26 @@ public class ApkBuilderTask extends SingleDependencyTask {
         mHasCode   = hasCode;
     }
 
+    /**
+     * Sets the value of the "incremental" attribute. Default is false.
+     * If set to true, the entries of the previous apk whose source did not change are reused
+     * instead of being packaged again.
+     * @param incremental the value of the attribute.
+     */
+    public void setIncremental(boolean incremental) {
+        mIncremental = incremental;
+    }
+
+    /**
+     * Sets the value of the "threads" attribute. Default is 1.
+     * If greater than 1, the entries added from the zip, source, jar and native library inputs
+     * are compressed and digested by that many threads.
+     * @param threadCount the value of the attribute.
+     */
+    public void setThreads(int threadCount) {
+        mThreadCount = threadCount;
+    }
+
     /**
      * Returns an object representing a nested <var>zip</var> element.
      */
@@ -336,8 +358,12 @@ public class ApkBuilderTask extends SingleDependencyTask {
                     resourceInputPath.getFile(),
                     dexFile,
                     mDebugSigning ? ApkBuilder.getDebugKeystore() : null,
+                    mIncremental ? new File(outputFile.getAbsolutePath() + ".index") : null,
                     mVerbose ? System.out : null);
             apkBuilder.setDebugMode(mDebugPackaging);
+            if (mThreadCount > 1) {
+                apkBuilder.setParallelism(mThreadCount);
+            }
 
 
             // add the content of the zip files.
@@ -0,0 +1,307 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ant;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A binary cache of a dependency file, saved next to it.
+ * <p/>The cache holds the targets and prerequisites of the dependency file, so that the text
+ * file does not have to be parsed again as long as it is not modified, and the content digest
+ * of the prerequisites, so that a prerequisite whose timestamp changed but whose content did not
+ * is not considered as modified.
+ * <p/>The digests are only recorded for files that are strictly older than the targets, and
+ * they are all discarded when the dependency file or the targets are generated
+ * again.
+ */
+class DependencyCache {
+
+    private final static int VERSION = 1;
+    private final static String DIGEST_ALGORITHM = "SHA-1"; //$NON-NLS-1$
+
+    /** The content digest of a file, with the size and timestamp it had when computed. */
+    private final static class Record {
+        long mSize;
+        long mLastModified;
+        final byte[] mDigest;
+
+        Record(long size, long lastModified, byte[] digest) {
+            mSize = size;
+            mLastModified = lastModified;
+            mDigest = digest;
+        }
+    }
+
+    private final File mCacheFile;
+    private final long mDepFileLength;
+    private final long mDepFileLastModified;
+    private final List<String> mTargets;
+    private final List<String> mPrereqs;
+    /** The timestamp of the oldest target when the digests were recorded. */
+    private long mOldestTarget = -1;
+    private final Map<String, Record> mRecords = new HashMap<String, Record>();
+    private boolean mModified = false;
+
+    private MessageDigest mMessageDigest;
+    private byte[] mBuffer;
+
+    /**
+     * Creates an empty cache for a dependency file.
+     * @param depFile the dependency file.
+     * @param targets the paths of the targets listed in the dependency file.
+     * @param prereqs the paths of the prerequisites listed in the dependency file.
+     */
+    DependencyCache(File depFile, List<String> targets, List<String> prereqs) {
+        mCacheFile = getCacheFile(depFile);
+        mDepFileLength = depFile.length();
+        mDepFileLastModified = depFile.lastModified();
+        mTargets = targets;
+        mPrereqs = prereqs;
+        mModified = true;
+    }
+
+    private DependencyCache(File cacheFile, long depFileLength, long depFileLastModified,
+            List<String> targets, List<String> prereqs) {
+        mCacheFile = cacheFile;
+        mDepFileLength = depFileLength;
+        mDepFileLastModified = depFileLastModified;
+        mTargets = targets;
+        mPrereqs = prereqs;
+    }
+
+    /**
+     * Loads the cache of a dependency file.
+     * @param depFile the dependency file.
+     * @return the cache or null if there is no cache, or if the dependency file was modified
+     *         since it was created.
+     */
+    static DependencyCache load(File depFile) {
+        File cacheFile = getCacheFile(depFile);
+        if (cacheFile.isFile() == false) {
+            return null;
+        }
+
+        try {
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(cacheFile)));
+            try {
+                if (in.readInt() != VERSION ||
+                        in.readLong() != depFile.length() ||
+                        in.readLong() != depFile.lastModified()) {
+                    return null;
+                }
+
+                DependencyCache cache = new DependencyCache(cacheFile, depFile.length(),
+                        depFile.lastModified(), readPaths(in), readPaths(in));
+
+                cache.mOldestTarget = in.readLong();
+                int count = in.readInt();
+                for (int i = 0 ; i < count ; i++) {
+                    String path = in.readUTF();
+                    long size = in.readLong();
+                    long lastModified = in.readLong();
+                    byte[] digest = new byte[in.readUnsignedByte()];
+                    in.readFully(digest);
+                    cache.mRecords.put(path, new Record(size, lastModified, digest));
+                }
+
+                return cache;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            // the cache is invalid, the dependency file will be parsed again.
+            return null;
+        }
+    }
+
+    /**
+     * Saves the cache if it was modified.
+     */
+    void save() {
+        if (mModified == false) {
+            return;
+        }
+
+        try {
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(mCacheFile)));
+            try {
+                out.writeInt(VERSION);
+                out.writeLong(mDepFileLength);
+                out.writeLong(mDepFileLastModified);
+                writePaths(out, mTargets);
+                writePaths(out, mPrereqs);
+
+                out.writeLong(mOldestTarget);
+                out.writeInt(mRecords.size());
+                for (Map.Entry<String, Record> entry : mRecords.entrySet()) {
+                    Record record = entry.getValue();
+                    out.writeUTF(entry.getKey());
+                    out.writeLong(record.mSize);
+                    out.writeLong(record.mLastModified);
+                    out.writeByte(record.mDigest.length);
+                    out.write(record.mDigest);
+                }
+            } finally {
+                out.close();
+            }
+            mModified = false;
+        } catch (IOException e) {
+            // the cache is only an optimization. Remove it so that it is not half written.
+            mCacheFile.delete();
+        }
+    }
+
+    /**
+     * Deletes the cache of a dependency file, if it exists.
+     * @param depFile the dependency file.
+     */
+    static void delete(File depFile) {
+        File cacheFile = getCacheFile(depFile);
+        if (cacheFile.isFile()) {
+            cacheFile.delete();
+        }
+    }
+
+    List<String> getTargets() {
+        return mTargets;
+    }
+
+    List<String> getPrereqs() {
+        return mPrereqs;
+    }
+
+    /**
+     * Sets the timestamp of the oldest target. If the targets were generated again since the
+     * digests were recorded, the digests are discarded.
+     */
+    void setOldestTarget(long oldestTarget) {
+        if (oldestTarget != mOldestTarget) {
+            mOldestTarget = oldestTarget;
+            mRecords.clear();
+            mModified = true;
+        }
+    }
+
+    /**
+     * Returns whether the content of a file changed since the targets were generated.
+     * <p/>{@link #setOldestTarget(long)} must have been called first.
+     * @param file the file to check.
+     * @param oldestTarget the timestamp of the oldest target.
+     * @return true if the file was not modified before the oldest target, and its content is
+     *         different from the one it had when the targets were generated, or is unknown.
+     */
+    boolean isModified(File file, long oldestTarget) {
+        String path = file.getAbsolutePath();
+        long size = file.length();
+        long lastModified = file.lastModified();
+
+        // nothing to compute if the file is the same as when its digest was recorded.
+        Record record = mRecords.get(path);
+        if (record != null && record.mSize == size && record.mLastModified == lastModified) {
+            return false;
+        }
+
+        // a file with the same timestamp as the oldest target may have been modified after it
+        // was generated, within the precision of the timestamps. Its content is unknown.
+        if (lastModified < oldestTarget) {
+            // the file was used to generate the targets, record its content.
+            byte[] digest = computeDigest(file);
+            if (digest != null) {
+                mRecords.put(path, new Record(size, lastModified, digest));
+                mModified = true;
+            }
+            return false;
+        }
+
+        if (record == null || record.mSize != size) {
+            return true;
+        }
+
+        // the file was touched. Check if its content is still the one used for the targets.
+        byte[] digest = computeDigest(file);
+        if (digest == null || Arrays.equals(digest, record.mDigest) == false) {
+            return true;
+        }
+
+        record.mLastModified = lastModified;
+        mModified = true;
+        return false;
+    }
+
+    private byte[] computeDigest(File file) {
+        try {
+            if (mMessageDigest == null) {
+                mMessageDigest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+                mBuffer = new byte[8192];
+            }
+
+            InputStream in = new FileInputStream(file);
+            try {
+                int count;
+                while ((count = in.read(mBuffer)) != -1) {
+                    mMessageDigest.update(mBuffer, 0, count);
+                }
+            } finally {
+                in.close();
+            }
+            return mMessageDigest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        } catch (IOException e) {
+            mMessageDigest.reset();
+            return null;
+        }
+    }
+
+    private static File getCacheFile(File depFile) {
+        return new File(depFile.getPath() + ".cache"); //$NON-NLS-1$
+    }
+
+    private static List<String> readPaths(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<String> paths = new ArrayList<String>(count);
+        for (int i = 0 ; i < count ; i++) {
+            paths.add(in.readUTF());
+        }
+        return paths;
+    }
+
+    private static void writePaths(DataOutputStream out, List<String> paths)
+            throws IOException {
+        out.writeInt(paths.size());
+        for (String path : paths) {
+            out.writeUTF(path);
+        }
+    }
+}
@@ -23,6 +23,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
@@ -48,10 +49,27 @@ public class DependencyGraph {
     private boolean mMissingDepFile = false;
     private long mDepFileLastModified;
     private final List<InputPath> mNewInputs;
+    /** The binary cache of the dependency file, if content digests are used. */
+    private DependencyCache mCache;
 
     public DependencyGraph(String dependencyFilePath, List<InputPath> newInputPaths) {
+        this(dependencyFilePath, newInputPaths, false /*contentDigests*/);
+    }
+
+    /**
+     * Creates a dependency graph.
+     *
+     * @param dependencyFilePath the dependency file
+     * @param newInputPaths the new input paths, or null to only check the prerequisites listed
+     *         in the dependency file.
+     * @param contentDigests whether to keep a binary cache of the dependency file next to it,
+     *         with the content digests of the prerequisites. Prerequisites that are more recent
+     *         than the targets are then only considered as modified if their content changed.
+     */
+    public DependencyGraph(String dependencyFilePath, List<InputPath> newInputPaths,
+            boolean contentDigests) {
         mNewInputs = newInputPaths;
-        parseDependencyFile(dependencyFilePath);
+        parseDependencyFile(dependencyFilePath, contentDigests);
     }
 
     /**
@@ -69,6 +87,16 @@ public class DependencyGraph {
             return true;
         }
 
+        try {
+            return checkDependencies(printStatus);
+        } finally {
+            if (mCache != null) {
+                mCache.save();
+            }
+        }
+    }
+
+    private boolean checkDependencies(boolean printStatus) {
         // check for missing output first
         if (missingTargetFile()) {
             if (printStatus) {
@@ -79,6 +107,9 @@ public class DependencyGraph {
 
         // get the time stamp of the oldest target.
         long oldestTarget = getOutputLastModified();
+        if (mCache != null) {
+            mCache.setOldestTarget(oldestTarget);
+        }
 
         // first look through the input folders and look for new files or modified files.
         DependencyStatus status = checkInputs(oldestTarget);
@@ -132,8 +163,9 @@ public class DependencyGraph {
      * Parses the given dependency file and stores the file paths
      *
      * @param dependencyFilePath the dependency file
+     * @param contentDigests whether to use the binary cache of the dependency file
      */
-    private void parseDependencyFile(String dependencyFilePath) {
+    private void parseDependencyFile(String dependencyFilePath, boolean contentDigests) {
         // first check if the dependency file is here.
         File depFile = new File(dependencyFilePath);
         if (depFile.isFile() == false) {
@@ -144,6 +176,15 @@ public class DependencyGraph {
         // get the modification time of the dep file as we may need it later
         mDepFileLastModified = depFile.lastModified();
 
+        // no need to parse the dependency file if it did not change since it was cached.
+        if (contentDigests) {
+            mCache = DependencyCache.load(depFile);
+            if (mCache != null) {
+                setFiles(mCache.getTargets(), mCache.getPrereqs());
+                return;
+            }
+        }
+
         // Read in our dependency file
         String content = readFile(dependencyFilePath);
         if (content == null) {
@@ -181,25 +222,49 @@ public class DependencyGraph {
             prereqs = files[1].trim().split(" ");
         }
 
-        mTargets = new HashSet<File>(targets.length);
+        List<String> targetList = new ArrayList<String>(targets.length);
         for (String path : targets) {
             if (path.length() > 0) {
-                mTargets.add(new File(path));
+                targetList.add(path);
             }
         }
 
-        mPrereqs = new HashSet<File>(prereqs.length);
+        List<String> prereqList = new ArrayList<String>(prereqs.length);
         for (String path : prereqs) {
             if (path.length() > 0) {
-                if (DEBUG) {
-                    System.out.println("PREREQ: " + path);
-                }
-                File f = new File(path);
-                if (mFirstPrereq == null) {
-                    mFirstPrereq = f;
-                }
-                mPrereqs.add(f);
+                prereqList.add(path);
+            }
+        }
+
+        setFiles(targetList, prereqList);
+
+        if (contentDigests) {
+            mCache = new DependencyCache(depFile, targetList, prereqList);
+        }
+    }
+
+    /**
+     * Stores the file paths of the dependency file.
+     *
+     * @param targets the paths of the target files.
+     * @param prereqs the paths of the prerequisite files, starting with the first one.
+     */
+    private void setFiles(List<String> targets, List<String> prereqs) {
+        mTargets = new HashSet<File>(targets.size());
+        for (String path : targets) {
+            mTargets.add(new File(path));
+        }
+
+        mPrereqs = new HashSet<File>(prereqs.size());
+        for (String path : prereqs) {
+            if (DEBUG) {
+                System.out.println("PREREQ: " + path);
+            }
+            File f = new File(path);
+            if (mFirstPrereq == null) {
+                mFirstPrereq = f;
             }
+            mPrereqs.add(f);
         }
     }
 
@@ -304,7 +369,7 @@ public class DependencyGraph {
             // check the time stamp on this file if it's a file we care about based what the
             // input folder decides.
             if (inputFolder.checksForModification(file)) {
-                if (file.lastModified() > oldestTarget) {
+                if (isModified(file, oldestTarget)) {
                     if (DEBUG) {
                         System.out.println("UPDATED FILE: " + file.getAbsolutePath());
                     }
@@ -350,7 +415,7 @@ public class DependencyGraph {
                             // ok file is inside a directory type input folder.
                             // check if we need to check this type of file, and if yes, check it.
                             if (input.checksForModification(prereq)) {
-                                if (prereq.lastModified() > oldestTarget) {
+                                if (isModified(prereq, oldestTarget)) {
                                     if (DEBUG) {
                                         System.out.println(
                                                 "UPDATED FILE: " + prereq.getAbsolutePath());
@@ -363,7 +428,7 @@ public class DependencyGraph {
                         // this is a file input path, we must check if the match is exact.
                         if (prereq.equals(inputFile)) {
                             if (input.checksForModification(prereq)) {
-                                if (prereq.lastModified() > oldestTarget) {
+                                if (isModified(prereq, oldestTarget)) {
                                     if (DEBUG) {
                                         System.out.println(
                                                 "UPDATED FILE: " + prereq.getAbsolutePath());
@@ -376,7 +441,7 @@ public class DependencyGraph {
                 }
             } else {
                 // no input? we consider all files.
-                if (prereq.lastModified() > oldestTarget) {
+                if (isModified(prereq, oldestTarget)) {
                     if (DEBUG) {
                         System.out.println("UPDATED FILE: " + prereq.getAbsolutePath());
                     }
@@ -389,6 +454,21 @@ public class DependencyGraph {
         return DependencyStatus.NONE;
     }
 
+    /**
+     * Returns whether a file was modified since the oldest target was generated. This compares
+     * the time stamps of the files, and if content digests are used, the content of the file.
+     *
+     * @param file the file to check.
+     * @param oldestTarget the time stamp of the oldest output file to compare against.
+     */
+    private boolean isModified(File file, long oldestTarget) {
+        if (mCache != null) {
+            return mCache.isModified(file, oldestTarget);
+        }
+
+        return file.lastModified() > oldestTarget;
+    }
+
     /**
      * Check all the target files we know about to make sure they're still there
      * @return true if any of the target files are missing.
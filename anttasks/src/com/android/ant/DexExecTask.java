@@ -16,6 +16,8 @@
 
 package com.android.ant;
 
+import com.android.sdklib.build.JarListSanitizer.Sha1Exception;
+
 import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.taskdefs.ExecTask;
 import org.apache.tools.ant.types.FileSet;
@@ -24,6 +26,7 @@ import org.apache.tools.ant.types.resources.FileResource;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 
@@ -36,6 +39,7 @@ public class DexExecTask extends SingleDependencyTask {
     private String mOutput;
     private boolean mVerbose = false;
     private boolean mNoLocals = false;
+    private File mDexedLibs;
     private List<Path> mPathInputs;
     private List<FileSet> mFileSetInputs;
 
@@ -72,6 +76,18 @@ public class DexExecTask extends SingleDependencyTask {
         mNoLocals = nolocals;
     }
 
+    /**
+     * Sets the value of the "dexedlibs" attribute.
+     * <p/>If set, the library jar files are each converted once into a dexed jar file in this
+     * folder, named after the sha1 of the library and the dx options, and the dexed libraries
+     * are merged with the compiled code of the project instead of being converted on every
+     * build.
+     * @param dexedLibs the value.
+     */
+    public void setDexedLibs(Path dexedLibs) {
+        mDexedLibs = new File(TaskHelper.checkSinglePath("dexedlibs", dexedLibs));
+    }
+
     /**
      * Returns an object representing a nested <var>path</var> element.
      */
@@ -138,9 +154,95 @@ public class DexExecTask extends SingleDependencyTask {
             return;
         }
 
+        // the dexed libraries replace the libraries in the final dx input.
+        List<File> dxInputs = paths;
+        if (mDexedLibs != null) {
+            dxInputs = preDexLibraries(paths);
+        }
+
         System.out.println(String.format(
                 "Converting compiled files and external libraries into %1$s...", mOutput));
 
+        runDx(dxInputs, mOutput, mVerbose /*showInputs*/);
+
+        // generate the dependency file.
+        generateDependencyFile(depFile, inputPaths, mOutput);
+    }
+
+    /**
+     * Converts the library jar files of the input into dexed jar files, unless they were
+     * already converted.
+     * @param inputs the inputs of dx.
+     * @return the inputs where each library is replaced by its dexed version.
+     */
+    private List<File> preDexLibraries(List<File> inputs) {
+        if (inputs.size() == 1) {
+            // only one input, there is nothing to merge. This is the case of the output of
+            // proguard which already contains all the libraries.
+            return inputs;
+        }
+
+        if (mDexedLibs.isDirectory() == false && mDexedLibs.mkdirs() == false) {
+            throw new BuildException("Failed to create " + mDexedLibs.getAbsolutePath());
+        }
+
+        DexedLibCache cache = new DexedLibCache(mDexedLibs, mNoLocals);
+        List<File> results = new ArrayList<File>(inputs.size());
+        for (File input : inputs) {
+            if (input.isFile() == false) {
+                // the compiled classes of the project, always converted.
+                results.add(input);
+                continue;
+            }
+
+            File dexedLib;
+            try {
+                dexedLib = cache.getDexedLib(input);
+            } catch (Sha1Exception e) {
+                throw new BuildException(
+                        "Failed to compute sha1 for " + e.getJarFile().getAbsolutePath(), e);
+            }
+
+            String fileName = dexedLib.getName();
+            if (dexedLib.isFile() == false) {
+                System.out.println(String.format("Pre-Dexing %1$s -> %2$s",
+                        input.getAbsolutePath(), fileName));
+                // dx picks the output format from the extension, keep it for the temp file.
+                File tmpFile = new File(mDexedLibs, "tmp-" + fileName); //$NON-NLS-1$
+                tmpFile.delete();
+                runDx(Collections.singletonList(input), tmpFile.getAbsolutePath(),
+                        false /*showInputs*/);
+
+                // only keep the dexed library once complete, so that a failed or
+                // interrupted conversion is not used by the next build.
+                if (tmpFile.renameTo(dexedLib) == false) {
+                    throw new BuildException("Failed to create " + dexedLib.getAbsolutePath());
+                }
+                cache.setConverted(input);
+            } else if (mVerbose) {
+                System.out.println(String.format("Using Pre-Dexed %1$s <- %2$s",
+                        fileName, input.getAbsolutePath()));
+            }
+
+            results.add(dexedLib);
+        }
+
+        for (File file : cache.deleteStaleLibs()) {
+            if (mVerbose) {
+                System.out.println("Deleted stale Pre-Dexed " + file.getName());
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * Runs dx.
+     * @param inputs the files to convert.
+     * @param output the output file.
+     * @param showInputs whether to display the inputs.
+     */
+    private void runDx(List<File> inputs, String output, boolean showInputs) {
         ExecTask task = new ExecTask();
         task.setProject(getProject());
         task.setOwningTarget(getOwningTarget());
@@ -159,11 +261,11 @@ public class DexExecTask extends SingleDependencyTask {
         }
 
         task.createArg().setValue("--output");
-        task.createArg().setValue(mOutput);
+        task.createArg().setValue(output);
 
-        for (File f : paths) {
+        for (File f : inputs) {
             String absPath = f.getAbsolutePath();
-            if (mVerbose) {
+            if (showInputs) {
                 System.out.println("Input: " + absPath);
             }
             task.createArg().setValue(absPath);
@@ -171,9 +273,6 @@ public class DexExecTask extends SingleDependencyTask {
 
         // execute it.
         task.execute();
-
-        // generate the dependency file.
-        generateDependencyFile(depFile, inputPaths, mOutput);
     }
 
     @Override
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ant;
+
+import com.android.sdklib.build.JarListSanitizer;
+import com.android.sdklib.build.JarListSanitizer.Sha1Exception;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * The folder holding the dexed versions of the library jar files, converted once by
+ * {@link DexExecTask} and reused by the later builds.
+ * <p/>A dexed library is named after the name of the library, its sha1 and the dx options
+ * changing the output, so that a modified library, or a library converted for a debug build
+ * and used by a release build, is converted again.
+ */
+final class DexedLibCache {
+
+    private final File mFolder;
+    private final String mOptionsSuffix;
+    /** The names of the libraries converted again. */
+    private final Set<String> mConvertedNames = new HashSet<String>();
+    /** The file names of the dexed libraries used by the build. */
+    private final Set<String> mUsedFileNames = new HashSet<String>();
+
+    /**
+     * Creates the cache of a folder.
+     * @param folder the folder holding the dexed libraries.
+     * @param noLocals whether the libraries are converted with the --no-locals option.
+     */
+    DexedLibCache(File folder, boolean noLocals) {
+        mFolder = folder;
+        mOptionsSuffix = noLocals ? "-nolocals" : ""; //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    /**
+     * Returns the dexed version of a library, which exists if the library was already
+     * converted with the same options, and records that the build uses it.
+     * @param library the library jar file.
+     * @throws Sha1Exception if the sha1 of the library cannot be computed.
+     */
+    File getDexedLib(File library) throws Sha1Exception {
+        String fileName = getLibraryName(library) + "-" //$NON-NLS-1$
+                + JarListSanitizer.getSha1(library) + mOptionsSuffix + ".jar"; //$NON-NLS-1$
+        mUsedFileNames.add(fileName);
+        return new File(mFolder, fileName);
+    }
+
+    /**
+     * Records that a library was converted again, so that the dexed versions of its previous
+     * contents are deleted by {@link #deleteStaleLibs()}.
+     * @param library the library jar file.
+     */
+    void setConverted(File library) {
+        mConvertedNames.add(getLibraryName(library));
+    }
+
+    /**
+     * Deletes the dexed versions of previous contents of the libraries converted again, when
+     * they were converted with the same options and are not used by the build. Libraries
+     * with the same name but a different content, used by the same build, are kept.
+     * @return the deleted files.
+     */
+    List<File> deleteStaleLibs() {
+        List<File> deleted = new ArrayList<File>();
+        File[] files = mFolder.listFiles();
+        if (files == null || mConvertedNames.isEmpty()) {
+            return deleted;
+        }
+
+        for (String name : mConvertedNames) {
+            Pattern pattern = Pattern.compile(Pattern.quote(name) +
+                    "-[0-9a-f]{40}" + Pattern.quote(mOptionsSuffix) + //$NON-NLS-1$
+                    "\\.jar"); //$NON-NLS-1$
+            for (File file : files) {
+                if (pattern.matcher(file.getName()).matches() &&
+                        mUsedFileNames.contains(file.getName()) == false &&
+                        file.delete()) {
+                    deleted.add(file);
+                }
+            }
+        }
+
+        return deleted;
+    }
+
+    /** Returns the name of a library, without its extension. */
+    private static String getLibraryName(File library) {
+        String name = library.getName();
+        if (name.toLowerCase(Locale.US).endsWith(".jar")) { //$NON-NLS-1$
+            name = name.substring(0, name.length() - 4);
+        }
+        return name;
+    }
+}
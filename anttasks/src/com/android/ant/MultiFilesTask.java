@@ -34,6 +34,8 @@ import java.util.Set;
 
 class MultiFilesTask extends BuildTypedTask {
 
+    private boolean mContentDigests = false;
+
     static enum DisplayType {
         FOUND, COMPILING, REMOVE_OUTPUT, REMOVE_DEP;
     }
@@ -45,6 +47,14 @@ class MultiFilesTask extends BuildTypedTask {
         void displayMessage(DisplayType type, int count);
     }
 
+    /**
+     * Sets whether the content digests of the source files and their dependencies are used to
+     * check if they changed.
+     */
+    public void setContentDigests(boolean contentDigests) {
+        mContentDigests = contentDigests;
+    }
+
     protected void processFiles(SourceProcessor processor, List<Path> paths, String genFolder) {
 
         Project taskProject = getProject();
@@ -77,7 +87,8 @@ class MultiFilesTask extends BuildTypedTask {
         ArrayList<File> toRemove = new ArrayList<File>();
         ArrayList<String> depsToRemove = new ArrayList<String>();
         for (String depFile : depFiles.keySet()) {
-            DependencyGraph graph = new DependencyGraph(depFile, null /*watchPaths*/);
+            DependencyGraph graph = new DependencyGraph(depFile, null /*watchPaths*/,
+                    mContentDigests);
 
             // get the source file. it's the first item in the pre-reqs
             File sourceFile = graph.getFirstPrereq();
@@ -141,6 +152,9 @@ class MultiFilesTask extends BuildTypedTask {
                 if (new File(path).delete() == false) {
                     System.err.println("Failed to remove " + path);
                 }
+
+                // and its cache, if any.
+                DependencyCache.delete(new File(path));
             }
         }
     }
@@ -22,6 +22,7 @@ import com.android.sdklib.internal.build.SignedJarBuilder.IZipEntryFilter;
 import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.types.Path;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
@@ -40,6 +41,7 @@ public class SignApkTask extends SingleInputOutputTask {
     private String mStorepass;
     private String mAlias;
     private String mKeypass;
+    private int mThreadCount = 1;
 
     public void setKeystore(Path keystore) {
         mKeystore = TaskHelper.checkSinglePath("keystore", keystore);
@@ -57,6 +59,15 @@ public class SignApkTask extends SingleInputOutputTask {
         mKeypass = keypass;
     }
 
+    /**
+     * Sets the value of the "threads" attribute. Default is 1.
+     * If greater than 1, the digests of the entries are computed by that many threads.
+     * @param threadCount the value of the attribute.
+     */
+    public void setThreads(int threadCount) {
+        mThreadCount = threadCount;
+    }
+
     @Override
     protected void createOutput() throws BuildException {
         PrivateKeyEntry key = loadKeyEntry(
@@ -72,8 +83,9 @@ public class SignApkTask extends SingleInputOutputTask {
             mBuilder = new SignedJarBuilder(
                     new FileOutputStream(getOutput(), false /* append */),
                     key.getPrivateKey(), (X509Certificate) key.getCertificate());
+            mBuilder.setParallelism(mThreadCount);
 
-            mBuilder.writeZip(new FileInputStream(getInput()), new NullZipFilter());
+            mBuilder.writeZip(new File(getInput()), new NullZipFilter());
 
             mBuilder.close();
         } catch (FileNotFoundException e) {
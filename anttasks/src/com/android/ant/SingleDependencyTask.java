@@ -31,9 +31,19 @@ import java.util.Set;
 public abstract class SingleDependencyTask extends BuildTypedTask {
 
     private DependencyGraph mDependencies;
+    private boolean mContentDigests = false;
 
     protected abstract String getExecTaskName();
 
+    /**
+     * Sets whether the content digests of the prerequisites are used to check if they changed,
+     * so that a prerequisite whose timestamp changed but not its content does not trigger a new
+     * run of the task.
+     */
+    public void setContentDigests(boolean contentDigests) {
+        mContentDigests = contentDigests;
+    }
+
     protected interface InputPathFactory {
         InputPath createPath(File file, Set<String> extensionsToCheck);
     }
@@ -84,7 +94,7 @@ public abstract class SingleDependencyTask extends BuildTypedTask {
 
         File depFile = new File(dependencyFile);
         if (depFile.exists()) {
-            mDependencies = new DependencyGraph(dependencyFile, inputPaths);
+            mDependencies = new DependencyGraph(dependencyFile, inputPaths, mContentDigests);
             return true;
         } else {
             return false;
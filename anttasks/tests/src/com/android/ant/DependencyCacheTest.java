@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ant;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import junit.framework.TestCase;
+
+public class DependencyCacheTest extends TestCase {
+
+    /** The timestamp of the oldest target. */
+    private static final long TARGET_TIME = 1300000000000L;
+
+    private File mTmpDir;
+    private File mDepFile;
+    private File mPrereq;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mTmpDir = File.createTempFile("DependencyCacheTest", null);
+        mTmpDir.delete();
+        assertTrue(mTmpDir.mkdirs());
+
+        mDepFile = new File(mTmpDir, "output.d");
+        writeFile(mDepFile, "output : input\n");
+        mPrereq = new File(mTmpDir, "input");
+        writeFile(mPrereq, "content");
+        setLastModified(mPrereq, TARGET_TIME - 10000);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (File file : mTmpDir.listFiles()) {
+            file.delete();
+        }
+        mTmpDir.delete();
+        super.tearDown();
+    }
+
+    private static void writeFile(File file, String content) throws IOException {
+        FileOutputStream fos = new FileOutputStream(file);
+        try {
+            fos.write(content.getBytes("UTF-8"));
+        } finally {
+            fos.close();
+        }
+    }
+
+    private static void setLastModified(File file, long time) {
+        assertTrue(file.setLastModified(time));
+        assertEquals(time, file.lastModified());
+    }
+
+    private DependencyCache createCache() {
+        DependencyCache cache = new DependencyCache(mDepFile,
+                Collections.singletonList(new File(mTmpDir, "output").getAbsolutePath()),
+                Collections.singletonList(mPrereq.getAbsolutePath()));
+        cache.setOldestTarget(TARGET_TIME);
+        return cache;
+    }
+
+    public void testIsModified_touched() throws Exception {
+        DependencyCache cache = createCache();
+        assertFalse(cache.isModified(mPrereq, TARGET_TIME));
+
+        // the file is touched, but its content is the one the targets were generated from.
+        setLastModified(mPrereq, TARGET_TIME + 5000);
+        assertFalse(cache.isModified(mPrereq, TARGET_TIME));
+        assertFalse(cache.isModified(mPrereq, TARGET_TIME));
+    }
+
+    public void testIsModified_changed() throws Exception {
+        DependencyCache cache = createCache();
+        assertFalse(cache.isModified(mPrereq, TARGET_TIME));
+
+        // same size, different content.
+        writeFile(mPrereq, "CONTENT");
+        setLastModified(mPrereq, TARGET_TIME + 5000);
+        assertTrue(cache.isModified(mPrereq, TARGET_TIME));
+
+        // different size.
+        writeFile(mPrereq, "new content");
+        setLastModified(mPrereq, TARGET_TIME + 6000);
+        assertTrue(cache.isModified(mPrereq, TARGET_TIME));
+    }
+
+    public void testIsModified_unknown() throws Exception {
+        // a file modified after the targets, whose previous content was not recorded.
+        DependencyCache cache = createCache();
+        setLastModified(mPrereq, TARGET_TIME + 5000);
+        assertTrue(cache.isModified(mPrereq, TARGET_TIME));
+    }
+
+    public void testIsModified_sameTimestamp() throws Exception {
+        // the file may have been edited after the targets, in the same second. Its content is
+        // not recorded as the one the targets were generated from.
+        DependencyCache cache = createCache();
+        writeFile(mPrereq, "CONTENT");
+        setLastModified(mPrereq, TARGET_TIME);
+        assertTrue(cache.isModified(mPrereq, TARGET_TIME));
+
+        setLastModified(mPrereq, TARGET_TIME + 5000);
+        assertTrue(cache.isModified(mPrereq, TARGET_TIME));
+    }
+
+    public void testSetOldestTarget() throws Exception {
+        DependencyCache cache = createCache();
+        assertFalse(cache.isModified(mPrereq, TARGET_TIME));
+
+        // the targets are generated again: the recorded content is not the one they were
+        // generated from anymore.
+        long newTargetTime = TARGET_TIME + 20000;
+        cache.setOldestTarget(newTargetTime);
+        setLastModified(mPrereq, newTargetTime + 5000);
+        assertTrue(cache.isModified(mPrereq, newTargetTime));
+    }
+
+    public void testSaveAndLoad() throws Exception {
+        DependencyCache cache = createCache();
+        assertFalse(cache.isModified(mPrereq, TARGET_TIME));
+        cache.save();
+
+        DependencyCache loaded = DependencyCache.load(mDepFile);
+        assertNotNull(loaded);
+        assertEquals(Arrays.asList(new File(mTmpDir, "output").getAbsolutePath()),
+                loaded.getTargets());
+        assertEquals(Arrays.asList(mPrereq.getAbsolutePath()), loaded.getPrereqs());
+
+        // the oldest target did not change, the recorded content is kept.
+        loaded.setOldestTarget(TARGET_TIME);
+        setLastModified(mPrereq, TARGET_TIME + 5000);
+        assertFalse(loaded.isModified(mPrereq, TARGET_TIME));
+
+        writeFile(mPrereq, "CONTENT");
+        setLastModified(mPrereq, TARGET_TIME + 6000);
+        assertTrue(loaded.isModified(mPrereq, TARGET_TIME));
+    }
+
+    public void testLoad_modifiedDepFile() throws Exception {
+        createCache().save();
+        assertNotNull(DependencyCache.load(mDepFile));
+
+        writeFile(mDepFile, "output : input other\n");
+        assertNull(DependencyCache.load(mDepFile));
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ant;
+
+import com.android.sdklib.build.JarListSanitizer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class DexedLibCacheTest extends TestCase {
+
+    private File mTmpDir;
+    private File mDexedLibs;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mTmpDir = File.createTempFile("DexedLibCacheTest", null);
+        mTmpDir.delete();
+        mDexedLibs = new File(mTmpDir, "dexedLibs");
+        assertTrue(mDexedLibs.mkdirs());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAll(mTmpDir);
+        super.tearDown();
+    }
+
+    private static void deleteAll(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                deleteAll(child);
+            }
+        }
+        file.delete();
+    }
+
+    private File createLibrary(String folder, String name, String content) throws IOException {
+        File dir = new File(mTmpDir, folder);
+        dir.mkdirs();
+        File file = new File(dir, name);
+        FileOutputStream fos = new FileOutputStream(file);
+        try {
+            fos.write(content.getBytes("UTF-8"));
+        } finally {
+            fos.close();
+        }
+        return file;
+    }
+
+    /** Creates the dexed version of a library, as if it was converted. */
+    private static File convert(DexedLibCache cache, File library) throws Exception {
+        File dexedLib = cache.getDexedLib(library);
+        assertTrue(dexedLib.createNewFile());
+        cache.setConverted(library);
+        return dexedLib;
+    }
+
+    private List<String> listDexedLibs() {
+        List<String> names = Arrays.asList(mDexedLibs.list());
+        Collections.sort(names);
+        return names;
+    }
+
+    public void testGetDexedLib() throws Exception {
+        File library = createLibrary("libs", "lib.jar", "content");
+        String sha1 = JarListSanitizer.getSha1(library);
+
+        File dexedLib = new DexedLibCache(mDexedLibs, false /*noLocals*/).getDexedLib(library);
+        assertEquals(new File(mDexedLibs, "lib-" + sha1 + ".jar"), dexedLib);
+
+        dexedLib = new DexedLibCache(mDexedLibs, true /*noLocals*/).getDexedLib(library);
+        assertEquals(new File(mDexedLibs, "lib-" + sha1 + "-nolocals.jar"), dexedLib);
+    }
+
+    public void testGetDexedLib_unchanged() throws Exception {
+        File library = createLibrary("libs", "lib.jar", "content");
+        File dexedLib = convert(new DexedLibCache(mDexedLibs, false /*noLocals*/), library);
+
+        // the next build finds the converted library.
+        File reused = new DexedLibCache(mDexedLibs, false /*noLocals*/).getDexedLib(library);
+        assertEquals(dexedLib, reused);
+        assertTrue(reused.isFile());
+    }
+
+    public void testGetDexedLib_changedOptions() throws Exception {
+        File library = createLibrary("libs", "lib.jar", "content");
+        convert(new DexedLibCache(mDexedLibs, false /*noLocals*/), library);
+
+        // a release build does not use the library converted with its locals.
+        File release = new DexedLibCache(mDexedLibs, true /*noLocals*/).getDexedLib(library);
+        assertFalse(release.isFile());
+    }
+
+    public void testGetDexedLib_changedLibrary() throws Exception {
+        File library = createLibrary("libs", "lib.jar", "content");
+        convert(new DexedLibCache(mDexedLibs, false /*noLocals*/), library);
+
+        library = createLibrary("libs", "lib.jar", "new content");
+        File dexedLib = new DexedLibCache(mDexedLibs, false /*noLocals*/).getDexedLib(library);
+        assertFalse(dexedLib.isFile());
+    }
+
+    public void testDeleteStaleLibs() throws Exception {
+        File library = createLibrary("libs", "lib.jar", "content");
+        File other = createLibrary("libs", "lib-extra.jar", "other");
+        File debug = convert(new DexedLibCache(mDexedLibs, false /*noLocals*/), library);
+        File release = convert(new DexedLibCache(mDexedLibs, true /*noLocals*/), library);
+        File otherDebug = convert(new DexedLibCache(mDexedLibs, false /*noLocals*/), other);
+
+        // the library changes, and is converted again for a debug build.
+        library = createLibrary("libs", "lib.jar", "new content");
+        DexedLibCache cache = new DexedLibCache(mDexedLibs, false /*noLocals*/);
+        File newDebug = convert(cache, library);
+        assertTrue(cache.getDexedLib(other).isFile());
+
+        // only the previous debug version of the library is deleted.
+        assertEquals(Collections.singletonList(debug), cache.deleteStaleLibs());
+        List<String> expected = Arrays.asList(
+                otherDebug.getName(), release.getName(), newDebug.getName());
+        Collections.sort(expected);
+        assertEquals(expected, listDexedLibs());
+    }
+
+    public void testDeleteStaleLibs_nothingConverted() throws Exception {
+        File library = createLibrary("libs", "lib.jar", "content");
+        File dexedLib = convert(new DexedLibCache(mDexedLibs, false /*noLocals*/), library);
+        createLibrary("libs", "lib.jar", "new content");
+
+        // the library was not converted again by this build, nothing is deleted.
+        DexedLibCache cache = new DexedLibCache(mDexedLibs, false /*noLocals*/);
+        assertTrue(cache.deleteStaleLibs().isEmpty());
+        assertTrue(dexedLib.isFile());
+    }
+
+    public void testDeleteStaleLibs_sameName() throws Exception {
+        // two library projects both produce a classes.jar file.
+        File first = createLibrary("lib1", "classes.jar", "first");
+        File second = createLibrary("lib2", "classes.jar", "second");
+
+        DexedLibCache cache = new DexedLibCache(mDexedLibs, false /*noLocals*/);
+        File firstDexed = convert(cache, first);
+        File secondDexed = convert(cache, second);
+
+        // both are used by the build, neither is deleted.
+        assertTrue(cache.deleteStaleLibs().isEmpty());
+        assertTrue(firstDexed.isFile());
+        assertTrue(secondDexed.isFile());
+    }
+}
@@ -23,6 +23,7 @@ import com.google.common.collect.Maps;
 import com.android.ddmlib.AdbCommandRejectedException;
 import com.android.ddmlib.IDevice;
 import com.android.ddmlib.InstallException;
+import com.android.ddmlib.RawImage;
 import com.android.ddmlib.ShellCommandUnresponsiveException;
 import com.android.ddmlib.TimeoutException;
 import com.android.chimpchat.ChimpManager;
@@ -30,6 +31,7 @@ import com.android.chimpchat.adb.LinearInterpolator.Point;
 import com.android.chimpchat.core.ChimpRect;
 import com.android.chimpchat.core.IChimpImage;
 import com.android.chimpchat.core.IChimpDevice;
+import com.android.chimpchat.core.IChimpRecording;
 import com.android.chimpchat.core.IChimpView;
 import com.android.chimpchat.core.IMultiSelector;
 import com.android.chimpchat.core.ISelector;
@@ -37,6 +39,7 @@ import com.android.chimpchat.core.PhysicalButton;
 import com.android.chimpchat.core.TouchPressType;
 import com.android.chimpchat.hierarchyviewer.HierarchyViewer;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.Socket;
@@ -46,6 +49,7 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.logging.Level;
@@ -220,6 +224,22 @@ public class AdbChimpDevice implements IChimpDevice {
         }
     }
 
+    @Override
+    public IChimpRecording startRecording(String path, int framesPerSecond) {
+        File directory = new File(path);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            LOG.log(Level.SEVERE, "Unable to create recording directory: " + path);
+            return null;
+        }
+
+        return new AdbChimpRecording(new Callable<RawImage>() {
+            @Override
+            public RawImage call() throws Exception {
+                return device.getScreenshot();
+            }
+        }, directory, framesPerSecond);
+    }
+
     @Override
     public String getSystemProperty(String key) {
         return device.getProperty(key);
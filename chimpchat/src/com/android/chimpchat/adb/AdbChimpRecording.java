@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.chimpchat.adb;
+
+import com.android.chimpchat.adb.image.ImageUtils;
+import com.android.chimpchat.core.IChimpRecording;
+import com.android.ddmlib.RawImage;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.imageio.ImageIO;
+
+/**
+ * ADB implementation of the IChimpRecording interface.
+ *
+ * Frames are captured on one thread and written on another, through a small queue. When the
+ * queue is full, new frames are dropped rather than delaying the capture. A frame identical
+ * to the previous one is only added to the index.
+ */
+public class AdbChimpRecording implements IChimpRecording {
+    private static final Logger LOG = Logger.getLogger(AdbChimpRecording.class.getName());
+
+    /** Number of captured frames waiting to be written before frames are dropped. */
+    private static final int QUEUE_SIZE = 3;
+
+    private static final String IMAGE_FILE_FORMAT = "frame%05d.png";
+
+    /** A captured frame. The image is null if the frame is the same as the previous one. */
+    private static class Frame {
+        final long timestamp;
+        final RawImage image;
+
+        Frame(long timestamp, RawImage image) {
+            this.timestamp = timestamp;
+            this.image = image;
+        }
+    }
+
+    /** Marks the end of the frames in the queue. */
+    private static final Frame END = new Frame(-1, null);
+
+    private final Callable<RawImage> source;
+    private final File directory;
+    private final long periodNanos;
+    private final BlockingQueue<Frame> queue = new ArrayBlockingQueue<Frame>(QUEUE_SIZE);
+    private final Thread captureThread;
+    private final Thread writerThread;
+
+    private volatile boolean stopped;
+    private volatile int frameCount;
+    private volatile int imageCount;
+    private volatile int droppedFrameCount;
+
+    /**
+     * Create and start a recording.
+     *
+     * @param source the source of the frames, returning null if a frame is not available
+     * @param directory the directory to write the recording into
+     * @param framesPerSecond the target number of frames per second
+     */
+    AdbChimpRecording(Callable<RawImage> source, File directory, int framesPerSecond) {
+        if (framesPerSecond <= 0) {
+            throw new IllegalArgumentException("framesPerSecond must be positive");
+        }
+        this.source = source;
+        this.directory = directory;
+        this.periodNanos = TimeUnit.SECONDS.toNanos(1) / framesPerSecond;
+
+        captureThread = new Thread("Screen recording capture") {
+            @Override
+            public void run() {
+                captureFrames();
+            }
+        };
+        writerThread = new Thread("Screen recording writer") {
+            @Override
+            public void run() {
+                writeFrames();
+            }
+        };
+        captureThread.setDaemon(true);
+        writerThread.setDaemon(true);
+        writerThread.start();
+        captureThread.start();
+    }
+
+    @Override
+    public void stop() {
+        stopped = true;
+        try {
+            captureThread.join();
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    @Override
+    public int getImageCount() {
+        return imageCount;
+    }
+
+    @Override
+    public int getDroppedFrameCount() {
+        return droppedFrameCount;
+    }
+
+    private void captureFrames() {
+        final long start = System.nanoTime();
+        long next = start;
+        RawImage previous = null;
+
+        try {
+            while (!stopped) {
+                long now = System.nanoTime();
+                if (now < next) {
+                    Thread.sleep(TimeUnit.NANOSECONDS.toMillis(next - now),
+                            (int) ((next - now) % 1000000));
+                    continue;
+                }
+                // if the capture falls behind, skip the frames that are already late.
+                next += periodNanos * (1 + (now - next) / periodNanos);
+
+                RawImage image;
+                try {
+                    image = source.call();
+                } catch (Exception e) {
+                    LOG.log(Level.SEVERE, "Unable to capture frame", e);
+                    continue;
+                }
+                if (image == null) {
+                    continue;
+                }
+
+                long timestamp = TimeUnit.NANOSECONDS.toMillis(now - start);
+                boolean same = isSameImage(previous, image);
+                if (queue.offer(new Frame(timestamp, same ? null : image))) {
+                    // frames are compared to the last queued one, so that a frame is never
+                    // deduplicated against a dropped frame.
+                    if (!same) {
+                        previous = image;
+                    }
+                } else {
+                    droppedFrameCount++;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                queue.put(END);
+            } catch (InterruptedException e) {
+                writerThread.interrupt();
+            }
+        }
+    }
+
+    private void writeFrames() {
+        Writer index = null;
+        BufferedImage buffer = null;
+        String imageName = null;
+        try {
+            index = new BufferedWriter(new FileWriter(new File(directory, INDEX_FILE)));
+            for (Frame frame = queue.take(); frame != END; frame = queue.take()) {
+                if (frame.image != null) {
+                    imageName = String.format(IMAGE_FILE_FORMAT, imageCount);
+                    buffer = ImageUtils.convertImage(frame.image, buffer);
+                    if (buffer == null) {
+                        throw new IOException("Unsupported frame format: " + frame.image.bpp
+                                + " bpp");
+                    }
+                    ImageIO.write(buffer, "png", new File(directory, imageName));
+                    imageCount++;
+                }
+                index.write(frame.timestamp + " " + imageName + "\n");
+                frameCount++;
+            }
+        } catch (IOException e) {
+            LOG.log(Level.SEVERE, "Unable to write recording", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // stop the capture, and unblock it if it is waiting for room in the queue.
+            stopped = true;
+            queue.clear();
+            if (index != null) {
+                try {
+                    index.close();
+                } catch (IOException e) {
+                    LOG.log(Level.SEVERE, "Unable to write recording index", e);
+                }
+            }
+        }
+    }
+
+    private static boolean isSameImage(RawImage previous, RawImage image) {
+        return previous != null && previous.width == image.width
+                && previous.height == image.height && previous.bpp == image.bpp
+                && previous.red_offset == image.red_offset
+                && previous.blue_offset == image.blue_offset
+                && previous.alpha_length == image.alpha_length
+                && Arrays.equals(previous.data, image.data);
+    }
+}
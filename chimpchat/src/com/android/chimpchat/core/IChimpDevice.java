@@ -53,6 +53,16 @@ public interface IChimpDevice {
      */
     IChimpImage takeSnapshot();
 
+    /**
+     * Start recording the screen into a directory, at a target rate. Frames are captured and
+     * written in the background; frames that cannot be written fast enough are dropped.
+     *
+     * @param path the directory to write the recording into, created if needed
+     * @param framesPerSecond the target number of frames per second
+     * @return the recording, or null if it could not be started
+     */
+    IChimpRecording startRecording(String path, int framesPerSecond);
+
     /**
      * Reboot the device.
      *
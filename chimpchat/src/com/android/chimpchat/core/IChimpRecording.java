@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.chimpchat.core;
+
+/**
+ * A recording of the screen of a device in progress, started by
+ * {@link IChimpDevice#startRecording(String, int)}.
+ *
+ * The recording is a directory holding one PNG image per distinct frame, and an index file
+ * with one line per recorded frame: the time of the frame in milliseconds since the start of
+ * the recording, and the name of its image.
+ */
+public interface IChimpRecording {
+    /** Name of the index file of a recording. */
+    String INDEX_FILE = "index.txt";
+
+    /**
+     * Stop capturing frames, and wait until all the captured frames are written.
+     */
+    void stop();
+
+    /**
+     * @return the number of frames in the index so far
+     */
+    int getFrameCount();
+
+    /**
+     * @return the number of distinct frames written so far
+     */
+    int getImageCount();
+
+    /**
+     * @return the number of frames dropped because they could not be written fast enough
+     */
+    int getDroppedFrameCount();
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.chimpchat.adb;
+
+import com.android.chimpchat.core.IChimpRecording;
+import com.android.ddmlib.RawImage;
+
+import junit.framework.TestCase;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit Tests for AdbChimpRecording.
+ */
+public class AdbChimpRecordingTest extends TestCase {
+    private File directory;
+
+    @Override
+    protected void setUp() throws Exception {
+        directory = File.createTempFile("recording", "");
+        directory.delete();
+        directory.mkdirs();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (File f : directory.listFiles()) {
+            f.delete();
+        }
+        directory.delete();
+    }
+
+    private static RawImage createImage(int width, int height) {
+        RawImage image = new RawImage();
+        image.version = 1;
+        image.bpp = 16;
+        image.width = width;
+        image.height = height;
+        image.size = width * height * 2;
+        image.red_offset = 11;
+        image.red_length = 5;
+        image.green_offset = 5;
+        image.green_length = 6;
+        image.blue_offset = 0;
+        image.blue_length = 5;
+        image.data = new byte[image.size];
+        return image;
+    }
+
+    /**
+     * A source of frames that changes every {@code repeat} captures, like a screen with an
+     * animation running at a lower rate than the recording.
+     */
+    private static class FrameSource implements Callable<RawImage> {
+        private final int width;
+        private final int height;
+        private final int repeat;
+        private final CountDownLatch captured;
+        private int count;
+        private RawImage current;
+
+        /**
+         * @param captures the number of captures after which {@link #awaitCaptures()} returns
+         */
+        FrameSource(int width, int height, int repeat, int captures) {
+            this.width = width;
+            this.height = height;
+            this.repeat = repeat;
+            this.captured = new CountDownLatch(captures);
+        }
+
+        /** Waits until the recording captured the given number of frames. */
+        void awaitCaptures() throws InterruptedException {
+            assertTrue(captured.await(10, TimeUnit.SECONDS));
+        }
+
+        @Override
+        public RawImage call() {
+            captured.countDown();
+            if (count++ % repeat == 0) {
+                // the device returns a new image for each capture.
+                current = createImage(width, height);
+                current.data[(count * 97) % current.size] = (byte) count;
+            }
+            RawImage image = createImage(width, height);
+            System.arraycopy(current.data, 0, image.data, 0, image.size);
+            return image;
+        }
+    }
+
+    private List<String> readIndex() throws IOException {
+        List<String> lines = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(
+                new FileReader(new File(directory, IChimpRecording.INDEX_FILE)));
+        try {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                lines.add(line);
+            }
+        } finally {
+            reader.close();
+        }
+        return lines;
+    }
+
+    public void testRecording() throws Exception {
+        FrameSource source = new FrameSource(64, 48, 3, 10);
+        AdbChimpRecording recording = new AdbChimpRecording(source, directory, 50);
+        source.awaitCaptures();
+        recording.stop();
+
+        List<String> index = readIndex();
+        assertEquals(recording.getFrameCount(), index.size());
+        assertTrue(recording.getFrameCount() > 3);
+        assertTrue(recording.getImageCount() < recording.getFrameCount());
+        assertEquals(recording.getImageCount() + 1, directory.listFiles().length);
+
+        long previous = -1;
+        for (String line : index) {
+            String[] parts = line.split(" ");
+            long timestamp = Long.parseLong(parts[0]);
+            assertTrue(timestamp > previous);
+            previous = timestamp;
+            assertTrue(new File(directory, parts[1]).isFile());
+        }
+    }
+
+    public void testDuplicateFrames() throws Exception {
+        FrameSource source = new FrameSource(64, 48, Integer.MAX_VALUE, 5);
+        AdbChimpRecording recording = new AdbChimpRecording(source, directory, 50);
+        source.awaitCaptures();
+        recording.stop();
+
+        assertTrue(recording.getFrameCount() > 1);
+        assertEquals(1, recording.getImageCount());
+        for (String line : readIndex()) {
+            assertTrue(line.endsWith(" frame00000.png"));
+        }
+    }
+
+    /**
+     * Test that every captured frame is either written or counted as dropped, when frames
+     * are captured faster than they can be written.
+     */
+    public void testDroppedFrames() throws Exception {
+        // a screen where every frame changes, captured as fast as possible.
+        FrameSource source = new FrameSource(480, 800, 1, 60);
+        AdbChimpRecording recording = new AdbChimpRecording(source, directory, 1000);
+        source.awaitCaptures();
+        recording.stop();
+
+        assertEquals(recording.getFrameCount(), readIndex().size());
+        assertEquals(source.count, recording.getFrameCount() + recording.getDroppedFrameCount());
+    }
+}
@@ -24,6 +24,7 @@ import com.android.ddmuilib.DdmUiPreferences;
 import com.android.ddmuilib.PortFieldEditor;
 import com.android.ddmuilib.logcat.LogCatMessageList;
 import com.android.ddmuilib.logcat.LogCatPanel;
+import com.android.ddmuilib.logcat.LogCatReceiver;
 import com.android.sdkstats.DdmsPreferenceStore;
 import com.android.sdkstats.SdkStatsPermissionDialog;
 
@@ -461,6 +462,18 @@ public final class PrefsDialog {
                         "Maximum number of logcat messages to buffer",
                         getFieldEditorParent());
                 addField(maxMessages);
+
+                BooleanFieldEditor archive = new BooleanFieldEditor(
+                        LogCatReceiver.ARCHIVE_ENABLED_PREFKEY,
+                        "Archive logcat messages on disk",
+                        getFieldEditorParent());
+                addField(archive);
+
+                DirectoryFieldEditor archiveDir = new DirectoryFieldEditor(
+                        LogCatReceiver.ARCHIVE_DIRECTORY_PREFKEY,
+                        "Archive directory (default: ~/.android/logcat):",
+                        getFieldEditorParent());
+                addField(archiveDir);
             }
         }
     }
@@ -19,18 +19,24 @@ package com.android.ddmlib;
 import com.android.ddmlib.log.LogReceiver;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.UnsupportedEncodingException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
 
 /**
  * Helper class to handle requests and connections to adb.
  * <p/>{@link DebugBridgeServer} is the public API to connection to adb, while {@link AdbHelper}
  * does the low level stuff.
- * <p/>This currently uses spin-wait non-blocking I/O. A Selector would be more efficient,
- * but seems like overkill for what we're doing here.
+ * <p/>This uses non-blocking I/O. When a channel has nothing to read (or cannot accept more
+ * data), the calling thread waits on a {@link Selector} rather than sleeping, so data is
+ * processed as soon as it arrives.
+ * <p/>Long running services (shell commands, log services) are read by the
+ * {@link AdbServiceMonitor} once they are set up, rather than by the calling thread.
  */
 final class AdbHelper {
 
@@ -39,6 +45,9 @@ final class AdbHelper {
 
     static final int WAIT_TIME = 5; // spin-wait sleep, in ms
 
+    /** max time between two checks for cancellation of a running service, in ms */
+    static final int SHELL_POLL_TIME = WAIT_TIME * 5;
+
     static final String DEFAULT_ENCODING = "ISO-8859-1"; //$NON-NLS-1$
 
     /** do not instantiate */
@@ -360,73 +369,62 @@ final class AdbHelper {
             String command, IDevice device, IShellOutputReceiver rcvr, int maxTimeToOutputResponse)
             throws TimeoutException, AdbCommandRejectedException, ShellCommandUnresponsiveException,
             IOException {
-        Log.v("ddms", "execute: running " + command);
-
-        SocketChannel adbChan = null;
         try {
-            adbChan = SocketChannel.open(adbSockAddr);
-            adbChan.configureBlocking(false);
-
-            // if the device is not -1, then we first tell adb we're looking to
-            // talk
-            // to a specific device
-            setDevice(adbChan, device);
-
-            byte[] request = formAdbRequest("shell:" + command); //$NON-NLS-1$
-            write(adbChan, request);
+            startRemoteCommand(adbSockAddr, command, device, rcvr, maxTimeToOutputResponse)
+                    .waitFor();
+        } finally {
+            Log.v("ddms", "execute: returning");
+        }
+    }
 
-            AdbResponse resp = readAdbResponse(adbChan, false /* readDiagString */);
-            if (resp.okay == false) {
-                Log.e("ddms", "ADB rejected shell command (" + command + "): " + resp.message);
-                throw new AdbCommandRejectedException(resp.message);
-            }
+    /**
+     * Starts a shell command on the device and returns right away. The output is read by the
+     * {@link AdbServiceMonitor} and handed to <var>rcvr</var> as it arrives.
+     *
+     * @param adbSockAddr the {@link InetSocketAddress} to adb.
+     * @param command the shell command to execute
+     * @param device the {@link IDevice} on which to execute the command.
+     * @param rcvr the {@link IShellOutputReceiver} that will receives the output of the shell
+     *            command. Can be null.
+     * @param maxTimeToOutputResponse max time between command output. If more time passes
+     *            between command output, the returned connection fails with a
+     *            {@link ShellCommandUnresponsiveException}. A value of 0 means to wait forever.
+     * @return the connection to the running command.
+     * @throws TimeoutException in case of timeout on the connection when sending the command.
+     * @throws AdbCommandRejectedException if adb rejects the command
+     * @throws IOException in case of I/O error on the connection.
+     */
+    static AdbServiceMonitor.ServiceConnection startRemoteCommand(InetSocketAddress adbSockAddr,
+            final String command, final IDevice device, final IShellOutputReceiver rcvr,
+            int maxTimeToOutputResponse)
+            throws TimeoutException, AdbCommandRejectedException, IOException {
+        Log.v("ddms", "execute: running " + command);
 
-            byte[] data = new byte[16384];
-            ByteBuffer buf = ByteBuffer.wrap(data);
-            int timeToResponseCount = 0;
-            while (true) {
-                int count;
+        SocketChannel adbChan = openService(adbSockAddr, device, "shell:" + command); //$NON-NLS-1$
 
-                if (rcvr != null && rcvr.isCancelled()) {
-                    Log.v("ddms", "execute: cancelled");
-                    break;
+        return AdbServiceMonitor.getInstance().register(adbChan,
+                new AdbServiceMonitor.IServiceHandler() {
+            @Override
+            public void processData(byte[] data, int offset, int length) {
+                if (rcvr != null) {
+                    rcvr.addOutput(data, offset, length);
                 }
+            }
 
-                count = adbChan.read(buf);
-                if (count < 0) {
-                    // we're at the end, we flush the output
+            @Override
+            public void done() {
+                // we're at the end, we flush the output
+                if (rcvr != null) {
                     rcvr.flush();
-                    Log.v("ddms", "execute '" + command + "' on '" + device + "' : EOF hit. Read: "
-                            + count);
-                    break;
-                } else if (count == 0) {
-                    try {
-                        int wait = WAIT_TIME * 5;
-                        timeToResponseCount += wait;
-                        if (maxTimeToOutputResponse > 0 &&
-                                timeToResponseCount > maxTimeToOutputResponse) {
-                            throw new ShellCommandUnresponsiveException();
-                        }
-                        Thread.sleep(wait);
-                    } catch (InterruptedException ie) {
-                    }
-                } else {
-                    // reset timeout
-                    timeToResponseCount = 0;
-
-                    // send data to receiver if present
-                    if (rcvr != null) {
-                        rcvr.addOutput(buf.array(), buf.arrayOffset(), buf.position());
-                    }
-                    buf.rewind();
                 }
+                Log.v("ddms", "execute '" + command + "' on '" + device + "' : EOF hit.");
             }
-        } finally {
-            if (adbChan != null) {
-                adbChan.close();
+
+            @Override
+            public boolean isCancelled() {
+                return rcvr != null && rcvr.isCancelled();
             }
-            Log.v("ddms", "execute: returning");
-        }
+        }, maxTimeToOutputResponse);
     }
 
     /**
@@ -458,53 +456,91 @@ final class AdbHelper {
      */
     public static void runLogService(InetSocketAddress adbSockAddr, Device device, String logName,
             LogReceiver rcvr) throws TimeoutException, AdbCommandRejectedException, IOException {
-        SocketChannel adbChan = null;
+        try {
+            startLogService(adbSockAddr, device, logName, rcvr).waitFor();
+        } catch (ShellCommandUnresponsiveException e) {
+            // can't happen, there is no max time to output response.
+        }
+    }
+
+    /**
+     * Starts a log service on the {@link Device} and returns right away. The output is read by
+     * the {@link AdbServiceMonitor} and handed to the {@link LogReceiver} as it arrives, until
+     * {@link LogReceiver#isCancelled()} returns true.
+     * @param adbSockAddr the socket address to connect to adb
+     * @param device the Device on which to run the service
+     * @param logName the name of the log file to output
+     * @param rcvr the {@link LogReceiver} to receive the log output
+     * @return the connection to the running service.
+     * @throws TimeoutException in case of timeout on the connection.
+     * @throws AdbCommandRejectedException if adb rejects the command
+     * @throws IOException in case of I/O error on the connection.
+     */
+    static AdbServiceMonitor.ServiceConnection startLogService(InetSocketAddress adbSockAddr,
+            Device device, String logName, final LogReceiver rcvr)
+            throws TimeoutException, AdbCommandRejectedException, IOException {
+        SocketChannel adbChan = openService(adbSockAddr, device, "log:" + logName); //$NON-NLS-1$
+
+        return AdbServiceMonitor.getInstance().register(adbChan,
+                new AdbServiceMonitor.IServiceHandler() {
+            @Override
+            public void processData(byte[] data, int offset, int length) {
+                if (rcvr != null) {
+                    rcvr.parseNewData(data, offset, length);
+                }
+            }
+
+            @Override
+            public void done() {
+            }
 
+            @Override
+            public boolean isCancelled() {
+                return rcvr != null && rcvr.isCancelled();
+            }
+        }, 0 /* maxTimeToOutputResponse */);
+    }
+
+    /**
+     * Opens a connection to adb, selects the device, and requests a service.
+     * @param adbSockAddr the socket address to connect to adb
+     * @param device the device on which to run the service. Can be null.
+     * @param service the service to request.
+     * @return the non-blocking channel to the service, ready to read its output.
+     * @throws TimeoutException in case of timeout on the connection.
+     * @throws AdbCommandRejectedException if adb rejects the command
+     * @throws IOException in case of I/O error on the connection.
+     */
+    private static SocketChannel openService(InetSocketAddress adbSockAddr, IDevice device,
+            String service) throws TimeoutException, AdbCommandRejectedException, IOException {
+        SocketChannel adbChan = SocketChannel.open(adbSockAddr);
         try {
-            adbChan = SocketChannel.open(adbSockAddr);
             adbChan.configureBlocking(false);
 
             // if the device is not -1, then we first tell adb we're looking to talk
             // to a specific device
             setDevice(adbChan, device);
 
-            byte[] request = formAdbRequest("log:" + logName);
+            byte[] request = formAdbRequest(service);
             write(adbChan, request);
 
             AdbResponse resp = readAdbResponse(adbChan, false /* readDiagString */);
             if (resp.okay == false) {
+                Log.e("ddms", "ADB rejected service (" + service + "): " + resp.message);
                 throw new AdbCommandRejectedException(resp.message);
             }
-
-            byte[] data = new byte[16384];
-            ByteBuffer buf = ByteBuffer.wrap(data);
-            while (true) {
-                int count;
-
-                if (rcvr != null && rcvr.isCancelled()) {
-                    break;
-                }
-
-                count = adbChan.read(buf);
-                if (count < 0) {
-                    break;
-                } else if (count == 0) {
-                    try {
-                        Thread.sleep(WAIT_TIME * 5);
-                    } catch (InterruptedException ie) {
-                    }
-                } else {
-                    if (rcvr != null) {
-                        rcvr.parseNewData(buf.array(), buf.arrayOffset(), buf.position());
-                    }
-                    buf.rewind();
-                }
-            }
-        } finally {
-            if (adbChan != null) {
-                adbChan.close();
-            }
+        } catch (TimeoutException e) {
+            adbChan.close();
+            throw e;
+        } catch (AdbCommandRejectedException e) {
+            adbChan.close();
+            throw e;
+        } catch (IOException e) {
+            adbChan.close();
+            throw e;
         }
+
+        return adbChan;
     }
 
     /**
@@ -648,29 +684,31 @@ final class AdbHelper {
     static void read(SocketChannel chan, byte[] data, int length, int timeout)
             throws TimeoutException, IOException {
         ByteBuffer buf = ByteBuffer.wrap(data, 0, length != -1 ? length : data.length);
-        int numWaits = 0;
-
-        while (buf.position() != buf.limit()) {
-            int count;
-
-            count = chan.read(buf);
-            if (count < 0) {
-                Log.d("ddms", "read: channel EOF");
-                throw new IOException("EOF");
-            } else if (count == 0) {
-                // TODO: need more accurate timeout?
-                if (timeout != 0 && numWaits * WAIT_TIME > timeout) {
-                    Log.d("ddms", "read: timeout");
-                    throw new TimeoutException();
-                }
-                // non-blocking spin
-                try {
-                    Thread.sleep(WAIT_TIME);
-                } catch (InterruptedException ie) {
+        Selector selector = null;
+        long lastReadTime = System.currentTimeMillis();
+
+        try {
+            while (buf.position() != buf.limit()) {
+                int count;
+
+                count = chan.read(buf);
+                if (count < 0) {
+                    Log.d("ddms", "read: channel EOF");
+                    throw new IOException("EOF");
+                } else if (count == 0) {
+                    selector = waitForChannel(chan, selector, SelectionKey.OP_READ,
+                            lastReadTime, timeout);
+                    if (selector == null) {
+                        Log.d("ddms", "read: timeout");
+                        throw new TimeoutException();
+                    }
+                } else {
+                    lastReadTime = System.currentTimeMillis();
                 }
-                numWaits++;
-            } else {
-                numWaits = 0;
+            }
+        } finally {
+            if (selector != null) {
+                selector.close();
             }
         }
     }
@@ -701,31 +739,80 @@ final class AdbHelper {
     static void write(SocketChannel chan, byte[] data, int length, int timeout)
             throws TimeoutException, IOException {
         ByteBuffer buf = ByteBuffer.wrap(data, 0, length != -1 ? length : data.length);
-        int numWaits = 0;
-
-        while (buf.position() != buf.limit()) {
-            int count;
-
-            count = chan.write(buf);
-            if (count < 0) {
-                Log.d("ddms", "write: channel EOF");
-                throw new IOException("channel EOF");
-            } else if (count == 0) {
-                // TODO: need more accurate timeout?
-                if (timeout != 0 && numWaits * WAIT_TIME > timeout) {
-                    Log.d("ddms", "write: timeout");
-                    throw new TimeoutException();
+        Selector selector = null;
+        long lastWriteTime = System.currentTimeMillis();
+
+        try {
+            while (buf.position() != buf.limit()) {
+                int count;
+
+                count = chan.write(buf);
+                if (count < 0) {
+                    Log.d("ddms", "write: channel EOF");
+                    throw new IOException("channel EOF");
+                } else if (count == 0) {
+                    selector = waitForChannel(chan, selector, SelectionKey.OP_WRITE,
+                            lastWriteTime, timeout);
+                    if (selector == null) {
+                        Log.d("ddms", "write: timeout");
+                        throw new TimeoutException();
+                    }
+                } else {
+                    lastWriteTime = System.currentTimeMillis();
                 }
-                // non-blocking spin
-                try {
-                    Thread.sleep(WAIT_TIME);
-                } catch (InterruptedException ie) {
+            }
+        } finally {
+            if (selector != null) {
+                selector.close();
+            }
+        }
+    }
+
+    /**
+     * Blocks until a non-blocking channel is ready for the given operation, or the timeout
+     * expires.
+     * <p/>The {@link Selector} is only created the first time a channel stalls, so transfers
+     * that complete right away don't pay for it. It is returned so that it can be reused for
+     * the rest of the transfer, and must be closed by the caller.
+     *
+     * @param chan the non-blocking channel to wait on.
+     * @param selector the selector returned by a previous call, or null.
+     * @param ops the {@link SelectionKey} operation to wait for.
+     * @param lastActivity the time of the last successful transfer, in ms.
+     * @param timeout The timeout value. A timeout of zero means "wait forever".
+     * @return the selector to pass to the next call, or null if the timeout expired. In the
+     * latter case the selector has already been closed.
+     * @throws InterruptedIOException if the thread was interrupted. The interrupt status of the
+     * thread is kept.
+     * @throws IOException in case of I/O error on the selector.
+     */
+    private static Selector waitForChannel(SocketChannel chan, Selector selector, int ops,
+            long lastActivity, int timeout) throws IOException {
+        long wait = 0;
+        if (timeout != 0) {
+            wait = lastActivity + timeout - System.currentTimeMillis();
+            if (wait <= 0) {
+                if (selector != null) {
+                    selector.close();
                 }
-                numWaits++;
-            } else {
-                numWaits = 0;
+                return null;
             }
         }
+
+        if (selector == null) {
+            selector = Selector.open();
+            chan.register(selector, ops);
+        }
+
+        selector.select(wait);
+        selector.selectedKeys().clear();
+
+        // an interrupt makes select() return immediately, stop instead of spinning.
+        if (Thread.currentThread().isInterrupted()) {
+            selector.close();
+            throw new InterruptedIOException();
+        }
+        return selector;
     }
 
     /**
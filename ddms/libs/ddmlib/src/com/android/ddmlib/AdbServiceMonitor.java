@@ -0,0 +1,670 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Monitors the open adb service connections (shell commands, log services).
+ * <p/>This is the adb counterpart of {@link MonitorThread}: a single thread multiplexes the
+ * sockets of all the services running on all the devices with one {@link Selector}. The data
+ * read from a connection is handed to its {@link IServiceHandler} from a small, fixed pool of
+ * worker threads, so the number of threads does not grow with the number of devices or running
+ * services.
+ * <p/>A thread waiting for a connection to end, through {@link ServiceConnection#waitFor()} or
+ * {@link ServiceConnection#get()}, calls the handler of that connection itself instead of
+ * leaving it to the workers. Synchronous services thus run their handler on the calling thread,
+ * and a handler making a nested synchronous call, or waiting on another connection, never waits
+ * for a worker that may all be busy running handlers.
+ * <p/>The handler of a given connection is never called from two threads at the same time, and
+ * is called in the order the data was received. This includes
+ * {@link IServiceHandler#isCancelled()}, which is polled by the thread handling the output rather
+ * than by the monitor thread, so that a slow handler only delays its own connection.
+ */
+final class AdbServiceMonitor extends Thread {
+
+    /** Number of threads calling the service handlers. */
+    private static final int WORKER_COUNT = 4;
+
+    /** Max number of chunks queued for a connection before we stop reading from it. */
+    private static final int MAX_PENDING_CHUNKS = 16;
+
+    private static final int BUFFER_SIZE = 16384;
+
+    /** Marks the end of the service output in the chunk queue of a connection. */
+    private static final byte[] EOF = new byte[0];
+
+    /** Asks the thread processing the output of a connection to poll its handler. */
+    private static final byte[] POLL = new byte[0];
+
+    /**
+     * Classes which implement this interface receive the data coming from an adb service
+     * connection registered with the {@link AdbServiceMonitor}.
+     */
+    interface IServiceHandler {
+        /**
+         * Called every time some new data is available.
+         * @param data The new data.
+         * @param offset The offset at which the new data starts.
+         * @param length The length of the new data.
+         */
+        void processData(byte[] data, int offset, int length);
+
+        /**
+         * Called once the service closed the connection, after all its data has been processed.
+         * This is not called if the connection was cancelled or failed.
+         */
+        void done();
+
+        /**
+         * Returns true to cancel the service.
+         * <p/>This is polled from the thread processing the output, after each call to
+         * {@link #processData(byte[], int, int)}, and every {@link AdbHelper#SHELL_POLL_TIME} ms
+         * while the service is idle. It is never called at the same time as the other methods.
+         */
+        boolean isCancelled();
+    }
+
+    private static AdbServiceMonitor sInstance;
+
+    private volatile boolean mQuit = false;
+
+    private final Selector mSelector;
+
+    private final ThreadPoolExecutor mWorkers;
+
+    /** Connections currently open. Only accessed from the monitor thread. */
+    private final ArrayList<ServiceConnection> mConnections = new ArrayList<ServiceConnection>();
+
+    /** Connections to register or to resume reading from, on the next loop. */
+    private final ArrayList<ServiceConnection> mPendingChanges = new ArrayList<ServiceConnection>();
+
+    private final ByteBuffer mReadBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    /**
+     * Returns the running monitor, starting it if needed.
+     * @throws IOException if the selector could not be opened.
+     */
+    static synchronized AdbServiceMonitor getInstance() throws IOException {
+        if (sInstance == null) {
+            sInstance = new AdbServiceMonitor();
+            sInstance.start();
+        }
+
+        return sInstance;
+    }
+
+    /**
+     * Stops the monitor if it is running. All open connections are closed and their
+     * {@link ServiceConnection} fail with an {@link IOException}.
+     */
+    static synchronized void terminate() {
+        if (sInstance != null) {
+            sInstance.quit();
+            sInstance = null;
+        }
+    }
+
+    private AdbServiceMonitor() throws IOException {
+        super("Adb Service Monitor"); //$NON-NLS-1$
+        setDaemon(true);
+
+        mSelector = Selector.open();
+
+        mWorkers = new ThreadPoolExecutor(WORKER_COUNT, WORKER_COUNT,
+                30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private int mCount = 0;
+
+                    @Override
+                    public synchronized Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "Adb Service Worker " + (++mCount)); //$NON-NLS-1$
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        mWorkers.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Registers a connection to an adb service. The connection must have been set up already
+     * (the service request was sent and acknowledged by adb).
+     * <p/>From then on, the channel belongs to the monitor, which closes it when the service
+     * ends.
+     *
+     * @param chan the connection to the service. It is switched to non-blocking mode.
+     * @param handler the handler receiving the service output.
+     * @param maxTimeToOutputResponse the max time between two outputs of the service, in ms.
+     *            If more time passes, the connection fails with a
+     *            {@link ShellCommandUnresponsiveException}. 0 means no limit.
+     * @return a {@link ServiceConnection} to wait for, or cancel, the service.
+     * @throws IOException in case of I/O error on the connection.
+     */
+    ServiceConnection register(SocketChannel chan, IServiceHandler handler,
+            int maxTimeToOutputResponse) throws IOException {
+        chan.configureBlocking(false);
+
+        ServiceConnection connection = new ServiceConnection(chan, handler,
+                maxTimeToOutputResponse);
+
+        synchronized (mPendingChanges) {
+            if (mQuit) {
+                chan.close();
+                throw new IOException("Adb service monitor is stopped");
+            }
+            mPendingChanges.add(connection);
+        }
+        mSelector.wakeup();
+
+        return connection;
+    }
+
+    @Override
+    public void run() {
+        while (mQuit == false) {
+            try {
+                applyPendingChanges();
+
+                try {
+                    mSelector.select(getSelectTimeout());
+                } catch (CancelledKeyException cke) {
+                    continue;
+                }
+
+                Iterator<SelectionKey> iter = mSelector.selectedKeys().iterator();
+                while (iter.hasNext()) {
+                    SelectionKey key = iter.next();
+                    iter.remove();
+
+                    processConnectionActivity(key);
+                }
+
+                checkConnections();
+            } catch (Exception e) {
+                // we don't want to have our thread be killed because of any uncaught
+                // exception, so we intercept all here.
+                Log.e("ddms", "Exception AdbServiceMonitor.run()");
+                Log.e("ddms", e);
+            }
+        }
+
+        // close everything that is still open.
+        synchronized (mPendingChanges) {
+            mConnections.addAll(mPendingChanges);
+            mPendingChanges.clear();
+        }
+        for (ServiceConnection connection : mConnections) {
+            closeChannel(connection.mChannel);
+            connection.close(new IOException("Adb service monitor was stopped"));
+        }
+        mConnections.clear();
+
+        try {
+            mSelector.close();
+        } catch (IOException e) {
+            // ignore
+        }
+        mWorkers.shutdown();
+    }
+
+    private void quit() {
+        synchronized (mPendingChanges) {
+            mQuit = true;
+        }
+        mSelector.wakeup();
+    }
+
+    /**
+     * Registers new connections, and resumes reading from connections whose handler caught up.
+     * Registration must happen on this thread to not block on the selector.
+     */
+    private void applyPendingChanges() {
+        synchronized (mPendingChanges) {
+            for (ServiceConnection connection : mPendingChanges) {
+                if (connection.mKey == null) {
+                    try {
+                        connection.mKey = connection.mChannel.register(mSelector,
+                                SelectionKey.OP_READ, connection);
+                        connection.mLastOutputTime = System.currentTimeMillis();
+                        connection.mLastPollTime = connection.mLastOutputTime;
+                        mConnections.add(connection);
+                    } catch (IOException e) {
+                        closeChannel(connection.mChannel);
+                        connection.close(e);
+                    }
+                } else if (connection.mKey.isValid()) {
+                    connection.mKey.interestOps(SelectionKey.OP_READ);
+                    connection.mLastOutputTime = System.currentTimeMillis();
+                }
+            }
+            mPendingChanges.clear();
+        }
+    }
+
+    /**
+     * Returns how long to wait in select(): until the next output deadline, and no more than
+     * {@link AdbHelper#SHELL_POLL_TIME} while connections are open, to poll for cancellation.
+     */
+    private long getSelectTimeout() {
+        if (mConnections.isEmpty()) {
+            return 0;
+        }
+
+        long now = System.currentTimeMillis();
+        long timeout = AdbHelper.SHELL_POLL_TIME;
+        for (ServiceConnection connection : mConnections) {
+            if (connection.mMaxTimeToOutputResponse > 0) {
+                long remaining = connection.mLastOutputTime
+                        + connection.mMaxTimeToOutputResponse - now;
+                timeout = Math.min(timeout, Math.max(remaining, 1));
+            }
+        }
+
+        return timeout;
+    }
+
+    private void processConnectionActivity(SelectionKey key) {
+        ServiceConnection connection = (ServiceConnection)key.attachment();
+
+        if (key.isValid() == false || key.isReadable() == false) {
+            return;
+        }
+
+        mReadBuffer.clear();
+        int count;
+        try {
+            count = connection.mChannel.read(mReadBuffer);
+        } catch (IOException e) {
+            closeConnection(connection, e);
+            return;
+        }
+
+        if (count < 0) {
+            // the service ended. The handler will be told once all data is processed.
+            key.cancel();
+            closeChannel(connection.mChannel);
+            mConnections.remove(connection);
+            connection.enqueue(EOF);
+        } else if (count > 0) {
+            connection.mLastOutputTime = System.currentTimeMillis();
+            byte[] chunk = Arrays.copyOf(mReadBuffer.array(), count);
+            if (connection.enqueue(chunk) >= MAX_PENDING_CHUNKS) {
+                // the handler is falling behind. Stop reading until it catches up, so that
+                // the memory used per connection stays bounded.
+                key.interestOps(0);
+            }
+        }
+    }
+
+    /**
+     * Closes connections that were cancelled or that did not output anything in time, and has
+     * the idle ones poll their handler for cancellation.
+     */
+    private void checkConnections() {
+        long now = System.currentTimeMillis();
+
+        for (int i = mConnections.size() - 1 ; i >= 0 ; i--) {
+            ServiceConnection connection = mConnections.get(i);
+
+            if (connection.isDone()) {
+                // cancelled, or the handler failed or asked to be cancelled.
+                closeConnection(connection, null);
+            } else if (connection.mMaxTimeToOutputResponse > 0
+                    && connection.mKey.interestOps() != 0
+                    && now - connection.mLastOutputTime > connection.mMaxTimeToOutputResponse) {
+                closeConnection(connection, new ShellCommandUnresponsiveException());
+            } else if (now - connection.mLastPollTime >= AdbHelper.SHELL_POLL_TIME) {
+                connection.mLastPollTime = now;
+                connection.pollCancelled();
+            }
+        }
+    }
+
+    private void closeConnection(ServiceConnection connection, Exception error) {
+        connection.mKey.cancel();
+        closeChannel(connection.mChannel);
+        mConnections.remove(connection);
+        connection.close(error);
+    }
+
+    private static void closeChannel(SocketChannel chan) {
+        try {
+            chan.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    /**
+     * Requests that the monitor reads again from a connection it stopped reading from.
+     */
+    private void resume(ServiceConnection connection) {
+        synchronized (mPendingChanges) {
+            mPendingChanges.add(connection);
+        }
+        mSelector.wakeup();
+    }
+
+    /**
+     * An adb service connection registered with the {@link AdbServiceMonitor}.
+     * <p/>This is a {@link Future} which completes when the service ends. If the service failed,
+     * {@link #get()} throws an {@link ExecutionException} wrapping a
+     * {@link ShellCommandUnresponsiveException}, an {@link IOException}, or the exception thrown
+     * by the handler.
+     */
+    final class ServiceConnection implements Future<Void>, Runnable {
+
+        private final SocketChannel mChannel;
+        private final IServiceHandler mHandler;
+        private final int mMaxTimeToOutputResponse;
+
+        /* only accessed from the monitor thread */
+        private SelectionKey mKey;
+        private long mLastOutputTime;
+        private long mLastPollTime;
+
+        /* protected by <code>this</code> */
+        /** Chunks waiting to be processed. */
+        private final LinkedList<byte[]> mChunks = new LinkedList<byte[]>();
+        /** Whether a worker is scheduled to process the chunks. */
+        private boolean mScheduled = false;
+        /** Whether a thread is calling the handler. */
+        private boolean mDispatching = false;
+        /** Number of threads waiting for the connection, which process the chunks themselves. */
+        private int mWaiters = 0;
+
+        private final CountDownLatch mDone = new CountDownLatch(1);
+        private volatile boolean mCancelled = false;
+        private volatile Exception mError;
+
+        private ServiceConnection(SocketChannel chan, IServiceHandler handler,
+                int maxTimeToOutputResponse) {
+            mChannel = chan;
+            mHandler = handler;
+            mMaxTimeToOutputResponse = maxTimeToOutputResponse;
+        }
+
+        /**
+         * Queues a chunk for the handler, scheduling a worker if no thread is waiting for the
+         * connection.
+         * @return the number of chunks now waiting.
+         */
+        private int enqueue(byte[] chunk) {
+            boolean schedule = false;
+            int size;
+            synchronized (this) {
+                mChunks.add(chunk);
+                size = mChunks.size();
+                if (mWaiters > 0) {
+                    notifyAll();
+                } else if (mScheduled == false) {
+                    schedule = mScheduled = true;
+                }
+            }
+
+            if (schedule) {
+                mWorkers.execute(this);
+            }
+
+            return size;
+        }
+
+        /**
+         * Has the thread processing the chunks poll the handler for cancellation, unless it is
+         * busy with some output, after which it polls it anyway.
+         */
+        private void pollCancelled() {
+            synchronized (this) {
+                if (mDispatching || mChunks.isEmpty() == false) {
+                    return;
+                }
+            }
+
+            enqueue(POLL);
+        }
+
+        /**
+         * Processes the queued chunks. Runs on a worker thread.
+         */
+        @Override
+        public void run() {
+            while (true) {
+                byte[] chunk;
+                boolean resume;
+                synchronized (this) {
+                    // leave the chunks to the threads waiting for the connection, if any.
+                    chunk = mWaiters > 0 ? null : mChunks.poll();
+                    if (chunk == null) {
+                        mScheduled = false;
+                        return;
+                    }
+                    resume = mChunks.size() == MAX_PENDING_CHUNKS / 2;
+                    mDispatching = true;
+                }
+
+                dispatch(chunk, resume);
+            }
+        }
+
+        /**
+         * Processes the chunks on the calling thread until the service ends.
+         * @param interruptible whether to stop with an {@link InterruptedException} if the
+         *            thread is interrupted, rather than ignoring the interrupt.
+         */
+        private void dispatchUntilDone(boolean interruptible) throws InterruptedException {
+            boolean interrupted = false;
+            synchronized (this) {
+                // from now on, the chunks are not handed to the workers anymore.
+                mWaiters++;
+            }
+
+            try {
+                while (true) {
+                    byte[] chunk;
+                    boolean resume;
+                    synchronized (this) {
+                        while (mDispatching || (mChunks.isEmpty() && isDone() == false)) {
+                            try {
+                                wait();
+                            } catch (InterruptedException e) {
+                                if (interruptible) {
+                                    throw e;
+                                }
+                                interrupted = true;
+                            }
+                        }
+
+                        chunk = mChunks.poll();
+                        if (chunk == null) {
+                            // done, and all the data was processed.
+                            return;
+                        }
+                        resume = mChunks.size() == MAX_PENDING_CHUNKS / 2;
+                        mDispatching = true;
+                    }
+
+                    dispatch(chunk, resume);
+                }
+            } finally {
+                synchronized (this) {
+                    mWaiters--;
+
+                    // if this thread stopped waiting early, let a worker process what is left.
+                    if (mWaiters == 0 && mScheduled == false && mChunks.isEmpty() == false) {
+                        mScheduled = true;
+                        mWorkers.execute(this);
+                    }
+                }
+
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        /**
+         * Hands a chunk to the handler. <code>mDispatching</code> must have been set.
+         * @param chunk the chunk
+         * @param resume whether to resume reading from the connection afterwards.
+         */
+        private void dispatch(byte[] chunk, boolean resume) {
+            try {
+                if (isDone()) {
+                    // cancelled or failed while data was still queued. Drop it.
+                    return;
+                }
+
+                try {
+                    if (chunk == EOF) {
+                        mHandler.done();
+                        close(null);
+                    } else {
+                        if (chunk != POLL) {
+                            mHandler.processData(chunk, 0, chunk.length);
+                        }
+                        if (mHandler.isCancelled()) {
+                            // let the monitor close the connection.
+                            close(null);
+                            mSelector.wakeup();
+                        }
+                    }
+                } catch (RuntimeException e) {
+                    Log.e("ddms", "Exception while processing adb service output");
+                    Log.e("ddms", e);
+                    close(e);
+                    mSelector.wakeup();
+                }
+
+                if (resume && isDone() == false) {
+                    AdbServiceMonitor.this.resume(this);
+                }
+            } finally {
+                synchronized (this) {
+                    mDispatching = false;
+                    notifyAll();
+                }
+            }
+        }
+
+        private void close(Exception error) {
+            synchronized (this) {
+                if (isDone()) {
+                    return;
+                }
+                mError = error;
+                mDone.countDown();
+                notifyAll();
+            }
+        }
+
+        /**
+         * Waits for the service to end, processing its output on the calling thread.
+         * <p/>Like the rest of ddmlib, this ignores interrupts.
+         * @throws ShellCommandUnresponsiveException if the service did not output anything for
+         *            longer than the max time it was registered with.
+         * @throws IOException in case of I/O error on the connection.
+         */
+        void waitFor() throws ShellCommandUnresponsiveException, IOException {
+            try {
+                dispatchUntilDone(false /*interruptible*/);
+            } catch (InterruptedException e) {
+                // can't happen, interrupts are ignored.
+            }
+
+            Exception error = mError;
+            if (error instanceof ShellCommandUnresponsiveException) {
+                throw (ShellCommandUnresponsiveException)error;
+            } else if (error instanceof IOException) {
+                throw (IOException)error;
+            } else if (error instanceof RuntimeException) {
+                throw (RuntimeException)error;
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            synchronized (this) {
+                if (isDone()) {
+                    return false;
+                }
+
+                mCancelled = true;
+                mDone.countDown();
+                notifyAll();
+            }
+
+            // let the monitor close the connection.
+            mSelector.wakeup();
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+
+        @Override
+        public boolean isDone() {
+            return mDone.getCount() == 0;
+        }
+
+        /**
+         * Waits for the service to end, processing its output on the calling thread.
+         */
+        @Override
+        public Void get() throws InterruptedException, ExecutionException {
+            dispatchUntilDone(true /*interruptible*/);
+            return getResult();
+        }
+
+        @Override
+        public Void get(long timeout, TimeUnit unit) throws InterruptedException,
+                ExecutionException, java.util.concurrent.TimeoutException {
+            if (mDone.await(timeout, unit) == false) {
+                throw new java.util.concurrent.TimeoutException();
+            }
+            return getResult();
+        }
+
+        private Void getResult() throws ExecutionException {
+            if (mCancelled) {
+                throw new CancellationException();
+            }
+            if (mError != null) {
+                throw new ExecutionException(mError);
+            }
+            return null;
+        }
+    }
+}
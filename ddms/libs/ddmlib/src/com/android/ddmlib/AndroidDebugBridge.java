@@ -214,6 +214,8 @@ public final class AndroidDebugBridge {
             monitorThread.quit();
         }
 
+        AdbServiceMonitor.terminate();
+
         sInitialized = false;
     }
 
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+/**
+ * Pool of {@link ByteBuffer}s shared by the client connections to reassemble JDWP packets.
+ * <p/>Sizes up to {@link #MAX_POOLED_SIZE} are rounded up to a power of two, and a few buffers
+ * of each size are kept for reuse. Larger buffers are allocated with the exact size requested,
+ * and are left to the garbage collector when released, so that a large trace or heap dump
+ * doesn't stay in memory once it has been handled.
+ */
+final class BufferPool {
+
+    /** smallest buffer size handed out */
+    static final int MIN_SIZE = 2 * 1024;
+    /** largest buffer size kept in the pool */
+    static final int MAX_POOLED_SIZE = 1024 * 1024;
+    /** number of buffers kept for each size */
+    private static final int BUFFERS_PER_SIZE = 2;
+
+    /** free buffers, indexed by log2(size / MIN_SIZE) */
+    private static final ArrayList<ArrayList<ByteBuffer>> sFreeBuffers =
+            new ArrayList<ArrayList<ByteBuffer>>();
+
+    static {
+        for (int size = MIN_SIZE ; size <= MAX_POOLED_SIZE ; size *= 2) {
+            sFreeBuffers.add(new ArrayList<ByteBuffer>(BUFFERS_PER_SIZE));
+        }
+    }
+
+    private BufferPool() {
+    }
+
+    /**
+     * Returns the capacity of the buffer {@link #allocate(int)} returns for the given size.
+     */
+    static int getCapacity(int size) {
+        if (size > MAX_POOLED_SIZE) {
+            return size;
+        }
+
+        int capacity = MIN_SIZE;
+        while (capacity < size) {
+            capacity *= 2;
+        }
+        return capacity;
+    }
+
+    /**
+     * Returns a cleared buffer with a capacity of at least <var>size</var> bytes.
+     */
+    static ByteBuffer allocate(int size) {
+        int capacity = getCapacity(size);
+        if (capacity <= MAX_POOLED_SIZE) {
+            ArrayList<ByteBuffer> free = sFreeBuffers.get(getIndex(capacity));
+            synchronized (free) {
+                if (free.size() > 0) {
+                    ByteBuffer buffer = free.remove(free.size() - 1);
+                    buffer.clear();
+                    return buffer;
+                }
+            }
+        }
+
+        return ByteBuffer.allocate(capacity);
+    }
+
+    /**
+     * Gives a buffer back to the pool. The buffer must not be used anymore.
+     */
+    static void release(ByteBuffer buffer) {
+        int capacity = buffer.capacity();
+        if (capacity > MAX_POOLED_SIZE || capacity != getCapacity(capacity)) {
+            return;
+        }
+
+        ArrayList<ByteBuffer> free = sFreeBuffers.get(getIndex(capacity));
+        synchronized (free) {
+            if (free.size() < BUFFERS_PER_SIZE) {
+                free.add(buffer);
+            }
+        }
+    }
+
+    private static int getIndex(int capacity) {
+        return Integer.numberOfTrailingZeros(capacity / MIN_SIZE);
+    }
+}
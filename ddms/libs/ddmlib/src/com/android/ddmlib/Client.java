@@ -26,6 +26,7 @@ import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.HashMap;
 
 /**
@@ -95,11 +96,38 @@ public class Client {
      *
      * Pass-through debugger traffic is sent without copying.  "mWriteBuffer"
      * is only used for data generated within Client.
+     *
+     * Once the header of a packet is in, the read buffer is grown to the
+     * size of the packet.  MAX_BUF_SIZE only applies while the size isn't
+     * known.  Replies registered with streamReply() aren't buffered at all.
+     *
+     * Read buffers come from the BufferPool, and are given back to it as
+     * soon as a large packet has been handled, so that a trace or a heap
+     * dump doesn't stay in memory for the life of the client.
      */
-    private static final int INITIAL_BUF_SIZE = 2*1024;
+    private static final int INITIAL_BUF_SIZE = BufferPool.MIN_SIZE;
     private static final int MAX_BUF_SIZE = 200*1024*1024;
     private ByteBuffer mReadBuffer;
 
+    /* read buffer usage, see getReadBufferStats() */
+    private volatile int mReadBufferPeak;
+    private volatile int mReadBufferGrowCount;
+    private volatile int mReadBufferShrinkCount;
+    private volatile int mLargestPacket;
+    private volatile long mBytesRead;
+    private volatile long mBytesStreamed;
+
+    /*
+     * Reply to stream instead of buffering it, and the state of the reply
+     * being streamed, if any.
+     */
+    private int mStreamedReplyId;
+    private volatile IReplyStreamer mReplyStreamer;
+    private IReplyStreamer mActiveStreamer;
+    private WritableByteChannel mStreamChannel;
+    private int mStreamRemaining;
+    private IOException mStreamError;
+
     private static final int WRITE_BUF_SIZE = 256;
     private ByteBuffer mWriteBuffer;
 
@@ -116,6 +144,98 @@ public class Client {
     private static final int ST_ERROR        = 20;
     private static final int ST_DISCONNECTED = 21;
 
+    /**
+     * Usage statistics of the buffer a {@link Client} receives data in.
+     * @see Client#getReadBufferStats()
+     */
+    public static final class ReadBufferStats {
+        private final int mCapacity;
+        private final int mPeakCapacity;
+        private final int mGrowCount;
+        private final int mShrinkCount;
+        private final int mLargestPacket;
+        private final long mBytesRead;
+        private final long mBytesStreamed;
+
+        ReadBufferStats(int capacity, int peakCapacity, int growCount, int shrinkCount,
+                int largestPacket, long bytesRead, long bytesStreamed) {
+            mCapacity = capacity;
+            mPeakCapacity = peakCapacity;
+            mGrowCount = growCount;
+            mShrinkCount = shrinkCount;
+            mLargestPacket = largestPacket;
+            mBytesRead = bytesRead;
+            mBytesStreamed = bytesStreamed;
+        }
+
+        /** Returns the current capacity of the read buffer, in bytes. */
+        public int getCapacity() {
+            return mCapacity;
+        }
+
+        /** Returns the largest capacity the read buffer ever had, in bytes. */
+        public int getPeakCapacity() {
+            return mPeakCapacity;
+        }
+
+        /** Returns how many times the read buffer was grown to hold a packet. */
+        public int getGrowCount() {
+            return mGrowCount;
+        }
+
+        /** Returns how many times the read buffer was released after a large packet. */
+        public int getShrinkCount() {
+            return mShrinkCount;
+        }
+
+        /** Returns the size of the largest packet that was buffered, in bytes. */
+        public int getLargestPacket() {
+            return mLargestPacket;
+        }
+
+        /** Returns the number of bytes received from the client. */
+        public long getBytesRead() {
+            return mBytesRead;
+        }
+
+        /**
+         * Returns the number of bytes received from the client that were streamed out instead
+         * of being buffered, like HPROF dumps sent to a
+         * {@link ClientData.IHprofDumpStreamHandler}.
+         */
+        public long getBytesStreamed() {
+            return mBytesStreamed;
+        }
+    }
+
+    /**
+     * Receives the payload of a DDM reply chunk as it arrives, instead of
+     * the whole chunk once it has been buffered.
+     *
+     * @see Client#streamReply(int, IReplyStreamer)
+     */
+    interface IReplyStreamer {
+        /**
+         * Called when the header of the reply chunk has arrived.
+         * @param client the client sending the reply.
+         * @param type the chunk type.
+         * @param length the length of the chunk payload.
+         * @return the channel to write the payload to, or <code>null</code>
+         * to have the reply buffered and handled as usual.
+         * @throws IOException if the channel could not be opened. The
+         * payload is then discarded and {@link #end(Client, IOException)}
+         * is called.
+         */
+        WritableByteChannel start(Client client, int type, int length) throws IOException;
+
+        /**
+         * Called once the whole payload has been received.
+         * @param client the client that sent the reply.
+         * @param error the error that happened writing the payload or
+         * receiving it, or <code>null</code> on success.
+         */
+        void end(Client client, IOException error);
+    }
 
     /**
      * Create an object for a new client connection.
@@ -128,7 +248,8 @@ public class Client {
         mDevice = device;
         mChan = chan;
 
-        mReadBuffer = ByteBuffer.allocate(INITIAL_BUF_SIZE);
+        mReadBuffer = BufferPool.allocate(INITIAL_BUF_SIZE);
+        mReadBufferPeak = mReadBuffer.capacity();
         mWriteBuffer = ByteBuffer.allocate(WRITE_BUF_SIZE);
 
         mOutstandingReqs = new HashMap<Integer,ChunkHandler>();
@@ -581,6 +702,19 @@ public class Client {
         }
     }
 
+    /**
+     * Streams the reply to the request with the given id instead of
+     * buffering it.  This is meant for replies too large to be held in
+     * memory, like HPROF dumps.
+     *
+     * Must be called before the request is sent.  Only the first chunk of
+     * the reply is streamed, and only if the reply holds nothing else.
+     */
+    void streamReply(int id, IReplyStreamer streamer) {
+        mStreamedReplyId = id;
+        mReplyStreamer = streamer;
+    }
+
     /**
      * Forward the packet to the debugger (if still connected to one).
      *
@@ -611,30 +745,157 @@ public class Client {
 
         int count;
 
+        if (mActiveStreamer != null || mReplyStreamer != null) {
+            // a streamed reply may be waiting for the packets before it to
+            // be consumed.
+            streamReplyData();
+        }
+
         if (mReadBuffer.position() == mReadBuffer.capacity()) {
-            if (mReadBuffer.capacity() * 2 > MAX_BUF_SIZE) {
+            int newSize = mReadBuffer.capacity() * 2;
+
+            // the buffer only holds an incomplete packet, so if we know its
+            // length, make room for exactly that.
+            JdwpPacket packet = null;
+            if (mConnState == ST_NEED_DDM_PKT || mConnState == ST_NOT_DDM
+                    || mConnState == ST_READY) {
+                packet = JdwpPacket.findPacketHeader(mReadBuffer);
+            }
+            if (packet != null && packet.getLength() > mReadBuffer.capacity()) {
+                newSize = packet.getLength();
+            } else if (newSize > MAX_BUF_SIZE) {
                 Log.e("ddms", "Exceeded MAX_BUF_SIZE!");
                 throw new BufferOverflowException();
             }
-            Log.d("ddms", "Expanding read buffer to "
-                + mReadBuffer.capacity() * 2);
-
-            ByteBuffer newBuffer = ByteBuffer.allocate(mReadBuffer.capacity() * 2);
+            Log.d("ddms", "Expanding read buffer to " + newSize);
 
-            // copy entire buffer to new buffer
-            mReadBuffer.position(0);
-            newBuffer.put(mReadBuffer);  // leaves "position" at end of copied
-
-            mReadBuffer = newBuffer;
+            replaceReadBuffer(newSize);
+            mReadBufferGrowCount++;
+            if (mReadBuffer.capacity() > mReadBufferPeak) {
+                mReadBufferPeak = mReadBuffer.capacity();
+            }
         }
 
         count = mChan.read(mReadBuffer);
         if (count < 0)
             throw new IOException("read failed");
+        mBytesRead += count;
 
         if (Log.Config.LOGV) Log.v("ddms", "Read " + count + " bytes from " + this);
         //Log.hexDump("ddms", Log.DEBUG, mReadBuffer.array(),
         //    mReadBuffer.arrayOffset(), mReadBuffer.position());
+
+        if (mActiveStreamer != null || mReplyStreamer != null) {
+            streamReplyData();
+        }
+    }
+
+    /**
+     * Writes the data of the streamed reply out of the read buffer, starting
+     * the stream if the reply header is at the start of the buffer.  Data
+     * following the reply is left in the buffer.
+     */
+    private void streamReplyData() {
+        int start = 0;
+        if (mActiveStreamer == null) {
+            start = startStreamedReply();
+            if (start < 0) {
+                return;
+            }
+        }
+
+        int count = Math.min(mStreamRemaining, mReadBuffer.position() - start);
+        if (mStreamChannel != null) {
+            ByteBuffer data = mReadBuffer.duplicate();
+            data.position(start);
+            data.limit(start + count);
+            try {
+                while (data.hasRemaining()) {
+                    mStreamChannel.write(data);
+                }
+            } catch (IOException e) {
+                // keep reading the reply, to stay in sync with the client.
+                Log.w("ddms", "Failed to write streamed reply: " + e.getMessage());
+                mStreamError = e;
+                mStreamChannel = null;
+            }
+        }
+        mStreamRemaining -= count;
+        mBytesStreamed += count;
+
+        // drop what was streamed, keeping the data that follows.
+        mReadBuffer.flip();
+        mReadBuffer.position(start + count);
+        mReadBuffer.compact();
+
+        if (mStreamRemaining == 0) {
+            endStreamedReply(mStreamError);
+        }
+    }
+
+    /**
+     * Starts streaming the reply at the start of the read buffer, if it's
+     * the one registered with streamReply().
+     *
+     * Returns the offset of the chunk payload in the buffer, or -1 if the
+     * reply isn't there yet or is to be handled as usual.
+     */
+    private int startStreamedReply() {
+        final int dataOffset = JdwpPacket.JDWP_HEADER_LEN + ChunkHandler.CHUNK_HEADER_LEN;
+
+        JdwpPacket packet = JdwpPacket.findPacketHeader(mReadBuffer);
+        if (packet == null || packet.getId() != mStreamedReplyId) {
+            return -1;
+        }
+
+        IReplyStreamer streamer = mReplyStreamer;
+        mReplyStreamer = null;
+
+        if (packet.isReply() == false || packet.isError()
+                || mReadBuffer.position() < dataOffset) {
+            // not a reply with a chunk, or a tiny one. Let it through.
+            return -1;
+        }
+
+        ByteBuffer header = mReadBuffer.duplicate();
+        header.order(ChunkHandler.CHUNK_ORDER);
+        int type = header.getInt(JdwpPacket.JDWP_HEADER_LEN);
+        int length = header.getInt(JdwpPacket.JDWP_HEADER_LEN + 4);
+        if (length == 0 || length != packet.getLength() - dataOffset) {
+            return -1;
+        }
+
+        mStreamError = null;
+        try {
+            mStreamChannel = streamer.start(this, type, length);
+            if (mStreamChannel == null) {
+                return -1;
+            }
+        } catch (IOException e) {
+            // discard the payload.
+            mStreamChannel = null;
+            mStreamError = e;
+        }
+
+        Log.d("ddms", "Streaming " + ChunkHandler.name(type) + " reply (len=" + length
+                + ") from " + this);
+        removeRequestId(packet.getId());
+        mActiveStreamer = streamer;
+        mStreamRemaining = length;
+        return dataOffset;
+    }
+
+    /**
+     * Ends the reply being streamed, if any.
+     */
+    private void endStreamedReply(IOException error) {
+        IReplyStreamer streamer = mActiveStreamer;
+        if (streamer != null) {
+            mActiveStreamer = null;
+            mStreamChannel = null;
+            mStreamRemaining = 0;
+            streamer.end(this, error);
+        }
     }
 
     /**
@@ -702,7 +963,16 @@ public class Client {
                 if (Log.Config.LOGV) Log.v("ddms",
                     "Checking " + mReadBuffer.position() + " bytes");
             }
-            return JdwpPacket.findPacket(mReadBuffer);
+            JdwpPacket packet = JdwpPacket.findPacket(mReadBuffer);
+            if (packet != null) {
+                if (packet.getLength() > mLargestPacket) {
+                    mLargestPacket = packet.getLength();
+                }
+            } else {
+                // all the complete packets have been handled.
+                shrinkReadBuffer();
+            }
+            return packet;
         } else {
             /*
              * Not expecting data when in this state.
@@ -713,6 +983,52 @@ public class Client {
         return null;
     }
 
+    /**
+     * Moves the data of the read buffer to a new buffer from the pool, of
+     * at least the given size, and releases the old one.
+     */
+    private void replaceReadBuffer(int size) {
+        ByteBuffer newBuffer = BufferPool.allocate(size);
+
+        // copy the data to the new buffer
+        mReadBuffer.flip();
+        newBuffer.put(mReadBuffer);  // leaves "position" at end of copied
+
+        BufferPool.release(mReadBuffer);
+        mReadBuffer = newBuffer;
+    }
+
+    /**
+     * Releases the read buffer if it's larger than needed for the data it
+     * holds, which is at most one incomplete packet.
+     */
+    private void shrinkReadBuffer() {
+        if (mReadBuffer.capacity() == INITIAL_BUF_SIZE) {
+            return;
+        }
+
+        int needed = Math.max(INITIAL_BUF_SIZE, mReadBuffer.position());
+        JdwpPacket packet = JdwpPacket.findPacketHeader(mReadBuffer);
+        if (packet != null) {
+            needed = Math.max(needed, packet.getLength());
+        }
+
+        if (BufferPool.getCapacity(needed) < mReadBuffer.capacity()) {
+            Log.d("ddms", "Shrinking read buffer to " + BufferPool.getCapacity(needed));
+            replaceReadBuffer(needed);
+            mReadBufferShrinkCount++;
+        }
+    }
+
+    /**
+     * Returns usage statistics of the buffer this client receives data in.
+     */
+    public ReadBufferStats getReadBufferStats() {
+        return new ReadBufferStats(mReadBuffer.capacity(), mReadBufferPeak,
+                mReadBufferGrowCount, mReadBufferShrinkCount, mLargestPacket, mBytesRead,
+                mBytesStreamed);
+    }
+
     /*
      * Add the specified ID to the list of request IDs for which we await
      * a response.
@@ -805,6 +1121,7 @@ public class Client {
         Log.d("ddms", "Closing " + this.toString());
 
         mOutstandingReqs.clear();
+        endStreamedReply(new IOException("Client disconnected"));
 
         try {
             if (mChan != null) {
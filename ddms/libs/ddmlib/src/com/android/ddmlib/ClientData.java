@@ -18,8 +18,11 @@ package com.android.ddmlib;
 
 import com.android.ddmlib.HeapSegment.HeapSegmentElement;
 
+import java.io.File;
+import java.io.IOException;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -317,6 +320,37 @@ public class ClientData {
         void onEndFailure(Client client, String message);
     }
 
+    /**
+     * Handlers able to receive streamed HPROF dumps as they arrive, instead of in a
+     * <code>byte[]</code> once the whole dump has been received.
+     * <p/>When such a handler is set, {@link IHprofDumpHandler#onSuccess(byte[], Client)} is not
+     * called for streamed dumps, and the size of a dump is not limited by the heap of the VM
+     * running ddmlib.
+     */
+    public interface IHprofDumpStreamHandler extends IHprofDumpHandler {
+        /**
+         * Called when a streamed HPROF dump starts arriving from the VM.
+         * <p/>The channel is not closed by ddmlib. It is written to from the ddmlib monitor
+         * thread, so it should not block for long.
+         * @param client the client that was profiled.
+         * @param length the size of the dump, in bytes.
+         * @return the channel to write the dump to, or <code>null</code> to have it written to
+         * a temporary file.
+         * @throws IOException if the channel could not be opened. The dump is then discarded and
+         * {@link #onEndFailure(Client, String)} is called.
+         */
+        WritableByteChannel onStreamStart(Client client, long length) throws IOException;
+
+        /**
+         * Called when a streamed HPROF dump was fully written.
+         * @param client the client that was profiled.
+         * @param hprofFile the temporary file holding the dump, which the handler is
+         * responsible for deleting, or <code>null</code> if the dump was written to the channel
+         * returned by {@link #onStreamStart(Client, long)}.
+         */
+        void onStreamEnd(Client client, File hprofFile);
+    }
+
     /**
      * Handlers able to act on Method profiling info
      */
@@ -352,6 +386,8 @@ public class ClientData {
 
     /**
      * Sets the handler to receive notifications when an HPROF dump succeeded or failed.
+     * <p/>If the handler is an {@link IHprofDumpStreamHandler}, streamed dumps are written out as
+     * they arrive.
      */
     public static void setHprofDumpHandler(IHprofDumpHandler handler) {
         sHprofDumpHandler = handler;
@@ -26,6 +26,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -399,6 +400,14 @@ final class Device implements IDevice {
                 receiver, maxTimeToOutputResponse);
     }
 
+    @Override
+    public Future<Void> startShellCommand(String command, IShellOutputReceiver receiver,
+            int maxTimeToOutputResponse)
+            throws TimeoutException, AdbCommandRejectedException, IOException {
+        return AdbHelper.startRemoteCommand(AndroidDebugBridge.getSocketAddress(), command, this,
+                receiver, maxTimeToOutputResponse);
+    }
+
     @Override
     public void runEventLogService(LogReceiver receiver)
             throws TimeoutException, AdbCommandRejectedException, IOException {
@@ -411,6 +420,13 @@ final class Device implements IDevice {
         AdbHelper.runLogService(AndroidDebugBridge.getSocketAddress(), this, logname, receiver);
     }
 
+    @Override
+    public Future<Void> startLogService(String logname, LogReceiver receiver)
+            throws TimeoutException, AdbCommandRejectedException, IOException {
+        return AdbHelper.startLogService(AndroidDebugBridge.getSocketAddress(), this, logname,
+                receiver);
+    }
+
     @Override
     public void createForward(int localPort, int remotePort)
             throws TimeoutException, AdbCommandRejectedException, IOException {
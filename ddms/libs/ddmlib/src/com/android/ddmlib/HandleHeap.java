@@ -18,10 +18,15 @@ package com.android.ddmlib;
 
 import com.android.ddmlib.ClientData.AllocationTrackingStatus;
 import com.android.ddmlib.ClientData.IHprofDumpHandler;
+import com.android.ddmlib.ClientData.IHprofDumpStreamHandler;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
 
 /**
@@ -260,7 +265,8 @@ final class HandleHeap extends ChunkHandler {
      * heap dump is held in RAM instead of spooled out to a temp file.  On
      * the other hand, permission to write to /sdcard is not required.
      *
-     * @param fileName name of output file (on device)
+     * If the dump handler is an IHprofDumpStreamHandler, the response is
+     * written out as it arrives rather than buffered.
      */
     public static void sendHPDS(Client client)
         throws IOException {
@@ -270,6 +276,9 @@ final class HandleHeap extends ChunkHandler {
 
         finishChunkPacket(packet, CHUNK_HPDS, buf.position());
         Log.d("ddm-heap", "Sending " + name(CHUNK_HPDS));
+        if (ClientData.getHprofDumpHandler() instanceof IHprofDumpStreamHandler) {
+            client.streamReply(packet.getId(), new HprofStreamer());
+        }
         client.sendAndConsume(packet, mInst);
     }
 
@@ -316,6 +325,60 @@ final class HandleHeap extends ChunkHandler {
         }
     }
 
+    /**
+     * Writes a streamed HPROF dump to the channel provided by the
+     * IHprofDumpStreamHandler, or to a temporary file.
+     */
+    private static final class HprofStreamer implements Client.IReplyStreamer {
+        private IHprofDumpStreamHandler mHandler;
+        private File mFile;
+        private FileChannel mFileChannel;
+
+        @Override
+        public WritableByteChannel start(Client client, int type, int length)
+                throws IOException {
+            IHprofDumpHandler handler = ClientData.getHprofDumpHandler();
+            if (type != CHUNK_HPDS || !(handler instanceof IHprofDumpStreamHandler)) {
+                return null;
+            }
+            mHandler = (IHprofDumpStreamHandler) handler;
+
+            Log.d("ddm-hprof", "streaming hprof file, size: " + length + " bytes");
+
+            WritableByteChannel channel = mHandler.onStreamStart(client, length);
+            if (channel != null) {
+                return channel;
+            }
+
+            mFile = File.createTempFile("ddms", ".hprof"); //$NON-NLS-1$ //$NON-NLS-2$
+            mFileChannel = new FileOutputStream(mFile).getChannel();
+            return mFileChannel;
+        }
+
+        @Override
+        public void end(Client client, IOException error) {
+            if (mFileChannel != null) {
+                try {
+                    mFileChannel.close();
+                } catch (IOException e) {
+                    if (error == null) {
+                        error = e;
+                    }
+                }
+            }
+
+            if (error != null) {
+                Log.w("ddm-hprof", "Failed to stream hprof file: " + error.getMessage());
+                if (mFile != null) {
+                    mFile.delete();
+                }
+                mHandler.onEndFailure(client, error.getMessage());
+            } else {
+                mHandler.onStreamEnd(client, mFile);
+            }
+        }
+    }
+
     /**
      * Sends a REAE (REcent Allocation Enable) request to the client.
      */
@@ -20,6 +20,8 @@ import com.android.ddmlib.log.LogReceiver;
 
 import java.io.IOException;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 /**
  *  A Device. It can be a physical device or an emulator.
@@ -312,6 +314,35 @@ public interface IDevice {
             throws TimeoutException, AdbCommandRejectedException, ShellCommandUnresponsiveException,
             IOException;
 
+    /**
+     * Starts a shell command on the device, and sends the result to a <var>receiver</var>,
+     * without blocking the calling thread.
+     * <p/>The output of all the commands started this way, on all devices, is read by a single
+     * thread, and handed to the receivers from a small pool of worker threads, or from the
+     * thread blocked in {@link Future#get()}, if any. Calls to a given receiver are never
+     * concurrent. A receiver can run synchronous commands, or wait for other commands, from its
+     * callbacks.
+     *
+     * @param command the shell command to execute
+     * @param receiver the {@link IShellOutputReceiver} that will receives the output of the shell
+     *            command
+     * @param maxTimeToOutputResponse the maximum amount of time during which the command is allowed
+     *            to not output any response. A value of 0 means to wait forever (until the
+     *            <var>receiver</var> cancels the execution).
+     * @return a {@link Future} that completes when the command ends. If the command failed,
+     *            {@link Future#get()} throws an {@link ExecutionException} wrapping a
+     *            {@link ShellCommandUnresponsiveException} or an {@link IOException}.
+     *            Cancelling it stops the command.
+     * @throws TimeoutException in case of timeout on the connection when sending the command.
+     * @throws AdbCommandRejectedException if adb rejects the command.
+     * @throws IOException in case of I/O error on the connection.
+     *
+     * @see #executeShellCommand(String, IShellOutputReceiver, int)
+     */
+    public Future<Void> startShellCommand(String command, IShellOutputReceiver receiver,
+            int maxTimeToOutputResponse)
+            throws TimeoutException, AdbCommandRejectedException, IOException;
+
     /**
      * Runs the event log service and outputs the event log to the {@link LogReceiver}.
      * <p/>This call is blocking until {@link LogReceiver#isCancelled()} returns true.
@@ -340,6 +371,22 @@ public interface IDevice {
     public void runLogService(String logname, LogReceiver receiver)
             throws TimeoutException, AdbCommandRejectedException, IOException;
 
+    /**
+     * Starts the log service for the given log and outputs the log to the {@link LogReceiver},
+     * without blocking the calling thread.
+     * <p/>The service runs until {@link LogReceiver#isCancelled()} returns true. Its output is
+     * read the same way as for {@link #startShellCommand(String, IShellOutputReceiver, int)}.
+     *
+     * @param logname the logname of the log to read from.
+     * @param receiver the receiver to receive the event log entries.
+     * @return a {@link Future} that completes when the service ends.
+     * @throws TimeoutException in case of timeout on the connection during setup.
+     * @throws AdbCommandRejectedException if adb rejects the command
+     * @throws IOException in case of I/O error on the connection.
+     */
+    public Future<Void> startLogService(String logname, LogReceiver receiver)
+            throws TimeoutException, AdbCommandRejectedException, IOException;
+
     /**
      * Creates a port forwarding between a local and a remote port.
      *
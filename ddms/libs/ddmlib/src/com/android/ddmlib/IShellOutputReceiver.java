@@ -38,6 +38,9 @@ public interface IShellOutputReceiver {
 
     /**
      * Cancel method to stop the execution of the remote shell command.
+     * <p/>This is called after each call to {@link #addOutput(byte[], int, int)}, from the same
+     * thread, and regularly while the command outputs nothing. It must return quickly and must
+     * not block, as it may run on a thread shared with the other running commands.
      * @return true to cancel the execution of the command.
      */
     public boolean isCancelled();
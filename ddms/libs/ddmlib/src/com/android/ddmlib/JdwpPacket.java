@@ -283,6 +283,23 @@ final class JdwpPacket {
      * a valid JDWP packet.
      */
     static JdwpPacket findPacket(ByteBuffer buf) {
+        JdwpPacket pkt = findPacketHeader(buf);
+        if (pkt == null || buf.position() < pkt.mLength)
+            return null;
+
+        return pkt;
+    }
+
+    /**
+     * Like findPacket(), but returns the packet as soon as its header is
+     * in the buffer, even if the rest of the packet hasn't arrived yet.
+     * Only the header fields of the packet are valid, and it must not be
+     * consumed unless findPacket() would have returned it.
+     *
+     * Returns null if the header isn't complete.  Throws an exception if
+     * the data doesn't look like a valid JDWP packet.
+     */
+    static JdwpPacket findPacketHeader(ByteBuffer buf) {
         int count = buf.position();
         int length, id, flags, cmdSet, cmd;
 
@@ -302,8 +319,6 @@ final class JdwpPacket {
 
         if (length < JDWP_HEADER_LEN)
             throw new BadPacketException();
-        if (count < length)
-            return null;
 
         JdwpPacket pkt = new JdwpPacket(buf);
         //pkt.mBuffer = buf;
@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Splits the raw UTF-8 output of a shell command into lines, without creating objects for
+ * every packet or line.
+ * <p/>Lines are separated by <code>\r\n</code>, which is what the device shell outputs. The
+ * separator, as well as multi-byte UTF-8 sequences, can be split across packets.
+ * <p/>Each line is handed to the {@link ILineListener} as a {@link CharSequence} backed by a
+ * buffer that is reused for the next line. It is only valid during the call; listeners that
+ * need to keep it must call {@link CharSequence#toString()}.
+ * <p/>This is not thread-safe. {@link IShellOutputReceiver} implementations can use it from
+ * {@link IShellOutputReceiver#addOutput(byte[], int, int)}, which is never called concurrently.
+ *
+ * @see MultiLineReceiver
+ */
+public final class LineSplitter {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8"); //$NON-NLS-1$
+
+    /**
+     * Classes which implement this interface receive the lines found by a {@link LineSplitter}.
+     */
+    public interface ILineListener {
+        /**
+         * Sent when a complete line was found.
+         * @param line the line, without the line separator. This is only valid until the
+         * method returns.
+         */
+        public void newLine(CharSequence line);
+    }
+
+    private final ILineListener mListener;
+
+    private boolean mTrimLines = true;
+
+    /** bytes of the unfinished line, waiting for the next packet */
+    private byte[] mPending = new byte[256];
+    private int mPendingLength = 0;
+
+    /** decoded line handed to the listener */
+    private CharBuffer mLine = CharBuffer.allocate(256);
+
+    private final CharsetDecoder mDecoder = UTF8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    /**
+     * Creates a new splitter.
+     * @param listener the listener receiving the lines.
+     */
+    public LineSplitter(ILineListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Sets whether the lines are trimmed (see {@link String#trim()}) before being sent to the
+     * listener. The default is <code>true</code>.
+     */
+    public void setTrimLines(boolean trim) {
+        mTrimLines = trim;
+    }
+
+    /**
+     * Adds new data, sending every line it completes to the listener.
+     * @param data The new data.
+     * @param offset The offset at which the new data starts.
+     * @param length The length of the new data.
+     */
+    public void addData(byte[] data, int offset, int length) {
+        int end = offset + length;
+        int start = offset;
+
+        // the separator may have been split between the previous packet and this one.
+        if (length > 0 && data[offset] == '\n' && mPendingLength > 0
+                && mPending[mPendingLength - 1] == '\r') {
+            sendLine(mPending, 0, mPendingLength - 1);
+            mPendingLength = 0;
+            start++;
+        }
+
+        for (int i = start ; i < end ; i++) {
+            if (data[i] == '\n' && i > start && data[i - 1] == '\r') {
+                if (mPendingLength > 0) {
+                    // the beginning of the line was in a previous packet.
+                    appendPending(data, start, i - 1 - start);
+                    sendLine(mPending, 0, mPendingLength);
+                    mPendingLength = 0;
+                } else {
+                    sendLine(data, start, i - 1 - start);
+                }
+                start = i + 1;
+            }
+        }
+
+        appendPending(data, start, end - start);
+    }
+
+    /**
+     * Returns the unfinished line, that is, whatever data follows the last line separator, or
+     * <code>null</code> if there is none. The line is not trimmed.
+     * <p/>Like the lines sent to the listener, this is only valid until the next call to the
+     * splitter.
+     */
+    public CharSequence getUnfinishedLine() {
+        if (mPendingLength == 0) {
+            return null;
+        }
+
+        decode(mPending, 0, mPendingLength);
+        return mLine;
+    }
+
+    /**
+     * Discards the unfinished line, if any.
+     */
+    public void reset() {
+        mPendingLength = 0;
+    }
+
+    private void appendPending(byte[] data, int offset, int length) {
+        if (length == 0) {
+            return;
+        }
+
+        if (mPendingLength + length > mPending.length) {
+            byte[] newPending = new byte[Math.max(mPending.length * 2, mPendingLength + length)];
+            System.arraycopy(mPending, 0, newPending, 0, mPendingLength);
+            mPending = newPending;
+        }
+
+        System.arraycopy(data, offset, mPending, mPendingLength, length);
+        mPendingLength += length;
+    }
+
+    private void sendLine(byte[] data, int offset, int length) {
+        decode(data, offset, length);
+
+        if (mTrimLines) {
+            int start = 0;
+            int end = mLine.limit();
+            while (start < end && mLine.get(start) <= ' ') {
+                start++;
+            }
+            while (end > start && mLine.get(end - 1) <= ' ') {
+                end--;
+            }
+            mLine.limit(end);
+            mLine.position(start);
+        }
+
+        mListener.newLine(mLine);
+    }
+
+    /**
+     * Decodes UTF-8 bytes into {@link #mLine}, ready to be read.
+     */
+    private void decode(byte[] data, int offset, int length) {
+        // UTF-8 never produces more chars than bytes.
+        if (mLine.capacity() < length) {
+            mLine = CharBuffer.allocate(Math.max(mLine.capacity() * 2, length));
+        }
+        mLine.clear();
+
+        // fast path for ASCII, which is most of the output.
+        char[] chars = mLine.array();
+        int end = offset + length;
+        int i = offset;
+        while (i < end && data[i] >= 0) {
+            chars[i - offset] = (char)data[i];
+            i++;
+        }
+
+        if (i == end) {
+            mLine.limit(length);
+            return;
+        }
+
+        mLine.position(i - offset);
+        mDecoder.reset();
+        mDecoder.decode(ByteBuffer.wrap(data, i, end - i), mLine, true);
+        mDecoder.flush(mLine);
+        mLine.flip();
+    }
+}
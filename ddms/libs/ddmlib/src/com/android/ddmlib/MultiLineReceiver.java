@@ -16,7 +16,6 @@
 
 package com.android.ddmlib;
 
-import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 
 /**
@@ -25,22 +24,29 @@ import java.util.ArrayList;
  * <p/>Additionally, it splits the string by lines.
  * <p/>Classes extending it must implement {@link #processNewLines(String[])} which receives
  * new parsed lines as they become available.
+ * <p/>The splitting itself is done by a {@link LineSplitter}. Receivers processing a lot of
+ * output that don't need a {@link String} per line can use a {@link LineSplitter} directly.
  */
 public abstract class MultiLineReceiver implements IShellOutputReceiver {
 
-    private boolean mTrimLines = true;
+    private final ArrayList<String> mArray = new ArrayList<String>();
 
-    /** unfinished message line, stored for next packet */
-    private String mUnfinishedLine = null;
+    private final LineSplitter mSplitter = new LineSplitter(new LineSplitter.ILineListener() {
+        @Override
+        public void newLine(CharSequence line) {
+            mArray.add(line.toString());
+        }
+    });
 
-    private final ArrayList<String> mArray = new ArrayList<String>();
+    /** whether some output was received. */
+    private boolean mHasOutput = false;
 
     /**
      * Set the trim lines flag.
      * @param trim hether the lines are trimmed, or not.
      */
     public void setTrimLine(boolean trim) {
-        mTrimLines = trim;
+        mSplitter.setTrimLines(trim);
     }
 
     /* (non-Javadoc)
@@ -50,55 +56,19 @@ public abstract class MultiLineReceiver implements IShellOutputReceiver {
     @Override
     public final void addOutput(byte[] data, int offset, int length) {
         if (isCancelled() == false) {
-            String s = null;
-            try {
-                s = new String(data, offset, length, "UTF-8"); //$NON-NLS-1$
-            } catch (UnsupportedEncodingException e) {
-                // normal encoding didn't work, try the default one
-                s = new String(data, offset,length);
-            }
-
-            // ok we've got a string
-            if (s != null) {
-                // if we had an unfinished line we add it.
-                if (mUnfinishedLine != null) {
-                    s = mUnfinishedLine + s;
-                    mUnfinishedLine = null;
-                }
-
-                // now we split the lines
-                mArray.clear();
-                int start = 0;
-                do {
-                    int index = s.indexOf("\r\n", start); //$NON-NLS-1$
-
-                    // if \r\n was not found, this is an unfinished line
-                    // and we store it to be processed for the next packet
-                    if (index == -1) {
-                        mUnfinishedLine = s.substring(start);
-                        break;
-                    }
-
-                    // so we found a \r\n;
-                    // extract the line
-                    String line = s.substring(start, index);
-                    if (mTrimLines) {
-                        line = line.trim();
-                    }
-                    mArray.add(line);
+            mHasOutput = true;
 
-                    // move start to after the \r\n we found
-                    start = index + 2;
-                } while (true);
+            // now we split the lines
+            mArray.clear();
+            mSplitter.addData(data, offset, length);
 
-                if (mArray.size() > 0) {
-                    // at this point we've split all the lines.
-                    // make the array
-                    String[] lines = mArray.toArray(new String[mArray.size()]);
+            if (mArray.size() > 0) {
+                // at this point we've split all the lines.
+                // make the array
+                String[] lines = mArray.toArray(new String[mArray.size()]);
 
-                    // send it for final processing
-                    processNewLines(lines);
-                }
+                // send it for final processing
+                processNewLines(lines);
             }
         }
     }
@@ -108,8 +78,12 @@ public abstract class MultiLineReceiver implements IShellOutputReceiver {
      */
     @Override
     public final void flush() {
-        if (mUnfinishedLine != null) {
-            processNewLines(new String[] { mUnfinishedLine });
+        if (mHasOutput) {
+            // whatever follows the last line separator, even if empty, is sent as a last line.
+            CharSequence unfinishedLine = mSplitter.getUnfinishedLine();
+            processNewLines(new String[] {
+                    unfinishedLine != null ? unfinishedLine.toString() : "" //$NON-NLS-1$
+            });
         }
 
         done();
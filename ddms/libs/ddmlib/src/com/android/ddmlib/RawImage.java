@@ -132,18 +132,7 @@ public final class RawImage {
      * The image is rotated counter-clockwise.
      */
     public RawImage getRotated() {
-        RawImage rotated = new RawImage();
-        rotated.version = this.version;
-        rotated.bpp = this.bpp;
-        rotated.size = this.size;
-        rotated.red_offset = this.red_offset;
-        rotated.red_length = this.red_length;
-        rotated.blue_offset = this.blue_offset;
-        rotated.blue_length = this.blue_length;
-        rotated.green_offset = this.green_offset;
-        rotated.green_length = this.green_length;
-        rotated.alpha_offset = this.alpha_offset;
-        rotated.alpha_length = this.alpha_length;
+        RawImage rotated = copyHeader();
 
         rotated.width = this.height;
         rotated.height = this.width;
@@ -166,6 +155,55 @@ public final class RawImage {
         return rotated;
     }
 
+    /**
+     * Returns a version of the image scaled down by an integer factor, keeping one pixel out
+     * of <var>factor</var> in each direction.
+     */
+    public RawImage getScaled(int factor) {
+        RawImage scaled = copyHeader();
+
+        scaled.width = (this.width + factor - 1) / factor;
+        scaled.height = (this.height + factor - 1) / factor;
+
+        int byteCount = this.bpp >> 3; // bpp is in bits, we want bytes to match our array
+        scaled.size = scaled.width * scaled.height * byteCount;
+        scaled.data = new byte[scaled.size];
+
+        final int w = scaled.width;
+        final int h = scaled.height;
+        for (int y = 0 ; y < h ; y++) {
+            for (int x = 0 ; x < w ; x++) {
+                System.arraycopy(
+                        this.data, (y * factor * this.width + x * factor) * byteCount,
+                        scaled.data, (y * w + x) * byteCount,
+                        byteCount);
+            }
+        }
+
+        return scaled;
+    }
+
+    /**
+     * Returns a new image with the same format and size as this one, but no data.
+     */
+    private RawImage copyHeader() {
+        RawImage copy = new RawImage();
+        copy.version = this.version;
+        copy.bpp = this.bpp;
+        copy.size = this.size;
+        copy.width = this.width;
+        copy.height = this.height;
+        copy.red_offset = this.red_offset;
+        copy.red_length = this.red_length;
+        copy.blue_offset = this.blue_offset;
+        copy.blue_length = this.blue_length;
+        copy.green_offset = this.green_offset;
+        copy.green_length = this.green_length;
+        copy.alpha_offset = this.alpha_offset;
+        copy.alpha_length = this.alpha_length;
+        return copy;
+    }
+
     /**
      * Returns an ARGB integer value for the pixel at <var>index</var> in {@link #data}.
      */
@@ -196,6 +234,54 @@ public final class RawImage {
         return a << 24 | r << 16 | g << 8 | b;
     }
 
+    /**
+     * Converts the whole image into ARGB pixels, row by row, with the same values as
+     * {@link #getARGB(int)}.
+     * <p/>The common RGB565, RGBA8888 and BGRA8888 layouts are converted without going
+     * through the generic per-channel shifts.
+     * @param pixels the array to write the pixels into. It is reused if it can hold
+     *          <code>width * height</code> pixels, otherwise a new array is allocated.
+     * @return the array that received the pixels.
+     */
+    public int[] getARGB(int[] pixels) {
+        final int count = width * height;
+        if (pixels == null || pixels.length < count) {
+            pixels = new int[count];
+        }
+
+        final byte[] d = this.data;
+        if (bpp == 16 && red_offset == 11 && red_length == 5 && green_offset == 5
+                && green_length == 6 && blue_offset == 0 && blue_length == 5
+                && alpha_length == 0) {
+            // RGB565
+            for (int i = 0, j = 0 ; i < count ; i++, j += 2) {
+                int value = (d[j] & 0x00FF) | (d[j+1] & 0x00FF) << 8;
+                pixels[i] = 0xFF000000 | (value & 0xF800) << 8 | (value & 0x07E0) << 5
+                        | (value & 0x001F) << 3;
+            }
+        } else if (bpp == 32 && red_length == 8 && green_length == 8 && blue_length == 8
+                && green_offset == 8 && (alpha_length == 0
+                        || (alpha_length == 8 && alpha_offset == 24))
+                && ((red_offset == 0 && blue_offset == 16)
+                        || (red_offset == 16 && blue_offset == 0))) {
+            // RGBA8888 or BGRA8888, with or without alpha.
+            final int r = red_offset >> 3;
+            final int b = blue_offset >> 3;
+            final int opaque = alpha_length == 0 ? 0xFF000000 : 0;
+            for (int i = 0, j = 0 ; i < count ; i++, j += 4) {
+                pixels[i] = opaque | (d[j+3] & 0x00FF) << 24 | (d[j+r] & 0x00FF) << 16
+                        | (d[j+1] & 0x00FF) << 8 | (d[j+b] & 0x00FF);
+            }
+        } else {
+            final int byteCount = bpp >> 3;
+            for (int i = 0, j = 0 ; i < count ; i++, j += byteCount) {
+                pixels[i] = getARGB(j);
+            }
+        }
+
+        return pixels;
+    }
+
     /**
      * creates a mask value based on a length and offset.
      * <p/>This value is compatible with org.eclipse.swt.graphics.PaletteData
@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Takes successive screenshots of a device, and reports which tiles of the screen changed
+ * since the previous screenshot, so that consumers only convert and redraw those tiles.
+ * <p/>The framebuffer service of the device always sends whole frames, so this does not
+ * reduce the amount of data transferred from the device.
+ * <p/>Screenshots can optionally be downscaled, which reduces the cost of comparing,
+ * converting and keeping them.
+ */
+public final class ScreenshotCapture {
+
+    /** Default width and height of the tiles, in pixels. */
+    public static final int DEFAULT_TILE_SIZE = 64;
+
+    /**
+     * A rectangular part of a screenshot, in pixels of the (possibly downscaled) image.
+     */
+    public static final class Tile {
+        public final int x;
+        public final int y;
+        public final int width;
+        public final int height;
+
+        Tile(int x, int y, int width, int height) {
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%dx%d+%d+%d", width, height, x, y); //$NON-NLS-1$
+        }
+    }
+
+    /**
+     * The result of a capture: the new screenshot, and the tiles that changed since the
+     * previous one.
+     */
+    public static final class Delta {
+        private final RawImage mImage;
+        private final List<Tile> mChangedTiles;
+        private final boolean mFullFrame;
+
+        Delta(RawImage image, List<Tile> changedTiles, boolean fullFrame) {
+            mImage = image;
+            mChangedTiles = Collections.unmodifiableList(changedTiles);
+            mFullFrame = fullFrame;
+        }
+
+        /** Returns the new screenshot. */
+        public RawImage getImage() {
+            return mImage;
+        }
+
+        /**
+         * Returns true if the whole screenshot must be converted: there was no previous
+         * screenshot, or its size or format were different.
+         */
+        public boolean isFullFrame() {
+            return mFullFrame;
+        }
+
+        /** Returns whether anything changed since the previous screenshot. */
+        public boolean hasChanges() {
+            return mChangedTiles.isEmpty() == false;
+        }
+
+        /** Returns the tiles that changed, row by row. All tiles for a full frame. */
+        public List<Tile> getChangedTiles() {
+            return mChangedTiles;
+        }
+    }
+
+    private final IDevice mDevice;
+    private final int mTileSize;
+    private final int mScale;
+
+    private RawImage mLastImage;
+
+    /**
+     * Creates a capture of a device screen at full size, with the default tile size.
+     */
+    public ScreenshotCapture(IDevice device) {
+        this(device, DEFAULT_TILE_SIZE, 1);
+    }
+
+    /**
+     * Creates a capture of a device screen.
+     * @param device the device to capture
+     * @param tileSize the width and height of the tiles, in pixels of the captured image
+     * @param scale the downscaling factor: 1 captures the screen at full size, 2 at half its
+     *          width and height, and so on.
+     */
+    public ScreenshotCapture(IDevice device, int tileSize, int scale) {
+        if (tileSize <= 0 || scale <= 0) {
+            throw new IllegalArgumentException("tileSize and scale must be positive"); //$NON-NLS-1$
+        }
+        mDevice = device;
+        mTileSize = tileSize;
+        mScale = scale;
+    }
+
+    /** Returns the device this captures. */
+    public IDevice getDevice() {
+        return mDevice;
+    }
+
+    /**
+     * Takes a screenshot, and compares it to the previous one.
+     * @return the new screenshot and the tiles that changed, or null if the device did not
+     *          return a screenshot.
+     * @throws TimeoutException in case of timeout on the connection.
+     * @throws AdbCommandRejectedException if adb rejects the command
+     * @throws IOException in case of I/O error on the connection.
+     */
+    public synchronized Delta capture()
+            throws TimeoutException, AdbCommandRejectedException, IOException {
+        RawImage image = mDevice.getScreenshot();
+        if (image == null) {
+            return null;
+        }
+
+        if (mScale > 1) {
+            image = image.getScaled(mScale);
+        }
+
+        Delta delta = computeDelta(mLastImage, image, mTileSize);
+        mLastImage = image;
+        return delta;
+    }
+
+    /**
+     * Forgets the previous screenshot, so that the next capture is reported as a full frame.
+     */
+    public synchronized void reset() {
+        mLastImage = null;
+    }
+
+    /**
+     * Computes the tiles of an image that differ from a previous image.
+     * @param previous the previous image, or null
+     * @param image the new image
+     * @param tileSize the width and height of the tiles
+     */
+    static Delta computeDelta(RawImage previous, RawImage image, int tileSize) {
+        int tilesX = (image.width + tileSize - 1) / tileSize;
+        int tilesY = (image.height + tileSize - 1) / tileSize;
+        List<Tile> tiles = new ArrayList<Tile>();
+
+        boolean fullFrame = previous == null || hasSameFormat(previous, image) == false;
+        int byteCount = image.bpp >> 3;
+        int stride = image.width * byteCount;
+        boolean[] changed = new boolean[tilesX];
+
+        for (int ty = 0; ty < tilesY; ty++) {
+            int top = ty * tileSize;
+            int bottom = Math.min(top + tileSize, image.height);
+
+            if (fullFrame) {
+                Arrays.fill(changed, true);
+            } else {
+                // compare the rows of this band of tiles until all of its tiles changed.
+                Arrays.fill(changed, false);
+                int remaining = tilesX;
+                for (int y = top; y < bottom && remaining > 0; y++) {
+                    int row = y * stride;
+                    for (int tx = 0; tx < tilesX; tx++) {
+                        if (changed[tx]) {
+                            continue;
+                        }
+                        int start = row + tx * tileSize * byteCount;
+                        int end = row + Math.min((tx + 1) * tileSize, image.width) * byteCount;
+                        if (rangeEquals(previous.data, image.data, start, end) == false) {
+                            changed[tx] = true;
+                            remaining--;
+                        }
+                    }
+                }
+            }
+
+            for (int tx = 0; tx < tilesX; tx++) {
+                if (changed[tx]) {
+                    int left = tx * tileSize;
+                    tiles.add(new Tile(left, top, Math.min(tileSize, image.width - left),
+                            bottom - top));
+                }
+            }
+        }
+
+        return new Delta(image, tiles, fullFrame);
+    }
+
+    private static boolean hasSameFormat(RawImage a, RawImage b) {
+        return a.width == b.width && a.height == b.height && a.bpp == b.bpp
+                && a.red_offset == b.red_offset && a.red_length == b.red_length
+                && a.green_offset == b.green_offset && a.green_length == b.green_length
+                && a.blue_offset == b.blue_offset && a.blue_length == b.blue_length
+                && a.alpha_offset == b.alpha_offset && a.alpha_length == b.alpha_length;
+    }
+
+    private static boolean rangeEquals(byte[] a, byte[] b, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (a[i] != b[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -29,6 +29,14 @@ import java.io.UnsupportedEncodingException;
 import java.net.InetSocketAddress;
 import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Sync service class to push/pull to/from devices/emulators, through the debug bridge.
@@ -78,6 +86,29 @@ public final class SyncService {
     private final static int SYNC_DATA_MAX = 64*1024;
     private final static int REMOTE_PATH_MAX_LENGTH = 1024;
 
+    /** Max number of files requested on a connection before their transfer is complete. */
+    private final static int PIPELINE_DEPTH = 8;
+
+    /**
+     * Runs the transfers of the additional connections of multi-file transfers. Threads are
+     * created as needed, and end once idle for a while.
+     * <p/>Transfers block their thread for as long as they run, so they can't share the
+     * fixed pool of the {@link AdbServiceMonitor} without holding up the output of the shell
+     * and log services.
+     */
+    private final static ThreadPoolExecutor sTransferExecutor = new ThreadPoolExecutor(
+            0, Integer.MAX_VALUE, 30, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+            new ThreadFactory() {
+                private int mCount = 0;
+
+                @Override
+                public synchronized Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "Sync Transfer " + (++mCount)); //$NON-NLS-1$
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
     /**
      * Classes which implement this interface provide methods that deal
      * with displaying transfer progress.
@@ -132,6 +163,93 @@ public final class SyncService {
         }
     }
 
+    /**
+     * A Sync progress monitor that serializes the calls to another monitor, so that it can be
+     * shared by the connections of a parallel transfer.
+     */
+    private static class SynchronizedSyncProgressMonitor implements ISyncProgressMonitor {
+        private final ISyncProgressMonitor mMonitor;
+
+        SynchronizedSyncProgressMonitor(ISyncProgressMonitor monitor) {
+            mMonitor = monitor;
+        }
+
+        @Override
+        public synchronized void advance(int work) {
+            mMonitor.advance(work);
+        }
+        @Override
+        public synchronized boolean isCanceled() {
+            return mMonitor.isCanceled();
+        }
+
+        @Override
+        public synchronized void start(int totalWork) {
+            mMonitor.start(totalWork);
+        }
+        @Override
+        public synchronized void startSubTask(String name) {
+            mMonitor.startSubTask(name);
+        }
+        @Override
+        public synchronized void stop() {
+            mMonitor.stop();
+        }
+    }
+
+    /**
+     * A list of files to transfer over one or more connections.
+     */
+    private static class TransferBatch {
+        final String[] mSources;
+        final String[] mDestinations;
+        final boolean mPull;
+        final ISyncProgressMonitor mMonitor;
+
+        private int mNext = 0;
+        private Exception mError;
+
+        TransferBatch(String[] sources, String[] destinations, boolean pull,
+                ISyncProgressMonitor monitor) {
+            mSources = sources;
+            mDestinations = destinations;
+            mPull = pull;
+            mMonitor = new SynchronizedSyncProgressMonitor(monitor);
+        }
+
+        /**
+         * Returns the index of the next file to transfer, or -1 if there are no more files or
+         * if the transfer failed.
+         */
+        synchronized int next() {
+            if (mError != null || mNext == mSources.length) {
+                return -1;
+            }
+            return mNext++;
+        }
+
+        synchronized void fail(Exception e) {
+            if (mError == null) {
+                mError = e;
+            }
+        }
+
+        /**
+         * Rethrows the first error that happened on any of the connections.
+         */
+        synchronized void throwError() throws SyncException, IOException, TimeoutException {
+            if (mError instanceof SyncException) {
+                throw (SyncException)mError;
+            } else if (mError instanceof IOException) {
+                throw (IOException)mError;
+            } else if (mError instanceof TimeoutException) {
+                throw (TimeoutException)mError;
+            } else if (mError instanceof RuntimeException) {
+                throw (RuntimeException)mError;
+            }
+        }
+    }
+
     private InetSocketAddress mAddress;
     private Device mDevice;
     private SocketChannel mChannel;
@@ -267,6 +385,56 @@ public final class SyncService {
         monitor.stop();
     }
 
+    /**
+     * Pulls file(s) or folder(s), transferring several files at once.
+     * <p/>Up to <var>connectionCount</var> sync connections to the device are used in parallel,
+     * and each of them requests several files ahead instead of waiting for the previous file to
+     * be complete. This is much faster than {@link #pull(FileEntry[], String, ISyncProgressMonitor)}
+     * when pulling many small files.
+     * <p/>The calls to <var>monitor</var> are serialized, but may come from different threads.
+     * @param entries the remote item(s) to pull
+     * @param localPath The local destination. If the entries count is > 1 or
+     *      if the unique entry is a folder, this should be a folder.
+     * @param monitor The progress monitor. Cannot be null.
+     * @param connectionCount the max number of connections to use, including this one.
+     * @throws SyncException
+     * @throws IOException
+     * @throws TimeoutException
+     *
+     * @see FileListingService.FileEntry
+     * @see #getNullProgressMonitor()
+     */
+    public void pull(FileEntry[] entries, String localPath, ISyncProgressMonitor monitor,
+            int connectionCount) throws SyncException, IOException, TimeoutException {
+
+        // first we check the destination is a directory and exists
+        File f = new File(localPath);
+        if (f.exists() == false) {
+            throw new SyncException(SyncError.NO_DIR_TARGET);
+        }
+        if (f.isDirectory() == false) {
+            throw new SyncException(SyncError.TARGET_IS_FILE);
+        }
+
+        // get a FileListingService object
+        FileListingService fls = new FileListingService(mDevice);
+
+        // compute the number of file to move
+        int total = getTotalRemoteFileSize(entries, fls);
+
+        // start the monitor
+        monitor.start(total);
+
+        ArrayList<String> remotePaths = new ArrayList<String>();
+        ArrayList<String> localPaths = new ArrayList<String>();
+        listPull(entries, localPath, fls, remotePaths, localPaths, monitor);
+
+        pullFiles(remotePaths.toArray(new String[remotePaths.size()]),
+                localPaths.toArray(new String[localPaths.size()]), monitor, connectionCount);
+
+        monitor.stop();
+    }
+
     /**
      * Pulls a single file.
      * @param remote the remote file
@@ -354,6 +522,49 @@ public final class SyncService {
         monitor.stop();
     }
 
+    /**
+     * Push several files, transferring several files at once.
+     * <p/>Up to <var>connectionCount</var> sync connections to the device are used in parallel,
+     * and each of them sends several files ahead instead of waiting for the device to
+     * acknowledge the previous file. This is much faster than
+     * {@link #push(String[], FileEntry, ISyncProgressMonitor)} when pushing many small files.
+     * <p/>The calls to <var>monitor</var> are serialized, but may come from different threads.
+     * @param local An array of loca files to push
+     * @param remote the remote {@link FileEntry} representing a directory.
+     * @param monitor The progress monitor. Cannot be null.
+     * @param connectionCount the max number of connections to use, including this one.
+     * @throws SyncException if file could not be pushed
+     * @throws IOException in case of I/O error on the connection.
+     * @throws TimeoutException in case of a timeout reading responses from the device.
+     */
+    public void push(String[] local, FileEntry remote, ISyncProgressMonitor monitor,
+            int connectionCount) throws SyncException, IOException, TimeoutException {
+        if (remote.isDirectory() == false) {
+            throw new SyncException(SyncError.REMOTE_IS_FILE);
+        }
+
+        // make a list of File from the list of String
+        ArrayList<File> files = new ArrayList<File>();
+        for (String path : local) {
+            files.add(new File(path));
+        }
+
+        // get the total count of the bytes to transfer
+        File[] fileArray = files.toArray(new File[files.size()]);
+        int total = getTotalLocalFileSize(fileArray);
+
+        monitor.start(total);
+
+        ArrayList<String> localPaths = new ArrayList<String>();
+        ArrayList<String> remotePaths = new ArrayList<String>();
+        listPush(fileArray, remote.getFullPath(), localPaths, remotePaths, monitor);
+
+        pushFiles(localPaths.toArray(new String[localPaths.size()]),
+                remotePaths.toArray(new String[remotePaths.size()]), monitor, connectionCount);
+
+        monitor.stop();
+    }
+
     /**
      * Push a single file.
      * @param local the local filepath.
@@ -472,6 +683,253 @@ public final class SyncService {
         }
     }
 
+    /**
+     * Lists the files to pull recursively, and creates the local directories.
+     * @param entries The list of entry to pull
+     * @param localPath the localpath to a directory
+     * @param fileListingService a FileListingService object to browse through remote directories.
+     * @param remotePaths receives the remote files to pull.
+     * @param localPaths receives the local destination of each file.
+     * @param monitor the progress monitor. Must be started already.
+     * @throws SyncException if the transfer was cancelled.
+     */
+    private void listPull(FileEntry[] entries, String localPath,
+            FileListingService fileListingService, List<String> remotePaths,
+            List<String> localPaths, ISyncProgressMonitor monitor) throws SyncException {
+
+        for (FileEntry e : entries) {
+            // check if we're cancelled
+            if (monitor.isCanceled() == true) {
+                throw new SyncException(SyncError.CANCELED);
+            }
+
+            // get type (we only pull directory and files for now)
+            int type = e.getType();
+            if (type == FileListingService.TYPE_DIRECTORY) {
+                String dest = localPath + File.separator + e.getName();
+
+                // make the directory
+                File d = new File(dest);
+                d.mkdir();
+
+                // then recursively list the content. Since we did a ls command
+                // to get the number of files, we can use the cache
+                FileEntry[] children = fileListingService.getChildren(e, true, null);
+                listPull(children, dest, fileListingService, remotePaths, localPaths, monitor);
+                monitor.advance(1);
+            } else if (type == FileListingService.TYPE_FILE) {
+                remotePaths.add(e.getFullPath());
+                localPaths.add(localPath + File.separator + e.getName());
+            }
+        }
+    }
+
+    /**
+     * Lists the files to push recursively.
+     * @param fileArray the local files and directories to push.
+     * @param remotePath the remote directory.
+     * @param localPaths receives the local files to push.
+     * @param remotePaths receives the remote destination of each file.
+     * @param monitor the progress monitor. Must be started already.
+     * @throws SyncException if the transfer was cancelled.
+     */
+    private void listPush(File[] fileArray, String remotePath, List<String> localPaths,
+            List<String> remotePaths, ISyncProgressMonitor monitor) throws SyncException {
+        for (File f : fileArray) {
+            // check if we're canceled
+            if (monitor.isCanceled() == true) {
+                throw new SyncException(SyncError.CANCELED);
+            }
+            if (f.exists()) {
+                if (f.isDirectory()) {
+                    // append the name of the directory to the remote path
+                    String dest = remotePath + "/" + f.getName(); // $NON-NLS-1S
+                    listPush(f.listFiles(), dest, localPaths, remotePaths, monitor);
+
+                    monitor.advance(1);
+                } else if (f.isFile()) {
+                    // append the name of the file to the remote path
+                    localPaths.add(f.getAbsolutePath());
+                    remotePaths.add(remotePath + "/" + f.getName()); // $NON-NLS-1S
+                }
+            }
+        }
+    }
+
+    /**
+     * Pulls a list of remote files, using up to <var>connectionCount</var> connections.
+     * @param remotePaths the remote files.
+     * @param localPaths the local destination of each file.
+     * @param monitor the monitor. The monitor must be started already.
+     * @param connectionCount the max number of connections to use, including this one.
+     * @throws SyncException if a file could not be pulled
+     * @throws IOException in case of I/O error on the connection.
+     * @throws TimeoutException in case of a timeout reading responses from the device.
+     */
+    void pullFiles(String[] remotePaths, String[] localPaths, ISyncProgressMonitor monitor,
+            int connectionCount) throws SyncException, IOException, TimeoutException {
+        runBatch(new TransferBatch(remotePaths, localPaths, true /* pull */, monitor),
+                connectionCount);
+    }
+
+    /**
+     * Pushes a list of local files, using up to <var>connectionCount</var> connections.
+     * @param localPaths the local files.
+     * @param remotePaths the remote destination of each file.
+     * @param monitor the monitor. The monitor must be started already.
+     * @param connectionCount the max number of connections to use, including this one.
+     * @throws SyncException if a file could not be pushed
+     * @throws IOException in case of I/O error on the connection.
+     * @throws TimeoutException in case of a timeout reading responses from the device.
+     */
+    void pushFiles(String[] localPaths, String[] remotePaths, ISyncProgressMonitor monitor,
+            int connectionCount) throws SyncException, IOException, TimeoutException {
+        runBatch(new TransferBatch(localPaths, remotePaths, false /* pull */, monitor),
+                connectionCount);
+    }
+
+    /**
+     * Runs a batch on this connection and on up to <var>connectionCount</var> - 1 additional
+     * connections, each on its own thread.
+     * <p/>If additional connections cannot be opened, the batch runs on fewer connections.
+     * <p/>If the transfer fails on this connection, the connection is replaced with a new one,
+     * as responses to the files that were in flight may still be on their way.
+     */
+    private void runBatch(final TransferBatch batch, int connectionCount)
+            throws SyncException, IOException, TimeoutException {
+        checkConnection();
+
+        ArrayList<SyncService> connections = new ArrayList<SyncService>();
+        ArrayList<Future<?>> transfers = new ArrayList<Future<?>>();
+
+        try {
+            // no point in having connections with less than a full pipeline each.
+            int max = Math.min(connectionCount,
+                    (batch.mSources.length + PIPELINE_DEPTH - 1) / PIPELINE_DEPTH);
+            for (int i = 1 ; i < max ; i++) {
+                final SyncService sync = new SyncService(mAddress, mDevice);
+                try {
+                    if (sync.openSync() == false) {
+                        break;
+                    }
+                } catch (Exception e) {
+                    Log.w("ddms", "Failed to open additional sync connection: " + e.getMessage());
+                    break;
+                }
+                connections.add(sync);
+
+                // the additional connections are closed whatever their state, once done.
+                transfers.add(sTransferExecutor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        sync.runTransfers(batch);
+                    }
+                }));
+            }
+
+            if (runTransfers(batch) == false) {
+                reconnect();
+            }
+
+            boolean interrupted = false;
+            for (Future<?> transfer : transfers) {
+                while (true) {
+                    try {
+                        transfer.get();
+                        break;
+                    } catch (InterruptedException e) {
+                        // cancel the files not started yet, and keep waiting for the others:
+                        // the connections are closed once the transfers are done.
+                        interrupted = true;
+                        batch.fail(new SyncException(SyncError.CANCELED));
+                    } catch (ExecutionException e) {
+                        // can't happen, runTransfers() reports its errors to the batch.
+                        batch.fail((Exception) e.getCause());
+                        break;
+                    }
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        } finally {
+            for (SyncService sync : connections) {
+                sync.close();
+            }
+        }
+
+        batch.throwError();
+    }
+
+    /**
+     * Transfers files of the batch on this connection until there are none left, keeping up to
+     * {@link #PIPELINE_DEPTH} files in flight. Errors are reported to the batch.
+     * @return true if the connection can be used for other transfers, false if the transfer
+     *         failed on this connection, leaving responses in flight or partly read.
+     */
+    private boolean runTransfers(TransferBatch batch) {
+        LinkedList<Integer> inFlight = new LinkedList<Integer>();
+        try {
+            while (true) {
+                while (inFlight.size() < PIPELINE_DEPTH) {
+                    int index = batch.next();
+                    if (index == -1) {
+                        break;
+                    }
+
+                    if (batch.mPull) {
+                        sendPullRequest(batch.mSources[index]);
+                    } else {
+                        batch.mMonitor.startSubTask(batch.mDestinations[index]);
+                        sendPushedFile(batch.mSources[index], batch.mDestinations[index],
+                                batch.mMonitor);
+                    }
+                    inFlight.add(index);
+                }
+
+                // the files still in flight when another connection fails are completed
+                // anyway, so that this connection is left in a usable state.
+                Integer index = inFlight.poll();
+                if (index == null) {
+                    return true;
+                }
+
+                if (batch.mPull) {
+                    batch.mMonitor.startSubTask(batch.mSources[index]);
+                    receivePulledFile(batch.mDestinations[index], batch.mMonitor);
+                } else {
+                    readPushResult();
+                }
+            }
+        } catch (Exception e) {
+            batch.fail(e);
+            return false;
+        }
+    }
+
+    /**
+     * Replaces the connection with a new one. If the new connection cannot be opened, the
+     * service is left closed, and all further transfers fail.
+     */
+    private void reconnect() {
+        close();
+        try {
+            openSync();
+        } catch (Exception e) {
+            Log.w("ddms", "Failed to reopen sync connection: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Checks that the connection is open.
+     * @throws IOException if the connection is closed.
+     */
+    private void checkConnection() throws IOException {
+        if (mChannel == null) {
+            throw new IOException("Sync connection is closed");
+        }
+    }
+
     /**
      * Pulls a remote file
      * @param remotePath the remote file (length max is 1024)
@@ -483,11 +941,20 @@ public final class SyncService {
      */
     private void doPullFile(String remotePath, String localPath,
             ISyncProgressMonitor monitor) throws IOException, SyncException, TimeoutException {
-        byte[] msg = null;
-        byte[] pullResult = new byte[8];
-
-        final int timeOut = DdmPreferences.getTimeOut();
+        checkConnection();
+        sendPullRequest(remotePath);
+        receivePulledFile(localPath, monitor);
+    }
 
+    /**
+     * Sends the request to pull a remote file.
+     * @param remotePath the remote file (length max is 1024)
+     * @throws SyncException if the path is invalid
+     * @throws IOException in case of I/O error on the connection.
+     * @throws TimeoutException in case of a timeout sending the request.
+     */
+    private void sendPullRequest(String remotePath)
+            throws IOException, SyncException, TimeoutException {
         try {
             byte[] remotePathContent = remotePath.getBytes(AdbHelper.DEFAULT_ENCODING);
 
@@ -495,24 +962,37 @@ public final class SyncService {
                 throw new SyncException(SyncError.REMOTE_PATH_LENGTH);
             }
 
-            // create the full request message
-            msg = createFileReq(ID_RECV, remotePathContent);
+            // create the full request message and send it.
+            byte[] msg = createFileReq(ID_RECV, remotePathContent);
+            AdbHelper.write(mChannel, msg, -1, DdmPreferences.getTimeOut());
+        } catch (UnsupportedEncodingException e) {
+            throw new SyncException(SyncError.REMOTE_PATH_ENCODING, e);
+        }
+    }
+
+    /**
+     * Receives a remote file, once it was requested with {@link #sendPullRequest(String)}.
+     * @param localPath the local destination
+     * @param monitor the monitor. The monitor must be started already.
+     * @throws SyncException if file could not be pulled
+     * @throws IOException in case of I/O error on the connection.
+     * @throws TimeoutException in case of a timeout reading responses from the device.
+     */
+    private void receivePulledFile(String localPath, ISyncProgressMonitor monitor)
+            throws IOException, SyncException, TimeoutException {
+        byte[] pullResult = new byte[8];
 
-            // and send it.
-            AdbHelper.write(mChannel, msg, -1, timeOut);
+        final int timeOut = DdmPreferences.getTimeOut();
 
-            // read the result, in a byte array containing 2 ints
-            // (id, size)
-            AdbHelper.read(mChannel, pullResult, -1, timeOut);
+        // read the result, in a byte array containing 2 ints
+        // (id, size)
+        AdbHelper.read(mChannel, pullResult, -1, timeOut);
 
-            // check we have the proper data back
-            if (checkResult(pullResult, ID_DATA) == false &&
-                    checkResult(pullResult, ID_DONE) == false) {
-                throw new SyncException(SyncError.TRANSFER_PROTOCOL_ERROR,
-                        readErrorMessage(pullResult, timeOut));
-            }
-        } catch (UnsupportedEncodingException e) {
-            throw new SyncException(SyncError.REMOTE_PATH_ENCODING, e);
+        // check we have the proper data back
+        if (checkResult(pullResult, ID_DATA) == false &&
+                checkResult(pullResult, ID_DONE) == false) {
+            throw new SyncException(SyncError.TRANSFER_PROTOCOL_ERROR,
+                    readErrorMessage(pullResult, timeOut));
         }
 
         // access the destination file
@@ -532,42 +1012,46 @@ public final class SyncService {
         // the buffer to read the data
         byte[] data = new byte[SYNC_DATA_MAX];
 
-        // loop to get data until we're done.
-        while (true) {
-            // check if we're cancelled
-            if (monitor.isCanceled() == true) {
-                throw new SyncException(SyncError.CANCELED);
-            }
+        try {
+            // loop to get data until we're done.
+            while (true) {
+                // check if we're cancelled
+                if (monitor.isCanceled() == true) {
+                    throw new SyncException(SyncError.CANCELED);
+                }
 
-            // if we're done, we stop the loop
-            if (checkResult(pullResult, ID_DONE)) {
-                break;
-            }
-            if (checkResult(pullResult, ID_DATA) == false) {
-                // hmm there's an error
-                throw new SyncException(SyncError.TRANSFER_PROTOCOL_ERROR,
-                        readErrorMessage(pullResult, timeOut));
-            }
-            int length = ArrayHelper.swap32bitFromArray(pullResult, 4);
-            if (length > SYNC_DATA_MAX) {
-                // buffer overrun!
-                // error and exit
-                throw new SyncException(SyncError.BUFFER_OVERRUN);
-            }
+                // if we're done, we stop the loop
+                if (checkResult(pullResult, ID_DONE)) {
+                    break;
+                }
+                if (checkResult(pullResult, ID_DATA) == false) {
+                    // hmm there's an error
+                    throw new SyncException(SyncError.TRANSFER_PROTOCOL_ERROR,
+                            readErrorMessage(pullResult, timeOut));
+                }
+                int length = ArrayHelper.swap32bitFromArray(pullResult, 4);
+                if (length > SYNC_DATA_MAX) {
+                    // buffer overrun!
+                    // error and exit
+                    throw new SyncException(SyncError.BUFFER_OVERRUN);
+                }
 
-            // now read the length we received
-            AdbHelper.read(mChannel, data, length, timeOut);
+                // now read the length we received
+                AdbHelper.read(mChannel, data, length, timeOut);
 
-            // get the header for the next packet.
-            AdbHelper.read(mChannel, pullResult, -1, timeOut);
+                // get the header for the next packet.
+                AdbHelper.read(mChannel, pullResult, -1, timeOut);
 
-            // write the content in the file
-            fos.write(data, 0, length);
+                // write the content in the file
+                fos.write(data, 0, length);
 
-            monitor.advance(length);
-        }
+                monitor.advance(length);
+            }
 
-        fos.flush();
+            fos.flush();
+        } finally {
+            fos.close();
+        }
     }
 
 
@@ -618,6 +1102,25 @@ public final class SyncService {
      */
     private void doPushFile(String localPath, String remotePath,
             ISyncProgressMonitor monitor) throws SyncException, IOException, TimeoutException {
+        checkConnection();
+        sendPushedFile(localPath, remotePath, monitor);
+        readPushResult();
+    }
+
+    /**
+     * Sends a local file to the device, without waiting for the device to acknowledge it.
+     * @param localPath the local file to push
+     * @param remotePath the remote file (length max is 1024)
+     * @param monitor the monitor. The monitor must be started already.
+     *
+     * @throws SyncException if file could not be pushed
+     * @throws IOException in case of I/O error on the connection.
+     * @throws TimeoutException in case of a timeout sending the file.
+     *
+     * @see #readPushResult()
+     */
+    private void sendPushedFile(String localPath, String remotePath,
+            ISyncProgressMonitor monitor) throws SyncException, IOException, TimeoutException {
         FileInputStream fis = null;
         byte[] msg;
 
@@ -686,6 +1189,18 @@ public final class SyncService {
 
         // and send it.
         AdbHelper.write(mChannel, msg, -1, timeOut);
+    }
+
+    /**
+     * Reads the device response to a file sent with
+     * {@link #sendPushedFile(String, String, ISyncProgressMonitor)}.
+     *
+     * @throws SyncException if file could not be pushed
+     * @throws IOException in case of I/O error on the connection.
+     * @throws TimeoutException in case of a timeout reading responses from the device.
+     */
+    private void readPushResult() throws SyncException, IOException, TimeoutException {
+        final int timeOut = DdmPreferences.getTimeOut();
 
         // read the result, in a byte array containing 2 ints
         // (id, size)
@@ -712,6 +1227,9 @@ public final class SyncService {
             int len = ArrayHelper.swap32bitFromArray(result, 4);
 
             if (len > 0) {
+                if (mBuffer == null) {
+                    mBuffer = new byte[SYNC_DATA_MAX + 8];
+                }
                 AdbHelper.read(mChannel, mBuffer, len, timeOut);
 
                 String message = new String(mBuffer, 0, len);
@@ -733,6 +1251,8 @@ public final class SyncService {
      * @throws TimeoutException in case of a timeout reading responses from the device.
      */
     private Integer readMode(String path) throws TimeoutException, IOException {
+        checkConnection();
+
         // create the stat request message.
         byte[] msg = createFileReq(ID_STAT, path);
 
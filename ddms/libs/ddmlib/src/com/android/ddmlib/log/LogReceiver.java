@@ -76,6 +76,34 @@ public final class LogReceiver {
         public void newData(byte[] data, int offset, int length);
     }
 
+    /**
+     * Classes which implement this interface receive the log entries coming from the log
+     * service without a {@link LogEntry} being created for each of them.
+     * <p/>This is meant for listeners storing large amounts of entries in their own format,
+     * which would otherwise have to copy the data out of every {@link LogEntry}.
+     */
+    public interface IRawLogListener {
+        /**
+         * Sent when a new log entry has been parsed by the {@link LogReceiver}.
+         * @param pid pid of the process that generated the entry.
+         * @param tid tid of the thread that generated the entry.
+         * @param sec seconds since epoch.
+         * @param nsec nanoseconds.
+         * @param payload the buffer holding the raw data of the entry. This is only valid until
+         * the method returns.
+         * @param offset the offset of the entry data in <var>payload</var>.
+         * @param length the length of the entry data.
+         */
+        public void newEntry(int pid, int tid, int sec, int nsec, byte[] payload, int offset,
+                int length);
+
+        /**
+         * Sent once all the entries of a block of data coming from the log service have been
+         * sent, so that they can be processed in batches.
+         */
+        public void endOfData();
+    }
+
     /** Current {@link LogEntry} being read, before sending it to the listener. */
     private LogEntry mCurrentEntry;
 
@@ -89,6 +117,10 @@ public final class LogReceiver {
     /** Listener waiting for receive fully read {@link LogEntry} objects */
     private ILogListener mListener;
 
+    /** Listener receiving raw entries, in which case {@link #mCurrentEntry} is reused. */
+    private IRawLogListener mRawListener;
+    private LogEntry mRawEntry;
+
     private boolean mIsCancelled = false;
     
     /**
@@ -101,7 +133,18 @@ public final class LogReceiver {
     public LogReceiver(ILogListener listener) {
         mListener = listener;
     }
-    
+
+    /**
+     * Creates a {@link LogReceiver} with an {@link IRawLogListener}.
+     * <p/>
+     * The {@link IRawLogListener} will receive new log entries as they are parsed, directly
+     * from the data coming from the log service whenever possible.
+     * @param listener the listener to receive new log entries.
+     */
+    public LogReceiver(IRawLogListener listener) {
+        mRawListener = listener;
+    }
+
 
     /**
      * Parses new data coming from the log service.
@@ -115,6 +158,14 @@ public final class LogReceiver {
             mListener.newData(data, offset, length);
         }
 
+        parseEntries(data, offset, length);
+
+        if (mRawListener != null) {
+            mRawListener.endOfData();
+        }
+    }
+
+    private void parseEntries(byte[] data, int offset, int length) {
         // loop while there is still data to be read and the receiver has not be cancelled.
         while (length > 0 && mIsCancelled == false) {
             // first check if we have no current entry.
@@ -165,12 +216,26 @@ public final class LogReceiver {
                 // based on how much we may already have read.
                 int dataSize = mCurrentEntry.len - mEntryDataOffset;  
     
-                // we only read what we need, and put it in the entry buffer.
-                System.arraycopy(data, offset, mCurrentEntry.data, mEntryDataOffset, dataSize);
-                
-                // notify the listener of a new entry
-                if (mListener != null) {
-                    mListener.newEntry(mCurrentEntry);
+                if (mRawListener != null) {
+                    LogEntry entry = mCurrentEntry;
+                    if (mEntryDataOffset == 0) {
+                        // the whole entry is in the data buffer, no need to copy it.
+                        mRawListener.newEntry(entry.pid, entry.tid, entry.sec, entry.nsec,
+                                data, offset, dataSize);
+                    } else {
+                        System.arraycopy(data, offset, entry.data, mEntryDataOffset, dataSize);
+                        mRawListener.newEntry(entry.pid, entry.tid, entry.sec, entry.nsec,
+                                entry.data, 0, entry.len);
+                    }
+                } else {
+                    // we only read what we need, and put it in the entry buffer.
+                    System.arraycopy(data, offset, mCurrentEntry.data, mEntryDataOffset,
+                            dataSize);
+
+                    // notify the listener of a new entry
+                    if (mListener != null) {
+                        mListener.newEntry(mCurrentEntry);
+                    }
                 }
     
                 // reset some flags: we have read 0 data of the current entry.
@@ -221,8 +286,15 @@ public final class LogReceiver {
                     "Buffer not big enough to hold full LoggerEntry header");
         }
 
-        // create the new entry and fill it.
-        LogEntry entry = new LogEntry();
+        // create the new entry and fill it. Raw listeners never see the entry, so it can be
+        // reused.
+        LogEntry entry = mRawEntry;
+        if (entry == null) {
+            entry = new LogEntry();
+            if (mRawListener != null) {
+                mRawEntry = entry;
+            }
+        }
         entry.len = ArrayHelper.swapU16bitFromArray(data, offset);
         
         // we've read only 16 bits, but since there's also a 16 bit padding,
@@ -239,7 +311,12 @@ public final class LogReceiver {
         offset += 4;
         
         // allocate the data
-        entry.data = new byte[entry.len];
+        if (mRawListener == null) {
+            entry.data = new byte[entry.len];
+        } else if (entry.data == null || entry.data.length < entry.len) {
+            // the size of the payload is stored on 16 bits.
+            entry.data = new byte[0x10000];
+        }
         
         return entry;
     }
@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ddmlib;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link AdbHelper}, running against a {@link FakeAdbServer}.
+ */
+public class AdbHelperTest extends TestCase {
+
+    private static final String OUTPUT = "ro.build.version.sdk=16\r\n"; //$NON-NLS-1$
+
+    private FakeAdbServer mServer;
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (mServer != null) {
+            mServer.stop();
+        }
+        super.tearDown();
+    }
+
+    /**
+     * Test that the output of a shell command is delivered to the receiver.
+     */
+    public void testExecuteRemoteCommand() throws Exception {
+        mServer = new FakeAdbServer(new ShellHandler(0));
+
+        CollectingOutputReceiver receiver = new CollectingOutputReceiver();
+        AdbHelper.executeRemoteCommand(mServer.getAddress(), "getprop", null, receiver, 0);
+        assertEquals(OUTPUT, receiver.getOutput());
+    }
+
+    /**
+     * Test that output split in several packets with a delay in between is reassembled, and
+     * that the delay does not trigger maxTimeToOutputResponse.
+     */
+    public void testExecuteRemoteCommand_delayedOutput() throws Exception {
+        mServer = new FakeAdbServer(new ShellHandler(50));
+
+        CollectingOutputReceiver receiver = new CollectingOutputReceiver();
+        AdbHelper.executeRemoteCommand(mServer.getAddress(), "getprop", null, receiver, 1000);
+        assertEquals(OUTPUT + OUTPUT, receiver.getOutput());
+    }
+
+    /**
+     * Test that a command that never sends output throws
+     * {@link ShellCommandUnresponsiveException} once maxTimeToOutputResponse expires.
+     */
+    public void testExecuteRemoteCommand_unresponsive() throws Exception {
+        mServer = new FakeAdbServer(new FakeAdbServer.IServiceHandler() {
+            @Override
+            public void handle(String service, DataInputStream in, OutputStream out)
+                    throws IOException {
+                FakeAdbServer.writeOkay(out);
+                FakeAdbServer.drain(in);
+            }
+        });
+
+        long start = System.currentTimeMillis();
+        try {
+            AdbHelper.executeRemoteCommand(mServer.getAddress(), "sleep 100", null,
+                    new CollectingOutputReceiver(), 200);
+            fail("expected ShellCommandUnresponsiveException");
+        } catch (ShellCommandUnresponsiveException e) {
+            // expected
+        }
+        assertTrue(System.currentTimeMillis() - start >= 200);
+    }
+
+    /**
+     * Test that a rejected command throws {@link AdbCommandRejectedException}.
+     */
+    public void testExecuteRemoteCommand_rejected() throws Exception {
+        mServer = new FakeAdbServer(new FakeAdbServer.IServiceHandler() {
+            @Override
+            public void handle(String service, DataInputStream in, OutputStream out)
+                    throws IOException {
+                FakeAdbServer.writeFail(out, "device offline");
+            }
+        });
+
+        try {
+            AdbHelper.executeRemoteCommand(mServer.getAddress(), "ls", null,
+                    new CollectingOutputReceiver(), 0);
+            fail("expected AdbCommandRejectedException");
+        } catch (AdbCommandRejectedException e) {
+            assertEquals("device offline", e.getMessage());
+        }
+    }
+
+    /**
+     * Test that a command keeps reading while the device keeps the stream open, and returns
+     * once the device closes it.
+     */
+    public void testExecuteRemoteCommand_returnsWhenStreamCloses() throws Exception {
+        final CountDownLatch closeStream = new CountDownLatch(1);
+        mServer = new FakeAdbServer(new FakeAdbServer.IServiceHandler() {
+            @Override
+            public void handle(String service, DataInputStream in, OutputStream out)
+                    throws IOException {
+                FakeAdbServer.writeOkay(out);
+                out.write(OUTPUT.getBytes(AdbHelper.DEFAULT_ENCODING));
+                out.flush();
+                try {
+                    closeStream.await();
+                } catch (InterruptedException e) {
+                    // close the stream now.
+                }
+            }
+        });
+
+        final CountDownLatch outputReceived = new CountDownLatch(1);
+        final CollectingOutputReceiver receiver = new CollectingOutputReceiver() {
+            @Override
+            public void addOutput(byte[] data, int offset, int length) {
+                super.addOutput(data, offset, length);
+                outputReceived.countDown();
+            }
+        };
+
+        final CountDownLatch done = new CountDownLatch(1);
+        final Exception[] error = new Exception[1];
+        Thread t = new Thread("executeRemoteCommand") {
+            @Override
+            public void run() {
+                try {
+                    // no max time: only the end of the stream can make the command return.
+                    AdbHelper.executeRemoteCommand(mServer.getAddress(), "getprop", null,
+                            receiver, 0);
+                } catch (Exception e) {
+                    error[0] = e;
+                }
+                done.countDown();
+            }
+        };
+        t.setDaemon(true);
+        t.start();
+
+        assertTrue(outputReceived.await(10, TimeUnit.SECONDS));
+        assertEquals(1, done.getCount());
+
+        closeStream.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertNull(error[0]);
+        assertEquals(OUTPUT, receiver.getOutput());
+    }
+
+    /**
+     * Test that interrupting a thread waiting for data makes the read throw
+     * {@link InterruptedIOException}, and keeps the interrupt status of the thread.
+     */
+    public void testRead_interrupted() throws Exception {
+        mServer = new FakeAdbServer(new FakeAdbServer.IServiceHandler() {
+            @Override
+            public void handle(String service, DataInputStream in, OutputStream out)
+                    throws IOException {
+                FakeAdbServer.drain(in);
+            }
+        });
+
+        final SocketChannel chan = SocketChannel.open(mServer.getAddress());
+        try {
+            chan.configureBlocking(false);
+
+            final CountDownLatch done = new CountDownLatch(1);
+            final Exception[] error = new Exception[1];
+            final boolean[] interrupted = new boolean[1];
+            Thread t = new Thread("read") {
+                @Override
+                public void run() {
+                    try {
+                        // no timeout: only the interrupt can make the read return.
+                        AdbHelper.read(chan, new byte[4], -1, 0);
+                    } catch (Exception e) {
+                        error[0] = e;
+                    }
+                    interrupted[0] = Thread.currentThread().isInterrupted();
+                    done.countDown();
+                }
+            };
+            t.setDaemon(true);
+            t.start();
+
+            assertFalse(done.await(100, TimeUnit.MILLISECONDS));
+            t.interrupt();
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            assertTrue(String.valueOf(error[0]), error[0] instanceof InterruptedIOException);
+            assertTrue(interrupted[0]);
+        } finally {
+            chan.close();
+        }
+    }
+
+    /**
+     * Answers shell requests with {@link #OUTPUT}. If a delay is set, the output is sent a
+     * second time after the delay.
+     */
+    private static class ShellHandler implements FakeAdbServer.IServiceHandler {
+        private final int mDelay;
+
+        ShellHandler(int delay) {
+            mDelay = delay;
+        }
+
+        @Override
+        public void handle(String service, DataInputStream in, OutputStream out)
+                throws IOException {
+            if (service.startsWith("shell:") == false) { //$NON-NLS-1$
+                FakeAdbServer.writeFail(out, "unknown service");
+                return;
+            }
+
+            FakeAdbServer.writeOkay(out);
+            out.write(OUTPUT.getBytes(AdbHelper.DEFAULT_ENCODING));
+            out.flush();
+
+            if (mDelay > 0) {
+                try {
+                    Thread.sleep(mDelay);
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+                out.write(OUTPUT.getBytes(AdbHelper.DEFAULT_ENCODING));
+                out.flush();
+            }
+        }
+    }
+}
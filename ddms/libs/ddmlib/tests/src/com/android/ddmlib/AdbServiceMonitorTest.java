@@ -0,0 +1,403 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ddmlib;
+
+import com.android.ddmlib.log.LogReceiver;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for the services run through the {@link AdbServiceMonitor}, running against a
+ * {@link FakeAdbServer}.
+ */
+public class AdbServiceMonitorTest extends TestCase {
+
+    private static final String OUTPUT = "ro.build.version.sdk=16\r\n"; //$NON-NLS-1$
+
+    /** number of commands to run at once in {@link #testStartRemoteCommand_threadCount()} */
+    private static final int CONCURRENT_COMMANDS = 60;
+
+    /**
+     * number of commands running a nested command in
+     * {@link #testStartRemoteCommand_nestedCommands()}. This is more than the worker count.
+     */
+    private static final int NESTING_COMMANDS = 8;
+
+    private FakeAdbServer mServer;
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (mServer != null) {
+            mServer.stop();
+        }
+        super.tearDown();
+    }
+
+    /**
+     * Test that a command started asynchronously delivers its output and completes its
+     * {@link Future}.
+     */
+    public void testStartRemoteCommand() throws Exception {
+        mServer = new FakeAdbServer(new FakeAdbServer.IServiceHandler() {
+            @Override
+            public void handle(String service, DataInputStream in, OutputStream out)
+                    throws IOException {
+                FakeAdbServer.writeOkay(out);
+                out.write(OUTPUT.getBytes(AdbHelper.DEFAULT_ENCODING));
+                out.flush();
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+                out.write(OUTPUT.getBytes(AdbHelper.DEFAULT_ENCODING));
+                out.flush();
+            }
+        });
+
+        CollectingOutputReceiver receiver = new CollectingOutputReceiver();
+        Future<Void> future = AdbHelper.startRemoteCommand(mServer.getAddress(), "getprop", null,
+                receiver, 1000);
+        future.get();
+        assertTrue(future.isDone());
+        assertFalse(future.isCancelled());
+        assertEquals(OUTPUT + OUTPUT, receiver.getOutput());
+    }
+
+    /**
+     * Test that an unresponsive asynchronous command fails its {@link Future}.
+     */
+    public void testStartRemoteCommand_unresponsive() throws Exception {
+        mServer = new FakeAdbServer(new FakeAdbServer.IServiceHandler() {
+            @Override
+            public void handle(String service, DataInputStream in, OutputStream out)
+                    throws IOException {
+                FakeAdbServer.writeOkay(out);
+                FakeAdbServer.drain(in);
+            }
+        });
+
+        Future<Void> future = AdbHelper.startRemoteCommand(mServer.getAddress(), "sleep 100",
+                null, new CollectingOutputReceiver(), 100);
+        try {
+            future.get();
+            fail("expected ExecutionException");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ShellCommandUnresponsiveException);
+        }
+    }
+
+    /**
+     * Test that cancelling a command completes its {@link Future} right away, makes
+     * {@link Future#get()} throw a {@link CancellationException}, and closes the connection.
+     */
+    public void testStartRemoteCommand_cancel() throws Exception {
+        final CountDownLatch closed = new CountDownLatch(1);
+        mServer = new FakeAdbServer(new FakeAdbServer.IServiceHandler() {
+            @Override
+            public void handle(String service, DataInputStream in, OutputStream out)
+                    throws IOException {
+                FakeAdbServer.writeOkay(out);
+                FakeAdbServer.drain(in);
+                closed.countDown();
+            }
+        });
+
+        Future<Void> future = AdbHelper.startRemoteCommand(mServer.getAddress(), "logcat", null,
+                new CollectingOutputReceiver(), 0);
+        assertFalse(future.isDone());
+
+        assertTrue(future.cancel(true));
+        assertTrue(future.isDone());
+        assertTrue(future.isCancelled());
+        assertFalse(future.cancel(true));
+
+        try {
+            future.get();
+            fail("expected CancellationException");
+        } catch (CancellationException e) {
+            // expected
+        }
+        try {
+            future.get(1, TimeUnit.SECONDS);
+            fail("expected CancellationException");
+        } catch (CancellationException e) {
+            // expected
+        }
+
+        assertTrue(closed.await(10, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Test that a receiver is polled for cancellation while its command is idle, and that a
+     * receiver slow to answer does not hold up the output of the other commands.
+     */
+    public void testStartRemoteCommand_slowCancelCheck() throws Exception {
+        final CountDownLatch closed = new CountDownLatch(1);
+        mServer = new FakeAdbServer(new FakeAdbServer.IServiceHandler() {
+            @Override
+            public void handle(String service, DataInputStream in, OutputStream out)
+                    throws IOException {
+                FakeAdbServer.writeOkay(out);
+                if (service.equals("shell:logcat")) { //$NON-NLS-1$
+                    FakeAdbServer.drain(in);
+                    closed.countDown();
+                } else {
+                    out.write(OUTPUT.getBytes(AdbHelper.DEFAULT_ENCODING));
+                    out.flush();
+                }
+            }
+        });
+
+        final CountDownLatch polled = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> threads = new ArrayList<String>();
+        CollectingOutputReceiver slowReceiver = new CollectingOutputReceiver() {
+            @Override
+            public boolean isCancelled() {
+                synchronized (threads) {
+                    threads.add(Thread.currentThread().getName());
+                }
+                polled.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+                return super.isCancelled();
+            }
+        };
+        Future<Void> idle = AdbHelper.startRemoteCommand(mServer.getAddress(), "logcat", null,
+                slowReceiver, 0);
+        assertTrue(polled.await(10, TimeUnit.SECONDS));
+
+        // the other commands still get their output while the receiver blocks.
+        CollectingOutputReceiver receiver = new CollectingOutputReceiver();
+        AdbHelper.startRemoteCommand(mServer.getAddress(), "getprop", null, receiver, 1000)
+                .get(5, TimeUnit.SECONDS);
+        assertEquals(OUTPUT, receiver.getOutput());
+
+        slowReceiver.cancel();
+        release.countDown();
+        idle.get(5, TimeUnit.SECONDS);
+        assertTrue(closed.await(10, TimeUnit.SECONDS));
+
+        synchronized (threads) {
+            assertFalse(threads.contains("Adb Service Monitor")); //$NON-NLS-1$
+        }
+    }
+
+    /**
+     * Test that receivers can run synchronous commands from their callbacks, even when there
+     * are more of them than threads processing the output of the commands.
+     */
+    public void testStartRemoteCommand_nestedCommands() throws Exception {
+        final CountDownLatch allStarted = new CountDownLatch(NESTING_COMMANDS);
+        mServer = new FakeAdbServer(new FakeAdbServer.IServiceHandler() {
+            @Override
+            public void handle(String service, DataInputStream in, OutputStream out)
+                    throws IOException {
+                FakeAdbServer.writeOkay(out);
+                boolean outer = service.equals("shell:logcat"); //$NON-NLS-1$
+                if (outer) {
+                    // send the output of all the outer commands at once, so that their
+                    // receivers all run their nested command at the same time.
+                    allStarted.countDown();
+                    try {
+                        allStarted.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+
+                out.write(OUTPUT.getBytes(AdbHelper.DEFAULT_ENCODING));
+                out.flush();
+                if (outer) {
+                    // keep the stream open until the client goes away.
+                    FakeAdbServer.drain(in);
+                }
+            }
+        });
+
+        final List<String> nestedOutputs = new ArrayList<String>();
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        for (int i = 0 ; i < NESTING_COMMANDS ; i++) {
+            final CollectingOutputReceiver receiver = new CollectingOutputReceiver() {
+                @Override
+                public void addOutput(byte[] data, int offset, int length) {
+                    CollectingOutputReceiver nested = new CollectingOutputReceiver();
+                    try {
+                        AdbHelper.executeRemoteCommand(mServer.getAddress(), "getprop", null,
+                                nested, 0);
+                    } catch (Exception e) {
+                        // the output check below fails.
+                    }
+                    synchronized (nestedOutputs) {
+                        nestedOutputs.add(nested.getOutput());
+                    }
+                    cancel();
+                }
+            };
+            futures.add(AdbHelper.startRemoteCommand(mServer.getAddress(), "logcat", null,
+                    receiver, 0));
+        }
+
+        for (Future<Void> future : futures) {
+            future.get(10, TimeUnit.SECONDS);
+        }
+
+        assertEquals(NESTING_COMMANDS, nestedOutputs.size());
+        for (String output : nestedOutputs) {
+            assertEquals(OUTPUT, output);
+        }
+    }
+
+    /**
+     * Test that running many streaming commands at once does not create a thread per command.
+     */
+    public void testStartRemoteCommand_threadCount() throws Exception {
+        mServer = new FakeAdbServer(new FakeAdbServer.IServiceHandler() {
+            @Override
+            public void handle(String service, DataInputStream in, OutputStream out)
+                    throws IOException {
+                // stream output until the client goes away, like logcat.
+                FakeAdbServer.writeOkay(out);
+                byte[] line = OUTPUT.getBytes(AdbHelper.DEFAULT_ENCODING);
+                while (true) {
+                    out.write(line);
+                    out.flush();
+                    try {
+                        Thread.sleep(10);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        });
+
+        final CountDownLatch outputReceived = new CountDownLatch(CONCURRENT_COMMANDS);
+        List<CollectingOutputReceiver> receivers = new ArrayList<CollectingOutputReceiver>();
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        for (int i = 0 ; i < CONCURRENT_COMMANDS ; i++) {
+            CollectingOutputReceiver receiver = new CollectingOutputReceiver() {
+                private boolean mReceived = false;
+
+                @Override
+                public void addOutput(byte[] data, int offset, int length) {
+                    super.addOutput(data, offset, length);
+                    if (mReceived == false) {
+                        mReceived = true;
+                        outputReceived.countDown();
+                    }
+                }
+            };
+            receivers.add(receiver);
+            futures.add(AdbHelper.startRemoteCommand(mServer.getAddress(), "logcat", null,
+                    receiver, 0));
+        }
+
+        assertTrue(outputReceived.await(10, TimeUnit.SECONDS));
+
+        int serviceThreads = 0;
+        for (Thread t : Thread.getAllStackTraces().keySet()) {
+            if (t.getName().startsWith("Adb Service")) {
+                serviceThreads++;
+            }
+        }
+        assertTrue("too many threads: " + serviceThreads, serviceThreads <= 5);
+
+        for (CollectingOutputReceiver receiver : receivers) {
+            assertTrue(receiver.getOutput().startsWith(OUTPUT));
+            receiver.cancel();
+        }
+        for (Future<Void> future : futures) {
+            future.get();
+        }
+    }
+
+    /**
+     * Test that a log service started asynchronously hands its entries to the
+     * {@link LogReceiver} and completes its {@link Future} when the service ends.
+     */
+    public void testStartLogService() throws Exception {
+        mServer = new FakeAdbServer(new FakeAdbServer.IServiceHandler() {
+            @Override
+            public void handle(String service, DataInputStream in, OutputStream out)
+                    throws IOException {
+                if (service.equals("log:main") == false) { //$NON-NLS-1$
+                    FakeAdbServer.writeFail(out, "unknown service");
+                    return;
+                }
+
+                FakeAdbServer.writeOkay(out);
+                out.write(createLogEntry(42, "first")); //$NON-NLS-1$
+                out.flush();
+                out.write(createLogEntry(43, "second")); //$NON-NLS-1$
+                out.flush();
+            }
+        });
+
+        final List<String> entries = new ArrayList<String>();
+        LogReceiver receiver = new LogReceiver(new LogReceiver.IRawLogListener() {
+            @Override
+            public void newEntry(int pid, int tid, int sec, int nsec, byte[] payload,
+                    int offset, int length) {
+                entries.add(pid + ":" + new String(payload, offset, length)); //$NON-NLS-1$
+            }
+
+            @Override
+            public void endOfData() {
+            }
+        });
+
+        Future<Void> future = AdbHelper.startLogService(mServer.getAddress(), null, "main",
+                receiver);
+        future.get();
+        assertEquals(2, entries.size());
+        assertEquals("42:first", entries.get(0));
+        assertEquals("43:second", entries.get(1));
+    }
+
+    /**
+     * Creates a log entry as sent by the log service.
+     */
+    private static byte[] createLogEntry(int pid, String payload) {
+        byte[] data = payload.getBytes();
+        ByteBuffer buffer = ByteBuffer.allocate(20 + data.length);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putShort((short) data.length);
+        buffer.putShort((short) 0); // padding
+        buffer.putInt(pid);
+        buffer.putInt(pid); // tid
+        buffer.putInt(1);   // sec
+        buffer.putInt(0);   // nsec
+        buffer.put(data);
+        return buffer.array();
+    }
+}
@@ -0,0 +1,327 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ddmlib;
+
+import com.android.ddmlib.ClientData.IHprofDumpStreamHandler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for the handling of the data received by a {@link Client}, over a local socket
+ * standing in for the VM.
+ */
+public class ClientTest extends TestCase {
+
+    /** size of the fake HPROF dumps, much larger than the initial read buffer */
+    private static final int DUMP_SIZE = 4 * 1024 * 1024;
+
+    /** id of the packet sent by the VM after the dump */
+    private static final int NEXT_PACKET_ID = 0x1234;
+
+    /** id of the large packet sent in {@link #testReadBuffer_shrinks()} */
+    private static final int LARGE_PACKET_ID = 0x4321;
+
+    private Socket mVm;
+    private DataInputStream mVmIn;
+    private DataOutputStream mVmOut;
+    private Client mClient;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.socket().bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0));
+        SocketChannel chan = SocketChannel.open(server.socket().getLocalSocketAddress());
+        mVm = server.socket().accept();
+        server.close();
+
+        mVmIn = new DataInputStream(mVm.getInputStream());
+        mVmOut = new DataOutputStream(mVm.getOutputStream());
+
+        // go through the handshake.
+        mClient = new Client(null, chan, 42);
+        assertTrue(mClient.sendHandshake());
+        byte[] handshake = new byte[JdwpPacket.HANDSHAKE_LEN];
+        mVmIn.readFully(handshake);
+        mVmOut.write(handshake);
+        mClient.read();
+        assertNull(mClient.getJdwpPacket());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        ClientData.setHprofDumpHandler(null);
+        mVm.close();
+        super.tearDown();
+    }
+
+    /**
+     * Test that a streamed HPROF dump is written to the channel of the handler, and that the
+     * data following it is handled as usual.
+     */
+    public void testStreamedHprof_channel() throws Exception {
+        final ByteArrayOutputStream dump = new ByteArrayOutputStream();
+        StreamHandler handler = new StreamHandler(Channels.newChannel(dump));
+        ClientData.setHprofDumpHandler(handler);
+
+        byte[] data = createDump();
+        HandleHeap.sendHPDS(mClient);
+        sendReply(findRequest(HandleHeap.CHUNK_HPDS), HandleHeap.CHUNK_HPDS, data);
+
+        readNextPacket();
+
+        assertTrue(handler.mEnded);
+        assertNull(handler.mFile);
+        assertEquals(DUMP_SIZE, handler.mLength);
+        assertTrue(Arrays.equals(data, dump.toByteArray()));
+
+        // the dump never went through the read buffer.
+        Client.ReadBufferStats stats = mClient.getReadBufferStats();
+        assertEquals(BufferPool.MIN_SIZE, stats.getPeakCapacity());
+        assertEquals(DUMP_SIZE, stats.getBytesStreamed());
+        assertTrue(stats.getBytesRead() > DUMP_SIZE);
+    }
+
+    /**
+     * Test that a streamed HPROF dump is written to a temporary file if the handler does not
+     * provide a channel.
+     */
+    public void testStreamedHprof_tempFile() throws Exception {
+        StreamHandler handler = new StreamHandler(null);
+        ClientData.setHprofDumpHandler(handler);
+
+        byte[] data = createDump();
+        HandleHeap.sendHPDS(mClient);
+        sendReply(findRequest(HandleHeap.CHUNK_HPDS), HandleHeap.CHUNK_HPDS, data);
+
+        readNextPacket();
+
+        assertTrue(handler.mEnded);
+        assertNotNull(handler.mFile);
+        try {
+            assertEquals(DUMP_SIZE, handler.mFile.length());
+            byte[] content = new byte[DUMP_SIZE];
+            FileInputStream fis = new FileInputStream(handler.mFile);
+            new DataInputStream(fis).readFully(content);
+            fis.close();
+            assertTrue(Arrays.equals(data, content));
+        } finally {
+            handler.mFile.delete();
+        }
+    }
+
+    /**
+     * Test that a failure to write a streamed HPROF dump is reported, without breaking the
+     * connection.
+     */
+    public void testStreamedHprof_writeFailure() throws Exception {
+        StreamHandler handler = new StreamHandler(new WritableByteChannel() {
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+
+            @Override
+            public int write(java.nio.ByteBuffer src) throws IOException {
+                throw new IOException("disk full");
+            }
+        });
+        ClientData.setHprofDumpHandler(handler);
+
+        HandleHeap.sendHPDS(mClient);
+        sendReply(findRequest(HandleHeap.CHUNK_HPDS), HandleHeap.CHUNK_HPDS, createDump());
+
+        readNextPacket();
+
+        assertFalse(handler.mEnded);
+        assertEquals("disk full", handler.mFailure);
+    }
+
+    /**
+     * Test that the read buffer grows once to hold a large packet, and is released once the
+     * packet has been handled.
+     */
+    public void testReadBuffer_shrinks() throws Exception {
+        final int length = 3 * 1024 * 1024 + 17;
+        new Thread("ClientTest VM") {
+            @Override
+            public void run() {
+                try {
+                    mVmOut.writeInt(length);
+                    mVmOut.writeInt(LARGE_PACKET_ID);
+                    mVmOut.writeByte(0);
+                    mVmOut.writeShort(0);
+                    mVmOut.write(new byte[length - JdwpPacket.JDWP_HEADER_LEN]);
+                    mVmOut.flush();
+                } catch (IOException e) {
+                    // the test will fail.
+                }
+            }
+        }.start();
+
+        readPacket(LARGE_PACKET_ID);
+        assertNull(mClient.getJdwpPacket());
+
+        Client.ReadBufferStats stats = mClient.getReadBufferStats();
+        assertEquals(BufferPool.MIN_SIZE, stats.getCapacity());
+        assertEquals(length, stats.getPeakCapacity());
+        assertEquals(length, stats.getLargestPacket());
+        assertEquals(1, stats.getGrowCount());
+        assertEquals(1, stats.getShrinkCount());
+    }
+
+    private static byte[] createDump() {
+        byte[] data = new byte[DUMP_SIZE];
+        for (int i = 0 ; i < data.length ; i++) {
+            data[i] = (byte) (i * 31);
+        }
+        return data;
+    }
+
+    /**
+     * Reads the packets sent by the client until a DDM request of the given type, and returns
+     * its id.
+     */
+    private int findRequest(int type) throws IOException {
+        while (true) {
+            int length = mVmIn.readInt();
+            int id = mVmIn.readInt();
+            byte[] rest = new byte[length - 8];
+            mVmIn.readFully(rest);
+            // flags, command set and command, then the chunk type.
+            int chunkType = (rest[3] & 0xFF) << 24 | (rest[4] & 0xFF) << 16
+                    | (rest[5] & 0xFF) << 8 | (rest[6] & 0xFF);
+            if (chunkType == type) {
+                return id;
+            }
+        }
+    }
+
+    /**
+     * Sends a reply holding a single chunk from another thread, followed by the packet
+     * written by {@link #writeNextPacket()}.
+     */
+    private void sendReply(final int id, final int type, final byte[] data) {
+        new Thread("ClientTest VM") {
+            @Override
+            public void run() {
+                try {
+                    int length = JdwpPacket.JDWP_HEADER_LEN + ChunkHandler.CHUNK_HEADER_LEN
+                            + data.length;
+                    mVmOut.writeInt(length);
+                    mVmOut.writeInt(id);
+                    mVmOut.writeByte(0x80); // reply
+                    mVmOut.writeShort(0); // no error
+                    mVmOut.writeInt(type);
+                    mVmOut.writeInt(data.length);
+                    mVmOut.write(data);
+                    writeNextPacket();
+                    mVmOut.flush();
+                } catch (IOException e) {
+                    // the test will fail.
+                }
+            }
+        }.start();
+    }
+
+    /**
+     * Sends an empty event packet with id {@link #NEXT_PACKET_ID}.
+     */
+    private void writeNextPacket() throws IOException {
+        mVmOut.writeInt(JdwpPacket.JDWP_HEADER_LEN);
+        mVmOut.writeInt(NEXT_PACKET_ID);
+        mVmOut.writeByte(0);
+        mVmOut.writeShort(0);
+    }
+
+    /**
+     * Reads from the client until it finds a full packet, which must be the one sent after the
+     * reply.
+     */
+    private void readNextPacket() throws IOException {
+        readPacket(NEXT_PACKET_ID);
+    }
+
+    private void readPacket(int id) throws IOException {
+        JdwpPacket packet = mClient.getJdwpPacket();
+        while (packet == null) {
+            mClient.read();
+            packet = mClient.getJdwpPacket();
+        }
+
+        assertEquals(id, packet.getId());
+        packet.consume();
+    }
+
+    private static class StreamHandler implements IHprofDumpStreamHandler {
+        private final WritableByteChannel mChannel;
+        long mLength = -1;
+        boolean mEnded = false;
+        File mFile;
+        String mFailure;
+
+        StreamHandler(WritableByteChannel channel) {
+            mChannel = channel;
+        }
+
+        @Override
+        public WritableByteChannel onStreamStart(Client client, long length) {
+            mLength = length;
+            return mChannel;
+        }
+
+        @Override
+        public void onStreamEnd(Client client, File hprofFile) {
+            mEnded = true;
+            mFile = hprofFile;
+        }
+
+        @Override
+        public void onSuccess(String remoteFilePath, Client client) {
+            fail("unexpected HPDU success");
+        }
+
+        @Override
+        public void onSuccess(byte[] data, Client client) {
+            fail("dump was not streamed");
+        }
+
+        @Override
+        public void onEndFailure(Client client, String message) {
+            mFailure = message;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ddmlib;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * A minimal in-process adb server, listening on a local port, used to exercise the adb
+ * protocol code in ddmlib without a real adb or device.
+ * <p/>Each connection is handled on its own thread. <code>host:transport:</code> requests are
+ * acknowledged, and every other request is handed to the {@link IServiceHandler}.
+ */
+class FakeAdbServer {
+
+    /**
+     * Handles a single adb service request. When the handler returns, the connection is closed.
+     */
+    interface IServiceHandler {
+        /**
+         * @param service the service that was requested, for instance "shell:ls".
+         * @param in the stream to read from the client, positioned right after the request.
+         * @param out the stream to write the response (including OKAY/FAIL) to.
+         */
+        void handle(String service, DataInputStream in, OutputStream out) throws IOException;
+    }
+
+    private final ServerSocket mServerSocket;
+    private final IServiceHandler mHandler;
+    private final Thread mAcceptThread;
+    private volatile boolean mQuit = false;
+
+    FakeAdbServer(IServiceHandler handler) throws IOException {
+        mHandler = handler;
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        mAcceptThread = new Thread("FakeAdbServer") {
+            @Override
+            public void run() {
+                acceptLoop();
+            }
+        };
+        mAcceptThread.setDaemon(true);
+        mAcceptThread.start();
+    }
+
+    /**
+     * Returns the address clients should connect to.
+     */
+    InetSocketAddress getAddress() {
+        return new InetSocketAddress(mServerSocket.getInetAddress(), mServerSocket.getLocalPort());
+    }
+
+    void stop() {
+        mQuit = true;
+        try {
+            mServerSocket.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    private void acceptLoop() {
+        while (mQuit == false) {
+            final Socket socket;
+            try {
+                socket = mServerSocket.accept();
+            } catch (IOException e) {
+                return;
+            }
+
+            Thread t = new Thread("FakeAdbServer connection") {
+                @Override
+                public void run() {
+                    handleConnection(socket);
+                }
+            };
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    private void handleConnection(Socket socket) {
+        try {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+
+            while (true) {
+                String service = readRequest(in);
+                if (service.startsWith("host:transport:")) { //$NON-NLS-1$
+                    writeOkay(out);
+                    continue;
+                }
+
+                mHandler.handle(service, in, out);
+                break;
+            }
+        } catch (IOException e) {
+            // client went away.
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    private static String readRequest(DataInputStream in) throws IOException {
+        byte[] lenBuf = new byte[4];
+        in.readFully(lenBuf);
+        int len = Integer.parseInt(new String(lenBuf, AdbHelper.DEFAULT_ENCODING), 16);
+        byte[] req = new byte[len];
+        in.readFully(req);
+        return new String(req, AdbHelper.DEFAULT_ENCODING);
+    }
+
+    static void writeOkay(OutputStream out) throws IOException {
+        out.write("OKAY".getBytes(AdbHelper.DEFAULT_ENCODING)); //$NON-NLS-1$
+        out.flush();
+    }
+
+    static void writeFail(OutputStream out, String message) throws IOException {
+        out.write("FAIL".getBytes(AdbHelper.DEFAULT_ENCODING)); //$NON-NLS-1$
+        out.write(String.format("%04X%s", message.length(), message) //$NON-NLS-1$
+                .getBytes(AdbHelper.DEFAULT_ENCODING));
+        out.flush();
+    }
+
+    /**
+     * Convenience to read the rest of a stream, for handlers that need to wait for the client
+     * to close the connection.
+     */
+    static void drain(InputStream in) throws IOException {
+        byte[] buf = new byte[1024];
+        while (in.read(buf) != -1) {
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ddmlib;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link LineSplitter} and {@link MultiLineReceiver}.
+ */
+public class LineSplitterTest extends TestCase {
+
+    /**
+     * size of the packets used in {@link #testSplit_matchesLegacySplitter()}. Lines do not
+     * have this size.
+     */
+    private static final int PACKET_SIZE = 1021;
+
+    private final List<String> mLines = new ArrayList<String>();
+
+    private final LineSplitter mSplitter = new LineSplitter(new LineSplitter.ILineListener() {
+        @Override
+        public void newLine(CharSequence line) {
+            mLines.add(line.toString());
+        }
+    });
+
+    /**
+     * Test splitting lines contained in a single packet.
+     */
+    public void testSplit() throws Exception {
+        addData("  first \r\nsecond\r\nthird");
+        assertEquals(Arrays.asList("first", "second"), mLines);
+        assertEquals("third", mSplitter.getUnfinishedLine().toString());
+    }
+
+    /**
+     * Test that a lone \n or \r is not a line separator.
+     */
+    public void testSplit_loneSeparators() throws Exception {
+        mSplitter.setTrimLines(false);
+        addData("a\nb\rc\r\r\n");
+        assertEquals(Arrays.asList("a\nb\rc\r"), mLines);
+        assertNull(mSplitter.getUnfinishedLine());
+    }
+
+    /**
+     * Test a line separator split between two packets.
+     */
+    public void testSplit_separatorAcrossPackets() throws Exception {
+        addData("first\r");
+        assertTrue(mLines.isEmpty());
+        addData("\nsecond\r\n");
+        assertEquals(Arrays.asList("first", "second"), mLines);
+    }
+
+    /**
+     * Test a line spanning several packets.
+     */
+    public void testSplit_lineAcrossPackets() throws Exception {
+        addData("fir");
+        addData("st li");
+        addData("ne\r\nsecond\r\n");
+        assertEquals(Arrays.asList("first line", "second"), mLines);
+    }
+
+    /**
+     * Test a multi-byte UTF-8 sequence split between two packets.
+     */
+    public void testSplit_utf8AcrossPackets() throws Exception {
+        byte[] data = "caf\u00e9 \u2603\r\n".getBytes("UTF-8");
+        for (int i = 0 ; i < data.length ; i++) {
+            mSplitter.addData(data, i, 1);
+        }
+        assertEquals(Arrays.asList("caf\u00e9 \u2603"), mLines);
+    }
+
+    /**
+     * Test that {@link MultiLineReceiver} batches the lines of a packet, and sends the unfinished
+     * line on flush.
+     */
+    public void testMultiLineReceiver() throws Exception {
+        final List<String[]> batches = new ArrayList<String[]>();
+        MultiLineReceiver receiver = new MultiLineReceiver() {
+            @Override
+            public void processNewLines(String[] lines) {
+                batches.add(lines);
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return false;
+            }
+        };
+
+        byte[] data = "one\r\ntwo\r\nth".getBytes("UTF-8");
+        receiver.addOutput(data, 0, data.length);
+        data = "ree".getBytes("UTF-8");
+        receiver.addOutput(data, 0, data.length);
+        receiver.flush();
+
+        assertEquals(2, batches.size());
+        assertEquals(Arrays.asList("one", "two"), Arrays.asList(batches.get(0)));
+        assertEquals(Arrays.asList("three"), Arrays.asList(batches.get(1)));
+    }
+
+    /**
+     * Test that {@link LineSplitter} outputs the same lines as the splitting code
+     * {@link MultiLineReceiver} used to have, on logcat-like output split in packets that do
+     * not match the line boundaries.
+     */
+    public void testSplit_matchesLegacySplitter() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0 ; sb.length() < 256 * 1024 ; i++) {
+            sb.append("[ 08-18 16:39:11.760   ").append(i % 3000).append(':')
+                    .append(i % 700).append(" D/dalvikvm ]\r\n")
+                    .append("  GC_CONCURRENT freed 1972K, 25% free 8123K/10759K, ")
+                    .append("paused 2ms+3ms\r\n")
+                    .append("\r\n");
+        }
+        byte[] data = sb.toString().getBytes("UTF-8");
+
+        LegacySplitter legacySplitter = new LegacySplitter();
+        for (int i = 0 ; i < data.length ; i += PACKET_SIZE) {
+            legacySplitter.addOutput(data, i, Math.min(PACKET_SIZE, data.length - i));
+        }
+        for (int i = 0 ; i < data.length ; i += PACKET_SIZE) {
+            mSplitter.addData(data, i, Math.min(PACKET_SIZE, data.length - i));
+        }
+
+        assertTrue(mLines.size() > 0);
+        assertEquals(legacySplitter.mLines, mLines);
+    }
+
+    private void addData(String s) throws UnsupportedEncodingException {
+        byte[] data = s.getBytes("UTF-8");
+        mSplitter.addData(data, 0, data.length);
+    }
+
+    /**
+     * The splitting code of {@link MultiLineReceiver} before it used {@link LineSplitter}.
+     */
+    private static final class LegacySplitter {
+        private String mUnfinishedLine = null;
+        private final ArrayList<String> mArray = new ArrayList<String>();
+        final List<String> mLines = new ArrayList<String>();
+
+        void addOutput(byte[] data, int offset, int length)
+                throws UnsupportedEncodingException {
+            String s = new String(data, offset, length, "UTF-8"); //$NON-NLS-1$
+            if (mUnfinishedLine != null) {
+                s = mUnfinishedLine + s;
+                mUnfinishedLine = null;
+            }
+
+            mArray.clear();
+            int start = 0;
+            do {
+                int index = s.indexOf("\r\n", start); //$NON-NLS-1$
+                if (index == -1) {
+                    mUnfinishedLine = s.substring(start);
+                    break;
+                }
+
+                String line = s.substring(start, index).trim();
+                mArray.add(line);
+                start = index + 2;
+            } while (true);
+
+            String[] lines = mArray.toArray(new String[mArray.size()]);
+            mLines.addAll(Arrays.asList(lines));
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ddmlib;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link RawImage#getARGB(int[])}.
+ */
+public class RawImageTest extends TestCase {
+
+    /** size of the frames used in {@link #testConversion_fullFrames()} */
+    private static final int WIDTH = 720;
+    private static final int HEIGHT = 1280;
+
+    /**
+     * Creates an image with random pixels.
+     * @param bpp the bits per pixel
+     * @param channels the offset and length of the red, green, blue and alpha channels
+     */
+    private static RawImage createImage(int width, int height, int bpp, int... channels) {
+        RawImage image = new RawImage();
+        image.version = 1;
+        image.bpp = bpp;
+        image.width = width;
+        image.height = height;
+        image.size = width * height * (bpp >> 3);
+        image.red_offset = channels[0];
+        image.red_length = channels[1];
+        image.green_offset = channels[2];
+        image.green_length = channels[3];
+        image.blue_offset = channels[4];
+        image.blue_length = channels[5];
+        image.alpha_offset = channels[6];
+        image.alpha_length = channels[7];
+        image.data = new byte[image.size];
+        new Random(bpp + image.red_offset).nextBytes(image.data);
+        return image;
+    }
+
+    private static RawImage createRGB565(int width, int height) {
+        return createImage(width, height, 16, 11, 5, 5, 6, 0, 5, 0, 0);
+    }
+
+    private static RawImage createRGBA8888(int width, int height) {
+        return createImage(width, height, 32, 0, 8, 8, 8, 16, 8, 24, 8);
+    }
+
+    private static RawImage createBGRA8888(int width, int height) {
+        return createImage(width, height, 32, 16, 8, 8, 8, 0, 8, 24, 8);
+    }
+
+    private static RawImage createRGBX8888(int width, int height) {
+        return createImage(width, height, 32, 0, 8, 8, 8, 16, 8, 24, 0);
+    }
+
+    /** A layout with no fast path. */
+    private static RawImage createARGB4444(int width, int height) {
+        return createImage(width, height, 16, 8, 4, 4, 4, 0, 4, 12, 4);
+    }
+
+    /** Converts an image one pixel at a time, as the consumers of RawImage used to. */
+    private static int[] convertPixels(RawImage image, int[] pixels) {
+        int byteCount = image.bpp >> 3;
+        for (int i = 0, index = 0 ; i < image.width * image.height ; i++, index += byteCount) {
+            pixels[i] = image.getARGB(index);
+        }
+        return pixels;
+    }
+
+    private static void checkConversion(RawImage image) {
+        int[] expected = convertPixels(image, new int[image.width * image.height]);
+        int[] pixels = image.getARGB((int[]) null);
+        assertEquals(expected.length, pixels.length);
+        for (int i = 0 ; i < expected.length ; i++) {
+            assertEquals("pixel " + i, expected[i], pixels[i]);
+        }
+    }
+
+    public void testConversion() {
+        checkConversion(createRGB565(31, 17));
+        checkConversion(createRGBA8888(31, 17));
+        checkConversion(createBGRA8888(31, 17));
+        checkConversion(createRGBX8888(31, 17));
+        checkConversion(createARGB4444(31, 17));
+    }
+
+    public void testReusesPixels() {
+        RawImage image = createRGB565(10, 10);
+        int[] pixels = new int[200];
+        assertSame(pixels, image.getARGB(pixels));
+        assertNotSame(pixels, createRGB565(20, 20).getARGB(pixels));
+    }
+
+    /**
+     * Test the conversion of successive full size frames into the same buffer, which holds
+     * the pixels of the previous frame.
+     */
+    public void testConversion_fullFrames() {
+        RawImage[] images = new RawImage[] {
+                createRGB565(WIDTH, HEIGHT),
+                createRGBA8888(WIDTH, HEIGHT),
+                createBGRA8888(WIDTH, HEIGHT),
+                createRGBX8888(WIDTH, HEIGHT),
+        };
+        int[] pixels = new int[WIDTH * HEIGHT];
+        int[] expected = new int[WIDTH * HEIGHT];
+
+        for (RawImage image : images) {
+            convertPixels(image, expected);
+            assertSame(pixels, image.getARGB(pixels));
+            assertTrue(Arrays.equals(expected, pixels));
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ddmlib;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link ScreenshotCapture} and {@link RawImage#getScaled(int)}.
+ */
+public class ScreenshotCaptureTest extends TestCase {
+
+    private static RawImage createImage(int width, int height) {
+        RawImage image = new RawImage();
+        image.version = 1;
+        image.bpp = 32;
+        image.width = width;
+        image.height = height;
+        image.size = width * height * 4;
+        image.red_offset = 0;
+        image.red_length = 8;
+        image.green_offset = 8;
+        image.green_length = 8;
+        image.blue_offset = 16;
+        image.blue_length = 8;
+        image.alpha_offset = 24;
+        image.alpha_length = 8;
+        image.data = new byte[image.size];
+        return image;
+    }
+
+    private static RawImage copy(RawImage image) {
+        RawImage copy = createImage(image.width, image.height);
+        System.arraycopy(image.data, 0, copy.data, 0, image.size);
+        return copy;
+    }
+
+    private static void setPixel(RawImage image, int x, int y, int value) {
+        int index = (y * image.width + x) * 4;
+        image.data[index] = (byte) value;
+        image.data[index + 1] = (byte) (value >> 8);
+        image.data[index + 2] = (byte) (value >> 16);
+        image.data[index + 3] = (byte) (value >> 24);
+    }
+
+    public void testFirstCaptureIsFullFrame() {
+        RawImage image = createImage(100, 50);
+        ScreenshotCapture.Delta delta = ScreenshotCapture.computeDelta(null, image, 32);
+
+        assertTrue(delta.isFullFrame());
+        assertSame(image, delta.getImage());
+        List<ScreenshotCapture.Tile> tiles = delta.getChangedTiles();
+        assertEquals(8, tiles.size());
+
+        // the tiles on the right and bottom edges are cropped to the image.
+        ScreenshotCapture.Tile last = tiles.get(tiles.size() - 1);
+        assertEquals(96, last.x);
+        assertEquals(32, last.y);
+        assertEquals(4, last.width);
+        assertEquals(18, last.height);
+    }
+
+    public void testUnchanged() {
+        RawImage image = createImage(100, 50);
+        setPixel(image, 10, 10, 0xff00ff00);
+        ScreenshotCapture.Delta delta = ScreenshotCapture.computeDelta(image, copy(image), 32);
+
+        assertFalse(delta.isFullFrame());
+        assertFalse(delta.hasChanges());
+    }
+
+    public void testChangedTiles() {
+        RawImage previous = createImage(100, 50);
+        RawImage image = copy(previous);
+        setPixel(image, 0, 0, 0xffffffff);
+        setPixel(image, 99, 49, 0xff0000ff);
+        setPixel(image, 40, 40, 0x01000000);
+        setPixel(image, 41, 40, 0x01000000);
+
+        ScreenshotCapture.Delta delta = ScreenshotCapture.computeDelta(previous, image, 32);
+        assertFalse(delta.isFullFrame());
+        List<ScreenshotCapture.Tile> tiles = delta.getChangedTiles();
+        assertEquals(3, tiles.size());
+        assertEquals("32x32+0+0", tiles.get(0).toString());
+        assertEquals("32x18+32+32", tiles.get(1).toString());
+        assertEquals("4x18+96+32", tiles.get(2).toString());
+    }
+
+    public void testFormatChangeIsFullFrame() {
+        RawImage previous = createImage(100, 50);
+        ScreenshotCapture.Delta delta =
+                ScreenshotCapture.computeDelta(previous, createImage(50, 100), 32);
+        assertTrue(delta.isFullFrame());
+        assertEquals(8, delta.getChangedTiles().size());
+
+        RawImage image = createImage(100, 50);
+        image.red_offset = 16;
+        image.blue_offset = 0;
+        assertTrue(ScreenshotCapture.computeDelta(previous, image, 32).isFullFrame());
+    }
+
+    public void testScaled() {
+        RawImage image = createImage(5, 3);
+        for (int y = 0; y < image.height; y++) {
+            for (int x = 0; x < image.width; x++) {
+                setPixel(image, x, y, 0xff000000 | (y << 8) | x);
+            }
+        }
+
+        RawImage scaled = image.getScaled(2);
+        assertEquals(3, scaled.width);
+        assertEquals(2, scaled.height);
+        assertEquals(3 * 2 * 4, scaled.size);
+        assertEquals(image.bpp, scaled.bpp);
+        assertEquals(image.red_offset, scaled.red_offset);
+
+        for (int y = 0; y < scaled.height; y++) {
+            for (int x = 0; x < scaled.width; x++) {
+                assertEquals(image.getARGB(((y * 2) * image.width + x * 2) * 4),
+                        scaled.getARGB((y * scaled.width + x) * 4));
+            }
+        }
+    }
+}
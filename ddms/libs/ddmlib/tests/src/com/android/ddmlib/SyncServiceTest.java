@@ -0,0 +1,520 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ddmlib;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link SyncService}, running against a fake sync service.
+ */
+public class SyncServiceTest extends TestCase {
+
+    /** simulated one-way latency of the link to the device, in ms */
+    private static final int LINK_LATENCY = 2;
+
+    private static final int FILE_COUNT = 200;
+
+    private FakeAdbServer mServer;
+    private FakeSyncHandler mSyncHandler;
+    private File mTempDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mSyncHandler = new FakeSyncHandler();
+        mServer = new FakeAdbServer(mSyncHandler);
+
+        mTempDir = File.createTempFile("SyncServiceTest", null);
+        mTempDir.delete();
+        mTempDir.mkdir();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.stop();
+        deleteAll(mTempDir);
+        super.tearDown();
+    }
+
+    /**
+     * Test pulling files over several pipelined connections.
+     */
+    public void testPullFiles() throws Exception {
+        String[] remote = new String[FILE_COUNT];
+        String[] local = new String[FILE_COUNT];
+        for (int i = 0 ; i < FILE_COUNT ; i++) {
+            remote[i] = "/data/file" + i;
+            local[i] = new File(mTempDir, "file" + i).getPath();
+            mSyncHandler.mFiles.put(remote[i], createContent(i));
+        }
+
+        CountingMonitor monitor = new CountingMonitor();
+        SyncService sync = openSync();
+        sync.pullFiles(remote, local, monitor, 4);
+        sync.close();
+
+        long total = 0;
+        for (int i = 0 ; i < FILE_COUNT ; i++) {
+            byte[] content = createContent(i);
+            assertTrue(Arrays.equals(content, readFile(new File(local[i]))));
+            total += content.length;
+        }
+        assertEquals(total, monitor.mWork);
+        assertEquals(FILE_COUNT, monitor.mSubTasks);
+    }
+
+    /**
+     * Test pushing files over several pipelined connections.
+     */
+    public void testPushFiles() throws Exception {
+        String[] remote = new String[FILE_COUNT];
+        String[] local = new String[FILE_COUNT];
+        for (int i = 0 ; i < FILE_COUNT ; i++) {
+            remote[i] = "/data/file" + i;
+            File f = new File(mTempDir, "file" + i);
+            local[i] = f.getPath();
+            FileOutputStream fos = new FileOutputStream(f);
+            fos.write(createContent(i));
+            fos.close();
+        }
+
+        SyncService sync = openSync();
+        sync.pushFiles(local, remote, SyncService.getNullProgressMonitor(), 4);
+        sync.close();
+
+        for (int i = 0 ; i < FILE_COUNT ; i++) {
+            assertTrue(Arrays.equals(createContent(i), mSyncHandler.mFiles.get(remote[i])));
+        }
+    }
+
+    /**
+     * Test that a failure on one file fails the whole transfer.
+     */
+    public void testPullFiles_missingFile() throws Exception {
+        String[] remote = new String[FILE_COUNT];
+        String[] local = new String[FILE_COUNT];
+        for (int i = 0 ; i < FILE_COUNT ; i++) {
+            remote[i] = "/data/file" + i;
+            local[i] = new File(mTempDir, "file" + i).getPath();
+            if (i != FILE_COUNT / 2) {
+                mSyncHandler.mFiles.put(remote[i], createContent(i));
+            }
+        }
+
+        SyncService sync = openSync();
+        try {
+            sync.pullFiles(remote, local, SyncService.getNullProgressMonitor(), 4);
+            fail("expected SyncException");
+        } catch (SyncException e) {
+            assertEquals(SyncException.SyncError.TRANSFER_PROTOCOL_ERROR, e.getErrorCode());
+        } finally {
+            sync.close();
+        }
+    }
+
+    /**
+     * Test pulling files pipelined on a single connection, over a link with some latency.
+     */
+    public void testPullFiles_pipelined() throws Exception {
+        mSyncHandler.mLatency = LINK_LATENCY;
+
+        String[] remote = new String[FILE_COUNT];
+        String[] local = new String[FILE_COUNT];
+        for (int i = 0 ; i < FILE_COUNT ; i++) {
+            remote[i] = "/data/file" + i;
+            local[i] = new File(mTempDir, "file" + i).getPath();
+            mSyncHandler.mFiles.put(remote[i], createContent(i));
+        }
+
+        SyncService sync = openSync();
+        sync.pullFiles(remote, local, SyncService.getNullProgressMonitor(), 1);
+        sync.close();
+
+        for (int i = 0 ; i < FILE_COUNT ; i++) {
+            assertTrue(Arrays.equals(createContent(i), readFile(new File(local[i]))));
+        }
+    }
+
+    /**
+     * Test that a failure in the middle of a pipeline, while other files are still in flight,
+     * leaves the service usable for the next transfers.
+     */
+    public void testPullFiles_failureInPipeline() throws Exception {
+        mSyncHandler.mLatency = LINK_LATENCY;
+
+        String[] remote = new String[FILE_COUNT];
+        String[] local = new String[FILE_COUNT];
+        for (int i = 0 ; i < FILE_COUNT ; i++) {
+            remote[i] = "/data/file" + i;
+            local[i] = new File(mTempDir, "file" + i).getPath();
+            if (i != 3) {
+                mSyncHandler.mFiles.put(remote[i], createContent(i));
+            }
+        }
+
+        SyncService sync = openSync();
+        try {
+            sync.pullFiles(remote, local, SyncService.getNullProgressMonitor(), 1);
+            fail("expected SyncException");
+        } catch (SyncException e) {
+            assertEquals(SyncException.SyncError.TRANSFER_PROTOCOL_ERROR, e.getErrorCode());
+        }
+
+        assertFollowingTransfersSucceed(sync);
+        sync.close();
+    }
+
+    /**
+     * Test that a push rejected in the middle of a pipeline leaves the service usable for the
+     * next transfers.
+     */
+    public void testPushFiles_failureInPipeline() throws Exception {
+        mSyncHandler.mLatency = LINK_LATENCY;
+
+        String[] remote = new String[FILE_COUNT];
+        String[] local = new String[FILE_COUNT];
+        for (int i = 0 ; i < FILE_COUNT ; i++) {
+            remote[i] = (i == 3 ? FakeSyncHandler.READ_ONLY_DIR : "/data/") + "file" + i;
+            File f = new File(mTempDir, "file" + i);
+            local[i] = f.getPath();
+            FileOutputStream fos = new FileOutputStream(f);
+            fos.write(createContent(i));
+            fos.close();
+        }
+
+        SyncService sync = openSync();
+        try {
+            sync.pushFiles(local, remote, SyncService.getNullProgressMonitor(), 1);
+            fail("expected SyncException");
+        } catch (SyncException e) {
+            assertEquals(SyncException.SyncError.TRANSFER_PROTOCOL_ERROR, e.getErrorCode());
+        }
+
+        assertFollowingTransfersSucceed(sync);
+        sync.close();
+    }
+
+    /**
+     * Test that cancelling a pipelined transfer leaves the service usable for the next
+     * transfers.
+     */
+    public void testPullFiles_cancel() throws Exception {
+        mSyncHandler.mLatency = LINK_LATENCY;
+
+        String[] remote = new String[FILE_COUNT];
+        String[] local = new String[FILE_COUNT];
+        for (int i = 0 ; i < FILE_COUNT ; i++) {
+            remote[i] = "/data/file" + i;
+            local[i] = new File(mTempDir, "file" + i).getPath();
+            mSyncHandler.mFiles.put(remote[i], createContent(i));
+        }
+
+        CountingMonitor monitor = new CountingMonitor();
+        monitor.mCancelAfter = 3;
+        SyncService sync = openSync();
+        try {
+            sync.pullFiles(remote, local, monitor, 1);
+            fail("expected SyncException");
+        } catch (SyncException e) {
+            assertEquals(SyncException.SyncError.CANCELED, e.getErrorCode());
+        }
+
+        assertFollowingTransfersSucceed(sync);
+        sync.close();
+    }
+
+    /**
+     * Test that interrupting a transfer over several connections stops it, and keeps the
+     * interrupt status of the thread.
+     */
+    public void testPullFiles_interrupted() throws Exception {
+        // slow enough for the interrupt to happen before the end of the transfer.
+        mSyncHandler.mLatency = 20;
+
+        final String[] remote = new String[FILE_COUNT];
+        final String[] local = new String[FILE_COUNT];
+        for (int i = 0 ; i < FILE_COUNT ; i++) {
+            remote[i] = "/data/file" + i;
+            local[i] = new File(mTempDir, "file" + i).getPath();
+            mSyncHandler.mFiles.put(remote[i], createContent(i));
+        }
+
+        final CountDownLatch started = new CountDownLatch(10);
+        final CountingMonitor monitor = new CountingMonitor() {
+            @Override
+            public void startSubTask(String name) {
+                super.startSubTask(name);
+                started.countDown();
+            }
+        };
+        final SyncService sync = openSync();
+        final Exception[] error = new Exception[1];
+        final boolean[] interrupted = new boolean[1];
+        Thread t = new Thread("pullFiles") {
+            @Override
+            public void run() {
+                try {
+                    sync.pullFiles(remote, local, monitor, 4);
+                } catch (Exception e) {
+                    error[0] = e;
+                }
+                interrupted[0] = Thread.currentThread().isInterrupted();
+            }
+        };
+        t.start();
+
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        t.interrupt();
+        t.join(10000);
+        assertFalse(t.isAlive());
+        sync.close();
+
+        // the interrupt is seen either while waiting for the other connections, or while
+        // waiting for a response on the connection of the thread.
+        assertTrue(interrupted[0]);
+        if (error[0] instanceof SyncException) {
+            assertEquals(SyncException.SyncError.CANCELED,
+                    ((SyncException) error[0]).getErrorCode());
+        } else {
+            assertTrue(String.valueOf(error[0]), error[0] instanceof InterruptedIOException);
+        }
+        assertTrue(monitor.mSubTasks < FILE_COUNT);
+    }
+
+    /**
+     * Checks that a pull and a push on the service transfer the expected content, and are not
+     * confused by responses left over from a previous transfer.
+     */
+    private void assertFollowingTransfersSucceed(SyncService sync) throws Exception {
+        mSyncHandler.mFiles.put("/data/next", createContent(FILE_COUNT));
+        File pulled = new File(mTempDir, "next");
+        sync.pullFile("/data/next", pulled.getPath(), SyncService.getNullProgressMonitor());
+        assertTrue(Arrays.equals(createContent(FILE_COUNT), readFile(pulled)));
+
+        File pushed = new File(mTempDir, "pushed");
+        FileOutputStream fos = new FileOutputStream(pushed);
+        fos.write(createContent(FILE_COUNT + 1));
+        fos.close();
+        sync.pushFile(pushed.getPath(), "/data/pushed", SyncService.getNullProgressMonitor());
+        assertTrue(Arrays.equals(createContent(FILE_COUNT + 1),
+                mSyncHandler.mFiles.get("/data/pushed")));
+    }
+
+    private SyncService openSync() throws Exception {
+        SyncService sync = new SyncService(mServer.getAddress(), null);
+        assertTrue(sync.openSync());
+        return sync;
+    }
+
+    private static byte[] createContent(int index) {
+        byte[] content = new byte[100 + (index * 37) % 3000];
+        for (int i = 0 ; i < content.length ; i++) {
+            content[i] = (byte)(i + index);
+        }
+        return content;
+    }
+
+    private static byte[] readFile(File f) throws IOException {
+        FileInputStream fis = new FileInputStream(f);
+        try {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int count;
+            while ((count = fis.read(buffer)) != -1) {
+                baos.write(buffer, 0, count);
+            }
+            return baos.toByteArray();
+        } finally {
+            fis.close();
+        }
+    }
+
+    private static void deleteAll(File f) {
+        File[] children = f.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteAll(child);
+            }
+        }
+        f.delete();
+    }
+
+    private static class CountingMonitor implements SyncService.ISyncProgressMonitor {
+        long mWork = 0;
+        int mSubTasks = 0;
+        /** number of sub tasks after which the transfer is cancelled, or -1 */
+        int mCancelAfter = -1;
+
+        @Override
+        public void start(int totalWork) {
+        }
+
+        @Override
+        public void stop() {
+        }
+
+        @Override
+        public boolean isCanceled() {
+            return mCancelAfter != -1 && mSubTasks >= mCancelAfter;
+        }
+
+        @Override
+        public void startSubTask(String name) {
+            mSubTasks++;
+        }
+
+        @Override
+        public void advance(int work) {
+            mWork += work;
+        }
+    }
+
+    /**
+     * Implements the device side of the sync protocol over an in-memory file system. The
+     * responses are delivered after {@link #mLatency} ms, by another thread, while the next
+     * requests are being read, like on a real link.
+     */
+    private static class FakeSyncHandler implements FakeAdbServer.IServiceHandler {
+        /** pushing files to this directory fails */
+        static final String READ_ONLY_DIR = "/system/";
+
+        final Map<String, byte[]> mFiles = new ConcurrentHashMap<String, byte[]>();
+        volatile int mLatency = 0;
+
+        @Override
+        public void handle(String service, DataInputStream in, final OutputStream out)
+                throws IOException {
+            if (service.equals("sync:") == false) {
+                FakeAdbServer.writeFail(out, "unknown service");
+                return;
+            }
+            FakeAdbServer.writeOkay(out);
+
+            final LinkedBlockingQueue<Object[]> responses = new LinkedBlockingQueue<Object[]>();
+            Thread writer = new Thread("FakeSyncHandler writer") {
+                @Override
+                public void run() {
+                    try {
+                        while (true) {
+                            Object[] response = responses.take();
+                            long delay = (Long)response[0] - System.currentTimeMillis();
+                            if (delay > 0) {
+                                Thread.sleep(delay);
+                            }
+                            out.write((byte[])response[1]);
+                            out.flush();
+                        }
+                    } catch (Exception e) {
+                        // connection closed.
+                    }
+                }
+            };
+            writer.setDaemon(true);
+            writer.start();
+
+            try {
+                byte[] header = new byte[8];
+                while (true) {
+                    in.readFully(header);
+                    String id = new String(header, 0, 4, AdbHelper.DEFAULT_ENCODING);
+                    byte[] path = new byte[readInt(header, 4)];
+                    in.readFully(path);
+                    String name = new String(path, AdbHelper.DEFAULT_ENCODING);
+
+                    ByteArrayOutputStream response = new ByteArrayOutputStream();
+                    if (id.equals("RECV")) {
+                        byte[] content = mFiles.get(name);
+                        if (content == null) {
+                            writeResponse(response, "FAIL", "No such file".getBytes());
+                        } else {
+                            writeResponse(response, "DATA", content);
+                            writeResponse(response, "DONE", new byte[0]);
+                        }
+                    } else if (id.equals("SEND")) {
+                        name = name.substring(0, name.lastIndexOf(','));
+                        ByteArrayOutputStream content = new ByteArrayOutputStream();
+                        while (true) {
+                            in.readFully(header);
+                            int length = readInt(header, 4);
+                            if (new String(header, 0, 4, AdbHelper.DEFAULT_ENCODING)
+                                    .equals("DONE")) {
+                                break;
+                            }
+                            byte[] data = new byte[length];
+                            in.readFully(data);
+                            content.write(data);
+                        }
+                        if (name.startsWith(READ_ONLY_DIR)) {
+                            writeResponse(response, "FAIL", "Read-only file system".getBytes());
+                        } else {
+                            mFiles.put(name, content.toByteArray());
+                            writeResponse(response, "OKAY", null);
+                        }
+                    } else if (id.equals("STAT")) {
+                        byte[] content = mFiles.get(name);
+                        response.write(id.getBytes(AdbHelper.DEFAULT_ENCODING));
+                        writeInt(response, content != null ? 0100644 : 0);
+                        writeInt(response, content != null ? content.length : 0);
+                        writeInt(response, 0);
+                    } else {
+                        writeResponse(response, "FAIL", "Unknown request".getBytes());
+                    }
+
+                    responses.add(new Object[] {
+                            System.currentTimeMillis() + 2 * mLatency, response.toByteArray()
+                    });
+                }
+            } finally {
+                writer.interrupt();
+            }
+        }
+
+        private static void writeResponse(ByteArrayOutputStream out, String id, byte[] data)
+                throws IOException {
+            out.write(id.getBytes(AdbHelper.DEFAULT_ENCODING));
+            writeInt(out, data != null ? data.length : 0);
+            if (data != null) {
+                out.write(data);
+            }
+        }
+
+        private static void writeInt(ByteArrayOutputStream out, int value) {
+            out.write(new byte[] {
+                    (byte)value, (byte)(value >> 8), (byte)(value >> 16), (byte)(value >> 24)
+            }, 0, 4);
+        }
+
+        private static int readInt(byte[] data, int offset) {
+            return (data[offset] & 0xFF) | (data[offset + 1] & 0xFF) << 8
+                    | (data[offset + 2] & 0xFF) << 16 | (data[offset + 3] & 0xFF) << 24;
+        }
+    }
+}
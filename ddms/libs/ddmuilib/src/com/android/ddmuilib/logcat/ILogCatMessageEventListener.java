@@ -16,14 +16,13 @@
 
 package com.android.ddmuilib.logcat;
 
-import java.util.List;
-
 /**
  * Listeners interested in log cat messages should implement this interface.
  */
 public interface ILogCatMessageEventListener {
     /** Called on reception of logcat messages.
-     * @param receivedMessages list of messages received
+     * @param receivedMessages range of the messages received. The fields of the messages
+     * can be read from the range without creating {@link LogCatMessage} objects.
      */
-    void messageReceived(List<LogCatMessage> receivedMessages);
+    void messageReceived(LogCatMessageRange receivedMessages);
 }
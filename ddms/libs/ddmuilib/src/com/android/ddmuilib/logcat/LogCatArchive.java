@@ -0,0 +1,1025 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmuilib.logcat;
+
+import com.android.ddmlib.Log;
+import com.android.ddmlib.Log.LogLevel;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * An on-disk archive of the logcat messages of a device, keeping the messages that no longer
+ * fit in the {@link LogCatMessageList}.
+ * <p/>Messages are appended to segment files, in blocks of about {@link #BLOCK_SIZE} bytes
+ * compressed with a {@link Deflater}. For each block, an entry is appended to the index file of
+ * the segment, with the position of the block, the time of its oldest and newest messages, and
+ * the ids of the pids and tags of its messages. The ids refer to dictionaries shared by all the
+ * segments of the archive. {@link #query(long, long, List)} uses the index to only read the
+ * blocks that can hold matching messages.
+ * <p/>A new segment is started when the current one reaches a maximum size or age, and the
+ * oldest segments are deleted when the archive gets too large or too old. Only the block being
+ * filled and the dictionaries are kept in memory.
+ * <p/>Messages are compressed and written by a thread of the archive, so that neither the
+ * threads receiving the output of the device nor the UI thread wait for the disk.
+ */
+public final class LogCatArchive {
+    /** Default maximum size of a segment, in bytes. */
+    public static final long SEGMENT_SIZE_DEFAULT = 16 * 1024 * 1024;
+
+    /** Default maximum age of a segment, in ms. */
+    public static final long SEGMENT_AGE_DEFAULT = 60 * 60 * 1000;
+
+    /** Default maximum size of an archive, in bytes. */
+    public static final long ARCHIVE_SIZE_DEFAULT = 1024 * 1024 * 1024;
+
+    /** Default maximum age of the segments of an archive, in ms. */
+    public static final long ARCHIVE_AGE_DEFAULT = 7 * 24 * 60 * 60 * 1000L;
+
+    /** Uncompressed size of the blocks. */
+    static final int BLOCK_SIZE = 64 * 1024;
+
+    /** Maximum time a message stays in memory before its block is written, in ms. */
+    private static final long BLOCK_FLUSH_INTERVAL = 5000;
+
+    private static final String SEGMENT_EXTENSION = ".seg";  //$NON-NLS-1$
+    private static final String INDEX_EXTENSION = ".idx";    //$NON-NLS-1$
+    private static final String TAGS_FILE = "tags.dict";     //$NON-NLS-1$
+    private static final String PIDS_FILE = "pids.dict";     //$NON-NLS-1$
+
+    private static final Charset UTF8 = Charset.forName("UTF-8"); //$NON-NLS-1$
+
+    private static final LogLevel[] sLogLevels = LogLevel.values();
+
+    private final File mDirectory;
+    private final long mMaxSegmentSize;
+    private final long mMaxSegmentAge;
+    private final long mMaxArchiveSize;
+    private final long mMaxArchiveAge;
+
+    /** writes the messages, and runs the queries and the page loads. */
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "LogCat Archive"); //$NON-NLS-1$
+                    t.setDaemon(true);
+                    mThread = t;
+                    return t;
+                }
+            });
+    private volatile Thread mThread;
+
+    private final Dictionary mTags;
+    private final Dictionary mPids;
+
+    /** the segments, oldest first. The last one is being written if mSegmentOut is open. */
+    private final LinkedList<Segment> mSegments = new LinkedList<Segment>();
+    private DataOutputStream mSegmentOut;
+    private DataOutputStream mIndexOut;
+
+    /* the block being filled. */
+    private final ByteArrayOutputStream mBlock = new ByteArrayOutputStream(BLOCK_SIZE + 1024);
+    private final DataOutputStream mBlockOut = new DataOutputStream(mBlock);
+    private final BitSet mBlockTags = new BitSet();
+    private final BitSet mBlockPids = new BitSet();
+    private int mBlockCount;
+    private long mBlockMinTime;
+    private long mBlockMaxTime;
+    private long mBlockCreationTime;
+
+    /* cache of the conversion of message times, which change at most once per second. */
+    private final Calendar mCalendar = Calendar.getInstance();
+    private long mLastSecond = -1;
+    private long mLastSecondTime;
+
+    private boolean mClosed;
+
+    /**
+     * Opens the archive in the given directory with the default limits, creating it if needed.
+     * @param directory the directory holding the files of the archive
+     * @throws IOException if the directory or the dictionaries can't be created or read
+     */
+    public LogCatArchive(File directory) throws IOException {
+        this(directory, SEGMENT_SIZE_DEFAULT, SEGMENT_AGE_DEFAULT, ARCHIVE_SIZE_DEFAULT,
+                ARCHIVE_AGE_DEFAULT);
+    }
+
+    /**
+     * Opens the archive in the given directory, creating it if needed. Messages are always
+     * appended to a new segment.
+     * @param directory the directory holding the files of the archive
+     * @param maxSegmentSize the size at which a new segment is started, in bytes
+     * @param maxSegmentAge the age at which a new segment is started, in ms
+     * @param maxArchiveSize the size above which the oldest segments are deleted, in bytes
+     * @param maxArchiveAge the age at which segments are deleted, in ms
+     * @throws IOException if the directory or the dictionaries can't be created or read
+     */
+    public LogCatArchive(File directory, long maxSegmentSize, long maxSegmentAge,
+            long maxArchiveSize, long maxArchiveAge) throws IOException {
+        mDirectory = directory;
+        mMaxSegmentSize = maxSegmentSize;
+        mMaxSegmentAge = maxSegmentAge;
+        mMaxArchiveSize = maxArchiveSize;
+        mMaxArchiveAge = maxArchiveAge;
+
+        if (directory.isDirectory() == false && directory.mkdirs() == false) {
+            throw new IOException("Unable to create " + directory);
+        }
+
+        mTags = new Dictionary(new File(directory, TAGS_FILE));
+        mPids = new Dictionary(new File(directory, PIDS_FILE));
+
+        String[] names = directory.list();
+        Arrays.sort(names);
+        for (String name : names) {
+            if (name.endsWith(SEGMENT_EXTENSION)) {
+                Segment s = new Segment(directory,
+                        name.substring(0, name.length() - SEGMENT_EXTENSION.length()));
+                if (s.mIndexFile.isFile()) {
+                    mSegments.add(s);
+                }
+            }
+        }
+        deleteOldSegments();
+    }
+
+    /**
+     * Returns the default directory of the archives, one sub-directory per device.
+     */
+    public static File getDefaultDirectory() {
+        String home = System.getProperty("user.home"); //$NON-NLS-1$
+        File android = new File(home, ".android"); //$NON-NLS-1$
+        return new File(android, "logcat"); //$NON-NLS-1$
+    }
+
+    /**
+     * Returns the name of the directory holding the archive of a device.
+     * @param serialNumber the serial number of the device
+     */
+    public static String getDirectoryName(String serialNumber) {
+        // serial numbers of network devices contain ':'.
+        return serialNumber.replaceAll("[^\\w.-]", "_"); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    /**
+     * Appends messages to the archive. The fields of the messages are copied from the list
+     * holding them, and the messages are written to disk by the thread of the archive once their
+     * block is full, or a few seconds later.
+     * <p/>If the archive can't be written, the error is logged and the archive is closed.
+     * @param messages the messages to append. Messages already removed from their list are
+     * skipped.
+     */
+    public void append(LogCatMessageRange messages) {
+        final PendingMessages pending = new PendingMessages(messages);
+        if (pending.mCount == 0) {
+            return;
+        }
+
+        try {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    write(pending);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // the archive is closed.
+        }
+    }
+
+    /**
+     * Writes the pending messages, and closes the files of the archive. Messages appended
+     * after that are ignored. Waits for the thread of the archive to finish its work, so this
+     * must not be called from a {@link LogCatArchivePager.IPageListener}.
+     */
+    public void close() {
+        mExecutor.shutdown();
+        boolean interrupted = false;
+        while (true) {
+            try {
+                mExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        closeFiles();
+    }
+
+    /**
+     * Returns the archived messages with a time in the given range that match all the
+     * filters, oldest first. The messages are read from disk as the iterator advances, one
+     * block at a time, and only the blocks whose index shows they can match are read.
+     * <p/>The iterator returns the messages appended before this call, and this call waits for
+     * them to be written. It must not be made from the UI thread. If a segment is deleted while
+     * iterating, its messages are skipped.
+     * @param fromTime the minimum time of the messages, in ms since the epoch
+     * @param toTime the maximum time of the messages, in ms since the epoch
+     * @param filters the filters the messages must match
+     */
+    public Iterator<LogCatMessage> query(final long fromTime, final long toTime,
+            final List<LogCatFilter> filters) {
+        Callable<Iterator<LogCatMessage>> query = new Callable<Iterator<LogCatMessage>>() {
+            @Override
+            public Iterator<LogCatMessage> call() {
+                return doQuery(fromTime, toTime, filters);
+            }
+        };
+
+        if (Thread.currentThread() != mThread) {
+            try {
+                return mExecutor.submit(query).get();
+            } catch (RejectedExecutionException e) {
+                // the archive is closed, and all its messages are written.
+            } catch (InterruptedException e) {
+                // query the messages written so far.
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            }
+        }
+        return doQuery(fromTime, toTime, filters);
+    }
+
+    /**
+     * Runs a task on the thread of the archive, after the messages appended so far are
+     * written, or on a new thread if the archive is closed.
+     */
+    void execute(Runnable task) {
+        try {
+            mExecutor.execute(task);
+        } catch (RejectedExecutionException e) {
+            Thread t = new Thread(task, "LogCat Archive Query"); //$NON-NLS-1$
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    private synchronized void write(PendingMessages pending) {
+        if (mClosed) {
+            return;
+        }
+
+        try {
+            for (int i = 0; i < pending.mCount; i++) {
+                appendMessage(pending, i);
+            }
+
+            if (mBlockCount > 0
+                    && System.currentTimeMillis() - mBlockCreationTime >= BLOCK_FLUSH_INTERVAL) {
+                writeBlock();
+            }
+        } catch (IOException e) {
+            Log.e("LogCatArchive", "Unable to write to " + mDirectory + ": " + e.getMessage());
+            closeFiles();
+            mExecutor.shutdown();
+        }
+    }
+
+    private synchronized void closeFiles() {
+        if (mClosed) {
+            return;
+        }
+
+        try {
+            if (mBlockCount > 0) {
+                writeBlock();
+            }
+        } catch (IOException e) {
+            Log.e("LogCatArchive", "Unable to write to " + mDirectory + ": " + e.getMessage());
+        }
+
+        closeSegment();
+        mTags.close();
+        mPids.close();
+        mClosed = true;
+    }
+
+    private synchronized Iterator<LogCatMessage> doQuery(long fromTime, long toTime,
+            List<LogCatFilter> filters) {
+        if (mBlockCount > 0 && mClosed == false) {
+            try {
+                writeBlock();
+            } catch (IOException e) {
+                Log.e("LogCatArchive", "Unable to write to " + mDirectory + ": "
+                        + e.getMessage());
+                closeFiles();
+                mExecutor.shutdown();
+            }
+        }
+
+        // the ids of the tags and pids accepted by all the filters, or null for all of them.
+        BitSet tagIds = null;
+        BitSet pidIds = null;
+        for (LogCatFilter f : filters) {
+            if (f.checksTag()) {
+                BitSet ids = new BitSet();
+                List<String> tags = mTags.getStrings();
+                for (int i = 0; i < tags.size(); i++) {
+                    if (f.matchesTag(tags.get(i))) {
+                        ids.set(i);
+                    }
+                }
+                tagIds = and(tagIds, ids);
+            }
+            if (f.checksPid()) {
+                BitSet ids = new BitSet();
+                int id = mPids.getIdIfPresent(f.getPid());
+                if (id != -1) {
+                    ids.set(id);
+                }
+                pidIds = and(pidIds, ids);
+            }
+        }
+
+        // the index entries of the segment being written may be read while it grows.
+        List<Segment> segments = new ArrayList<Segment>(mSegments.size());
+        for (Segment s : mSegments) {
+            segments.add(s.snapshot());
+        }
+
+        return new QueryIterator(segments, fromTime, toTime, filters, tagIds, pidIds);
+    }
+    private static BitSet and(BitSet a, BitSet b) {
+        if (a == null) {
+            return b;
+        }
+        a.and(b);
+        return a;
+    }
+
+    private void appendMessage(PendingMessages m, int index) throws IOException {
+        long time = toEpochTime(m.mTimes[index]);
+        if (mBlockCount == 0) {
+            mBlockMinTime = time;
+            mBlockMaxTime = time;
+            mBlockCreationTime = System.currentTimeMillis();
+        } else {
+            mBlockMinTime = Math.min(mBlockMinTime, time);
+            mBlockMaxTime = Math.max(mBlockMaxTime, time);
+        }
+
+        mBlockOut.writeLong(time);
+        mBlockOut.writeByte(m.mLevels[index]);
+        writeString(mBlockOut, m.mPids[index]);
+        writeString(mBlockOut, m.mTids[index]);
+        writeString(mBlockOut, m.mAppNames[index]);
+        writeString(mBlockOut, m.mTags[index]);
+
+        // the text is already encoded in UTF-8.
+        int start = index > 0 ? m.mTextEnds[index - 1] : 0;
+        mBlockOut.writeInt(m.mTextEnds[index] - start);
+        mBlockOut.write(m.mText, start, m.mTextEnds[index] - start);
+
+        mBlockTags.set(mTags.getId(m.mTags[index]));
+        mBlockPids.set(mPids.getId(m.mPids[index]));
+        mBlockCount++;
+
+        if (mBlock.size() >= BLOCK_SIZE) {
+            writeBlock();
+        }
+    }
+
+    /**
+     * Compresses the current block to the current segment, and adds it to the index.
+     */
+    private void writeBlock() throws IOException {
+        if (mSegmentOut == null) {
+            openSegment();
+        }
+        Segment segment = mSegments.getLast();
+
+        byte[] data = mBlock.toByteArray();
+        Deflater deflater = new Deflater();
+        int compressedLength = 0;
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buffer);
+                mSegmentOut.write(buffer, 0, n);
+                compressedLength += n;
+            }
+        } finally {
+            deflater.end();
+        }
+        mSegmentOut.flush();
+
+        IndexEntry entry = new IndexEntry(segment.mDataLength, compressedLength, data.length,
+                mBlockCount, mBlockMinTime, mBlockMaxTime, mBlockTags, mBlockPids);
+        entry.write(mIndexOut);
+        mIndexOut.flush();
+        segment.mDataLength += compressedLength;
+        segment.mIndexLength = mIndexOut.size();
+
+        mBlock.reset();
+        mBlockTags.clear();
+        mBlockPids.clear();
+        mBlockCount = 0;
+
+        if (segment.getSize() >= mMaxSegmentSize
+                || System.currentTimeMillis() - segment.mCreationTime >= mMaxSegmentAge) {
+            closeSegment();
+            deleteOldSegments();
+        }
+    }
+
+    private void openSegment() throws IOException {
+        long time = System.currentTimeMillis();
+        Segment segment;
+        do {
+            segment = new Segment(mDirectory, String.format("%1$016d", time++)); //$NON-NLS-1$
+        } while (segment.mDataFile.exists());
+
+        mSegmentOut = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(segment.mDataFile)));
+        mIndexOut = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(segment.mIndexFile)));
+        mSegments.add(segment);
+    }
+
+    private void closeSegment() {
+        if (mSegmentOut != null) {
+            closeQuietly(mSegmentOut);
+            closeQuietly(mIndexOut);
+            mSegmentOut = null;
+            mIndexOut = null;
+        }
+    }
+
+    /**
+     * Deletes the oldest segments until the archive is within its limits. The segment being
+     * written is never deleted.
+     */
+    private void deleteOldSegments() {
+        long size = 0;
+        for (Segment s : mSegments) {
+            size += s.getSize();
+        }
+
+        long now = System.currentTimeMillis();
+        while (mSegments.size() > (mSegmentOut != null ? 1 : 0)) {
+            Segment oldest = mSegments.getFirst();
+            if (size <= mMaxArchiveSize && now - oldest.mDataFile.lastModified() < mMaxArchiveAge) {
+                break;
+            }
+
+            mSegments.removeFirst();
+            size -= oldest.getSize();
+            oldest.mDataFile.delete();
+            oldest.mIndexFile.delete();
+        }
+    }
+
+    /**
+     * Converts the time of a message, encoded by {@link LogCatMessageList}, into ms since the
+     * epoch. Logcat doesn't print the year, so the time is assumed to be within the last year.
+     * Times that couldn't be parsed are replaced by the current time.
+     */
+    private long toEpochTime(long time) {
+        if (time < 0) {
+            return System.currentTimeMillis();
+        }
+
+        // the month, day, hour, minute and second, without the fraction of second.
+        long second = time >>> 34;
+        if (second != mLastSecond) {
+            long now = System.currentTimeMillis();
+            mCalendar.setTimeInMillis(now);
+            int year = mCalendar.get(Calendar.YEAR);
+            mCalendar.clear();
+            mCalendar.set(Calendar.YEAR, year);
+            LogCatMessageList.decodeTime(time, mCalendar);
+            if (mCalendar.getTimeInMillis() > now + 24 * 60 * 60 * 1000) {
+                // a message from the end of last year.
+                mCalendar.set(Calendar.YEAR, year - 1);
+            }
+            mLastSecond = second;
+            mLastSecondTime = mCalendar.getTimeInMillis();
+        }
+
+        return mLastSecondTime + LogCatMessageList.getMillis(time);
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(UTF8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    private static void closeQuietly(java.io.Closeable c) {
+        try {
+            c.close();
+        } catch (IOException e) {
+            // nothing to do.
+        }
+    }
+
+    /**
+     * A copy of the fields of messages appended to the archive, taken from the columns of
+     * their {@link LogCatMessageList} while holding its lock.
+     */
+    private static final class PendingMessages {
+        final int mCount;
+        final long[] mTimes;
+        final byte[] mLevels;
+        final String[] mPids;
+        final String[] mTids;
+        final String[] mAppNames;
+        final String[] mTags;
+
+        /** the UTF-8 texts of the messages, one after the other. */
+        final byte[] mText;
+        /** the offset in {@link #mText} of the end of the text of each message. */
+        final int[] mTextEnds;
+
+        PendingMessages(LogCatMessageRange range) {
+            LogCatMessageList list = range.getList();
+            synchronized (list) {
+                int[] indices = new int[range.size()];
+                int count = 0;
+                int textLength = 0;
+                for (int i = 0; i < range.size(); i++) {
+                    int index = range.getListIndex(i);
+                    if (index != -1) {
+                        indices[count++] = index;
+                        textLength += list.getTextLength(index);
+                    }
+                }
+
+                mCount = count;
+                mTimes = new long[count];
+                mLevels = new byte[count];
+                mPids = new String[count];
+                mTids = new String[count];
+                mAppNames = new String[count];
+                mTags = new String[count];
+                mText = new byte[textLength];
+                mTextEnds = new int[count];
+
+                int offset = 0;
+                for (int i = 0; i < count; i++) {
+                    int index = indices[i];
+                    LogLevel level = list.getLogLevel(index);
+                    mTimes[i] = list.getTime(index);
+                    mLevels[i] = (byte) (level != null ? level.ordinal() : -1);
+                    mPids[i] = list.getString(list.getPidId(index));
+                    mTids[i] = list.getString(list.getTidId(index));
+                    mAppNames[i] = list.getString(list.getAppNameId(index));
+                    mTags[i] = list.getString(list.getTagId(index));
+
+                    int length = list.getTextLength(index);
+                    System.arraycopy(list.getTextData(index), list.getTextOffset(index), mText,
+                            offset, length);
+                    offset += length;
+                    mTextEnds[i] = offset;
+                }
+            }
+        }
+    }
+
+    /**
+     * A segment of the archive: a file of compressed blocks, and the file of their index.
+     */
+    private static final class Segment {
+        final File mDataFile;
+        final File mIndexFile;
+        final long mCreationTime;
+        long mDataLength;
+        long mIndexLength;
+
+        Segment(File directory, String name) {
+            mDataFile = new File(directory, name + SEGMENT_EXTENSION);
+            mIndexFile = new File(directory, name + INDEX_EXTENSION);
+            mCreationTime = System.currentTimeMillis();
+            mDataLength = mDataFile.length();
+            mIndexLength = mIndexFile.length();
+        }
+
+        private Segment(Segment s) {
+            mDataFile = s.mDataFile;
+            mIndexFile = s.mIndexFile;
+            mCreationTime = s.mCreationTime;
+            mDataLength = s.mDataLength;
+            mIndexLength = s.mIndexLength;
+        }
+
+        Segment snapshot() {
+            return new Segment(this);
+        }
+
+        long getSize() {
+            return mDataLength + mIndexLength;
+        }
+
+        /**
+         * Reads the index entries written before the snapshot of this segment was taken.
+         */
+        List<IndexEntry> readIndex() throws IOException {
+            List<IndexEntry> entries = new ArrayList<IndexEntry>();
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(mIndexFile)));
+            try {
+                long remaining = mIndexLength;
+                while (remaining > 0) {
+                    IndexEntry e = IndexEntry.read(in);
+                    entries.add(e);
+                    remaining -= e.getSize();
+                }
+            } catch (EOFException e) {
+                // the last entry was not completely written.
+            } finally {
+                in.close();
+            }
+            return entries;
+        }
+
+        /**
+         * Reads and decompresses a block.
+         */
+        byte[] readBlock(IndexEntry entry) throws IOException {
+            byte[] compressed = new byte[entry.mCompressedLength];
+            RandomAccessFile f = new RandomAccessFile(mDataFile, "r"); //$NON-NLS-1$
+            try {
+                f.seek(entry.mOffset);
+                f.readFully(compressed);
+            } finally {
+                f.close();
+            }
+
+            byte[] data = new byte[entry.mLength];
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(compressed);
+                int n = 0;
+                while (n < data.length && !inflater.finished()) {
+                    int count = inflater.inflate(data, n, data.length - n);
+                    if (count == 0 && inflater.needsInput()) {
+                        break;
+                    }
+                    n += count;
+                }
+                if (n != data.length) {
+                    throw new IOException("Truncated block in " + mDataFile);
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupted block in " + mDataFile);
+            } finally {
+                inflater.end();
+            }
+            return data;
+        }
+    }
+
+    /**
+     * The index entry of a block.
+     */
+    private static final class IndexEntry {
+        final long mOffset;
+        final int mCompressedLength;
+        final int mLength;
+        final int mCount;
+        final long mMinTime;
+        final long mMaxTime;
+        final int[] mTagIds;
+        final int[] mPidIds;
+
+        IndexEntry(long offset, int compressedLength, int length, int count, long minTime,
+                long maxTime, BitSet tagIds, BitSet pidIds) {
+            this(offset, compressedLength, length, count, minTime, maxTime, toArray(tagIds),
+                    toArray(pidIds));
+        }
+
+        private IndexEntry(long offset, int compressedLength, int length, int count,
+                long minTime, long maxTime, int[] tagIds, int[] pidIds) {
+            mOffset = offset;
+            mCompressedLength = compressedLength;
+            mLength = length;
+            mCount = count;
+            mMinTime = minTime;
+            mMaxTime = maxTime;
+            mTagIds = tagIds;
+            mPidIds = pidIds;
+        }
+
+        /**
+         * Returns whether the block can hold messages in the time range, with one of the
+         * given tags and pids.
+         */
+        boolean canMatch(long fromTime, long toTime, BitSet tagIds, BitSet pidIds) {
+            return mMaxTime >= fromTime && mMinTime <= toTime
+                    && intersects(mTagIds, tagIds) && intersects(mPidIds, pidIds);
+        }
+
+        private static boolean intersects(int[] ids, BitSet set) {
+            if (set == null) {
+                return true;
+            }
+            for (int id : ids) {
+                if (set.get(id)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeLong(mOffset);
+            out.writeInt(mCompressedLength);
+            out.writeInt(mLength);
+            out.writeInt(mCount);
+            out.writeLong(mMinTime);
+            out.writeLong(mMaxTime);
+            writeIds(out, mTagIds);
+            writeIds(out, mPidIds);
+        }
+
+        static IndexEntry read(DataInputStream in) throws IOException {
+            return new IndexEntry(in.readLong(), in.readInt(), in.readInt(), in.readInt(),
+                    in.readLong(), in.readLong(), readIds(in), readIds(in));
+        }
+
+        /** Returns the number of bytes of the entry in the index file. */
+        int getSize() {
+            return 8 + 4 + 4 + 4 + 8 + 8 + 4 * (2 + mTagIds.length + mPidIds.length);
+        }
+
+        private static int[] toArray(BitSet set) {
+            int[] ids = new int[set.cardinality()];
+            for (int i = 0, id = set.nextSetBit(0); id >= 0; i++, id = set.nextSetBit(id + 1)) {
+                ids[i] = id;
+            }
+            return ids;
+        }
+
+        private static void writeIds(DataOutputStream out, int[] ids) throws IOException {
+            out.writeInt(ids.length);
+            for (int id : ids) {
+                out.writeInt(id);
+            }
+        }
+
+        private static int[] readIds(DataInputStream in) throws IOException {
+            int[] ids = new int[in.readInt()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = in.readInt();
+            }
+            return ids;
+        }
+    }
+
+    /**
+     * Strings identified by their position in a file, to which new strings are appended.
+     */
+    private static final class Dictionary {
+        private final List<String> mStrings = new ArrayList<String>();
+        private final Map<String, Integer> mIds = new HashMap<String, Integer>();
+        private final DataOutputStream mOut;
+
+        Dictionary(File file) throws IOException {
+            long length = 0;
+            if (file.isFile()) {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(
+                        new FileInputStream(file)));
+                try {
+                    while (true) {
+                        String s = readString(in);
+                        mIds.put(s, Integer.valueOf(mStrings.size()));
+                        mStrings.add(s);
+                        length += 4 + s.getBytes(UTF8).length;
+                    }
+                } catch (EOFException e) {
+                    // end of the dictionary.
+                } finally {
+                    in.close();
+                }
+
+                // drop what remains of a string that was not completely written.
+                RandomAccessFile f = new RandomAccessFile(file, "rw"); //$NON-NLS-1$
+                try {
+                    f.setLength(length);
+                } finally {
+                    f.close();
+                }
+            }
+
+            mOut = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(file, true)));
+        }
+
+        int getId(String s) throws IOException {
+            Integer id = mIds.get(s);
+            if (id == null) {
+                id = Integer.valueOf(mStrings.size());
+                writeString(mOut, s);
+                mOut.flush();
+                mStrings.add(s);
+                mIds.put(s, id);
+            }
+            return id.intValue();
+        }
+
+        int getIdIfPresent(String s) {
+            Integer id = mIds.get(s);
+            return id != null ? id.intValue() : -1;
+        }
+
+        List<String> getStrings() {
+            return mStrings;
+        }
+
+        void close() {
+            closeQuietly(mOut);
+        }
+    }
+
+    /**
+     * Iterates over the matching messages of a list of segments, reading one block at a time.
+     */
+    private static final class QueryIterator implements Iterator<LogCatMessage> {
+        private final List<Segment> mSegments;
+        private final long mFromTime;
+        private final long mToTime;
+        private final List<LogCatFilter> mFilters;
+        private final BitSet mTagIds;
+        private final BitSet mPidIds;
+
+        private int mSegmentIndex = -1;
+        private Segment mSegment;
+        private Iterator<IndexEntry> mEntries;
+        private DataInputStream mBlock;
+        private int mBlockRemaining;
+
+        private LogCatMessage mNext;
+        private final Calendar mCalendar = Calendar.getInstance();
+
+        QueryIterator(List<Segment> segments, long fromTime, long toTime,
+                List<LogCatFilter> filters, BitSet tagIds, BitSet pidIds) {
+            mSegments = segments;
+            mFromTime = fromTime;
+            mToTime = toTime;
+            mFilters = new ArrayList<LogCatFilter>(filters);
+            mTagIds = tagIds;
+            mPidIds = pidIds;
+            mNext = findNext();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return mNext != null;
+        }
+
+        @Override
+        public LogCatMessage next() {
+            if (mNext == null) {
+                throw new NoSuchElementException();
+            }
+            LogCatMessage m = mNext;
+            mNext = findNext();
+            return m;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        private LogCatMessage findNext() {
+            try {
+                while (true) {
+                    while (mBlockRemaining > 0) {
+                        mBlockRemaining--;
+                        long time = mBlock.readLong();
+                        int level = mBlock.readByte();
+                        String pid = readString(mBlock);
+                        String tid = readString(mBlock);
+                        String appName = readString(mBlock);
+                        String tag = readString(mBlock);
+                        String text = readString(mBlock);
+                        if (time < mFromTime || time > mToTime) {
+                            continue;
+                        }
+
+                        LogCatMessage m = new LogCatMessage(
+                                level >= 0 ? sLogLevels[level] : null, pid, tid, appName, tag,
+                                formatTime(time), text);
+                        if (matchesAll(m)) {
+                            return m;
+                        }
+                    }
+
+                    if (!nextBlock()) {
+                        return null;
+                    }
+                }
+            } catch (IOException e) {
+                Log.e("LogCatArchive", "Unable to read " + mSegment.mDataFile + ": "
+                        + e.getMessage());
+                return null;
+            }
+        }
+
+        private boolean matchesAll(LogCatMessage m) {
+            for (LogCatFilter f : mFilters) {
+                if (!f.matches(m)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Moves to the next block that can hold matching messages.
+         * @return false if there are no more blocks.
+         */
+        private boolean nextBlock() throws IOException {
+            while (true) {
+                while (mEntries != null && mEntries.hasNext()) {
+                    IndexEntry entry = mEntries.next();
+                    if (entry.canMatch(mFromTime, mToTime, mTagIds, mPidIds)) {
+                        mBlock = new DataInputStream(
+                                new ByteArrayInputStream(mSegment.readBlock(entry)));
+                        mBlockRemaining = entry.mCount;
+                        return true;
+                    }
+                }
+
+                if (++mSegmentIndex >= mSegments.size()) {
+                    return false;
+                }
+                mSegment = mSegments.get(mSegmentIndex);
+                if (mSegment.mIndexFile.isFile() == false) {
+                    // deleted since the query started.
+                    mEntries = null;
+                    continue;
+                }
+                mEntries = mSegment.readIndex().iterator();
+            }
+        }
+
+        private String formatTime(long time) {
+            mCalendar.setTimeInMillis(time);
+            return String.format("%1$02d-%2$02d %3$02d:%4$02d:%5$02d.%6$03d", //$NON-NLS-1$
+                    mCalendar.get(Calendar.MONTH) + 1, mCalendar.get(Calendar.DAY_OF_MONTH),
+                    mCalendar.get(Calendar.HOUR_OF_DAY), mCalendar.get(Calendar.MINUTE),
+                    mCalendar.get(Calendar.SECOND), mCalendar.get(Calendar.MILLISECOND));
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmuilib.logcat;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Loads the result of a {@link LogCatArchive} query one page at a time, as the logcat table
+ * scrolls down to its last loaded messages.
+ * <p/>The query and the pages are read by the thread of the archive, and a listener is
+ * notified on that thread when a page is loaded.
+ */
+final class LogCatArchivePager {
+    /** Number of messages loaded at a time. */
+    static final int PAGE_SIZE = 1000;
+
+    /** Maximum number of messages loaded, to bound the memory used by a query. */
+    static final int MAX_MESSAGES = 100000;
+
+    /**
+     * Classes which implement this interface provide a method that is called when a page of
+     * messages is loaded.
+     */
+    interface IPageListener {
+        /**
+         * Sent from the thread of the archive when a page of messages is loaded.
+         * @param pager the pager which loaded the page
+         */
+        void pageLoaded(LogCatArchivePager pager);
+    }
+
+    private final LogCatArchive mArchive;
+    private final long mFromTime;
+    private final long mToTime;
+    private final List<LogCatFilter> mFilters;
+    private final IPageListener mListener;
+
+    /** the result of the query, only used by the thread loading the pages. */
+    private Iterator<LogCatMessage> mIterator;
+
+    private final List<LogCatMessage> mMessages = new ArrayList<LogCatMessage>();
+    private boolean mHasMore = true;
+    private boolean mLoading;
+
+    private final Runnable mLoadTask = new Runnable() {
+        @Override
+        public void run() {
+            if (mIterator == null) {
+                mIterator = mArchive.query(mFromTime, mToTime, mFilters);
+            }
+
+            int max = Math.min(PAGE_SIZE, MAX_MESSAGES - getCount());
+            List<LogCatMessage> page = new ArrayList<LogCatMessage>(max);
+            while (page.size() < max && mIterator.hasNext()) {
+                page.add(mIterator.next());
+            }
+
+            synchronized (LogCatArchivePager.this) {
+                mMessages.addAll(page);
+                mHasMore = mMessages.size() < MAX_MESSAGES && mIterator.hasNext();
+                mLoading = false;
+            }
+            mListener.pageLoaded(LogCatArchivePager.this);
+        }
+    };
+
+    /**
+     * Construct a pager, and start loading the first page of messages.
+     * @param archive the archive to query
+     * @param fromTime the minimum time of the messages, in ms since the epoch
+     * @param toTime the maximum time of the messages, in ms since the epoch
+     * @param filters the filters the messages must match
+     * @param listener the listener notified when a page is loaded
+     */
+    LogCatArchivePager(LogCatArchive archive, long fromTime, long toTime,
+            List<LogCatFilter> filters, IPageListener listener) {
+        mArchive = archive;
+        mFromTime = fromTime;
+        mToTime = toTime;
+        mFilters = filters;
+        mListener = listener;
+        loadPage();
+    }
+
+    /**
+     * Returns the number of messages loaded so far.
+     */
+    synchronized int getCount() {
+        return mMessages.size();
+    }
+
+    /**
+     * Returns a loaded message, or null if the index is out of range.
+     */
+    synchronized LogCatMessage getMessage(int index) {
+        if (index < 0 || index >= mMessages.size()) {
+            return null;
+        }
+        return mMessages.get(index);
+    }
+
+    /**
+     * Returns whether more messages can be loaded. This is true until a page load finds the
+     * end of the result.
+     */
+    synchronized boolean hasMore() {
+        return mHasMore;
+    }
+
+    /**
+     * Starts loading the next page of messages, unless a page is already being loaded or all
+     * the messages are loaded.
+     * @return true if a load was started.
+     */
+    synchronized boolean loadPage() {
+        if (mLoading || mHasMore == false) {
+            return false;
+        }
+
+        mLoading = true;
+        mArchive.execute(mLoadTask);
+        return true;
+    }
+}
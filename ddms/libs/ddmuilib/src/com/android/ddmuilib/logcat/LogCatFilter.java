@@ -18,9 +18,9 @@ package com.android.ddmuilib.logcat;
 import com.android.ddmlib.Log;
 import com.android.ddmlib.Log.LogLevel;
 
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
@@ -35,6 +35,8 @@ public final class LogCatFilter {
     private static final String TAG_KEYWORD = "tag:";   //$NON-NLS-1$
     private static final String TEXT_KEYWORD = "text:"; //$NON-NLS-1$
 
+    private static final Charset UTF8 = Charset.forName("UTF-8"); //$NON-NLS-1$
+
     private final String mName;
     private final String mTag;
     private final String mText;
@@ -57,9 +59,9 @@ public final class LogCatFilter {
     private boolean mCheckTag;
     private boolean mCheckText;
 
-    private Pattern mAppNamePattern;
-    private Pattern mTagPattern;
-    private Pattern mTextPattern;
+    private FieldMatcher mAppNameMatcher;
+    private FieldMatcher mTagMatcher;
+    private FieldMatcher mTextMatcher;
 
     /**
      * Construct a filter with the provided restrictions for the logcat message. All the text
@@ -93,7 +95,7 @@ public final class LogCatFilter {
 
         if (mAppName.length() != 0) {
             try {
-                mAppNamePattern = Pattern.compile(mAppName, getPatternCompileFlags(mAppName));
+                mAppNameMatcher = new FieldMatcher(mAppName);
                 mCheckAppName = true;
             } catch (PatternSyntaxException e) {
                 Log.e("LogCatFilter", "Ignoring invalid app name regex.");
@@ -104,7 +106,7 @@ public final class LogCatFilter {
 
         if (mTag.length() != 0) {
             try {
-                mTagPattern = Pattern.compile(mTag, getPatternCompileFlags(mTag));
+                mTagMatcher = new FieldMatcher(mTag);
                 mCheckTag = true;
             } catch (PatternSyntaxException e) {
                 Log.e("LogCatFilter", "Ignoring invalid tag regex.");
@@ -115,7 +117,7 @@ public final class LogCatFilter {
 
         if (mText.length() != 0) {
             try {
-                mTextPattern = Pattern.compile(mText, getPatternCompileFlags(mText));
+                mTextMatcher = new FieldMatcher(mText);
                 mCheckText = true;
             } catch (PatternSyntaxException e) {
                 Log.e("LogCatFilter", "Ignoring invalid text regex.");
@@ -131,7 +133,7 @@ public final class LogCatFilter {
      * the following heuristic: if the regex has an upper case character, then the match
      * will be case sensitive. Otherwise it will be case insensitive.
      */
-    private int getPatternCompileFlags(String regex) {
+    private static int getPatternCompileFlags(String regex) {
         for (char c : regex.toCharArray()) {
             if (Character.isUpperCase(c)) {
                 return 0;
@@ -211,54 +213,83 @@ public final class LogCatFilter {
      */
     public boolean matches(LogCatMessage m) {
         /* filter out messages of a lower priority */
-        if (m.getLogLevel().getPriority() < mLogLevel.getPriority()) {
+        if (!matchesLogLevel(m.getLogLevel())) {
             return false;
         }
 
         /* if pid filter is enabled, filter out messages whose pid does not match
          * the filter's pid */
-        if (mCheckPid && !m.getPid().equals(mPid)) {
+        if (mCheckPid && !matchesPid(m.getPid())) {
             return false;
         }
 
         /* if app name filter is enabled, filter out messages not matching the app name */
-        if (mCheckAppName) {
-            Matcher matcher = mAppNamePattern.matcher(m.getAppName());
-            if (!matcher.find()) {
-                return false;
-            }
+        if (mCheckAppName && !matchesAppName(m.getAppName())) {
+            return false;
         }
 
         /* if tag filter is enabled, filter out messages not matching the tag */
-        if (mCheckTag) {
-            Matcher matcher = mTagPattern.matcher(m.getTag());
-            if (!matcher.find()) {
-                return false;
-            }
+        if (mCheckTag && !matchesTag(m.getTag())) {
+            return false;
         }
 
-        if (mCheckText) {
-            Matcher matcher = mTextPattern.matcher(m.getMessage());
-            if (!matcher.find()) {
-                return false;
-            }
+        if (mCheckText && !mTextMatcher.matches(m.getMessage())) {
+            return false;
         }
 
         return true;
     }
 
+    /*
+     * The following methods check each field separately, for LogCatFilterEngine.
+     * The checks on pid, app name, tag and text only apply if the corresponding
+     * checksXXX() method returns true.
+     */
+
+    boolean checksPid() {
+        return mCheckPid;
+    }
+
+    boolean checksAppName() {
+        return mCheckAppName;
+    }
+
+    boolean checksTag() {
+        return mCheckTag;
+    }
+
+    boolean checksText() {
+        return mCheckText;
+    }
+
+    boolean matchesLogLevel(LogLevel level) {
+        return level != null && level.getPriority() >= mLogLevel.getPriority();
+    }
+
+    boolean matchesPid(String pid) {
+        return pid.equals(mPid);
+    }
+
+    boolean matchesAppName(String appName) {
+        return mAppNameMatcher.matches(appName);
+    }
+
+    boolean matchesTag(String tag) {
+        return mTagMatcher.matches(tag);
+    }
+
     /**
-     * Update the unread count based on new messages received. The unread count
-     * is incremented by the count of messages in the received list that will be
-     * accepted by this filter.
-     * @param newMessages list of new messages.
+     * Checks whether the UTF-8 encoded text of a message matches the text of this filter.
      */
-    public void updateUnreadCount(List<LogCatMessage> newMessages) {
-        for (LogCatMessage m : newMessages) {
-            if (matches(m)) {
-                mUnreadCount++;
-            }
-        }
+    boolean matchesText(byte[] text, int offset, int length) {
+        return mTextMatcher.matches(text, offset, length);
+    }
+
+    /**
+     * Increment the unread count by the number of new messages accepted by this filter.
+     */
+    void addUnreadCount(int count) {
+        mUnreadCount += count;
     }
 
     /**
@@ -283,4 +314,98 @@ public final class LogCatFilter {
     public boolean isTransient() {
         return mTransient;
     }
+
+    /**
+     * Matches a field of the messages against a pattern of the filter. Patterns without
+     * regex metacharacters are searched as plain strings, which is much cheaper than running
+     * a {@link java.util.regex.Matcher}, and can be done on the UTF-8 bytes of the field.
+     * Like {@link Pattern#CASE_INSENSITIVE}, case insensitive searches only fold US-ASCII
+     * characters.
+     */
+    private static final class FieldMatcher {
+        private static final String REGEX_METACHARACTERS = "\\^$.|?*+()[]{}"; //$NON-NLS-1$
+
+        private final Pattern mPattern;
+        private final String mLiteral;
+        private final byte[] mLiteralBytes;
+        private final boolean mIgnoreCase;
+
+        FieldMatcher(String regex) {
+            int flags = getPatternCompileFlags(regex);
+            mIgnoreCase = (flags & Pattern.CASE_INSENSITIVE) != 0;
+
+            if (isLiteral(regex)) {
+                // without upper case characters, the literal is already in lower case.
+                mPattern = null;
+                mLiteral = regex;
+                mLiteralBytes = regex.getBytes(UTF8);
+            } else {
+                mPattern = Pattern.compile(regex, flags);
+                mLiteral = null;
+                mLiteralBytes = null;
+            }
+        }
+
+        private static boolean isLiteral(String regex) {
+            for (int i = 0; i < regex.length(); i++) {
+                if (REGEX_METACHARACTERS.indexOf(regex.charAt(i)) != -1) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        boolean matches(String s) {
+            if (mPattern != null) {
+                return mPattern.matcher(s).find();
+            }
+
+            if (!mIgnoreCase) {
+                return s.contains(mLiteral);
+            }
+
+            int n = mLiteral.length();
+            int last = s.length() - n;
+            for (int i = 0; i <= last; i++) {
+                int j = 0;
+                while (j < n && toLowerCase(s.charAt(i + j)) == mLiteral.charAt(j)) {
+                    j++;
+                }
+                if (j == n) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        boolean matches(byte[] data, int offset, int length) {
+            if (mPattern != null) {
+                return mPattern.matcher(new String(data, offset, length, UTF8)).find();
+            }
+
+            byte[] literal = mLiteralBytes;
+            int n = literal.length;
+            int last = offset + length - n;
+            for (int i = offset; i <= last; i++) {
+                int j = 0;
+                if (mIgnoreCase) {
+                    while (j < n && toLowerCase(data[i + j]) == literal[j]) {
+                        j++;
+                    }
+                } else {
+                    while (j < n && data[i + j] == literal[j]) {
+                        j++;
+                    }
+                }
+                if (j == n) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static int toLowerCase(int c) {
+            return c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c;
+        }
+    }
 }
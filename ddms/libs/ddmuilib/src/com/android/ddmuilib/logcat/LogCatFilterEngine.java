@@ -0,0 +1,345 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmuilib.logcat;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Applies {@link LogCatFilter}s to the messages of a {@link LogCatMessageList}, without
+ * creating {@link LogCatMessage} objects.
+ * <p/>The engine keeps the sequence numbers of the messages matching all the display filters.
+ * They are computed once when the filters change, only looking at the messages of the tags
+ * and pids the filters select, and then extended by {@link #update()} with the messages
+ * received since the last update. The same pass over the new messages also updates the unread
+ * counts of the other filters.
+ * <p/>The pid, application name and tag of the messages are interned by the list, so the
+ * filters are only evaluated once for each distinct value of these fields, until the list
+ * renumbers its strings.
+ * <p/>This class is thread-safe, but the result of {@link #getCount()} and
+ * {@link #getMessage(int)} only change on calls to {@link #update()},
+ * {@link #setFilters(List)} and {@link #setUnreadFilters(List)}.
+ */
+public final class LogCatFilterEngine {
+    private static final IndexedFilter[] NO_FILTERS = new IndexedFilter[0];
+
+    private final LogCatMessageList mMessages;
+
+    private IndexedFilter[] mFilters = NO_FILTERS;
+    private IndexedFilter[] mUnreadFilters = NO_FILTERS;
+
+    /* sequence numbers of the matching messages, from mMatchStart to mMatchEnd excluded */
+    private long[] mMatches = new long[1024];
+    private int mMatchStart;
+    private int mMatchEnd;
+
+    /** sequence number of the first message not processed yet */
+    private long mNextSequence;
+
+    /** number of matching messages forgotten because they were removed from the list */
+    private long mRemovedCount;
+
+    /**
+     * Construct an engine filtering a list of messages. Until filters are set, all the messages
+     * match.
+     * @param messages the list of messages to filter
+     */
+    public LogCatFilterEngine(LogCatMessageList messages) {
+        mMessages = messages;
+        synchronized (mMessages) {
+            mNextSequence = mMessages.getFirstSequence();
+        }
+        update();
+    }
+
+    /**
+     * Sets the filters selecting the displayed messages. Messages must match all of them.
+     * The messages received since the last update are processed first.
+     * @param filters the filters to apply
+     */
+    public synchronized void setFilters(List<LogCatFilter> filters) {
+        update();
+        mFilters = toIndexedFilters(filters);
+
+        mMatchStart = 0;
+        mMatchEnd = 0;
+        synchronized (mMessages) {
+            int count = mMessages.size();
+            long first = mMessages.getFirstSequence();
+
+            BitSet candidates = null;
+            for (IndexedFilter f : mFilters) {
+                BitSet set = f.getCandidates(mMessages);
+                if (set == null) {
+                    continue;
+                }
+                if (candidates == null) {
+                    candidates = set;
+                } else {
+                    candidates.and(set);
+                }
+            }
+
+            if (candidates == null) {
+                for (int i = 0; i < count; i++) {
+                    if (matchesAll(mFilters, i)) {
+                        addMatch(first + i);
+                    }
+                }
+            } else {
+                for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+                    if (matchesAll(mFilters, i)) {
+                        addMatch(first + i);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets the filters whose unread count is updated with the messages they match. This only
+     * applies to the messages received after the last update.
+     * @param filters the filters to count unread messages for
+     */
+    public synchronized void setUnreadFilters(List<LogCatFilter> filters) {
+        update();
+        mUnreadFilters = toIndexedFilters(filters);
+    }
+
+    /**
+     * Processes the messages received since the last update, in a single pass for all the
+     * filters, and forgets the matching messages that were removed from the list.
+     */
+    public synchronized void update() {
+        int[] unreadCounts = new int[mUnreadFilters.length];
+
+        synchronized (mMessages) {
+            long first = mMessages.getFirstSequence();
+            long end = first + mMessages.size();
+
+            while (mMatchStart < mMatchEnd && mMatches[mMatchStart] < first) {
+                mMatchStart++;
+                mRemovedCount++;
+            }
+
+            for (long seq = Math.max(mNextSequence, first); seq < end; seq++) {
+                int index = (int) (seq - first);
+                if (matchesAll(mFilters, index)) {
+                    addMatch(seq);
+                }
+                for (int i = 0; i < mUnreadFilters.length; i++) {
+                    if (mUnreadFilters[i].matches(mMessages, index)) {
+                        unreadCounts[i]++;
+                    }
+                }
+            }
+            mNextSequence = end;
+        }
+
+        for (int i = 0; i < mUnreadFilters.length; i++) {
+            if (unreadCounts[i] > 0) {
+                mUnreadFilters[i].mFilter.addUnreadCount(unreadCounts[i]);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of messages matching the display filters, as of the last update.
+     */
+    public synchronized int getCount() {
+        return mMatchEnd - mMatchStart;
+    }
+
+    /**
+     * Returns the number of matching messages that updates forgot because they were removed
+     * from the list. The index of a message in {@link #getMessage(int)} goes down by one
+     * for each of them, until {@link #setFilters(List)} selects new messages.
+     */
+    public synchronized long getRemovedCount() {
+        return mRemovedCount;
+    }
+
+    /**
+     * Returns a message matching the display filters.
+     * @param index the index of the message among the matching messages, 0 being the oldest.
+     * @return a new {@link LogCatMessage} object, or null if the message was removed from the
+     * list since the last update.
+     */
+    public synchronized LogCatMessage getMessage(int index) {
+        if (index < 0 || index >= mMatchEnd - mMatchStart) {
+            return null;
+        }
+
+        long seq = mMatches[mMatchStart + index];
+        synchronized (mMessages) {
+            long i = seq - mMessages.getFirstSequence();
+            if (i < 0 || i >= mMessages.size()) {
+                return null;
+            }
+            return mMessages.getMessage((int) i);
+        }
+    }
+
+    private boolean matchesAll(IndexedFilter[] filters, int index) {
+        for (IndexedFilter f : filters) {
+            if (!f.matches(mMessages, index)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void addMatch(long seq) {
+        if (mMatchEnd == mMatches.length) {
+            int count = mMatchEnd - mMatchStart;
+            // grow the array, unless compacting it frees enough space.
+            long[] matches = count > mMatches.length / 2 ? new long[mMatches.length * 2] : mMatches;
+            System.arraycopy(mMatches, mMatchStart, matches, 0, count);
+            mMatches = matches;
+            mMatchStart = 0;
+            mMatchEnd = count;
+        }
+        mMatches[mMatchEnd++] = seq;
+    }
+
+    private static IndexedFilter[] toIndexedFilters(List<LogCatFilter> filters) {
+        IndexedFilter[] indexedFilters = new IndexedFilter[filters.size()];
+        for (int i = 0; i < indexedFilters.length; i++) {
+            indexedFilters[i] = new IndexedFilter(filters.get(i));
+        }
+        return indexedFilters;
+    }
+
+    /**
+     * A {@link LogCatFilter} evaluated on the columns of a {@link LogCatMessageList}. The result
+     * of the checks on the pid, application name and tag is kept for each string id, and
+     * forgotten when the list renumbers its strings.
+     */
+    private static final class IndexedFilter {
+        private static final byte UNKNOWN = 0;
+        private static final byte MATCH = 1;
+        private static final byte NO_MATCH = 2;
+
+        private static final int PID = 0;
+        private static final int APP_NAME = 1;
+        private static final int TAG = 2;
+
+        final LogCatFilter mFilter;
+        private final byte[][] mResults = new byte[][] { new byte[0], new byte[0], new byte[0] };
+        private int mStringGeneration;
+
+        IndexedFilter(LogCatFilter filter) {
+            mFilter = filter;
+        }
+
+        /**
+         * Returns the indices of the messages that can match this filter, based on the pid
+         * and tag indexes of the list, or null if all of them can match.
+         */
+        BitSet getCandidates(LogCatMessageList messages) {
+            checkStringGeneration(messages);
+
+            if (mFilter.checksPid()) {
+                BitSet set = new BitSet(messages.size());
+                int pidId = messages.getStringId(mFilter.getPid());
+                if (pidId != -1) {
+                    messages.markMessagesWithPid(pidId, set);
+                }
+                return set;
+            }
+
+            if (mFilter.checksTag()) {
+                BitSet set = new BitSet(messages.size());
+                int count = messages.getStringCount();
+                for (int id = 0; id < count; id++) {
+                    if (messages.hasMessagesWithTag(id) && matches(TAG, messages, id)) {
+                        messages.markMessagesWithTag(id, set);
+                    }
+                }
+                return set;
+            }
+
+            return null;
+        }
+
+        boolean matches(LogCatMessageList messages, int index) {
+            checkStringGeneration(messages);
+
+            if (!mFilter.matchesLogLevel(messages.getLogLevel(index))) {
+                return false;
+            }
+
+            if (mFilter.checksPid() && !matches(PID, messages, messages.getPidId(index))) {
+                return false;
+            }
+
+            if (mFilter.checksAppName()
+                    && !matches(APP_NAME, messages, messages.getAppNameId(index))) {
+                return false;
+            }
+
+            if (mFilter.checksTag() && !matches(TAG, messages, messages.getTagId(index))) {
+                return false;
+            }
+
+            if (mFilter.checksText() && !mFilter.matchesText(messages.getTextData(index),
+                    messages.getTextOffset(index), messages.getTextLength(index))) {
+                return false;
+            }
+
+            return true;
+        }
+
+        private void checkStringGeneration(LogCatMessageList messages) {
+            int generation = messages.getStringGeneration();
+            if (generation != mStringGeneration) {
+                mStringGeneration = generation;
+                for (int i = 0; i < mResults.length; i++) {
+                    mResults[i] = new byte[0];
+                }
+            }
+        }
+
+        private boolean matches(int field, LogCatMessageList messages, int id) {
+            byte[] results = mResults[field];
+            if (id >= results.length) {
+                results = Arrays.copyOf(results, Math.max(id + 1, messages.getStringCount()));
+                mResults[field] = results;
+            }
+
+            if (results[id] == UNKNOWN) {
+                String s = messages.getString(id);
+                boolean match;
+                switch (field) {
+                    case PID:
+                        match = mFilter.matchesPid(s);
+                        break;
+                    case APP_NAME:
+                        match = mFilter.matchesAppName(s);
+                        break;
+                    default:
+                        match = mFilter.matchesTag(s);
+                        break;
+                }
+                results[id] = match ? MATCH : NO_MATCH;
+            }
+
+            return results[id] == MATCH;
+        }
+    }
+}
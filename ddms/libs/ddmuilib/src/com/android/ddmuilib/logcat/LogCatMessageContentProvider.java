@@ -16,28 +16,110 @@
 
 package com.android.ddmuilib.logcat;
 
-import org.eclipse.jface.viewers.IStructuredContentProvider;
+import com.android.ddmlib.Log.LogLevel;
+
+import org.eclipse.jface.viewers.ILazyContentProvider;
+import org.eclipse.jface.viewers.TableViewer;
 import org.eclipse.jface.viewers.Viewer;
 
 /**
  * A JFace content provider for the LogCat log messages, used in the {@link LogCatPanel}.
+ * The input is a {@link LogCatFilterEngine}, and only the messages of the rows being displayed
+ * are created. The number of rows must be set with {@link #refreshRows()} when the table is
+ * refreshed.
+ * <p/>The engine can be updated between two refreshes, for instance while the display is
+ * paused. The rows then keep showing the same messages, and the rows of the messages removed
+ * from the list since the last refresh show a placeholder.
+ * <p/>The input can also be a {@link LogCatArchivePager}, in which case the next page of
+ * archived messages starts loading when the table displays its last loaded messages. The
+ * listener of the pager must set the number of rows once the page is loaded.
  */
-public final class LogCatMessageContentProvider implements IStructuredContentProvider {
+public final class LogCatMessageContentProvider implements ILazyContentProvider {
+    /** Number of rows from the end of the loaded messages at which the next page is loaded. */
+    private static final int PAGE_LOAD_THRESHOLD = LogCatArchivePager.PAGE_SIZE / 10;
+
+    /** Displayed in the rows of the messages removed from the list since the last refresh. */
+    private static final LogCatMessage REMOVED_MESSAGE = new LogCatMessage(LogLevel.VERBOSE,
+            "", "", "", "", "", "(message removed from the log buffer)");
+
+    private TableViewer mViewer;
+    private LogCatFilterEngine mFilterEngine;
+    private LogCatArchivePager mArchivePager;
+
+    /** removed count of the engine when the rows were last refreshed */
+    private long mRemovedCount;
+
     @Override
     public void dispose() {
     }
 
     @Override
     public void inputChanged(Viewer viewer, Object oldInput, Object newInput) {
+        mViewer = (TableViewer) viewer;
+        mFilterEngine = null;
+        mArchivePager = null;
+        if (newInput instanceof LogCatFilterEngine) {
+            mFilterEngine = (LogCatFilterEngine) newInput;
+            mRemovedCount = mFilterEngine.getRemovedCount();
+        } else if (newInput instanceof LogCatArchivePager) {
+            mArchivePager = (LogCatArchivePager) newInput;
+        }
     }
 
     @Override
-    public Object[] getElements(Object model) {
-        if (model instanceof LogCatMessageList) {
-            Object[] e = ((LogCatMessageList) model).toArray();
-            return e;
+    public void updateElement(int index) {
+        if (mArchivePager != null) {
+            updateArchivedElement(index);
+            return;
         }
 
-        return null;
+        if (mFilterEngine == null) {
+            return;
+        }
+
+        LogCatMessage m = getMessage(index);
+        mViewer.replace(m != null ? m : REMOVED_MESSAGE, index);
+    }
+
+    /**
+     * Sets the number of rows of the table to the number of messages of the engine, as of its
+     * last update. Must be called from the UI thread, instead of
+     * {@link TableViewer#setItemCount(int)}, when the input is a {@link LogCatFilterEngine}.
+     */
+    public void refreshRows() {
+        if (mFilterEngine != null) {
+            mRemovedCount = mFilterEngine.getRemovedCount();
+            mViewer.setItemCount(mFilterEngine.getCount());
+        }
+    }
+
+    /**
+     * Returns the message displayed in a row of the table.
+     * @param row the index of the row
+     * @return a new {@link LogCatMessage} object, or null if the message was removed from the
+     * list since the rows were refreshed.
+     */
+    public LogCatMessage getMessage(int row) {
+        if (mArchivePager != null) {
+            return mArchivePager.getMessage(row);
+        }
+        if (mFilterEngine == null) {
+            return null;
+        }
+
+        // the messages removed by the updates since the last refresh shifted the indices.
+        long index = row - (mFilterEngine.getRemovedCount() - mRemovedCount);
+        return index >= 0 ? mFilterEngine.getMessage((int) index) : null;
+    }
+
+    private void updateArchivedElement(int index) {
+        LogCatMessage m = mArchivePager.getMessage(index);
+        if (m != null) {
+            mViewer.replace(m, index);
+        }
+
+        if (index >= mArchivePager.getCount() - PAGE_LOAD_THRESHOLD) {
+            mArchivePager.loadPage();
+        }
     }
 }
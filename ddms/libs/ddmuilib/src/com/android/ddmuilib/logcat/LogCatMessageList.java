@@ -16,12 +16,33 @@
 
 package com.android.ddmuilib.logcat;
 
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import com.android.ddmlib.Log.LogLevel;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Container for a list of log messages. The list of messages are
  * maintained in a circular buffer (FIFO).
+ * <p/>Messages are not kept as {@link LogCatMessage} objects. Each field is stored in a column:
+ * primitive arrays for the time and level, ids of interned strings for the pid, thread id,
+ * tag and application name, and the UTF-8 text of the messages in large shared byte arrays. A
+ * {@link LogCatMessage} is only created when a message is accessed, through
+ * {@link #getMessage(int)} or {@link #toArray()}. This makes holding a million messages
+ * practical.
+ * <p/>The messages of each tag and of each pid are also chained together, so that
+ * {@link LogCatFilterEngine} can find them without looking at the other messages. Each message
+ * has a sequence number, which doesn't change when older messages are removed.
+ * <p/>The interned strings that no message uses anymore are dropped when all the messages were
+ * replaced since the last check, if their number at least doubled since then.
  */
 public final class LogCatMessageList {
     /** Preference key for size of the FIFO. */
@@ -31,9 +52,65 @@ public final class LogCatMessageList {
     /** Default value for max # of messages. */
     public static final int MAX_MESSAGES_DEFAULT = 5000;
 
+    private static final Charset UTF8 = Charset.forName("UTF-8"); //$NON-NLS-1$
+
+    /** Pattern of the message times, as printed by 'logcat -v long'. */
+    private static final Pattern sTimePattern = Pattern.compile(
+            "(\\d\\d)-(\\d\\d) (\\d\\d):(\\d\\d):(\\d\\d)\\.(\\d{1,9})"); //$NON-NLS-1$
+
+    /** Size of the arrays holding the text of the messages. */
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    /** Initial size of the columns, which grow up to the size of the FIFO. */
+    private static final int INITIAL_COLUMN_SIZE = 1024;
+
+    /** Number of interned strings below which unused strings are not dropped. */
+    private static final int MIN_STRINGS_TO_COMPACT = 1024;
+
+    private static final LogLevel[] sLogLevels = LogLevel.values();
+
     private int mFifoSize;
-    private BlockingQueue<LogCatMessage> mQ;
-    private LogCatMessage[] mQArray;
+
+    /* the columns. Message i is at (mHead + i) % mFifoSize. */
+    private int mHead;
+    private int mCount;
+    private long[] mTimes;
+    private byte[] mLevels;
+    private int[] mPids;
+    private int[] mTids;
+    private int[] mTags;
+    private int[] mAppNames;
+    private int[] mTextChunks;
+    private int[] mTextOffsets;
+    private int[] mTextLengths;
+
+    /* the next message with the same tag, or pid, as the message in a slot, or -1. */
+    private int[] mNextSameTag;
+    private int[] mNextSamePid;
+
+    /* oldest and newest message of each tag and pid, indexed by string id, or -1. */
+    private int[] mTagHeads = new int[0];
+    private int[] mTagTails = new int[0];
+    private int[] mPidHeads = new int[0];
+    private int[] mPidTails = new int[0];
+
+    /** sequence number of the oldest message */
+    private long mFirstSequence;
+
+    /* the text of the messages. mChunks.get(0) is chunk number mFirstChunk. */
+    private final List<byte[]> mChunks = new ArrayList<byte[]>();
+    private int mFirstChunk;
+    private int mLastChunkUsed;
+    private byte[] mFreeChunk;
+
+    /* interned strings. */
+    private final List<String> mStrings = new ArrayList<String>();
+    private final Map<String, Integer> mStringIds = new HashMap<String, Integer>();
+    private int mStringGeneration;
+    /** number of strings in use after the last check for unused strings */
+    private int mUsedStringCount;
+    /** sequence number of the oldest message when unused strings are checked next */
+    private long mNextStringsCheck;
 
     /**
      * Construct an empty message list.
@@ -41,9 +118,8 @@ public final class LogCatMessageList {
      */
     public LogCatMessageList(int maxMessages) {
         mFifoSize = maxMessages;
-
-        mQ = new ArrayBlockingQueue<LogCatMessage>(mFifoSize);
-        mQArray = new LogCatMessage[mFifoSize];
+        mNextStringsCheck = mFifoSize;
+        allocateColumns(Math.min(mFifoSize, INITIAL_COLUMN_SIZE));
     }
 
     /**
@@ -51,21 +127,13 @@ public final class LogCatMessageList {
      * @param n new size for the list
      */
     public synchronized void resize(int n) {
-        mFifoSize = n;
-
-        if (mFifoSize > mQ.size()) {
-            /* if resizing to a bigger fifo, we can copy over all elements from the current mQ */
-            mQ = new ArrayBlockingQueue<LogCatMessage>(mFifoSize, true, mQ);
-        } else {
-            /* for a smaller fifo, copy over the last n entries */
-            LogCatMessage[] curMessages = mQ.toArray(new LogCatMessage[mQ.size()]);
-            mQ = new ArrayBlockingQueue<LogCatMessage>(mFifoSize);
-            for (int i = curMessages.length - mFifoSize; i < curMessages.length; i++) {
-                mQ.offer(curMessages[i]);
-            }
+        // drop the oldest messages that don't fit anymore.
+        while (mCount > n) {
+            removeFirst();
         }
 
-        mQArray = new LogCatMessage[mFifoSize];
+        moveColumns(Math.min(n, Math.max(mCount, INITIAL_COLUMN_SIZE)));
+        mFifoSize = n;
     }
 
     /**
@@ -74,42 +142,536 @@ public final class LogCatMessageList {
      * @param m log to be inserted
      */
     public synchronized void appendMessage(final LogCatMessage m) {
-        if (mQ.remainingCapacity() == 0) {
+        byte[] text = m.getMessage().getBytes(UTF8);
+        appendMessage(m.getLogLevel(), m.getPid(), m.getTid(), m.getAppName(), m.getTag(),
+                encodeTime(m.getTime()), text, 0, text.length);
+    }
+
+    /**
+     * Append a message to the list, from its raw fields. If the list is full, the first
+     * message will be popped off of it.
+     * @param level the log level
+     * @param pid the pid of the process that logged the message
+     * @param tid the id of the thread that logged the message
+     * @param appName the name of the application that logged the message
+     * @param tag the tag of the message
+     * @param time the time of the message, encoded with {@link #encodeTime(String)} or
+     * {@link #encodeTime(int, int, int, int, int, int, int)}
+     * @param text buffer holding the UTF-8 text of the message
+     * @param offset offset of the text in <var>text</var>
+     * @param length length of the text
+     */
+    synchronized void appendMessage(LogLevel level, String pid, String tid, String appName,
+            String tag, long time, byte[] text, int offset, int length) {
+        if (mFifoSize == 0) {
+            return;
+        }
+
+        if (mCount == mFifoSize) {
             /* make space by removing the first entry */
-            mQ.poll();
+            removeFirst();
+            if (mFirstSequence >= mNextStringsCheck) {
+                checkStrings();
+            }
+        } else if (mCount == mTimes.length) {
+            // the buffer was never full, so mHead is 0.
+            moveColumns(Math.min(mFifoSize, mTimes.length * 2));
         }
-        mQ.offer(m);
+
+        int index = (mHead + mCount) % mFifoSize;
+        mTimes[index] = time;
+        mLevels[index] = (byte) (level != null ? level.ordinal() : -1);
+        mPids[index] = intern(pid);
+        mTids[index] = intern(tid);
+        mTags[index] = intern(tag);
+        mAppNames[index] = intern(appName);
+        appendText(index, text, offset, length);
+        mCount++;
+
+        if (mTagHeads.length < mStrings.size()) {
+            growChainHeads(mStrings.size());
+        }
+        link(index, mTags[index], mTagHeads, mTagTails, mNextSameTag);
+        link(index, mPids[index], mPidHeads, mPidTails, mNextSamePid);
     }
 
     /**
-     * Returns the number of additional elements that this queue can 
-     * ideally (in the absence of memory or resource constraints) 
+     * Returns the number of additional elements that this queue can
+     * ideally (in the absence of memory or resource constraints)
      * accept without blocking.
      * @return the remaining capacity
      */
     public synchronized int remainingCapacity() {
-        return mQ.remainingCapacity();
+        return mFifoSize - mCount;
+    }
+
+    /**
+     * Returns the number of messages in the list.
+     */
+    public synchronized int size() {
+        return mCount;
     }
 
     /**
      * Clear all messages in the list.
      */
     public synchronized void clear() {
-        mQ.clear();
+        mFirstSequence += mCount;
+        mHead = 0;
+        mCount = 0;
+        mChunks.clear();
+        mFirstChunk = 0;
+        mLastChunkUsed = 0;
+        Arrays.fill(mTagHeads, -1);
+        Arrays.fill(mTagTails, -1);
+        Arrays.fill(mPidHeads, -1);
+        Arrays.fill(mPidTails, -1);
+        allocateColumns(Math.min(mFifoSize, INITIAL_COLUMN_SIZE));
+
+        mStrings.clear();
+        mStringIds.clear();
+        mStringGeneration++;
+        mUsedStringCount = 0;
+        mNextStringsCheck = mFirstSequence + mFifoSize;
+    }
+
+    /**
+     * Returns a message of the list.
+     * @param index the index of the message, 0 being the oldest message.
+     * @return a new {@link LogCatMessage} object.
+     */
+    public synchronized LogCatMessage getMessage(int index) {
+        if (index < 0 || index >= mCount) {
+            throw new IndexOutOfBoundsException(Integer.toString(index));
+        }
+
+        int i = (mHead + index) % mFifoSize;
+        byte[] chunk = mChunks.get(mTextChunks[i] - mFirstChunk);
+        int level = mLevels[i];
+        return new LogCatMessage(
+                level >= 0 ? sLogLevels[level] : null,
+                mStrings.get(mPids[i]),
+                mStrings.get(mTids[i]),
+                mStrings.get(mAppNames[i]),
+                mStrings.get(mTags[i]),
+                formatTime(mTimes[i]),
+                new String(chunk, mTextOffsets[i], mTextLengths[i], UTF8));
+    }
+
+    /**
+     * Returns a range of the most recent messages.
+     * @param count the number of messages, capped to the size of the list.
+     */
+    public synchronized LogCatMessageRange getLastMessages(int count) {
+        count = Math.min(count, mCount);
+        return new LogCatMessageRange(this, mFirstSequence + mCount - count, count);
     }
 
     /**
      * Obtain all the messages currently present in the list.
      * @return array containing all the log messages
      */
-    public Object[] toArray() {
-        if (mQ.size() == mFifoSize) {
-            /*
-             * Once the queue is full, it stays full until the user explicitly clears
-             * all the logs. Optimize for this case by not reallocating the array.
-             */
-            return mQ.toArray(mQArray);
+    public synchronized Object[] toArray() {
+        Object[] messages = new Object[mCount];
+        for (int i = 0; i < mCount; i++) {
+            messages[i] = getMessage(i);
+        }
+        return messages;
+    }
+
+    /*
+     * The following methods give access to the columns without creating LogCatMessage
+     * objects. They must be called while holding the lock of the list. Messages are
+     * designated by their index, 0 being the oldest message, and strings by their id.
+     */
+
+    /**
+     * Returns the sequence number of the oldest message. The message at index i has the
+     * sequence number getFirstSequence() + i.
+     */
+    long getFirstSequence() {
+        return mFirstSequence;
+    }
+
+    /** Returns the time of a message, encoded like {@link #encodeTime(String)} does. */
+    long getTime(int index) {
+        return mTimes[(mHead + index) % mFifoSize];
+    }
+
+    LogLevel getLogLevel(int index) {
+        int level = mLevels[(mHead + index) % mFifoSize];
+        return level >= 0 ? sLogLevels[level] : null;
+    }
+
+    int getPidId(int index) {
+        return mPids[(mHead + index) % mFifoSize];
+    }
+
+    int getTidId(int index) {
+        return mTids[(mHead + index) % mFifoSize];
+    }
+
+    int getAppNameId(int index) {
+        return mAppNames[(mHead + index) % mFifoSize];
+    }
+
+    int getTagId(int index) {
+        return mTags[(mHead + index) % mFifoSize];
+    }
+
+    /** Returns the array holding the UTF-8 text of a message. */
+    byte[] getTextData(int index) {
+        return mChunks.get(mTextChunks[(mHead + index) % mFifoSize] - mFirstChunk);
+    }
+
+    int getTextOffset(int index) {
+        return mTextOffsets[(mHead + index) % mFifoSize];
+    }
+
+    int getTextLength(int index) {
+        return mTextLengths[(mHead + index) % mFifoSize];
+    }
+
+    /**
+     * Returns the generation of the ids of the interned strings. It changes when unused
+     * strings are dropped, which gives new ids to the remaining strings.
+     */
+    int getStringGeneration() {
+        return mStringGeneration;
+    }
+
+    /** Returns the number of interned strings. Ids go from 0 to this number - 1. */
+    int getStringCount() {
+        return mStrings.size();
+    }
+
+    String getString(int id) {
+        return mStrings.get(id);
+    }
+
+    /** Returns the id of an interned string, or -1 if no message ever used it. */
+    int getStringId(String s) {
+        Integer id = mStringIds.get(s);
+        return id != null ? id.intValue() : -1;
+    }
+
+    /** Returns whether there are messages with the tag of the given id in the list. */
+    boolean hasMessagesWithTag(int tagId) {
+        return tagId < mTagHeads.length && mTagHeads[tagId] != -1;
+    }
+
+    /** Sets the bits of the indices of the messages with the tag of the given id. */
+    void markMessagesWithTag(int tagId, BitSet set) {
+        if (tagId < mTagHeads.length) {
+            markChain(mTagHeads[tagId], mNextSameTag, set);
+        }
+    }
+
+    /** Sets the bits of the indices of the messages with the pid of the given id. */
+    void markMessagesWithPid(int pidId, BitSet set) {
+        if (pidId < mPidHeads.length) {
+            markChain(mPidHeads[pidId], mNextSamePid, set);
+        }
+    }
+
+    private void markChain(int slot, int[] next, BitSet set) {
+        while (slot != -1) {
+            set.set((slot - mHead + mFifoSize) % mFifoSize);
+            slot = next[slot];
+        }
+    }
+
+    /**
+     * Encodes the time of a message, as printed by 'logcat -v long', into a long.
+     * Times that can't be parsed are interned, and stored as the complement of their id.
+     */
+    long encodeTime(String time) {
+        Matcher m = sTimePattern.matcher(time);
+        if (m.matches() == false) {
+            // unknown format, keep the string.
+            return ~intern(time);
+        }
+
+        String fraction = m.group(6);
+        return encodeTime(Integer.parseInt(m.group(1)), Integer.parseInt(m.group(2)),
+                Integer.parseInt(m.group(3)), Integer.parseInt(m.group(4)),
+                Integer.parseInt(m.group(5)), Integer.parseInt(fraction), fraction.length());
+    }
+
+    /**
+     * Encodes the time of a message into a long. From the most significant bits, the long
+     * holds 4 bits of month, 5 bits of day, 5 bits of hour, 6 bits of minute, 6 bits of
+     * second, 4 bits for the number of digits of the fraction and 30 bits for the fraction.
+     * @param month the month, from 1 to 12
+     * @param day the day of the month
+     * @param hour the hour of the day
+     * @param minute the minute
+     * @param second the second
+     * @param fraction the fraction of second, in units of 10^-<var>digits</var> second
+     * @param digits the number of digits of the fraction of second, from 1 to 9
+     */
+    static long encodeTime(int month, int day, int hour, int minute, int second,
+            int fraction, int digits) {
+        return (long) month << 56 | (long) day << 51 | (long) hour << 46 | (long) minute << 40
+                | (long) second << 34 | (long) digits << 30 | fraction;
+    }
+
+    /**
+     * Sets the month, day, hour, minute and second of a calendar to the ones of a time encoded
+     * by {@link #encodeTime(int, int, int, int, int, int, int)}.
+     */
+    static void decodeTime(long time, Calendar calendar) {
+        calendar.set(Calendar.MONTH, (int) (time >>> 56 & 0xF) - 1);
+        calendar.set(Calendar.DAY_OF_MONTH, (int) (time >>> 51 & 0x1F));
+        calendar.set(Calendar.HOUR_OF_DAY, (int) (time >>> 46 & 0x1F));
+        calendar.set(Calendar.MINUTE, (int) (time >>> 40 & 0x3F));
+        calendar.set(Calendar.SECOND, (int) (time >>> 34 & 0x3F));
+    }
+
+    /**
+     * Returns the milliseconds of the fraction of second of a time encoded by
+     * {@link #encodeTime(int, int, int, int, int, int, int)}.
+     */
+    static int getMillis(long time) {
+        int digits = (int) (time >>> 30 & 0xF);
+        int fraction = (int) (time & 0x3FFFFFFF);
+        for (; digits > 3; digits--) {
+            fraction /= 10;
+        }
+        for (; digits < 3; digits++) {
+            fraction *= 10;
+        }
+        return fraction;
+    }
+
+    /**
+     * Formats a time encoded by {@link #encodeTime(String)} the way 'logcat -v long' prints it.
+     */
+    private String formatTime(long time) {
+        if (time < 0) {
+            return mStrings.get((int) ~time);
+        }
+
+        int digits = (int) (time >>> 30 & 0xF);
+        char[] c = new char[15 + digits];
+        putDigits(c, 0, (int) (time >>> 56 & 0xF), 2);
+        c[2] = '-';
+        putDigits(c, 3, (int) (time >>> 51 & 0x1F), 2);
+        c[5] = ' ';
+        putDigits(c, 6, (int) (time >>> 46 & 0x1F), 2);
+        c[8] = ':';
+        putDigits(c, 9, (int) (time >>> 40 & 0x3F), 2);
+        c[11] = ':';
+        putDigits(c, 12, (int) (time >>> 34 & 0x3F), 2);
+        c[14] = '.';
+        putDigits(c, 15, (int) (time & 0x3FFFFFFF), digits);
+        return new String(c);
+    }
+
+    private static void putDigits(char[] c, int offset, int value, int digits) {
+        for (int i = offset + digits - 1; i >= offset; i--) {
+            c[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    private int intern(String s) {
+        if (s == null) {
+            s = ""; //$NON-NLS-1$
+        }
+
+        Integer id = mStringIds.get(s);
+        if (id == null) {
+            id = Integer.valueOf(mStrings.size());
+            mStrings.add(s);
+            mStringIds.put(s, id);
+        }
+        return id.intValue();
+    }
+
+    /**
+     * Drops the interned strings that no message uses anymore, if there are at least twice
+     * as many strings as after the last check, and renumbers the remaining ones.
+     */
+    private void checkStrings() {
+        mNextStringsCheck = mFirstSequence + mFifoSize;
+        if (mStrings.size() < Math.max(MIN_STRINGS_TO_COMPACT, mUsedStringCount * 2)) {
+            return;
+        }
+
+        int[] newIds = new int[mStrings.size()];
+        Arrays.fill(newIds, -1);
+        List<String> strings = new ArrayList<String>();
+        for (int i = 0; i < mCount; i++) {
+            int slot = (mHead + i) % mFifoSize;
+            mPids[slot] = renumber(mPids[slot], newIds, strings);
+            mTids[slot] = renumber(mTids[slot], newIds, strings);
+            mTags[slot] = renumber(mTags[slot], newIds, strings);
+            mAppNames[slot] = renumber(mAppNames[slot], newIds, strings);
+            if (mTimes[slot] < 0) {
+                mTimes[slot] = ~renumber((int) ~mTimes[slot], newIds, strings);
+            }
+        }
+
+        mStrings.clear();
+        mStrings.addAll(strings);
+        mStringIds.clear();
+        for (int id = 0; id < strings.size(); id++) {
+            mStringIds.put(strings.get(id), Integer.valueOf(id));
+        }
+        mStringGeneration++;
+        mUsedStringCount = strings.size();
+
+        // the chains are indexed by string id, so rebuild them.
+        relinkAll();
+    }
+
+    private int renumber(int id, int[] newIds, List<String> strings) {
+        if (newIds[id] == -1) {
+            newIds[id] = strings.size();
+            strings.add(mStrings.get(id));
+        }
+        return newIds[id];
+    }
+
+    private void appendText(int index, byte[] text, int offset, int length) {
+        byte[] chunk = mChunks.isEmpty() ? null : mChunks.get(mChunks.size() - 1);
+        if (chunk == null || mLastChunkUsed + length > chunk.length) {
+            if (length > CHUNK_SIZE) {
+                chunk = new byte[length];
+            } else if (mFreeChunk != null) {
+                chunk = mFreeChunk;
+                mFreeChunk = null;
+            } else {
+                chunk = new byte[CHUNK_SIZE];
+            }
+            mChunks.add(chunk);
+            mLastChunkUsed = 0;
+        }
+
+        System.arraycopy(text, offset, chunk, mLastChunkUsed, length);
+        mTextChunks[index] = mFirstChunk + mChunks.size() - 1;
+        mTextOffsets[index] = mLastChunkUsed;
+        mTextLengths[index] = length;
+        mLastChunkUsed += length;
+    }
+
+    /**
+     * Removes the oldest message, and releases the text chunks it was the last to use.
+     */
+    private void removeFirst() {
+        // the oldest message is the first of the chains of its tag and pid.
+        unlink(mHead, mTags[mHead], mTagHeads, mTagTails, mNextSameTag);
+        unlink(mHead, mPids[mHead], mPidHeads, mPidTails, mNextSamePid);
+
+        mHead = (mHead + 1) % mFifoSize;
+        mCount--;
+        mFirstSequence++;
+
+        int firstUsedChunk = mCount > 0 ? mTextChunks[mHead] : mFirstChunk + mChunks.size();
+        while (mFirstChunk < firstUsedChunk) {
+            byte[] chunk = mChunks.remove(0);
+            if (chunk.length == CHUNK_SIZE) {
+                mFreeChunk = chunk;
+            }
+            mFirstChunk++;
+        }
+        if (mChunks.isEmpty()) {
+            mLastChunkUsed = 0;
+        }
+    }
+
+    private static void link(int slot, int id, int[] heads, int[] tails, int[] next) {
+        next[slot] = -1;
+        if (tails[id] == -1) {
+            heads[id] = slot;
+        } else {
+            next[tails[id]] = slot;
+        }
+        tails[id] = slot;
+    }
+
+    private static void unlink(int slot, int id, int[] heads, int[] tails, int[] next) {
+        heads[id] = next[slot];
+        if (heads[id] == -1) {
+            tails[id] = -1;
+        }
+    }
+
+    private void growChainHeads(int size) {
+        size = Math.max(size, mTagHeads.length * 2);
+        mTagHeads = grow(mTagHeads, size);
+        mTagTails = grow(mTagTails, size);
+        mPidHeads = grow(mPidHeads, size);
+        mPidTails = grow(mPidTails, size);
+    }
+
+    private static int[] grow(int[] array, int size) {
+        int[] newArray = Arrays.copyOf(array, size);
+        Arrays.fill(newArray, array.length, size, -1);
+        return newArray;
+    }
+
+    private void allocateColumns(int size) {
+        mTimes = new long[size];
+        mLevels = new byte[size];
+        mPids = new int[size];
+        mTids = new int[size];
+        mTags = new int[size];
+        mAppNames = new int[size];
+        mTextChunks = new int[size];
+        mTextOffsets = new int[size];
+        mTextLengths = new int[size];
+        mNextSameTag = new int[size];
+        mNextSamePid = new int[size];
+    }
+
+    /**
+     * Moves the messages to new columns of the given size, starting at index 0.
+     */
+    private void moveColumns(int size) {
+        long[] times = mTimes;
+        byte[] levels = mLevels;
+        int[] pids = mPids;
+        int[] tids = mTids;
+        int[] tags = mTags;
+        int[] appNames = mAppNames;
+        int[] textChunks = mTextChunks;
+        int[] textOffsets = mTextOffsets;
+        int[] textLengths = mTextLengths;
+
+        allocateColumns(size);
+
+        for (int i = 0; i < mCount; i++) {
+            int from = (mHead + i) % mFifoSize;
+            mTimes[i] = times[from];
+            mLevels[i] = levels[from];
+            mPids[i] = pids[from];
+            mTids[i] = tids[from];
+            mTags[i] = tags[from];
+            mAppNames[i] = appNames[from];
+            mTextChunks[i] = textChunks[from];
+            mTextOffsets[i] = textOffsets[from];
+            mTextLengths[i] = textLengths[from];
+        }
+        mHead = 0;
+
+        // the slots changed, so rebuild the chains.
+        relinkAll();
+    }
+
+    /**
+     * Rebuilds the chains of the messages of each tag and pid.
+     */
+    private void relinkAll() {
+        Arrays.fill(mTagHeads, -1);
+        Arrays.fill(mTagTails, -1);
+        Arrays.fill(mPidHeads, -1);
+        Arrays.fill(mPidTails, -1);
+        for (int i = 0; i < mCount; i++) {
+            int slot = (mHead + i) % mFifoSize;
+            link(slot, mTags[slot], mTagHeads, mTagTails, mNextSameTag);
+            link(slot, mPids[slot], mPidHeads, mPidTails, mNextSamePid);
         }
-        return mQ.toArray();
     }
 }
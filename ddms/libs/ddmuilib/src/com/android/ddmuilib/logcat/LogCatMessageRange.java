@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmuilib.logcat;
+
+import com.android.ddmlib.Log.LogLevel;
+
+import java.util.AbstractList;
+
+/**
+ * A range of consecutive messages of a {@link LogCatMessageList}, designated by their sequence
+ * numbers.
+ * <p/>The fields of the messages are read from the columns of the list, and a
+ * {@link LogCatMessage} is only created by {@link #get(int)}. Messages removed from the list
+ * since the range was created are returned as null, by {@link #get(int)} and the other getters.
+ */
+public final class LogCatMessageRange extends AbstractList<LogCatMessage> {
+    private final LogCatMessageList mMessages;
+    private final long mFirstSequence;
+    private final int mCount;
+
+    /**
+     * Construct a range of messages.
+     * @param messages the list holding the messages
+     * @param firstSequence the sequence number of the first message of the range
+     * @param count the number of messages in the range
+     */
+    LogCatMessageRange(LogCatMessageList messages, long firstSequence, int count) {
+        mMessages = messages;
+        mFirstSequence = firstSequence;
+        mCount = count;
+    }
+
+    /**
+     * Returns the sequence number of the first message of the range.
+     */
+    public long getFirstSequence() {
+        return mFirstSequence;
+    }
+
+    @Override
+    public int size() {
+        return mCount;
+    }
+
+    /**
+     * Returns a message of the range.
+     * @param index the index of the message in the range.
+     * @return a new {@link LogCatMessage} object, or null if the message was removed from the
+     * list.
+     */
+    @Override
+    public LogCatMessage get(int index) {
+        synchronized (mMessages) {
+            int i = getListIndex(index);
+            return i != -1 ? mMessages.getMessage(i) : null;
+        }
+    }
+
+    /**
+     * Returns the log level of a message of the range, or null if the message was removed
+     * from the list.
+     */
+    public LogLevel getLogLevel(int index) {
+        synchronized (mMessages) {
+            int i = getListIndex(index);
+            return i != -1 ? mMessages.getLogLevel(i) : null;
+        }
+    }
+
+    /**
+     * Returns the application name of a message of the range, or null if the message was
+     * removed from the list.
+     */
+    public String getAppName(int index) {
+        synchronized (mMessages) {
+            int i = getListIndex(index);
+            return i != -1 ? mMessages.getString(mMessages.getAppNameId(i)) : null;
+        }
+    }
+
+    /** Returns the list holding the messages. */
+    LogCatMessageList getList() {
+        return mMessages;
+    }
+
+    /**
+     * Returns the index in the list of a message of the range, or -1 if it was removed.
+     * Must be called while holding the lock of the list.
+     */
+    int getListIndex(int index) {
+        if (index < 0 || index >= mCount) {
+            throw new IndexOutOfBoundsException(Integer.toString(index));
+        }
+
+        long i = mFirstSequence + index - mMessages.getFirstSequence();
+        return i >= 0 && i < mMessages.size() ? (int) i : -1;
+    }
+}
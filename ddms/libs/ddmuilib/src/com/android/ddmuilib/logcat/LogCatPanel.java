@@ -122,19 +122,19 @@ public final class LogCatPanel extends SelectionDependentPanel
     private static final String IMAGE_CLEAR_LOG = "clear.png"; //$NON-NLS-1$
     private static final String IMAGE_DISPLAY_FILTERS = "displayfilters.png"; //$NON-NLS-1$
     private static final String IMAGE_PAUSE_LOGCAT = "pause_logcat.png"; //$NON-NLS-1$
+    private static final String IMAGE_BROWSE_ARCHIVE = "load.png"; //$NON-NLS-1$
 
     private static final int[] WEIGHTS_SHOW_FILTERS = new int[] {15, 85};
     private static final int[] WEIGHTS_LOGCAT_ONLY = new int[] {0, 100};
 
     private LogCatReceiver mReceiver;
+    private LogCatFilterEngine mFilterEngine;
+    private LogCatMessageContentProvider mContentProvider;
     private IPreferenceStore mPrefStore;
 
     private List<LogCatFilter> mLogCatFilters;
     private int mCurrentSelectedFilterIndex;
 
-    private int mRemovedEntriesCount = 0;
-    private int mPreviousRemainingCapacity = 0;
-
     private ToolItem mNewFilterToolItem;
     private ToolItem mDeleteFilterToolItem;
     private ToolItem mEditFilterToolItem;
@@ -149,6 +149,10 @@ public final class LogCatPanel extends SelectionDependentPanel
     private ToolItem mPauseLogcatCheckBox;
     private boolean mLastItemPainted = false;
 
+    /** Messages of the archive being browsed, or null when displaying the live messages. */
+    private LogCatArchivePager mArchivePager;
+    private ToolItem mBrowseArchiveCheckBox;
+
     private String mLogFileExportFolder;
     private LogCatMessageLabelProvider mLogCatMessageLabelProvider;
 
@@ -189,6 +193,9 @@ public final class LogCatPanel extends SelectionDependentPanel
         mPrefStore.setDefault(LogCatMessageList.MAX_MESSAGES_PREFKEY,
                 LogCatMessageList.MAX_MESSAGES_DEFAULT);
         mPrefStore.setDefault(DISPLAY_FILTERS_COLUMN_PREFKEY, true);
+        mPrefStore.setDefault(LogCatReceiver.TEXT_MODE_PREFKEY, false);
+        mPrefStore.setDefault(LogCatReceiver.ARCHIVE_ENABLED_PREFKEY, false);
+        mPrefStore.setDefault(LogCatReceiver.ARCHIVE_DIRECTORY_PREFKEY, "");
     }
 
     private void initializePreferenceUpdateListeners() {
@@ -245,8 +252,13 @@ public final class LogCatPanel extends SelectionDependentPanel
         }
 
         mReceiver = LogCatReceiverFactory.INSTANCE.newReceiver(device, mPrefStore);
+        mFilterEngine = new LogCatFilterEngine(mReceiver.getMessages());
         mReceiver.addMessageReceivedEventListener(this);
-        mViewer.setInput(mReceiver.getMessages());
+        mArchivePager = null;
+        mBrowseArchiveCheckBox.setSelection(false);
+        mBrowseArchiveCheckBox.setEnabled(mReceiver.getArchive() != null);
+        mViewer.setInput(mFilterEngine);
+        updateAppliedFilters();
 
         // Always scroll to last line whenever the selected device changes.
         // Run this in a separate async thread to give the table some time to update after the
@@ -555,11 +567,6 @@ public final class LogCatPanel extends SelectionDependentPanel
             public void widgetSelected(SelectionEvent arg0) {
                 if (mReceiver != null) {
                     mReceiver.clearMessages();
-                    refreshLogCatTable();
-
-                    mRemovedEntriesCount = 0;
-
-                    // the filters view is not cleared unless the filters are re-applied.
                     updateAppliedFilters();
                 }
             }
@@ -593,6 +600,65 @@ public final class LogCatPanel extends SelectionDependentPanel
                 setScrollToLatestLog(!pauseLogcat, false);
             }
         });
+
+        mBrowseArchiveCheckBox = new ToolItem(toolBar, SWT.CHECK);
+        mBrowseArchiveCheckBox.setImage(
+                ImageLoader.getDdmUiLibLoader().loadImage(IMAGE_BROWSE_ARCHIVE,
+                        toolBar.getDisplay()));
+        mBrowseArchiveCheckBox.setSelection(false);
+        mBrowseArchiveCheckBox.setEnabled(false);
+        mBrowseArchiveCheckBox.setToolTipText("Browse the messages archived on disk.");
+        mBrowseArchiveCheckBox.addSelectionListener(new SelectionAdapter() {
+            @Override
+            public void widgetSelected(SelectionEvent event) {
+                setBrowseArchive(mBrowseArchiveCheckBox.getSelection());
+            }
+        });
+    }
+
+    /**
+     * Switches the table between the live messages of the device and the messages of its
+     * archive. The archive is queried with the current filters, and its messages are loaded
+     * a page at a time as the table scrolls down.
+     */
+    private void setBrowseArchive(boolean browse) {
+        if (browse) {
+            LogCatArchive archive = mReceiver != null ? mReceiver.getArchive() : null;
+            if (archive == null) {
+                mBrowseArchiveCheckBox.setSelection(false);
+                return;
+            }
+
+            // new messages are still archived, but not displayed.
+            setScrollToLatestLog(false, true);
+            showArchivedMessages(archive);
+        } else if (mArchivePager != null) {
+            mArchivePager = null;
+            mViewer.setInput(mFilterEngine);
+            setScrollToLatestLog(true, true);
+        }
+    }
+
+    private void showArchivedMessages(LogCatArchive archive) {
+        mArchivePager = new LogCatArchivePager(archive, 0, Long.MAX_VALUE, getFiltersToApply(),
+                new LogCatArchivePager.IPageListener() {
+                    @Override
+                    public void pageLoaded(final LogCatArchivePager pager) {
+                        Display.getDefault().asyncExec(new Runnable() {
+                            @Override
+                            public void run() {
+                                if (mViewer.getTable().isDisposed() == false
+                                        && mArchivePager == pager) {
+                                    mViewer.setItemCount(pager.getCount());
+                                }
+                            }
+                        });
+                    }
+                });
+        mViewer.setInput(mArchivePager);
+        mViewer.setItemCount(0);
+        mViewer.refresh();
+        mViewer.getTable().setTopIndex(0);
     }
 
     private void updateFiltersColumn(boolean showFilters) {
@@ -679,21 +745,17 @@ public final class LogCatPanel extends SelectionDependentPanel
         int[] indices = table.getSelectionIndices();
         Arrays.sort(indices); /* Table.getSelectionIndices() does not specify an order */
 
-        // Get items from the table's input as opposed to getting each table item's data.
+        // Get items from the content provider as opposed to getting each table item's data.
         // Retrieving table item's data can return NULL in case of a virtual table if the item
         // has not been displayed yet.
-        Object input = mViewer.getInput();
-        if (!(input instanceof LogCatMessageList)) {
+        if (mFilterEngine == null) {
             return Collections.emptyList();
         }
 
-        List<LogCatMessage> filteredItems = applyCurrentFilters((LogCatMessageList) input);
         List<LogCatMessage> selectedMessages = new ArrayList<LogCatMessage>(indices.length);
         for (int i : indices) {
-            // consider removed logcat message entries
-            i -= mRemovedEntriesCount;
-            if (i >= 0 && i < filteredItems.size()) {
-                LogCatMessage m = filteredItems.get(i);
+            LogCatMessage m = mContentProvider.getMessage(i);
+            if (m != null) {
                 selectedMessages.add(m);
             }
         }
@@ -701,36 +763,6 @@ public final class LogCatPanel extends SelectionDependentPanel
         return selectedMessages;
     }
 
-    private List<LogCatMessage> applyCurrentFilters(LogCatMessageList msgList) {
-        Object[] items = msgList.toArray();
-        List<LogCatMessage> filteredItems = new ArrayList<LogCatMessage>(items.length);
-        List<LogCatViewerFilter> filters = getFiltersToApply();
-
-        for (Object item : items) {
-            if (!(item instanceof LogCatMessage)) {
-                continue;
-            }
-
-            LogCatMessage msg = (LogCatMessage) item;
-            if (!isMessageFiltered(msg, filters)) {
-                filteredItems.add(msg);
-            }
-        }
-
-        return filteredItems;
-    }
-
-    private boolean isMessageFiltered(LogCatMessage msg, List<LogCatViewerFilter> filters) {
-        for (LogCatViewerFilter f : filters) {
-            if (!f.select(null, null, msg)) {
-                // message does not make it through this filter
-                return true;
-            }
-        }
-
-        return false;
-    }
-
     private void createLogcatViewTable(Composite parent) {
         // The SWT.VIRTUAL bit causes the table to be rendered faster. However it makes all rows
         // to be of the same height, thereby clipping any rows with multiple lines of text.
@@ -777,7 +809,8 @@ public final class LogCatPanel extends SelectionDependentPanel
 
         mViewer.getTable().setLinesVisible(true); /* zebra stripe the table */
         mViewer.getTable().setHeaderVisible(true);
-        mViewer.setContentProvider(new LogCatMessageContentProvider());
+        mContentProvider = new LogCatMessageContentProvider();
+        mViewer.setContentProvider(mContentProvider);
         WrappingToolTipSupport.enableFor(mViewer, ToolTip.NO_RECREATE);
 
         // Set the row height to be sufficient enough to display the current font.
@@ -884,6 +917,12 @@ public final class LogCatPanel extends SelectionDependentPanel
     }
 
     private void setScrollToLatestLog(boolean scroll, boolean updateCheckbox) {
+        if (mArchivePager != null) {
+            // the display stays paused while browsing the archive.
+            scroll = false;
+            updateCheckbox = true;
+        }
+
         mShouldScrollToLatestLog = scroll;
 
         if (updateCheckbox) {
@@ -891,7 +930,7 @@ public final class LogCatPanel extends SelectionDependentPanel
         }
 
         if (scroll) {
-            mViewer.refresh();
+            refreshFilteredMessages();
             scrollToLatestLog();
         }
     }
@@ -989,38 +1028,64 @@ public final class LogCatPanel extends SelectionDependentPanel
     }
 
     private void updateAppliedFilters() {
-        List<LogCatViewerFilter> filters = getFiltersToApply();
-        mViewer.setFilters(filters.toArray(new LogCatViewerFilter[filters.size()]));
+        if (mArchivePager != null) {
+            showArchivedMessages(mReceiver.getArchive());
+            return;
+        }
+
+        if (mFilterEngine != null) {
+            mFilterEngine.setFilters(getFiltersToApply());
+            mFilterEngine.setUnreadFilters(getUnreadFilters());
+            refreshFilteredMessages();
+        }
 
         /* whenever filters are changed, the number of displayed logs changes
          * drastically. Display the latest log in such a situation. */
         scrollToLatestLog();
     }
 
-    private List<LogCatViewerFilter> getFiltersToApply() {
+    private List<LogCatFilter> getFiltersToApply() {
         /* list of filters to apply = saved filter + live filters */
-        List<LogCatViewerFilter> filters = new ArrayList<LogCatViewerFilter>();
+        List<LogCatFilter> filters = new ArrayList<LogCatFilter>();
         filters.add(getSelectedSavedFilter());
         filters.addAll(getCurrentLiveFilters());
         return filters;
     }
 
-    private List<LogCatViewerFilter> getCurrentLiveFilters() {
-        List<LogCatViewerFilter> liveFilters = new ArrayList<LogCatViewerFilter>();
-
-        List<LogCatFilter> liveFilterSettings = LogCatFilter.fromString(
+    private List<LogCatFilter> getCurrentLiveFilters() {
+        return LogCatFilter.fromString(
                 mLiveFilterText.getText(),                                  /* current query */
                 LogLevel.getByString(mLiveFilterLevelCombo.getText()));     /* current log level */
-        for (LogCatFilter s : liveFilterSettings) {
-            liveFilters.add(new LogCatViewerFilter(s));
-        }
-
-        return liveFilters;
     }
 
-    private LogCatViewerFilter getSelectedSavedFilter() {
+    private LogCatFilter getSelectedSavedFilter() {
         int index = getSelectedSavedFilterIndex();
-        return new LogCatViewerFilter(mLogCatFilters.get(index));
+        return mLogCatFilters.get(index);
+    }
+
+    /**
+     * Returns the saved filters whose unread count is updated when messages are received:
+     * all of them except the selected one.
+     */
+    private List<LogCatFilter> getUnreadFilters() {
+        List<LogCatFilter> filters = new ArrayList<LogCatFilter>(mLogCatFilters);
+        filters.remove(mCurrentSelectedFilterIndex);
+        return filters;
+    }
+
+    /**
+     * Updates the filter engine with the messages received since the last update, and
+     * refreshes the table with the messages it selects. Must be called from the UI thread.
+     */
+    private void refreshFilteredMessages() {
+        if (mFilterEngine == null || mArchivePager != null) {
+            return;
+        }
+
+        mFilterEngine.update();
+        mContentProvider.refreshRows();
+        mViewer.refresh();
+        mFiltersTableViewer.refresh();
     }
 
 
@@ -1030,40 +1095,14 @@ public final class LogCatPanel extends SelectionDependentPanel
 
     /**
      * Update view whenever a message is received.
-     * @param receivedMessages list of messages from logcat
+     * @param receivedMessages range of the messages from logcat
      * Implements {@link ILogCatMessageEventListener#messageReceived()}.
      */
     @Override
-    public void messageReceived(List<LogCatMessage> receivedMessages) {
+    public void messageReceived(LogCatMessageRange receivedMessages) {
+        // the filter engine processes the new messages, and updates the unread counts of
+        // the saved filters, on the UI thread. The table is only refreshed if not paused.
         refreshLogCatTable();
-
-        if (mShouldScrollToLatestLog) {
-            updateUnreadCount(receivedMessages);
-            refreshFiltersTable();
-        } else {
-            LogCatMessageList messageList = mReceiver.getMessages();
-            int remainingCapacity = messageList.remainingCapacity();
-            if (remainingCapacity == 0) {
-                mRemovedEntriesCount +=
-                        receivedMessages.size() - mPreviousRemainingCapacity;
-            }
-            mPreviousRemainingCapacity = remainingCapacity;
-        }
-    }
-
-    /**
-     * When new messages are received, and they match a saved filter, update
-     * the unread count associated with that filter.
-     * @param receivedMessages list of new messages received
-     */
-    private void updateUnreadCount(List<LogCatMessage> receivedMessages) {
-        for (int i = 0; i < mLogCatFilters.size(); i++) {
-            if (i == mCurrentSelectedFilterIndex) {
-                /* no need to update unread count for currently selected filter */
-                continue;
-            }
-            mLogCatFilters.get(i).updateUnreadCount(receivedMessages);
-        }
     }
 
     private void refreshFiltersTable() {
@@ -1082,14 +1121,15 @@ public final class LogCatPanel extends SelectionDependentPanel
     private LogCatTableRefresherTask mCurrentRefresher;
 
     /**
-     * Refresh the logcat table asynchronously from the UI thread.
+     * Refresh the logcat table asynchronously from the UI thread. If the table is paused, only
+     * the filter engine and the unread counts of the filters are updated.
      * This method adds a new async refresh only if there are no pending refreshes for the table.
      * Doing so eliminates redundant refresh threads from being queued up to be run on the
      * display thread.
      */
     private void refreshLogCatTable() {
         synchronized (this) {
-            if (mCurrentRefresher == null && mShouldScrollToLatestLog) {
+            if (mCurrentRefresher == null) {
                 mCurrentRefresher = new LogCatTableRefresherTask();
                 Display.getDefault().asyncExec(mCurrentRefresher);
             }
@@ -1106,16 +1146,19 @@ public final class LogCatPanel extends SelectionDependentPanel
                 mCurrentRefresher = null;
             }
 
-            if (mShouldScrollToLatestLog) {
-                mViewer.refresh();
+            if (mShouldScrollToLatestLog && mArchivePager == null) {
+                refreshFilteredMessages();
                 scrollToLatestLog();
+            } else if (mFilterEngine != null) {
+                // the rows don't change, but the unread counts are kept up to date.
+                mFilterEngine.update();
+                mFiltersTableViewer.refresh();
             }
         }
     }
 
     /** Scroll to the last line. */
     private void scrollToLatestLog() {
-        mRemovedEntriesCount = 0;
         mViewer.getTable().setTopIndex(mViewer.getTable().getItemCount() - 1);
     }
 
@@ -16,38 +16,74 @@
 
 package com.android.ddmuilib.logcat;
 
+import com.android.ddmlib.AdbCommandRejectedException;
 import com.android.ddmlib.IDevice;
 import com.android.ddmlib.IShellOutputReceiver;
 import com.android.ddmlib.Log;
+import com.android.ddmlib.Log.LogLevel;
 import com.android.ddmlib.MultiLineReceiver;
+import com.android.ddmlib.log.LogReceiver;
 
 import org.eclipse.jface.preference.IPreferenceStore;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Calendar;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.TimeZone;
 
 /**
  * A class to monitor a device for logcat messages. It stores the received
  * log messages in a circular buffer.
  */
 public final class LogCatReceiver {
+    /**
+     * Preference key for reading the output of 'logcat -v long' instead of the binary entries
+     * of the log service.
+     */
+    public static final String TEXT_MODE_PREFKEY = "logcat.receiver.text.mode";
+
+    /** Preference key for archiving the received messages on disk. */
+    public static final String ARCHIVE_ENABLED_PREFKEY = "logcat.archive.enabled";
+
+    /**
+     * Preference key for the directory of the archives. If empty,
+     * {@link LogCatArchive#getDefaultDirectory()} is used.
+     */
+    public static final String ARCHIVE_DIRECTORY_PREFKEY = "logcat.archive.directory";
+
     private static final String LOGCAT_COMMAND = "logcat -v long";
+    private static final String LOG_NAME = "main";
     private static final int DEVICE_POLL_INTERVAL_MSEC = 1000;
 
-    private LogCatMessageList mLogMessages;
+    /** Property holding the time zone of the device, in which logcat prints the times. */
+    private static final String TIMEZONE_PROPERTY = "persist.sys.timezone"; //$NON-NLS-1$
+
+    private static final Charset UTF8 = Charset.forName("UTF-8"); //$NON-NLS-1$
+
+    private volatile LogCatMessageList mLogMessages;
     private IDevice mCurrentDevice;
     private LogCatOutputReceiver mCurrentLogCatOutputReceiver;
+    private LogReceiver mCurrentLogReceiver;
     private Set<ILogCatMessageEventListener> mLogCatMessageListeners;
     private LogCatMessageParser mLogCatMessageParser;
     private LogCatPidToNameMapper mPidToNameMapper;
     private IPreferenceStore mPrefStore;
+    private LogCatArchive mArchive;
 
     /**
      * Construct a LogCat message receiver for provided device. This will launch a
      * logcat command on the device, and monitor the output of that command in
      * a separate thread. All logcat messages are then stored in a circular
      * buffer, which can be retrieved using {@link LogCatReceiver#getMessages()}.
+     * <p/>Unless {@link #TEXT_MODE_PREFKEY} is set, the binary entries of the log are read
+     * from the log service of the device instead of the text output of logcat, and decoded
+     * directly into the buffer. Devices that don't support it fall back to logcat.
+     * <p/>If {@link #ARCHIVE_ENABLED_PREFKEY} is set, the messages are also appended to the
+     * {@link LogCatArchive} of the device.
      * @param device device to monitor for logcat messages
      * @param prefStore
      */
@@ -60,6 +96,7 @@ public final class LogCatReceiver {
         mPidToNameMapper = new LogCatPidToNameMapper(mCurrentDevice);
 
         mLogMessages = new LogCatMessageList(getFifoSize());
+        mArchive = openArchive();
 
         startReceiverThread();
     }
@@ -73,11 +110,38 @@ public final class LogCatReceiver {
             mCurrentLogCatOutputReceiver.mIsCancelled = true;
             mCurrentLogCatOutputReceiver = null;
         }
+        if (mCurrentLogReceiver != null) {
+            mCurrentLogReceiver.cancel();
+            mCurrentLogReceiver = null;
+        }
+
+        if (mArchive != null) {
+            mArchive.close();
+        }
 
         mLogMessages = null;
         mCurrentDevice = null;
     }
 
+    private LogCatArchive openArchive() {
+        if (mPrefStore.getBoolean(ARCHIVE_ENABLED_PREFKEY) == false) {
+            return null;
+        }
+
+        String path = mPrefStore.getString(ARCHIVE_DIRECTORY_PREFKEY);
+        File root = path == null || path.length() == 0 ?
+                LogCatArchive.getDefaultDirectory() : new File(path);
+        File directory = new File(root,
+                LogCatArchive.getDirectoryName(mCurrentDevice.getSerialNumber()));
+        try {
+            return new LogCatArchive(directory);
+        } catch (IOException e) {
+            Log.e("ddms", "Unable to open the logcat archive " + directory + ": "
+                    + e.getMessage());
+            return null;
+        }
+    }
+
     private int getFifoSize() {
         int n = mPrefStore.getInt(LogCatMessageList.MAX_MESSAGES_PREFKEY);
         return n == 0 ? LogCatMessageList.MAX_MESSAGES_DEFAULT : n;
@@ -85,6 +149,11 @@ public final class LogCatReceiver {
 
     private void startReceiverThread() {
         mCurrentLogCatOutputReceiver = new LogCatOutputReceiver();
+        final LogCatBinaryListener binaryListener = new LogCatBinaryListener();
+        if (mPrefStore.getBoolean(TEXT_MODE_PREFKEY) == false) {
+            mCurrentLogReceiver = new LogReceiver(binaryListener);
+        }
+        final LogReceiver logReceiver = mCurrentLogReceiver;
 
         Thread t = new Thread(new Runnable() {
             @Override
@@ -99,6 +168,17 @@ public final class LogCatReceiver {
                 }
 
                 try {
+                    if (logReceiver != null) {
+                        binaryListener.setTimeZone(getDeviceTimeZone());
+                        try {
+                            mCurrentDevice.runLogService(LOG_NAME, logReceiver);
+                            return;
+                        } catch (AdbCommandRejectedException e) {
+                            Log.w("ddms", "Log service rejected, falling back to logcat: "
+                                    + e.getMessage());
+                        }
+                    }
+
                     mCurrentDevice.executeShellCommand(LOGCAT_COMMAND,
                             mCurrentLogCatOutputReceiver, 0);
                 } catch (Exception e) {
@@ -116,6 +196,21 @@ public final class LogCatReceiver {
         t.start();
     }
 
+    /**
+     * Returns the time zone of the device, or the time zone of the host if it is unknown.
+     */
+    private TimeZone getDeviceTimeZone() {
+        try {
+            String id = mCurrentDevice.getPropertyCacheOrSync(TIMEZONE_PROPERTY);
+            if (id != null && id.length() > 0) {
+                return TimeZone.getTimeZone(id);
+            }
+        } catch (Exception e) {
+            Log.w("ddms", "Unable to read the time zone of the device: " + e.getMessage());
+        }
+        return TimeZone.getDefault();
+    }
+
     /**
      * LogCatOutputReceiver implements {@link MultiLineReceiver#processNewLines(String[])},
      * which is called whenever there is output from logcat. It simply redirects this output
@@ -146,15 +241,123 @@ public final class LogCatReceiver {
         }
     }
 
+    /**
+     * LogCatBinaryListener decodes the binary entries of the log service directly into
+     * the message list, splitting their text into lines like logcat does. The messages
+     * of each block of data are then sent to the listeners, as a range of the list.
+     * <p/>The times of the entries are converted to the time zone of the device, which
+     * is the one logcat prints the times in.
+     */
+    private class LogCatBinaryListener implements LogReceiver.IRawLogListener {
+        private final Calendar mCalendar = Calendar.getInstance();
+        private long mCachedSecond = Long.MIN_VALUE;
+        private int mCachedPid = -1;
+        private String mCachedPidString;
+        private int mCachedTid = -1;
+        private String mCachedTidString;
+        private int mBatchCount;
+
+        /** Sets the time zone of the times of the messages. Must be called before the
+         * first entry is received. */
+        void setTimeZone(TimeZone timeZone) {
+            mCalendar.setTimeZone(timeZone);
+        }
+
+        @Override
+        public void newEntry(int pid, int tid, int sec, int nsec, byte[] payload, int offset,
+                int length) {
+            LogCatMessageList messages = mLogMessages;
+            if (messages == null || length == 0) {
+                return;
+            }
+
+            // the payload is the priority, then the tag and the message, both null-terminated.
+            int end = offset + length;
+            int tagEnd = indexOf(payload, (byte) 0, offset + 1, end);
+            int textEnd = tagEnd < end ? indexOf(payload, (byte) 0, tagEnd + 1, end) : end;
+
+            LogLevel level = getLogLevel(payload[offset]);
+            String tag = new String(payload, offset + 1, tagEnd - offset - 1, UTF8).trim();
+
+            if (pid != mCachedPid) {
+                mCachedPid = pid;
+                mCachedPidString = Integer.toString(pid);
+            }
+            if (tid != mCachedTid) {
+                mCachedTid = tid;
+                mCachedTidString = Integer.toString(tid);
+            }
+            String appName = mPidToNameMapper.getName(mCachedPidString);
+
+            if (sec != mCachedSecond) {
+                mCachedSecond = sec;
+                mCalendar.setTimeInMillis(sec * 1000L);
+            }
+            long time = LogCatMessageList.encodeTime(mCalendar.get(Calendar.MONTH) + 1,
+                    mCalendar.get(Calendar.DAY_OF_MONTH), mCalendar.get(Calendar.HOUR_OF_DAY),
+                    mCalendar.get(Calendar.MINUTE), mCalendar.get(Calendar.SECOND),
+                    nsec / 1000000, 3);
+
+            // one message per line, skipping empty lines like the text parser does.
+            int start = tagEnd + 1;
+            while (start < textEnd) {
+                int lineEnd = indexOf(payload, (byte) '\n', start, textEnd);
+                if (lineEnd > start) {
+                    messages.appendMessage(level, mCachedPidString, mCachedTidString,
+                            appName, tag, time, payload, start, lineEnd - start);
+                    mBatchCount++;
+                }
+                start = lineEnd + 1;
+            }
+        }
+
+        @Override
+        public void endOfData() {
+            LogCatMessageList messages = mLogMessages;
+            if (mBatchCount == 0 || messages == null) {
+                return;
+            }
+
+            // the listeners read the new messages from the list.
+            LogCatMessageRange newMessages = messages.getLastMessages(mBatchCount);
+            mBatchCount = 0;
+
+            sendMessageReceivedEvent(newMessages);
+        }
+
+        private int indexOf(byte[] data, byte b, int start, int end) {
+            for (int i = start; i < end; i++) {
+                if (data[i] == b) {
+                    return i;
+                }
+            }
+            return end;
+        }
+
+        private LogLevel getLogLevel(int priority) {
+            // priorities below verbose are unknown/default, and fatal is assert.
+            if (priority <= LogLevel.VERBOSE.getPriority()) {
+                return LogLevel.VERBOSE;
+            }
+            for (LogLevel level : LogLevel.values()) {
+                if (level.getPriority() == priority) {
+                    return level;
+                }
+            }
+            return LogLevel.ASSERT;
+        }
+    }
+
     private void processLogLines(String[] lines) {
         List<LogCatMessage> messages = mLogCatMessageParser.processLogLines(lines,
                 mPidToNameMapper);
 
-        if (messages.size() > 0) {
+        LogCatMessageList list = mLogMessages;
+        if (messages.size() > 0 && list != null) {
             for (LogCatMessage m : messages) {
-                mLogMessages.appendMessage(m);
+                list.appendMessage(m);
             }
-            sendMessageReceivedEvent(messages);
+            sendMessageReceivedEvent(list.getLastMessages(messages.size()));
         }
     }
 
@@ -166,6 +369,14 @@ public final class LogCatReceiver {
         return mLogMessages;
     }
 
+    /**
+     * Get the on-disk archive of the messages received from currently active device.
+     * @return the archive, or null if archiving is disabled or the archive couldn't be opened
+     */
+    public LogCatArchive getArchive() {
+        return mArchive;
+    }
+
     /**
      * Clear the list of messages received from the currently active device.
      */
@@ -185,7 +396,11 @@ public final class LogCatReceiver {
         mLogCatMessageListeners.remove(l);
     }
 
-    private void sendMessageReceivedEvent(List<LogCatMessage> messages) {
+    private void sendMessageReceivedEvent(LogCatMessageRange messages) {
+        if (mArchive != null) {
+            mArchive.append(messages);
+        }
+
         for (ILogCatMessageEventListener l : mLogCatMessageListeners) {
             l.messageReceived(messages);
         }
@@ -0,0 +1,296 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ddmuilib.logcat;
+
+import com.android.ddmlib.Log.LogLevel;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link LogCatArchive}.
+ */
+public final class LogCatArchiveTest extends TestCase {
+    private static final String[] TAGS = new String[] {
+            "dalvikvm", "ActivityManager", "WindowManager", "PackageManager", "wpa_supplicant",
+    };
+
+    private static final List<LogCatFilter> NO_FILTERS = Collections.emptyList();
+
+    private File mDirectory;
+
+    /** time of the first message created by {@link #createMessages(int, int)}, in ms */
+    private long mStartTime;
+
+    @Override
+    protected void setUp() throws Exception {
+        mDirectory = File.createTempFile("logcat", "archive");
+        mDirectory.delete();
+
+        // whole seconds, a day ago, so that times are not in the future.
+        mStartTime = (System.currentTimeMillis() / 1000 - 24 * 60 * 60) * 1000;
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    /**
+     * Test that the archived messages are returned as they were appended, including the
+     * messages still in memory when querying.
+     */
+    public void testQuery() throws IOException {
+        LogCatArchive archive = new LogCatArchive(mDirectory);
+        List<LogCatMessage> messages = createMessages(0, 5000);
+        append(archive, messages);
+        append(archive, Collections.singletonList(new LogCatMessage(null, "1", "2", "app",
+                "tag", formatTime(mStartTime), "\u00e9cran \u2603")));
+
+        List<LogCatMessage> result = toList(archive.query(0, Long.MAX_VALUE, NO_FILTERS));
+        assertEquals(5001, result.size());
+        assertMessagesEqual(messages, result.subList(0, 5000));
+        assertNull(result.get(5000).getLogLevel());
+        assertEquals("\u00e9cran \u2603", result.get(5000).getMessage());
+
+        archive.close();
+    }
+
+    /**
+     * Test that queries return the messages in the time range matching all the filters.
+     */
+    public void testQuery_filters() throws IOException {
+        LogCatArchive archive = new LogCatArchive(mDirectory);
+        List<LogCatMessage> messages = createMessages(0, 20000);
+        append(archive, messages);
+
+        long from = mStartTime + 3000 * 100;
+        long to = mStartTime + 8000 * 100;
+        assertQuery(archive, messages, from, to, NO_FILTERS);
+
+        List<List<LogCatFilter>> queries = new ArrayList<List<LogCatFilter>>();
+        queries.add(Collections.singletonList(
+                new LogCatFilter("tag", "wpa_", "", "", "", LogLevel.VERBOSE)));
+        queries.add(Collections.singletonList(
+                new LogCatFilter("pid", "", "", "17", "", LogLevel.VERBOSE)));
+        queries.add(Collections.singletonList(
+                new LogCatFilter("pid", "", "", "1234", "", LogLevel.VERBOSE)));
+        queries.add(LogCatFilter.fromString("tag:manager text:message.*5", LogLevel.WARN));
+
+        for (List<LogCatFilter> filters : queries) {
+            assertQuery(archive, messages, 0, Long.MAX_VALUE, filters);
+            assertQuery(archive, messages, from, to, filters);
+        }
+
+        archive.close();
+    }
+
+    /**
+     * Test that new segments are started and old segments deleted when the archive reaches
+     * its limits, and that queries return the remaining messages.
+     */
+    public void testRotation() throws IOException {
+        // a segment per block, and about four blocks in the archive.
+        LogCatArchive archive = new LogCatArchive(mDirectory, 1, Long.MAX_VALUE,
+                4 * LogCatArchive.BLOCK_SIZE / 10, Long.MAX_VALUE);
+        List<LogCatMessage> messages = createMessages(0, 30000);
+        append(archive, messages);
+        archive.close();
+
+        int segments = 0;
+        for (String name : mDirectory.list()) {
+            if (name.endsWith(".seg")) {
+                segments++;
+            }
+        }
+        assertTrue(segments > 1);
+
+        // the remaining messages are the most recent ones.
+        List<LogCatMessage> result = toList(archive.query(0, Long.MAX_VALUE, NO_FILTERS));
+        assertTrue(result.size() > 0);
+        assertTrue(result.size() < messages.size());
+        assertMessagesEqual(messages.subList(messages.size() - result.size(), messages.size()),
+                result);
+    }
+
+    /**
+     * Test that messages archived in a previous session are found when the archive is
+     * opened again, and that appending to it keeps the tag and pid ids consistent.
+     */
+    public void testReopen() throws IOException {
+        LogCatArchive archive = new LogCatArchive(mDirectory);
+        List<LogCatMessage> messages = createMessages(0, 3000);
+        append(archive, messages);
+        archive.close();
+
+        // messages appended after close are ignored.
+        append(archive, createMessages(3000, 10));
+
+        archive = new LogCatArchive(mDirectory);
+        List<LogCatMessage> more = createMessages(3000, 3000);
+        append(archive, more);
+        messages.addAll(more);
+
+        assertMessagesEqual(messages, toList(archive.query(0, Long.MAX_VALUE, NO_FILTERS)));
+        assertQuery(archive, messages, 0, Long.MAX_VALUE, Collections.singletonList(
+                new LogCatFilter("tag", "dalvikvm", "", "7", "", LogLevel.VERBOSE)));
+        archive.close();
+    }
+
+    /**
+     * Test that the pager loads the result of a query one page at a time, and notifies its
+     * listener when each page is loaded.
+     */
+    public void testPager() throws Exception {
+        LogCatArchive archive = new LogCatArchive(mDirectory);
+        List<LogCatMessage> messages = createMessages(0, 2500);
+        append(archive, messages);
+
+        final BlockingQueue<LogCatArchivePager> loaded =
+                new LinkedBlockingQueue<LogCatArchivePager>();
+        LogCatArchivePager pager = new LogCatArchivePager(archive, 0, Long.MAX_VALUE,
+                NO_FILTERS, new LogCatArchivePager.IPageListener() {
+                    @Override
+                    public void pageLoaded(LogCatArchivePager p) {
+                        loaded.add(p);
+                    }
+                });
+        assertSame(pager, loaded.poll(10, TimeUnit.SECONDS));
+        assertEquals(LogCatArchivePager.PAGE_SIZE, pager.getCount());
+        assertTrue(pager.hasMore());
+
+        assertTrue(pager.loadPage());
+        // a page is already being loaded.
+        assertFalse(pager.loadPage());
+        assertSame(pager, loaded.poll(10, TimeUnit.SECONDS));
+        assertEquals(2 * LogCatArchivePager.PAGE_SIZE, pager.getCount());
+
+        assertTrue(pager.loadPage());
+        assertSame(pager, loaded.poll(10, TimeUnit.SECONDS));
+        assertFalse(pager.hasMore());
+        assertFalse(pager.loadPage());
+
+        assertEquals(2500, pager.getCount());
+        assertEquals(messages.get(1234).toString(), pager.getMessage(1234).toString());
+        assertNull(pager.getMessage(2500));
+        archive.close();
+        assertTrue(loaded.isEmpty());
+    }
+
+    /**
+     * Test that the messages removed from their list before being appended are skipped.
+     */
+    public void testAppend_removedMessages() throws IOException {
+        LogCatArchive archive = new LogCatArchive(mDirectory);
+        List<LogCatMessage> messages = createMessages(0, 300);
+        LogCatMessageList list = new LogCatMessageList(200);
+        for (LogCatMessage m : messages.subList(0, 100)) {
+            list.appendMessage(m);
+        }
+        LogCatMessageRange range = list.getLastMessages(100);
+        for (LogCatMessage m : messages.subList(100, 250)) {
+            list.appendMessage(m);
+        }
+
+        archive.append(range);
+        assertMessagesEqual(messages.subList(50, 100),
+                toList(archive.query(0, Long.MAX_VALUE, NO_FILTERS)));
+        archive.close();
+    }
+
+    /**
+     * Appends messages to an archive, through a {@link LogCatMessageList} holding them.
+     */
+    private static void append(LogCatArchive archive, List<LogCatMessage> messages) {
+        LogCatMessageList list = new LogCatMessageList(messages.size());
+        for (LogCatMessage m : messages) {
+            list.appendMessage(m);
+        }
+        archive.append(list.getLastMessages(messages.size()));
+    }
+
+    private void assertQuery(LogCatArchive archive, List<LogCatMessage> messages, long from,
+            long to, List<LogCatFilter> filters) {
+        List<LogCatMessage> expected = new ArrayList<LogCatMessage>();
+        for (int i = 0; i < messages.size(); i++) {
+            long time = mStartTime + i * 100;
+            boolean match = time >= from && time <= to;
+            for (LogCatFilter f : filters) {
+                match &= f.matches(messages.get(i));
+            }
+            if (match) {
+                expected.add(messages.get(i));
+            }
+        }
+
+        assertMessagesEqual(expected, toList(archive.query(from, to, filters)));
+    }
+
+    /**
+     * Creates messages 100ms apart, message i being at {@link #mStartTime} + i * 100ms.
+     */
+    private List<LogCatMessage> createMessages(int first, int count) {
+        LogLevel[] levels = LogLevel.values();
+        List<LogCatMessage> messages = new ArrayList<LogCatMessage>(count);
+        for (int i = first; i < first + count; i++) {
+            messages.add(new LogCatMessage(levels[i % levels.length], Integer.toString(i % 19),
+                    Integer.toString(i % 23), "app" + (i % 5), TAGS[(i / 100) % TAGS.length],
+                    formatTime(mStartTime + i * 100L), "message " + i));
+        }
+        return messages;
+    }
+
+    private static String formatTime(long time) {
+        Calendar c = Calendar.getInstance();
+        c.setTimeInMillis(time);
+        return String.format("%1$02d-%2$02d %3$02d:%4$02d:%5$02d.%6$03d",
+                c.get(Calendar.MONTH) + 1, c.get(Calendar.DAY_OF_MONTH),
+                c.get(Calendar.HOUR_OF_DAY), c.get(Calendar.MINUTE), c.get(Calendar.SECOND),
+                c.get(Calendar.MILLISECOND));
+    }
+
+    private static List<LogCatMessage> toList(Iterator<LogCatMessage> iterator) {
+        List<LogCatMessage> messages = new ArrayList<LogCatMessage>();
+        while (iterator.hasNext()) {
+            messages.add(iterator.next());
+        }
+        return messages;
+    }
+
+    private static void assertMessagesEqual(List<LogCatMessage> expected,
+            List<LogCatMessage> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).toString(), actual.get(i).toString());
+        }
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ddmuilib.logcat;
+
+import com.android.ddmlib.Log.LogLevel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link LogCatFilterEngine}.
+ */
+public final class LogCatFilterEngineTest extends TestCase {
+
+    private static final String[] TAGS = new String[] {
+            "dalvikvm", "ActivityManager", "WindowManager", "PackageManager", "wpa_supplicant",
+    };
+
+    private static final String[] TEXTS = new String[] {
+            "GC_CONCURRENT freed 1972K, 25% free 8123K/10759K, paused 2ms+3ms",
+            "Start proc com.android.email for service com.android.email/.Controller",
+            "Display \u00e9cran \u2603 changed",
+            "WIN DEATH: Window{41a3c2d8 u0 Toast}",
+    };
+
+    /**
+     * Test that the engine selects the same messages as {@link LogCatFilter#matches}, for
+     * literal and regex filters on each field.
+     */
+    public void testSetFilters() {
+        LogCatMessageList list = createList(3000, 5000);
+        LogCatFilterEngine engine = new LogCatFilterEngine(list);
+
+        String[][] queries = new String[][] {
+                // tag, text, pid, app name
+                { "", "", "", "" },
+                { "manager", "", "", "" },
+                { "Manager", "", "", "" },
+                { "^w.*r$", "", "", "" },
+                { "", "freed", "", "" },
+                { "", "display", "", "" },
+                { "", "DEATH", "", "" },
+                { "", "\u00e9cran \u2603", "", "" },
+                { "", "com\\.android\\.[a-z]+/", "", "" },
+                { "", "", "7", "" },
+                { "", "", "1234", "" },
+                { "", "", "", "app3" },
+                { "", "", "", "app[12]" },
+                { "manager", "proc", "3", "" },
+        };
+
+        for (String[] q : queries) {
+            for (LogLevel level : LogLevel.values()) {
+                LogCatFilter filter = new LogCatFilter("test", q[0], q[1], q[2], q[3], level);
+                engine.setFilters(Collections.singletonList(filter));
+                assertMatches(list, engine, Collections.singletonList(filter));
+            }
+        }
+    }
+
+    /**
+     * Test that all the filters must match, like the saved filter and the live filters of the
+     * panel.
+     */
+    public void testSetFilters_combined() {
+        LogCatMessageList list = createList(3000, 5000);
+        LogCatFilterEngine engine = new LogCatFilterEngine(list);
+
+        List<LogCatFilter> filters = new ArrayList<LogCatFilter>();
+        filters.add(new LogCatFilter("saved", "", "", "", "app2", LogLevel.DEBUG));
+        filters.addAll(LogCatFilter.fromString("tag:manager text:start", LogLevel.INFO));
+        engine.setFilters(filters);
+
+        assertTrue(engine.getCount() > 0);
+        assertMatches(list, engine, filters);
+    }
+
+    /**
+     * Test that new messages are matched on update, and that the messages removed from the
+     * list are forgotten.
+     */
+    public void testUpdate() {
+        LogCatMessageList list = createList(1000, 700);
+        LogCatFilterEngine engine = new LogCatFilterEngine(list);
+        List<LogCatFilter> filters = Collections.singletonList(
+                new LogCatFilter("test", "manager", "", "", "", LogLevel.VERBOSE));
+        engine.setFilters(filters);
+        assertMatches(list, engine, filters);
+
+        // the engine only changes on update.
+        for (int i = 700; i < 2500; i++) {
+            list.appendMessage(createMessage(i));
+        }
+        int count = engine.getCount();
+        assertNull(engine.getMessage(0));
+
+        engine.update();
+        assertTrue(engine.getCount() != count);
+        assertMatches(list, engine, filters);
+
+        list.clear();
+        engine.update();
+        assertEquals(0, engine.getCount());
+
+        list.appendMessage(createMessage(1));
+        engine.update();
+        assertMatches(list, engine, filters);
+    }
+
+    /**
+     * Test that resizing the list keeps the indexes of the engine valid.
+     */
+    public void testResize() {
+        LogCatMessageList list = createList(3000, 2500);
+        LogCatFilterEngine engine = new LogCatFilterEngine(list);
+        List<LogCatFilter> filters = Collections.singletonList(
+                new LogCatFilter("test", "", "", "7", "", LogLevel.VERBOSE));
+
+        list.resize(1000);
+        engine.setFilters(filters);
+        assertMatches(list, engine, filters);
+
+        list.resize(5000);
+        for (int i = 2500; i < 4000; i++) {
+            list.appendMessage(createMessage(i));
+        }
+        engine.setFilters(filters);
+        assertMatches(list, engine, filters);
+    }
+
+    /**
+     * Test that the engine keeps matching the right messages when the list drops the strings
+     * no message uses anymore, which renumbers the remaining ones.
+     */
+    public void testStringsRenumbered() {
+        LogCatMessageList list = new LogCatMessageList(500);
+        LogCatFilterEngine engine = new LogCatFilterEngine(list);
+        List<LogCatFilter> filters = Collections.singletonList(
+                new LogCatFilter("test", "manager", "", "", "", LogLevel.VERBOSE));
+        engine.setFilters(filters);
+
+        int generation = list.getStringGeneration();
+        for (int i = 0; i < 5000; i++) {
+            // a new pid every message, so that the list drops the old ones.
+            list.appendMessage(new LogCatMessage(LogLevel.INFO, Integer.toString(i), "1", "app",
+                    TAGS[i % TAGS.length], "08-18 16:39:11.760", TEXTS[i % TEXTS.length]));
+            if (i % 100 == 0) {
+                engine.update();
+            }
+        }
+        engine.update();
+
+        assertTrue(list.getStringGeneration() != generation);
+        assertMatches(list, engine, filters);
+        engine.setFilters(filters);
+        assertMatches(list, engine, filters);
+    }
+
+    /**
+     * Test that the unread counts of the filters are updated with the new messages only.
+     */
+    public void testUnreadCounts() {
+        LogCatMessageList list = createList(5000, 1000);
+        LogCatFilterEngine engine = new LogCatFilterEngine(list);
+
+        LogCatFilter tagFilter = new LogCatFilter("tag", "dalvikvm", "", "", "",
+                LogLevel.VERBOSE);
+        LogCatFilter errorFilter = new LogCatFilter("error", "", "", "", "", LogLevel.ERROR);
+        engine.setUnreadFilters(Arrays.asList(tagFilter, errorFilter));
+        assertEquals(0, tagFilter.getUnreadCount());
+
+        int expectedTag = 0;
+        int expectedError = 0;
+        for (int i = 1000; i < 2000; i++) {
+            LogCatMessage m = createMessage(i);
+            list.appendMessage(m);
+            if (tagFilter.matches(m)) {
+                expectedTag++;
+            }
+            if (errorFilter.matches(m)) {
+                expectedError++;
+            }
+        }
+        engine.update();
+
+        assertTrue(expectedTag > 0);
+        assertEquals(expectedTag, tagFilter.getUnreadCount());
+        assertEquals(expectedError, errorFilter.getUnreadCount());
+    }
+
+    /**
+     * Test that the removed count tracks the matching messages forgotten by the updates, so
+     * that the messages the table displayed before the update can still be found.
+     */
+    public void testGetRemovedCount() {
+        LogCatMessageList list = createList(1000, 1000);
+        LogCatFilterEngine engine = new LogCatFilterEngine(list);
+        List<LogCatFilter> filters = Collections.singletonList(
+                new LogCatFilter("test", "dalvikvm", "", "", "", LogLevel.VERBOSE));
+        engine.setFilters(filters);
+
+        String displayed = engine.getMessage(150).toString();
+        long removed = engine.getRemovedCount();
+
+        for (int i = 1000; i < 1500; i++) {
+            list.appendMessage(createMessage(i));
+        }
+        engine.update();
+
+        // every fifth message has the tag, so 100 matches were removed.
+        assertEquals(removed + 100, engine.getRemovedCount());
+        int shift = (int) (engine.getRemovedCount() - removed);
+        assertEquals(displayed, engine.getMessage(150 - shift).toString());
+        assertMatches(list, engine, filters);
+    }
+
+    private static LogCatMessageList createList(int size, int count) {
+        LogCatMessageList list = new LogCatMessageList(size);
+        for (int i = 0; i < count; i++) {
+            list.appendMessage(createMessage(i));
+        }
+        return list;
+    }
+
+    private static LogCatMessage createMessage(int i) {
+        LogLevel[] levels = LogLevel.values();
+        return new LogCatMessage(levels[i % levels.length], Integer.toString(i % 13),
+                Integer.toString(i % 17), "app" + (i % 5), TAGS[i % TAGS.length],
+                "08-18 16:39:11.760", TEXTS[i % TEXTS.length]);
+    }
+
+    /**
+     * Checks that the engine selected the messages of the list that match all the filters.
+     */
+    private static void assertMatches(LogCatMessageList list, LogCatFilterEngine engine,
+            List<LogCatFilter> filters) {
+        List<String> expected = new ArrayList<String>();
+        for (Object o : list.toArray()) {
+            LogCatMessage m = (LogCatMessage) o;
+            boolean match = true;
+            for (LogCatFilter f : filters) {
+                match &= f.matches(m);
+            }
+            if (match) {
+                expected.add(m.toString());
+            }
+        }
+
+        List<String> actual = new ArrayList<String>();
+        for (int i = 0; i < engine.getCount(); i++) {
+            actual.add(engine.getMessage(i).toString());
+        }
+        assertEquals(expected, actual);
+    }
+}
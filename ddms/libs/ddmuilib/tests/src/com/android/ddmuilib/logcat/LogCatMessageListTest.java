@@ -0,0 +1,249 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ddmuilib.logcat;
+
+import com.android.ddmlib.Log.LogLevel;
+
+import java.util.BitSet;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link LogCatMessageList}.
+ */
+public final class LogCatMessageListTest extends TestCase {
+
+    /**
+     * Test that the fields of a message are returned as they were appended.
+     */
+    public void testAppendMessage() {
+        LogCatMessageList list = new LogCatMessageList(10);
+        LogCatMessage m = new LogCatMessage(LogLevel.WARN, "495", "0x1ef", "com.example",
+                "wtag", "08-11 19:11:07.132", "warning message \u2603");
+        list.appendMessage(m);
+
+        assertEquals(1, list.size());
+        assertEquals(9, list.remainingCapacity());
+        assertMessageEquals(m, list.getMessage(0));
+    }
+
+    /**
+     * Test that times are formatted back the way logcat printed them, including times with
+     * 4 digits of fraction, and times that can't be parsed.
+     */
+    public void testTimes() {
+        LogCatMessageList list = new LogCatMessageList(10);
+        String[] times = new String[] {
+                "01-01 00:00:00.000",   //$NON-NLS-1$
+                "12-31 23:59:59.999",   //$NON-NLS-1$
+                "08-11 21:15:35.7524",  //$NON-NLS-1$
+                "not a time",           //$NON-NLS-1$
+        };
+        for (String time : times) {
+            list.appendMessage(new LogCatMessage(LogLevel.DEBUG, "1", "2", "app", "tag", time,
+                    "text"));
+        }
+
+        for (int i = 0; i < times.length; i++) {
+            assertEquals(times[i], list.getMessage(i).getTime());
+        }
+    }
+
+    /**
+     * Test appending the raw fields of a message, as the binary log receiver does.
+     */
+    public void testAppendMessage_raw() throws Exception {
+        LogCatMessageList list = new LogCatMessageList(10);
+        byte[] data = "xxline1\nline2".getBytes("UTF-8");
+        long time = LogCatMessageList.encodeTime(3, 4, 5, 6, 7, 8, 3);
+        list.appendMessage(LogLevel.ERROR, "12", "13", "app", "tag", time, data, 2, 5);
+
+        LogCatMessage m = list.getMessage(0);
+        assertEquals(LogLevel.ERROR, m.getLogLevel());
+        assertEquals("12", m.getPid());
+        assertEquals("13", m.getTid());
+        assertEquals("03-04 05:06:07.008", m.getTime());
+        assertEquals("line1", m.getMessage());
+    }
+
+    /**
+     * Test that the oldest messages are dropped once the list is full, including once the
+     * columns wrapped around.
+     */
+    public void testFifo() {
+        LogCatMessageList list = new LogCatMessageList(2000);
+        for (int i = 0; i < 5000; i++) {
+            list.appendMessage(createMessage(i));
+        }
+
+        assertEquals(2000, list.size());
+        assertEquals(0, list.remainingCapacity());
+        for (int i = 0; i < 2000; i++) {
+            assertMessageEquals(createMessage(3000 + i), list.getMessage(i));
+        }
+    }
+
+    /**
+     * Test that resizing the list keeps the most recent messages.
+     */
+    public void testResize() {
+        LogCatMessageList list = new LogCatMessageList(100);
+        for (int i = 0; i < 150; i++) {
+            list.appendMessage(createMessage(i));
+        }
+
+        list.resize(30);
+        assertEquals(30, list.size());
+        assertMessageEquals(createMessage(120), list.getMessage(0));
+
+        list.resize(50);
+        for (int i = 150; i < 170; i++) {
+            list.appendMessage(createMessage(i));
+        }
+        assertEquals(50, list.size());
+        for (int i = 0; i < 50; i++) {
+            assertMessageEquals(createMessage(120 + i), list.getMessage(i));
+        }
+    }
+
+    /**
+     * Test that a cleared list is empty and can be used again.
+     */
+    public void testClear() {
+        LogCatMessageList list = new LogCatMessageList(10);
+        for (int i = 0; i < 15; i++) {
+            list.appendMessage(createMessage(i));
+        }
+
+        list.clear();
+        assertEquals(0, list.size());
+        assertEquals(0, list.toArray().length);
+
+        list.appendMessage(createMessage(42));
+        assertMessageEquals(createMessage(42), list.getMessage(0));
+    }
+
+    /**
+     * Test that messages larger than a text chunk are stored, and dropped like the others.
+     */
+    public void testLargeMessages() {
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < 100 * 1024) {
+            sb.append("large message ");
+        }
+        String text = sb.toString();
+
+        LogCatMessageList list = new LogCatMessageList(3);
+        for (int i = 0; i < 10; i++) {
+            list.appendMessage(new LogCatMessage(LogLevel.INFO, "1", "1", "app", "tag",
+                    "01-01 00:00:00.000", i + text));
+        }
+
+        assertEquals(3, list.size());
+        for (int i = 0; i < 3; i++) {
+            assertEquals((7 + i) + text, list.getMessage(i).getMessage());
+        }
+    }
+
+    /**
+     * Test that a range of the last messages reads their fields from the list, and returns
+     * null for the messages removed since.
+     */
+    public void testGetLastMessages() {
+        LogCatMessageList list = new LogCatMessageList(10);
+        for (int i = 0; i < 5; i++) {
+            list.appendMessage(createMessage(i));
+        }
+
+        LogCatMessageRange range = list.getLastMessages(3);
+        assertEquals(3, range.size());
+        for (int i = 0; i < 3; i++) {
+            LogCatMessage expected = createMessage(2 + i);
+            assertMessageEquals(expected, range.get(i));
+            assertEquals(expected.getLogLevel(), range.getLogLevel(i));
+            assertEquals(expected.getAppName(), range.getAppName(i));
+        }
+
+        // the range is capped to the size of the list.
+        assertEquals(5, list.getLastMessages(20).size());
+
+        for (int i = 5; i < 13; i++) {
+            list.appendMessage(createMessage(i));
+        }
+        assertNull(range.get(0));
+        assertNull(range.getLogLevel(0));
+        assertNull(range.getAppName(0));
+        assertMessageEquals(createMessage(3), range.get(1));
+
+        list.clear();
+        assertNull(range.get(2));
+    }
+
+    /**
+     * Test that the strings no message uses anymore are dropped once the list wrapped, and
+     * that the messages and their tag and pid chains are still correct afterwards.
+     */
+    public void testUnusedStringsDropped() {
+        LogCatMessageList list = new LogCatMessageList(100);
+        for (int i = 0; i < 20000; i++) {
+            // a new pid and tid every message, like short lived processes.
+            list.appendMessage(new LogCatMessage(LogLevel.INFO, Integer.toString(i),
+                    Integer.toString(i + 1000000), "app", "tag" + (i % 3),
+                    i % 10 == 0 ? "not a time " + i : "01-01 00:00:00.000", "message " + i));
+        }
+
+        assertTrue(list.getStringCount() < 3000);
+        assertTrue(list.getStringGeneration() > 0);
+
+        for (int i = 0; i < 100; i++) {
+            int n = 19900 + i;
+            LogCatMessage m = list.getMessage(i);
+            assertEquals(Integer.toString(n), m.getPid());
+            assertEquals(Integer.toString(n + 1000000), m.getTid());
+            assertEquals("tag" + (n % 3), m.getTag());
+            assertEquals(n % 10 == 0 ? "not a time " + n : "01-01 00:00:00.000", m.getTime());
+            assertEquals("message " + n, m.getMessage());
+        }
+
+        BitSet set = new BitSet();
+        list.markMessagesWithTag(list.getStringId("tag1"), set);
+        for (int i = 0; i < 100; i++) {
+            assertEquals((19900 + i) % 3 == 1, set.get(i));
+        }
+        set.clear();
+        list.markMessagesWithPid(list.getStringId("19950"), set);
+        assertEquals(1, set.cardinality());
+        assertTrue(set.get(50));
+    }
+
+    private static LogCatMessage createMessage(int i) {
+        LogLevel[] levels = LogLevel.values();
+        return new LogCatMessage(levels[i % levels.length], Integer.toString(i % 13),
+                Integer.toString(i % 17), "app" + (i % 5), "tag" + (i % 11),
+                String.format("%1$02d-%2$02d 12:34:56.%3$03d", 1 + i % 12, 1 + i % 28, i % 1000),
+                "message " + i);
+    }
+
+    private static void assertMessageEquals(LogCatMessage expected, LogCatMessage actual) {
+        assertEquals(expected.getLogLevel(), actual.getLogLevel());
+        assertEquals(expected.getPid(), actual.getPid());
+        assertEquals(expected.getTid(), actual.getTid());
+        assertEquals(expected.getAppName(), actual.getAppName());
+        assertEquals(expected.getTag(), actual.getTag());
+        assertEquals(expected.getTime(), actual.getTime());
+        assertEquals(expected.getMessage(), actual.getMessage());
+    }
+}
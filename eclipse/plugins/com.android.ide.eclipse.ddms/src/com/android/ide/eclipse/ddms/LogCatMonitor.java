@@ -20,7 +20,7 @@ import com.android.ddmlib.AndroidDebugBridge.IDeviceChangeListener;
 import com.android.ddmlib.IDevice;
 import com.android.ddmlib.Log.LogLevel;
 import com.android.ddmuilib.logcat.ILogCatMessageEventListener;
-import com.android.ddmuilib.logcat.LogCatMessage;
+import com.android.ddmuilib.logcat.LogCatMessageRange;
 import com.android.ddmuilib.logcat.LogCatReceiver;
 import com.android.ddmuilib.logcat.LogCatReceiverFactory;
 import com.android.ide.eclipse.ddms.views.LogCatView;
@@ -36,7 +36,6 @@ import org.eclipse.ui.PartInitException;
 import org.eclipse.ui.PlatformUI;
 
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 /**
@@ -115,7 +114,7 @@ public class LogCatMonitor {
         LogCatReceiver r = LogCatReceiverFactory.INSTANCE.newReceiver(device, mPrefStore);
         ILogCatMessageEventListener l = new ILogCatMessageEventListener() {
             @Override
-            public void messageReceived(List<LogCatMessage> receivedMessages) {
+            public void messageReceived(LogCatMessageRange receivedMessages) {
                 checkMessages(receivedMessages, device);
             }
         };
@@ -124,13 +123,16 @@ public class LogCatMonitor {
         mMonitoredDevices.put(device.getSerialNumber(), new DeviceData(r, l));
     }
 
-    private void checkMessages(List<LogCatMessage> receivedMessages, IDevice device) {
+    private void checkMessages(LogCatMessageRange receivedMessages, IDevice device) {
         // check the received list of messages to see if any of them are
         // significant enough to be seen by the user. If so, activate the logcat view
-        // to display those messages
-        for (LogCatMessage m : receivedMessages) {
-            if (isImportantMessage(m)) {
-                focusLogCatView(device, m.getAppName());
+        // to display those messages. The fields are read from the range, so that no
+        // message objects are created.
+        for (int i = 0; i < receivedMessages.size(); i++) {
+            LogLevel level = receivedMessages.getLogLevel(i);
+            String app = receivedMessages.getAppName(i);
+            if (isImportantMessage(level, app)) {
+                focusLogCatView(device, app);
                 break;
             }
         }
@@ -140,12 +142,11 @@ public class LogCatMonitor {
      * Check whether a message is "important". Currently, we assume that a message is important if
      * it is of severity level error or higher, and it belongs to an app currently in the workspace.
      */
-    private boolean isImportantMessage(LogCatMessage m) {
-        if (m.getLogLevel().getPriority() < LogLevel.ERROR.getPriority()) {
+    private boolean isImportantMessage(LogLevel level, String app) {
+        if (level == null || level.getPriority() < LogLevel.ERROR.getPriority()) {
             return false;
         }
 
-        String app = m.getAppName();
         for (IDebuggerConnector c : mConnectors) {
             if (c.isWorkspaceApp(app)) {
                 return true;
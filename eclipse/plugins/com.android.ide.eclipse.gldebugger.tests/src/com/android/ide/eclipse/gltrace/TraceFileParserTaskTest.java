@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ide.eclipse.gltrace;
+
+import static org.junit.Assert.*;
+
+import com.android.ide.eclipse.gltrace.GLProtoBuf.GLMessage;
+import com.android.ide.eclipse.gltrace.GLProtoBuf.GLMessage.Function;
+import com.android.ide.eclipse.gltrace.model.GLCall;
+import com.android.ide.eclipse.gltrace.model.GLTrace;
+
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+public class TraceFileParserTaskTest {
+    /** Number of calls in the trace, decoded by several parallel tasks. */
+    private static final int CALL_COUNT = 10000;
+
+    /** Number of calls per frame. */
+    private static final int FRAME_SIZE = 100;
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("gltrace", ".trace"); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    /** Writes calls alternating between two contexts, followed by a truncated message. */
+    private void writeTrace() throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(mFile)));
+        try {
+            for (int i = 0; i < CALL_COUNT; i++) {
+                Function function = (i + 1) % FRAME_SIZE == 0 ? Function.eglSwapBuffers
+                        : (i % 2 == 0 ? Function.glFlush : Function.glFinish);
+                GLMessage msg = GLMessage.newBuilder()
+                        .setContextId(i % 2)
+                        .setStartTime(1000L + 10L * i)
+                        .setDuration(i % 7)
+                        .setThreadtime(i % 5)
+                        .setFunction(function)
+                        .build();
+                byte[] b = msg.toByteArray();
+                out.writeInt(b.length);
+                out.write(b);
+            }
+
+            out.writeInt(100);
+            out.write(new byte[10]);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Test that decoding the messages in parallel gives the same calls, in the same order, as
+     * reading them one after the other.
+     */
+    @Test
+    public void testParallelDecode() throws Exception {
+        writeTrace();
+
+        TraceFileParserTask parser = new TraceFileParserTask(mFile.getPath(), 0, 0);
+        parser.run(new NullProgressMonitor());
+        GLTrace trace = parser.getTrace();
+        List<GLCall> calls = trace.getGLCalls();
+
+        TraceFileReader reader = new TraceFileReader();
+        RandomAccessFile file = new RandomAccessFile(mFile, "r"); //$NON-NLS-1$
+        try {
+            int i = 0;
+            while (true) {
+                long offset = file.getFilePointer();
+                GLMessage msg = reader.getMessageAtOffset(file, -1);
+                if (msg == null) {
+                    break;
+                }
+
+                GLCall c = calls.get(i);
+                assertEquals(i, c.getIndex());
+                assertEquals(offset, c.getOffsetInTraceFile());
+                assertEquals(msg.getFunction(), c.getFunction());
+                assertEquals(msg.getStartTime(), c.getStartTime());
+                assertEquals(msg.getContextId(), c.getContextId());
+                assertEquals(msg.getDuration(), c.getWallDuration());
+                assertEquals(msg.getThreadtime(), c.getThreadDuration());
+                assertEquals(msg.hasFb(), c.hasFb());
+                i++;
+            }
+            assertEquals(CALL_COUNT, i);
+        } finally {
+            file.close();
+        }
+
+        assertEquals(CALL_COUNT, calls.size());
+        assertEquals(2, trace.getContexts().size());
+        assertEquals(CALL_COUNT / FRAME_SIZE, trace.getFrames().size());
+        trace.dispose();
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ide.eclipse.gltrace;
+
+import static org.junit.Assert.*;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+public class TraceFileReaderTest {
+    private final TraceFileReader mReader = new TraceFileReader();
+
+    /** Returns a stream of length prefixed records of the given lengths. */
+    private static byte[] createRecords(int... lengths) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (int len : lengths) {
+            out.writeInt(len);
+            for (int i = 0; i < len; i++) {
+                out.write(i);
+            }
+        }
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    @Test
+    public void testSkipMessage() throws IOException {
+        byte[] records = createRecords(10, 0, 70000, 3);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(records));
+
+        assertEquals(10, mReader.skipMessage(in));
+        assertEquals(0, mReader.skipMessage(in));
+        assertEquals(70000, mReader.skipMessage(in));
+        assertEquals(3, mReader.skipMessage(in));
+        assertEquals(-1, mReader.skipMessage(in));
+    }
+
+    /** Streams that can't skip must be read instead. */
+    @Test
+    public void testSkipMessage_unskippableStream() throws IOException {
+        byte[] records = createRecords(100, 5);
+        InputStream unskippable = new ByteArrayInputStream(records) {
+            @Override
+            public synchronized long skip(long n) {
+                return 0;
+            }
+        };
+        DataInputStream in = new DataInputStream(unskippable);
+
+        assertEquals(100, mReader.skipMessage(in));
+        assertEquals(5, mReader.skipMessage(in));
+        assertEquals(-1, mReader.skipMessage(in));
+    }
+
+    @Test
+    public void testSkipMessage_truncated() throws IOException {
+        byte[] records = createRecords(10, 20);
+        DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(records, 0, records.length - 5));
+
+        assertEquals(10, mReader.skipMessage(in));
+        assertEquals(-1, mReader.skipMessage(in));
+    }
+
+    @Test(expected = InvalidProtocolBufferException.class)
+    public void testSkipMessage_invalidLength() throws IOException {
+        byte[] records = createRecords(10);
+        records[0] = (byte) 0xff;
+        mReader.skipMessage(new DataInputStream(new ByteArrayInputStream(records)));
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ide.eclipse.gltrace.model;
+
+import static org.junit.Assert.*;
+
+import com.android.ide.eclipse.gltrace.GLProtoBuf.GLMessage;
+import com.android.ide.eclipse.gltrace.GLProtoBuf.GLMessage.FrameBuffer;
+import com.android.ide.eclipse.gltrace.GLProtoBuf.GLMessage.Function;
+import com.android.ide.eclipse.gltrace.TraceFileInfo;
+import com.android.ide.eclipse.gltrace.TraceFileParserTask;
+import com.google.protobuf.ByteString;
+
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.swt.graphics.ImageData;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+public class GLTraceTest {
+    /** Number of frames of the trace, each ending with a call with a framebuffer. */
+    private static final int FRAME_COUNT = 3;
+
+    /** Size of the decoded 2x2 framebuffer images, at 4 bytes per pixel. */
+    private static final int IMAGE_BYTES = 2 * 2 * 4;
+
+    private File mFile;
+    private List<GLCall> mCalls;
+
+    @Before
+    public void setUp() throws Exception {
+        mFile = File.createTempFile("gltrace", ".trace"); //$NON-NLS-1$ //$NON-NLS-2$
+        writeTrace();
+
+        TraceFileParserTask parser = new TraceFileParserTask(mFile.getPath(), 0, 0);
+        parser.run(new NullProgressMonitor());
+        mCalls = parser.getTrace().getGLCalls();
+        parser.getTrace().dispose();
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    /** Writes frames made of a glFlush and an eglSwapBuffers with a framebuffer. */
+    private void writeTrace() throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(mFile)));
+        try {
+            for (int i = 0; i < FRAME_COUNT; i++) {
+                writeMessage(out, GLMessage.newBuilder()
+                        .setContextId(0)
+                        .setStartTime(2 * i)
+                        .setDuration(1)
+                        .setFunction(Function.glFlush)
+                        .build());
+
+                // an LZF literal run of the uncompressed image.
+                byte[] contents = new byte[1 + IMAGE_BYTES];
+                contents[0] = IMAGE_BYTES - 1;
+                for (int j = 1; j < contents.length; j++) {
+                    contents[j] = (byte) (i + j);
+                }
+                FrameBuffer fb = FrameBuffer.newBuilder()
+                        .setWidth(2)
+                        .setHeight(2)
+                        .addContents(ByteString.copyFrom(contents))
+                        .build();
+                writeMessage(out, GLMessage.newBuilder()
+                        .setContextId(0)
+                        .setStartTime(2 * i + 1)
+                        .setDuration(1)
+                        .setFunction(Function.eglSwapBuffers)
+                        .setFb(fb)
+                        .build());
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void writeMessage(DataOutputStream out, GLMessage msg) throws IOException {
+        byte[] b = msg.toByteArray();
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    /** Creates a trace of the parsed calls, with room for the given number of images. */
+    private GLTrace createTrace(int cachedImages) {
+        return createTrace(0, cachedImages * IMAGE_BYTES);
+    }
+
+    /** Creates a trace of the parsed calls, with square thumbnails of the given size. */
+    private GLTrace createTrace(int thumbSize, long maxCachedImageBytes) {
+        TraceFileInfo info = new TraceFileInfo(mFile.getPath(), mFile.length(),
+                mFile.lastModified());
+        return new GLTrace(info, null, mCalls, null, null, thumbSize, thumbSize,
+                maxCachedImageBytes);
+    }
+
+    /** Returns the call with the framebuffer of a frame. */
+    private GLCall getFbCall(int frame) {
+        GLCall c = mCalls.get(2 * frame + 1);
+        assertTrue(c.hasFb());
+        return c;
+    }
+
+    /** Test that the least recently used images are evicted once the cache is full. */
+    @Test
+    public void testImageCacheEviction() {
+        GLTrace trace = createTrace(2);
+
+        trace.prefetchImage(getFbCall(0));
+        trace.prefetchImage(getFbCall(1));
+        assertTrue(trace.isImageCached(getFbCall(0)));
+        assertTrue(trace.isImageCached(getFbCall(1)));
+
+        // using the image of frame 0 makes the image of frame 1 the least recently used.
+        trace.prefetchImage(getFbCall(0));
+        trace.prefetchImage(getFbCall(2));
+        assertTrue(trace.isImageCached(getFbCall(0)));
+        assertFalse(trace.isImageCached(getFbCall(1)));
+        assertTrue(trace.isImageCached(getFbCall(2)));
+
+        // calls without framebuffer are ignored.
+        trace.prefetchImage(mCalls.get(0));
+        assertFalse(trace.isImageCached(mCalls.get(0)));
+        assertTrue(trace.isImageCached(getFbCall(2)));
+        trace.dispose();
+    }
+
+    /** Test that thumbnails are created and cached only when they are needed. */
+    @Test
+    public void testThumbnailOnDemand() {
+        GLTrace trace = createTrace(1, FRAME_COUNT * 2 * IMAGE_BYTES);
+        assertFalse(trace.isThumbnailCached(getFbCall(0)));
+
+        ImageData thumbnail = trace.getThumbnailData(getFbCall(0));
+        assertNotNull(thumbnail);
+        assertEquals(1, thumbnail.width);
+        assertEquals(1, thumbnail.height);
+        assertTrue(trace.isThumbnailCached(getFbCall(0)));
+        assertTrue(trace.isImageCached(getFbCall(0)));
+        assertSame(thumbnail, trace.getThumbnailData(getFbCall(0)));
+
+        // prefetching an image also creates its thumbnail.
+        assertFalse(trace.isThumbnailCached(getFbCall(1)));
+        trace.prefetchImage(getFbCall(1));
+        assertTrue(trace.isThumbnailCached(getFbCall(1)));
+
+        assertNull(trace.getThumbnailData(mCalls.get(0)));
+        trace.dispose();
+
+        // no thumbnails without a thumbnail size.
+        trace = createTrace(FRAME_COUNT);
+        trace.prefetchImage(getFbCall(0));
+        assertFalse(trace.isThumbnailCached(getFbCall(0)));
+        assertNull(trace.getThumbnailData(getFbCall(0)));
+        trace.dispose();
+    }
+
+    /**
+     * Test that the thumbnails created before the trace file changed are still available, and
+     * that the other ones are not read from the modified file.
+     */
+    @Test
+    public void testThumbnailAfterFileChange() throws IOException {
+        GLTrace trace = createTrace(1, FRAME_COUNT * 2 * IMAGE_BYTES);
+        trace.prefetchImage(getFbCall(0));
+
+        FileOutputStream out = new FileOutputStream(mFile, true);
+        try {
+            out.write(new byte[10]);
+        } finally {
+            out.close();
+        }
+
+        assertNotNull(trace.getThumbnailData(getFbCall(0)));
+        assertNull(trace.getThumbnailData(getFbCall(1)));
+        assertFalse(trace.isImageCached(getFbCall(1)));
+        trace.dispose();
+    }
+
+    /** Test that a disposed trace drops its images, and no longer reads the trace file. */
+    @Test
+    public void testDispose() {
+        GLTrace trace = createTrace(FRAME_COUNT);
+
+        trace.prefetchImage(getFbCall(0));
+        assertTrue(trace.isImageCached(getFbCall(0)));
+
+        trace.dispose();
+        assertFalse(trace.isImageCached(getFbCall(0)));
+
+        trace.prefetchImage(getFbCall(1));
+        assertFalse(trace.isImageCached(getFbCall(1)));
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ide.eclipse.gltrace.state;
+
+import static org.junit.Assert.*;
+
+import com.android.ide.eclipse.gltrace.state.transforms.GLPropertyAccessor;
+import com.android.ide.eclipse.gltrace.state.transforms.IStateTransform;
+import com.android.ide.eclipse.gltrace.state.transforms.ListElementAddTransform;
+import com.android.ide.eclipse.gltrace.state.transforms.PropertyChangeTransform;
+import com.android.ide.eclipse.gltrace.state.transforms.SparseArrayElementAddTransform;
+import com.android.ide.eclipse.gltrace.state.transforms.SparseArrayElementRemoveTransform;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+public class GLStateCheckpointsTest {
+    private static final int CALL_COUNT = 2000;
+
+    /** Generates the transforms of calls on two contexts, that add, change and remove shaders. */
+    private static List<List<IStateTransform>> createCalls(long seed) {
+        Random r = new Random(seed);
+        List<List<IStateTransform>> calls = new ArrayList<List<IStateTransform>>(CALL_COUNT);
+
+        for (int i = 0; i < CALL_COUNT; i++) {
+            if (i == 0 || i == 500) {
+                IStateTransform t = new ListElementAddTransform(null,
+                        GLState.createDefaultES2State());
+                calls.add(Collections.singletonList(t));
+                continue;
+            }
+
+            int context = i < 500 ? 0 : r.nextInt(2);
+            int shader = r.nextInt(20);
+            IStateTransform t;
+            switch (r.nextInt(4)) {
+                case 0:
+                    t = new SparseArrayElementAddTransform(
+                            GLPropertyAccessor.makeAccessor(context, GLStateType.SHADERS),
+                            shader);
+                    break;
+                case 1:
+                    t = new SparseArrayElementRemoveTransform(
+                            GLPropertyAccessor.makeAccessor(context, GLStateType.SHADERS),
+                            shader);
+                    break;
+                case 2:
+                    t = new PropertyChangeTransform(
+                            GLPropertyAccessor.makeAccessor(context,
+                                    GLStateType.SHADERS,
+                                    Integer.valueOf(shader),
+                                    GLStateType.SHADER_SOURCE),
+                            "source " + i, null);
+                    break;
+                default:
+                    t = new PropertyChangeTransform(
+                            GLPropertyAccessor.makeAccessor(context,
+                                    GLStateType.VERTEX_ARRAY_DATA,
+                                    GLStateType.VERTEX_ATTRIB_ARRAY,
+                                    Integer.valueOf(r.nextInt(8)),
+                                    GLStateType.VERTEX_ATTRIB_ARRAY_SIZE),
+                            Integer.valueOf(i), null);
+                    break;
+            }
+            calls.add(Collections.singletonList(t));
+        }
+
+        return calls;
+    }
+
+    private static void apply(List<List<IStateTransform>> calls, int from, int to,
+            IGLProperty state) {
+        for (int i = from + 1; i <= to; i++) {
+            for (IStateTransform t : calls.get(i)) {
+                try {
+                    t.apply(state);
+                } catch (Exception e) {
+                    // changes to shaders that do not exist are expected
+                }
+            }
+        }
+    }
+
+    private static GLStateCheckpoints createCheckpoints(List<List<IStateTransform>> calls,
+            int interval, int maxProperties) {
+        GLStateCheckpoints checkpoints = new GLStateCheckpoints(interval, maxProperties);
+        IGLProperty state = GLState.createDefaultState();
+        for (int i = 0; i < calls.size(); i++) {
+            apply(calls, i - 1, i, state);
+            checkpoints.add(i, state);
+        }
+        return checkpoints;
+    }
+
+    /** Returns a description of all the values of a state. */
+    private static String dump(IGLProperty p) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(p.getType()).append('(');
+        if (p instanceof GLCompositeProperty) {
+            for (IGLProperty c : ((GLCompositeProperty) p).getProperties()) {
+                sb.append(dump(c));
+            }
+        } else if (p instanceof GLListProperty) {
+            for (IGLProperty c : ((GLListProperty) p).getList()) {
+                sb.append(dump(c));
+            }
+        } else if (p instanceof GLSparseArrayProperty) {
+            GLSparseArrayProperty array = (GLSparseArrayProperty) p;
+            for (int i = 0; i < array.size(); i++) {
+                sb.append(array.keyAt(i)).append('=').append(dump(array.valueAt(i)));
+            }
+        } else {
+            sb.append(p.getValue());
+        }
+        return sb.append(')').toString();
+    }
+
+    @Test
+    public void testRestore() {
+        List<List<IStateTransform>> calls = createCalls(42);
+        GLStateCheckpoints checkpoints = createCheckpoints(calls, 100, Integer.MAX_VALUE);
+        assertEquals(100, checkpoints.getInterval());
+        assertEquals(-1, checkpoints.getCheckpoint(98));
+        assertEquals(99, checkpoints.getCheckpoint(99));
+        assertEquals(1099, checkpoints.getCheckpoint(1150));
+        assertEquals(CALL_COUNT - 1, checkpoints.getCheckpoint(CALL_COUNT + 500));
+
+        // restore into a single state, in an arbitrary order, as the state view does.
+        IGLProperty state = GLState.createDefaultState();
+        Random r = new Random(7);
+        for (int n = 0; n < 50; n++) {
+            int index = r.nextInt(CALL_COUNT);
+            int checkpoint = checkpoints.getCheckpoint(index);
+            assertTrue(checkpoint <= index && index - checkpoint <= 100);
+
+            checkpoints.restore(checkpoint, state, new HashSet<IGLProperty>());
+            apply(calls, checkpoint, index, state);
+
+            IGLProperty expected = GLState.createDefaultState();
+            apply(calls, -1, index, expected);
+            assertEquals(dump(expected), dump(state));
+        }
+    }
+
+    @Test
+    public void testRestoreInPlace() {
+        List<List<IStateTransform>> calls = createCalls(1);
+        GLStateCheckpoints checkpoints = createCheckpoints(calls, 100, Integer.MAX_VALUE);
+
+        IGLProperty state = GLState.createDefaultState();
+        checkpoints.restore(199, state, new HashSet<IGLProperty>());
+        IGLProperty context = ((GLListProperty) state).get(0);
+        IGLProperty attribs = GLPropertyAccessor.makeAccessor(0,
+                GLStateType.VERTEX_ARRAY_DATA, GLStateType.VERTEX_ATTRIB_ARRAY).getProperty(state);
+
+        Set<IGLProperty> changed = new HashSet<IGLProperty>();
+        checkpoints.restore(199, state, changed);
+        assertTrue(changed.isEmpty());
+
+        checkpoints.restore(299, state, changed);
+        assertFalse(changed.isEmpty());
+        assertSame(context, ((GLListProperty) state).get(0));
+        assertSame(attribs, GLPropertyAccessor.makeAccessor(0,
+                GLStateType.VERTEX_ARRAY_DATA, GLStateType.VERTEX_ATTRIB_ARRAY).getProperty(state));
+
+        // going back to the default state removes the context.
+        changed.clear();
+        checkpoints.restore(-1, state, changed);
+        assertEquals(0, ((GLListProperty) state).size());
+        assertTrue(changed.contains(state));
+    }
+
+    @Test
+    public void testBudget() {
+        List<List<IStateTransform>> calls = createCalls(3);
+        GLStateCheckpoints unlimited = createCheckpoints(calls, 10, Integer.MAX_VALUE);
+        GLStateCheckpoints limited = createCheckpoints(calls, 10, 20000);
+        assertEquals(10, unlimited.getInterval());
+        assertTrue(limited.getInterval() > 10);
+
+        for (int index = 0; index < CALL_COUNT; index += 37) {
+            int checkpoint = limited.getCheckpoint(index);
+            assertTrue(index - checkpoint <= limited.getInterval());
+            assertEquals((index + 1) % limited.getInterval(),
+                    index - checkpoint);
+
+            IGLProperty expected = GLState.createDefaultState();
+            unlimited.restore(checkpoint, expected, new HashSet<IGLProperty>());
+            IGLProperty state = GLState.createDefaultState();
+            limited.restore(checkpoint, state, new HashSet<IGLProperty>());
+            assertEquals(dump(expected), dump(state));
+        }
+    }
+}
@@ -18,15 +18,21 @@ package com.android.ide.eclipse.gltrace;
 
 import com.android.ide.eclipse.gltrace.GLProtoBuf.GLMessage;
 
-import org.eclipse.swt.graphics.Image;
 import org.eclipse.swt.graphics.ImageData;
 import org.eclipse.swt.graphics.PaletteData;
-import org.eclipse.swt.widgets.Display;
 import org.liblzf.CLZF;
 
 /** Utilities to deal with protobuf encoded {@link GLMessage}. */
 public class ProtoBufUtils {
-    private static ImageData getImageData(GLMessage glMsg) {
+    /**
+     * Obtains the decoded image data stored in provided protocol buffer message, or null if
+     * the message has no framebuffer.
+     */
+    public static ImageData getImageData(GLMessage glMsg) {
+        if (!glMsg.hasFb()) {
+            return null;
+        }
+
         int width = glMsg.getFb().getWidth();
         int height = glMsg.getFb().getHeight();
 
@@ -52,26 +58,4 @@ public class ProtoBufUtils {
 
         return imageData;
     }
-
-    /** Obtains the image stored in provided protocol buffer message. */
-    public static Image getImage(Display display, GLMessage glMsg) {
-        if (!glMsg.hasFb()) {
-            return null;
-        }
-
-        return new Image(display, getImageData(glMsg));
-    }
-
-    /**
-     * Obtains the image stored in provided protocol buffer message scaled to the
-     * provided dimensions.
-     */
-    public static Image getScaledImage(Display display, GLMessage glMsg, int width, int height) {
-        if (!glMsg.hasFb()) {
-            return null;
-        }
-
-        ImageData imageData = getImageData(glMsg);
-        return new Image(display, imageData.scaledTo(width, height));
-    }
 }
@@ -20,42 +20,62 @@ import com.android.ide.eclipse.gldebugger.GLEnum;
 import com.android.ide.eclipse.gldebugger.GlTracePlugin;
 import com.android.ide.eclipse.gltrace.GLProtoBuf.GLMessage;
 import com.android.ide.eclipse.gltrace.GLProtoBuf.GLMessage.Function;
-import com.android.ide.eclipse.gltrace.format.GLAPISpec;
-import com.android.ide.eclipse.gltrace.format.GLMessageFormatter;
 import com.android.ide.eclipse.gltrace.model.GLCall;
 import com.android.ide.eclipse.gltrace.model.GLFrame;
 import com.android.ide.eclipse.gltrace.model.GLTrace;
+import com.android.ide.eclipse.gltrace.state.GLState;
+import com.android.ide.eclipse.gltrace.state.GLStateCheckpoints;
+import com.android.ide.eclipse.gltrace.state.IGLProperty;
+import com.android.ide.eclipse.gltrace.state.transforms.IStateTransform;
 import com.android.ide.eclipse.gltrace.state.transforms.StateTransformFactory;
 
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.jface.operation.IRunnableWithProgress;
-import org.eclipse.swt.graphics.Image;
-import org.eclipse.swt.widgets.Display;
 
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
-
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Parses a trace file into a {@link GLTrace}, in two phases: a sequential scan of the file
+ * records the offset of each protobuf message, without decoding it, and then the messages are
+ * decoded in parallel, a range of messages per task.
+ *
+ * Decoding a message only extracts what is needed for all calls: the function, times, context,
+ * properties and state transformations. The string representation of the calls, the
+ * framebuffer images and their thumbnails are produced by the {@link GLTrace} when they are
+ * displayed.
+ */
 public class TraceFileParserTask implements IRunnableWithProgress {
     private static final TraceFileReader sReader = new TraceFileReader();
 
-    private static final GLMessageFormatter sGLMessageFormatter =
-            new GLMessageFormatter(GLAPISpec.getSpecs());
+    /** Number of consecutive messages decoded by a single task. */
+    private static final int MESSAGES_PER_TASK = 4096;
+
+    /** Size of the buffer used to scan the trace file. */
+    private static final int SCAN_BUFFER_SIZE = 64 * 1024;
 
-    private final Display mDisplay;
     private final int mThumbHeight;
     private final int mThumbWidth;
 
     private String mTraceFilePath;
-    private RandomAccessFile mFile;
 
     private List<GLCall> mGLCalls;
     private Set<Integer> mGLContextIds;
@@ -65,19 +85,14 @@ public class TraceFileParserTask implements IRunnableWithProgress {
     /**
      * Construct a GL Trace file parser.
      * @param path path to trace file
-     * @param thumbDisplay display to use to create thumbnail images
-     * @param thumbWidth width of thumbnail images
+     * @param thumbWidth width of thumbnail images, or 0 to not create thumbnails
      * @param thumbHeight height of thumbnail images
      */
-    public TraceFileParserTask(String path, Display thumbDisplay, int thumbWidth,
-            int thumbHeight) {
-        try {
-            mFile = new RandomAccessFile(path, "r"); //$NON-NLS-1$
-        } catch (FileNotFoundException e) {
-            throw new IllegalArgumentException(e);
+    public TraceFileParserTask(String path, int thumbWidth, int thumbHeight) {
+        if (!new File(path).isFile()) {
+            throw new IllegalArgumentException(new FileNotFoundException(path));
         }
 
-        mDisplay = thumbDisplay;
         mThumbWidth = thumbWidth;
         mThumbHeight = thumbHeight;
 
@@ -86,24 +101,10 @@ public class TraceFileParserTask implements IRunnableWithProgress {
         mGLContextIds = new TreeSet<Integer>();
     }
 
-    private void addMessage(int index, long traceFileOffset, GLMessage msg, long startTime) {
-        Image previewImage = null;
-        if (mDisplay != null) {
-            previewImage = ProtoBufUtils.getScaledImage(mDisplay, msg, mThumbWidth, mThumbHeight);
-        }
-
-        String formattedMsg;
-        try {
-            formattedMsg = sGLMessageFormatter.formatGLMessage(msg);
-        } catch (Exception e) {
-            formattedMsg = String.format("%s()", msg.getFunction().toString()); //$NON-NLS-1$
-        }
-
+    private GLCall createCall(int index, long traceFileOffset, GLMessage msg) {
         GLCall c = new GLCall(index,
-                                startTime,
+                                msg.getStartTime(),
                                 traceFileOffset,
-                                formattedMsg,
-                                previewImage,
                                 msg.getFunction(),
                                 msg.hasFb(),
                                 msg.getContextId(),
@@ -117,12 +118,19 @@ public class TraceFileParserTask implements IRunnableWithProgress {
         } catch (Exception e) {
             c.setStateTransformationCreationError(e.getMessage());
             GlTracePlugin.getDefault().logMessage("Error while creating transformations for "
-                                                        + c.toString() + ":");
+                                                        + formatMessage(msg) + ":");
             GlTracePlugin.getDefault().logMessage(e.getMessage());
         }
 
-        mGLCalls.add(c);
-        mGLContextIds.add(Integer.valueOf(c.getContextId()));
+        return c;
+    }
+
+    private static String formatMessage(GLMessage msg) {
+        try {
+            return GLTrace.formatMessage(msg);
+        } catch (Exception e) {
+            return String.format("%s()", msg.getFunction().toString()); //$NON-NLS-1$
+        }
     }
 
     /** Save important values from the {@link GLMessage} in the {@link GLCall} as properties. */
@@ -160,28 +168,19 @@ public class TraceFileParserTask implements IRunnableWithProgress {
         monitor.beginTask("Parsing OpenGL Trace File", IProgressMonitor.UNKNOWN);
 
         List<GLFrame> glFrames = null;
+        GLStateCheckpoints stateCheckpoints = null;
 
         try {
-            GLMessage msg = null;
-            int msgCount = 0;
-            long filePointer = mFile.getFilePointer();
-
-            // counters that maintain some statistics about the trace messages
-            long minTraceStartTime = Long.MAX_VALUE;
+            long[] offsets = scanMessages(monitor);
+            GLCall[] calls = decodeMessages(offsets, monitor);
 
-            while ((msg = sReader.getMessageAtOffset(mFile, -1)) != null) {
-                if (minTraceStartTime > msg.getStartTime()) {
-                    minTraceStartTime = msg.getStartTime();
-                }
-
-                addMessage(msgCount, filePointer, msg, msg.getStartTime() - minTraceStartTime);
-
-                filePointer = mFile.getFilePointer();
-                msgCount++;
-
-                if (monitor.isCanceled()) {
-                    throw new InterruptedException();
+            // a truncated message ends the trace
+            for (GLCall c : calls) {
+                if (c == null) {
+                    break;
                 }
+                mGLCalls.add(c);
+                mGLContextIds.add(Integer.valueOf(c.getContextId()));
             }
 
             if (mGLContextIds.size() > 1) {
@@ -213,20 +212,158 @@ public class TraceFileParserTask implements IRunnableWithProgress {
             }
 
             glFrames = createFrames(mGLCalls);
+            stateCheckpoints = createStateCheckpoints(mGLCalls, monitor);
+        } catch (InterruptedException e) {
+            throw e;
         } catch (Exception e) {
             throw new InvocationTargetException(e);
+        } finally {
+            monitor.done();
+        }
+
+        File f = new File(mTraceFilePath);
+        TraceFileInfo fileInfo = new TraceFileInfo(mTraceFilePath, f.length(), f.lastModified());
+        mTrace = new GLTrace(fileInfo, glFrames, mGLCalls, new ArrayList<Integer>(mGLContextIds),
+                stateCheckpoints, mThumbWidth, mThumbHeight);
+    }
+
+    /**
+     * Scan the trace file, and return the offset of each protobuf message in it. The messages
+     * are skipped without being decoded.
+     */
+    private long[] scanMessages(IProgressMonitor monitor) throws IOException,
+            InterruptedException {
+        monitor.subTask("Scanning trace file");
+
+        long[] offsets = new long[1024];
+        int count = 0;
+        long offset = 0;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(mTraceFilePath), SCAN_BUFFER_SIZE));
+        try {
+            int len;
+            while ((len = sReader.skipMessage(in)) >= 0) {
+                if (count == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, count * 2);
+                }
+                offsets[count++] = offset;
+                offset += 4 + len;
+
+                if (count % MESSAGES_PER_TASK == 0 && monitor.isCanceled()) {
+                    throw new InterruptedException();
+                }
+            }
         } finally {
             try {
-                mFile.close();
+                in.close();
             } catch (IOException e) {
                 // ignore exception while closing file
             }
-            monitor.done();
         }
 
-        File f = new File(mTraceFilePath);
-        TraceFileInfo fileInfo = new TraceFileInfo(mTraceFilePath, f.length(), f.lastModified());
-        mTrace = new GLTrace(fileInfo, glFrames, mGLCalls, new ArrayList<Integer>(mGLContextIds));
+        return Arrays.copyOf(offsets, count);
+    }
+
+    /**
+     * Decode the messages at the given offsets in parallel, and return the corresponding
+     * calls. If a message is truncated, the calls from that message on are null.
+     */
+    private GLCall[] decodeMessages(final long[] offsets, final IProgressMonitor monitor)
+            throws Exception {
+        monitor.subTask(String.format("Decoding %d OpenGL calls", offsets.length));
+
+        final GLCall[] calls = new GLCall[offsets.length];
+        int taskCount = (offsets.length + MESSAGES_PER_TASK - 1) / MESSAGES_PER_TASK;
+        if (taskCount == 0) {
+            return calls;
+        }
+
+        int threadCount = Math.min(Runtime.getRuntime().availableProcessors(), taskCount);
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>(taskCount);
+            for (int start = 0; start < offsets.length; start += MESSAGES_PER_TASK) {
+                final int first = start;
+                final int end = Math.min(start + MESSAGES_PER_TASK, offsets.length);
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        decodeMessages(offsets, first, end, calls, monitor);
+                        return null;
+                    }
+                }));
+            }
+
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof Exception) {
+                        throw (Exception) cause;
+                    }
+                    throw e;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return calls;
+    }
+
+    /** Decode a range of consecutive messages. */
+    private void decodeMessages(long[] offsets, int start, int end, GLCall[] calls,
+            IProgressMonitor monitor) throws IOException, InterruptedException {
+        RandomAccessFile file = new RandomAccessFile(mTraceFilePath, "r"); //$NON-NLS-1$
+        try {
+            file.seek(offsets[start]);
+            for (int i = start; i < end; i++) {
+                if (monitor.isCanceled()) {
+                    throw new InterruptedException();
+                }
+
+                GLMessage msg = sReader.getMessageAtOffset(file, -1);
+                if (msg == null) {
+                    return;
+                }
+                calls[i] = createCall(i, offsets[i], msg);
+            }
+        } finally {
+            try {
+                file.close();
+            } catch (IOException e) {
+                // ignore exception while closing file
+            }
+        }
+    }
+
+    /**
+     * Apply the state transformations of all the calls, in order, taking snapshots of the
+     * GL state along the way.
+     */
+    private GLStateCheckpoints createStateCheckpoints(List<GLCall> calls,
+            IProgressMonitor monitor) throws InterruptedException {
+        monitor.subTask("Computing OpenGL state");
+        GLStateCheckpoints checkpoints = new GLStateCheckpoints();
+        IGLProperty state = GLState.createDefaultState();
+
+        for (int i = 0; i < calls.size(); i++) {
+            if (monitor.isCanceled()) {
+                throw new InterruptedException();
+            }
+
+            for (IStateTransform f : calls.get(i).getStateTransformations()) {
+                try {
+                    f.apply(state);
+                } catch (Exception e) {
+                    // errors are reported when the state is displayed
+                }
+            }
+            checkpoints.add(i, state);
+        }
+
+        return checkpoints;
     }
 
     /** Assign GL calls to GL Frames. */
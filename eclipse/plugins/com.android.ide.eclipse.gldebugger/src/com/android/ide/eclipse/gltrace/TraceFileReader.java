@@ -19,9 +19,12 @@ package com.android.ide.eclipse.gltrace;
 import com.android.ide.eclipse.gltrace.GLProtoBuf.GLMessage;
 import com.google.protobuf.InvalidProtocolBufferException;
 
+import java.io.DataInputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 public class TraceFileReader {
     /** Maximum size for a protocol buffer message.
@@ -48,12 +51,7 @@ public class TraceFileReader {
             }
 
             len = file.readInt();
-            if (len > MAX_PROTOBUF_SIZE) {
-                String msg = String.format(
-                        "Unexpectedly large (%d bytes) protocol buffer message encountered.",
-                        len);
-                throw new InvalidProtocolBufferException(msg);
-            }
+            checkMessageLength(len);
 
             b = new byte[len];
             file.readFully(b);
@@ -63,4 +61,81 @@ public class TraceFileReader {
 
         return GLMessage.parseFrom(b);
     }
+
+    /**
+     * Obtain the protobuf message at the given offset of a file channel. This uses positional
+     * reads, which do not change the position of the channel, so that a channel can be shared
+     * by several threads.
+     * @param channel channel to read from
+     * @param offset offset of the message
+     * @return protobuf message at given offset, or null if the channel ends before the message
+     * @throws IOException in case of file I/O errors
+     * @throws InvalidProtocolBufferException if protobuf is not well formed
+     */
+    public GLMessage getMessageAtOffset(FileChannel channel, long offset) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(4);
+        if (readFully(channel, header, offset) == false) {
+            return null;
+        }
+
+        int len = header.getInt(0);
+        checkMessageLength(len);
+
+        ByteBuffer b = ByteBuffer.allocate(len);
+        if (readFully(channel, b, offset + 4) == false) {
+            return null;
+        }
+
+        return GLMessage.parseFrom(b.array());
+    }
+
+    private static boolean readFully(FileChannel channel, ByteBuffer b, long position)
+            throws IOException {
+        while (b.hasRemaining()) {
+            if (channel.read(b, position + b.position()) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Skip the next protobuf message in a stream, without decoding it.
+     * @param in stream to read from
+     * @return length of the skipped message, or -1 at the end of the stream
+     * @throws IOException in case of I/O errors
+     * @throws InvalidProtocolBufferException if the message length is not valid
+     */
+    public int skipMessage(DataInputStream in) throws IOException {
+        int len;
+        try {
+            len = in.readInt();
+        } catch (EOFException e) {
+            return -1;
+        }
+        checkMessageLength(len);
+
+        // a truncated message is only detected when it is read
+        int remaining = len;
+        while (remaining > 0) {
+            long skipped = in.skip(remaining);
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    return -1;
+                }
+                skipped = 1;
+            }
+            remaining -= skipped;
+        }
+        return len;
+    }
+
+    private void checkMessageLength(int len) throws InvalidProtocolBufferException {
+        if (len < 0 || len > MAX_PROTOBUF_SIZE) {
+            String msg = String.format(
+                    "Unexpectedly large (%d bytes) protocol buffer message encountered.",
+                    len);
+            throw new InvalidProtocolBufferException(msg);
+        }
+    }
 }
@@ -162,8 +162,8 @@ public class GLFunctionTraceViewer extends EditorPart implements ISelectionProvi
         c.setLayoutData(gd);
 
         ProgressMonitorDialog dlg = new ProgressMonitorDialog(parent.getShell());
-        TraceFileParserTask parser = new TraceFileParserTask(mFilePath, parent.getDisplay(),
-                THUMBNAIL_WIDTH, THUMBNAIL_HEIGHT);
+        TraceFileParserTask parser = new TraceFileParserTask(mFilePath, THUMBNAIL_WIDTH,
+                THUMBNAIL_HEIGHT);
         try {
             dlg.run(true, true, parser);
         } catch (InvocationTargetException e) {
@@ -464,6 +464,14 @@ public class GLFunctionTraceViewer extends EditorPart implements ISelectionProvi
         mFrameTreeViewer.getTree().setFocus();
     }
 
+    @Override
+    public void dispose() {
+        if (mTrace != null) {
+            mTrace.dispose();
+        }
+        super.dispose();
+    }
+
     private static class GLFrameContentProvider implements ITreeContentProvider {
         @Override
         public void dispose() {
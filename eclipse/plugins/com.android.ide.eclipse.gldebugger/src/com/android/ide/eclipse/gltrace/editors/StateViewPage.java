@@ -21,6 +21,7 @@ import com.android.ide.eclipse.gltrace.editors.GLCallGroups.GLCallNode;
 import com.android.ide.eclipse.gltrace.model.GLCall;
 import com.android.ide.eclipse.gltrace.model.GLTrace;
 import com.android.ide.eclipse.gltrace.state.GLState;
+import com.android.ide.eclipse.gltrace.state.GLStateCheckpoints;
 import com.android.ide.eclipse.gltrace.state.IGLProperty;
 import com.android.ide.eclipse.gltrace.state.transforms.IStateTransform;
 
@@ -68,6 +69,12 @@ public class StateViewPage extends Page implements ISelectionListener, ISelectio
     private final IGLProperty mState;
     private int mCurrentStateIndex;
 
+    /**
+     * Index of the call of the last snapshot restored into {@link #mState}, or -1 if it
+     * was built from the default state.
+     */
+    private int mRestoredStateIndex;
+
     private String[] TREE_PROPERTIES = { "Name", "Value" };
     private TreeViewer mTreeViewer;
     private StateLabelProvider mLabelProvider;
@@ -78,6 +85,7 @@ public class StateViewPage extends Page implements ISelectionListener, ISelectio
 
         mState = GLState.createDefaultState();
         mCurrentStateIndex = -1;
+        mRestoredStateIndex = -1;
     }
 
     @Override
@@ -204,25 +212,48 @@ public class StateViewPage extends Page implements ISelectionListener, ISelectio
      * corresponding to calls from (fromIndex + 1) to toIndex (inclusive).
      * If fromIndex > toIndex, the GL state will be updated by reverting all the calls from
      * fromIndex (inclusive) to (toIndex + 1).
+     * If a snapshot of the state is closer to toIndex than fromIndex, the snapshot is restored
+     * first, and only the transformations after it are applied.
      * @return GL state properties that changed as a result of this update.
      */
     private Set<IGLProperty> updateState(int fromIndex, int toIndex) {
         assert fromIndex >= -1 && fromIndex < mGLCalls.size();
         assert toIndex >= 0 && toIndex < mGLCalls.size();
 
-        if (fromIndex < toIndex) {
-            return applyTransformations(fromIndex, toIndex);
-        } else if (fromIndex > toIndex) {
-            return revertTransformations(fromIndex, toIndex);
-        } else {
+        if (fromIndex == toIndex) {
             return Collections.emptySet();
         }
-    }
 
-    private Set<IGLProperty> applyTransformations(int fromIndex, int toIndex) {
-        int setSizeHint = 3 * (toIndex - fromIndex) + 10;
-        Set<IGLProperty> changedProperties = new HashSet<IGLProperty>(setSizeHint);
+        GLStateCheckpoints checkpoints = mTrace.getStateCheckpoints();
+        int checkpoint = checkpoints.getCheckpoint(toIndex);
+        int distance = Math.abs(toIndex - fromIndex);
+        Set<IGLProperty> changedProperties = new HashSet<IGLProperty>(
+                3 * Math.min(distance, checkpoints.getInterval()) + 10);
+
+        // Transformations can only be reverted down to the last restored snapshot: those
+        // before it were not applied to this state.
+        if (fromIndex > toIndex && toIndex >= mRestoredStateIndex
+                && distance <= toIndex - checkpoint) {
+            revertTransformations(fromIndex, toIndex, changedProperties);
+            return changedProperties;
+        }
+
+        if (checkpoint > fromIndex || fromIndex > toIndex) {
+            Set<IGLProperty> restoredProperties = new HashSet<IGLProperty>();
+            checkpoints.restore(checkpoint, mState, restoredProperties);
+            for (IGLProperty p : restoredProperties) {
+                changedProperties.addAll(getHierarchy(p));
+            }
+            mRestoredStateIndex = checkpoint;
+            fromIndex = checkpoint;
+        }
+
+        applyTransformations(fromIndex, toIndex, changedProperties);
+        return changedProperties;
+    }
 
+    private void applyTransformations(int fromIndex, int toIndex,
+            Set<IGLProperty> changedProperties) {
         for (int i = fromIndex + 1; i <= toIndex; i++) {
             GLCall call = mGLCalls.get(i);
             for (IStateTransform f : call.getStateTransformations()) {
@@ -239,14 +270,10 @@ public class StateViewPage extends Page implements ISelectionListener, ISelectio
                 }
             }
         }
-
-        return changedProperties;
     }
 
-    private Set<IGLProperty> revertTransformations(int fromIndex, int toIndex) {
-        int setSizeHint = 3 * (fromIndex - toIndex) + 10;
-        Set<IGLProperty> changedProperties = new HashSet<IGLProperty>(setSizeHint);
-
+    private void revertTransformations(int fromIndex, int toIndex,
+            Set<IGLProperty> changedProperties) {
         for (int i = fromIndex; i > toIndex; i--) {
             List<IStateTransform> transforms = mGLCalls.get(i).getStateTransformations();
             // When reverting transformations, iterate from the last to first so that the reversals
@@ -261,8 +288,6 @@ public class StateViewPage extends Page implements ISelectionListener, ISelectio
                 }
             }
         }
-
-        return changedProperties;
     }
 
     /**
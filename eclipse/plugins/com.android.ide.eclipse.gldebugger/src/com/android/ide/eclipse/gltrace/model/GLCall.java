@@ -21,8 +21,6 @@ import com.android.ide.eclipse.gltrace.GLProtoBuf.GLMessage.Function;
 import com.android.ide.eclipse.gltrace.state.transforms.IStateTransform;
 import com.android.sdklib.util.SparseArray;
 
-import org.eclipse.swt.graphics.Image;
-
 import java.util.Collections;
 import java.util.List;
 
@@ -30,10 +28,13 @@ import java.util.List;
  * A GLCall is the in memory representation of a single {@link GLProtoBuf.GLMessage}.
  *
  * Some protocol buffer messages have a large amount of image data packed in them. Rather
- * than storing all of that in memory, the GLCall stores a thumbnail image, and an offset
- * into the trace file corresponding to original protocol buffer message. If full image data
- * is required, the protocol buffer message can be recreated by reading the trace at the
- * specified offset.
+ * than storing all of that in memory, the GLCall stores an offset into the trace file
+ * corresponding to original protocol buffer message. If full image data is required, the
+ * protocol buffer message can be recreated by reading the trace at the specified offset.
+ *
+ * The string representation of the call and the thumbnail image of the framebuffer are
+ * obtained the same way, the first time they are needed, and are then cached in the call.
+ * Most calls of a large trace are never displayed.
  */
 public class GLCall {
     /** Marker name provided by a {@link Function#glPushGroupMarkerEXT} call. */
@@ -60,11 +61,11 @@ public class GLCall {
     /** Flag indicating whether the original protobuf message included FB data. */
     private final boolean mHasFb;
 
-    /** Thumbnail image of the framebuffer if available. */
-    private final Image mThumbnailImage;
+    /** Full string representation of this call, once it has been formatted. */
+    private String mDisplayString;
 
-    /** Full string representation of this call. */
-    private final String mDisplayString;
+    /** Trace this call belongs to, used to format the call. */
+    private GLTrace mTrace;
 
     /** The actual GL Function called. */
     private final Function mFunction;
@@ -87,14 +88,11 @@ public class GLCall {
     /** List of properties associated to this call. */
     private SparseArray<Object> mProperties;
 
-    public GLCall(int index, long startTime, long traceFileOffset, String displayString,
-            Image thumbnailImage, Function function, boolean hasFb, int contextId,
-            int wallTime, int threadTime) {
+    public GLCall(int index, long startTime, long traceFileOffset, Function function,
+            boolean hasFb, int contextId, int wallTime, int threadTime) {
         mIndex = index;
         mStartTime = startTime;
         mTraceFileOffset = traceFileOffset;
-        mThumbnailImage = thumbnailImage;
-        mDisplayString = displayString;
         mFunction = function;
         mHasFb = hasFb;
         mContextId = contextId;
@@ -126,8 +124,8 @@ public class GLCall {
         return mHasFb;
     }
 
-    public Image getThumbnailImage() {
-        return mThumbnailImage;
+    void setTrace(GLTrace trace) {
+        mTrace = trace;
     }
 
     public long getStartTime() {
@@ -164,6 +162,12 @@ public class GLCall {
 
     @Override
     public String toString() {
+        if (mDisplayString == null) {
+            if (mTrace == null) {
+                return mFunction.toString();
+            }
+            mDisplayString = mTrace.formatCall(this);
+        }
         return mDisplayString;
     }
 
@@ -20,21 +20,36 @@ import com.android.ide.eclipse.gltrace.GLProtoBuf.GLMessage;
 import com.android.ide.eclipse.gltrace.ProtoBufUtils;
 import com.android.ide.eclipse.gltrace.TraceFileInfo;
 import com.android.ide.eclipse.gltrace.TraceFileReader;
+import com.android.ide.eclipse.gltrace.format.GLAPISpec;
+import com.android.ide.eclipse.gltrace.format.GLMessageFormatter;
+import com.android.ide.eclipse.gltrace.state.GLStateCheckpoints;
 
 import org.eclipse.swt.graphics.Image;
+import org.eclipse.swt.graphics.ImageData;
 import org.eclipse.swt.widgets.Display;
 
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
 import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /** GLTrace is the in memory model of a OpenGL trace file. */
 public class GLTrace {
     private static final TraceFileReader sTraceFileReader = new TraceFileReader();
 
+    private static final GLMessageFormatter sGLMessageFormatter =
+            new GLMessageFormatter(GLAPISpec.getSpecs());
+
+    /** Default maximum size of the decoded framebuffer images kept in memory. */
+    private static final long MAX_CACHED_IMAGE_BYTES = 64 * 1024 * 1024;
+
     /** Information regarding the trace file. */
     private final TraceFileInfo mTraceFileInfo;
 
@@ -47,12 +62,66 @@ public class GLTrace {
     /** List of context ids used by the application. */
     private List<Integer> mContextIds;
 
+    /** Snapshots of the GL state, to quickly obtain the state as of any call. */
+    private final GLStateCheckpoints mStateCheckpoints;
+
+    /**
+     * Channel to the trace file, opened the first time a message is read from it. It is shared
+     * by all threads, which only use positional reads.
+     */
+    private FileChannel mChannel;
+
+    /** Whether the trace was disposed, after which the trace file is not opened again. */
+    private volatile boolean mDisposed;
+
+    /** Maximum size of the decoded framebuffer images kept in memory. */
+    private final long mMaxCachedImageBytes;
+
+    /** Size of the thumbnails of the framebuffer images, or 0 to not create thumbnails. */
+    private final int mThumbWidth;
+    private final int mThumbHeight;
+
+    /**
+     * Decoded framebuffer images, by offset of their message, in least recently used order.
+     * Thumbnails are cached along with the images, with the key returned by
+     * {@link #getThumbnailKey(GLCall)}.
+     */
+    private final Map<Long, ImageData> mImageCache =
+            new LinkedHashMap<Long, ImageData>(16, 0.75f, true);
+    private long mCachedImageBytes;
+
+    /**
+     * Construct a GL Trace.
+     * @param stateCheckpoints snapshots of the GL state of the trace
+     * @param thumbWidth width of thumbnail images, or 0 to not create thumbnails
+     * @param thumbHeight height of thumbnail images
+     */
     public GLTrace(TraceFileInfo traceFileInfo, List<GLFrame> glFrames, List<GLCall> glCalls,
-            List<Integer> contextIds) {
+            List<Integer> contextIds, GLStateCheckpoints stateCheckpoints,
+            int thumbWidth, int thumbHeight) {
+        this(traceFileInfo, glFrames, glCalls, contextIds, stateCheckpoints,
+                thumbWidth, thumbHeight, MAX_CACHED_IMAGE_BYTES);
+    }
+
+    /**
+     * Construct a GL Trace with the given budget for the decoded framebuffer images.
+     * @param maxCachedImageBytes maximum size of the decoded images kept in memory
+     */
+    GLTrace(TraceFileInfo traceFileInfo, List<GLFrame> glFrames, List<GLCall> glCalls,
+            List<Integer> contextIds, GLStateCheckpoints stateCheckpoints,
+            int thumbWidth, int thumbHeight, long maxCachedImageBytes) {
         mTraceFileInfo = traceFileInfo;
         mGLFrames = glFrames;
         mGLCalls = glCalls;
         mContextIds = contextIds;
+        mStateCheckpoints = stateCheckpoints;
+        mThumbWidth = thumbWidth;
+        mThumbHeight = thumbHeight;
+        mMaxCachedImageBytes = maxCachedImageBytes;
+
+        for (GLCall c : glCalls) {
+            c.setTrace(this);
+        }
     }
 
     public List<GLFrame> getFrames() {
@@ -76,36 +145,225 @@ public class GLTrace {
         return mGLCalls.subList(frame.getStartIndex(), frame.getEndIndex());
     }
 
+    /**
+     * Obtain the framebuffer image of a call. If the trace file was modified since, and the
+     * image is no longer cached, its thumbnail is returned instead if it was created before.
+     * The caller owns the returned image, and should dispose it.
+     */
     public Image getImage(GLCall c) {
         if (!c.hasFb()) {
             return null;
         }
 
-        if (isTraceFileModified()) {
-            return c.getThumbnailImage();
+        ImageData data = getImageData(c);
+        if (data == null) {
+            data = getCachedImageData(getThumbnailKey(c));
+        }
+
+        return data != null ? new Image(Display.getCurrent(), data) : null;
+    }
+
+    /**
+     * Obtain the thumbnail of the framebuffer image of a call, creating it if needed. The
+     * caller owns the returned image, and should dispose it.
+     */
+    public Image getThumbnailImage(GLCall c) {
+        ImageData data = getThumbnailData(c);
+        return data != null ? new Image(Display.getCurrent(), data) : null;
+    }
+
+    /**
+     * Obtain the thumbnail of the framebuffer image of a call, from the cache if possible.
+     * Returns null if the call has no framebuffer, if thumbnails are not created, or if the
+     * thumbnail is not cached and the message of the call can't be read.
+     */
+    ImageData getThumbnailData(GLCall c) {
+        if (!c.hasFb() || mThumbWidth <= 0) {
+            return null;
+        }
+
+        ImageData thumbnail = getCachedImageData(getThumbnailKey(c));
+        if (thumbnail == null) {
+            // decoding the image creates its thumbnail
+            getImageData(c);
+            thumbnail = getCachedImageData(getThumbnailKey(c));
+        }
+        return thumbnail;
+    }
+
+    /**
+     * Decode the framebuffer image of a call ahead of time, so that a later
+     * {@link #getImage(GLCall)} for that call is quick. This can be called from any thread.
+     */
+    public void prefetchImage(GLCall c) {
+        if (c.hasFb()) {
+            getImageData(c);
+        }
+    }
+
+    /**
+     * Obtain the decoded framebuffer image of a call, from the cache if possible. Returns null
+     * if the image is not cached and the message of the call can't be read.
+     */
+    private ImageData getImageData(GLCall c) {
+        Long key = Long.valueOf(c.getOffsetInTraceFile());
+        ImageData cached = getCachedImageData(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        // decode outside of the lock, so that a prefetch does not block the UI thread
+        GLMessage m = getMessage(c);
+        if (m == null) {
+            return null;
+        }
+
+        ImageData data = ProtoBufUtils.getImageData(m);
+        if (data != null) {
+            cacheImageData(key, data);
+
+            // the thumbnail is kept in case the image is needed after the trace file changed.
+            if (mThumbWidth > 0) {
+                cacheImageData(getThumbnailKey(c), data.scaledTo(mThumbWidth, mThumbHeight));
+            }
+        }
+        return data;
+    }
+
+    /** Returns the cached image with the given key, or null. */
+    private ImageData getCachedImageData(Long key) {
+        synchronized (mImageCache) {
+            return mImageCache.get(key);
+        }
+    }
+
+    /** Returns the cache key of the thumbnail of a call, distinct from the key of its image. */
+    private static Long getThumbnailKey(GLCall c) {
+        return Long.valueOf(-1 - c.getOffsetInTraceFile());
+    }
+
+    /** Returns whether the decoded image of a call is in the cache. */
+    boolean isImageCached(GLCall c) {
+        synchronized (mImageCache) {
+            return mImageCache.containsKey(Long.valueOf(c.getOffsetInTraceFile()));
+        }
+    }
+
+    /** Returns whether the thumbnail of a call is in the cache. */
+    boolean isThumbnailCached(GLCall c) {
+        synchronized (mImageCache) {
+            return mImageCache.containsKey(getThumbnailKey(c));
+        }
+    }
+
+    /** Add an image to the cache, evicting the least recently used images over the budget. */
+    private void cacheImageData(Long key, ImageData data) {
+        synchronized (mImageCache) {
+            if (mDisposed) {
+                // a prefetch finished after the trace was disposed.
+                return;
+            }
+
+            ImageData previous = mImageCache.put(key, data);
+            if (previous != null) {
+                mCachedImageBytes -= previous.data.length;
+            }
+            mCachedImageBytes += data.data.length;
+
+            Iterator<ImageData> it = mImageCache.values().iterator();
+            while (mCachedImageBytes > mMaxCachedImageBytes && mImageCache.size() > 1) {
+                mCachedImageBytes -= it.next().data.length;
+                it.remove();
+            }
         }
+    }
 
-        RandomAccessFile file;
-        try {
-            file = new RandomAccessFile(mTraceFileInfo.getPath(), "r"); //$NON-NLS-1$
-        } catch (FileNotFoundException e1) {
-            return c.getThumbnailImage();
+    /**
+     * Format the string representation of a call from its protobuf message. If the message
+     * can't be read or formatted, only the function name is returned.
+     */
+    String formatCall(GLCall c) {
+        GLMessage m = getMessage(c);
+        if (m != null) {
+            try {
+                return formatMessage(m);
+            } catch (Exception e) {
+                // fall back to the function name below
+            }
         }
+        return String.format("%s()", c.getFunction().toString()); //$NON-NLS-1$
+    }
 
-        GLMessage m = null;
-        try {
-            m = sTraceFileReader.getMessageAtOffset(file, c.getOffsetInTraceFile());
-        } catch (Exception e) {
+    /** Format the string representation of a protobuf message. */
+    public static String formatMessage(GLMessage m) {
+        return sGLMessageFormatter.formatGLMessage(m);
+    }
+
+    /**
+     * Read the protobuf message of a call from the trace file. Returns null if the trace file
+     * was modified or the trace disposed, or if the message can't be read.
+     */
+    private GLMessage getMessage(GLCall c) {
+        if (isTraceFileModified()) {
             return null;
-        } finally {
+        }
+
+        // the channel is closed for all threads when a thread reading from it is interrupted,
+        // for instance by the cancellation of a prefetch: the other threads retry once with
+        // a new channel.
+        for (int attempt = 0; attempt < 2; attempt++) {
+            FileChannel channel = null;
             try {
-                file.close();
+                channel = getChannel();
+                return sTraceFileReader.getMessageAtOffset(channel, c.getOffsetInTraceFile());
+            } catch (ClosedByInterruptException e) {
+                releaseChannel(channel);
+                return null;
+            } catch (ClosedChannelException e) {
+                releaseChannel(channel);
+            } catch (Exception e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private synchronized FileChannel getChannel() throws IOException {
+        if (mDisposed) {
+            throw new IOException("The trace was disposed.");
+        }
+        if (mChannel == null) {
+            mChannel = new FileInputStream(mTraceFileInfo.getPath()).getChannel();
+        }
+        return mChannel;
+    }
+
+    /** Forget a closed channel, so that the next read opens the file again. */
+    private synchronized void releaseChannel(FileChannel channel) {
+        if (channel != null && mChannel == channel) {
+            mChannel = null;
+        }
+    }
+
+    /**
+     * Release the trace file and the cached images and thumbnails. The trace file is not opened
+     * again, and images are not available afterwards.
+     */
+    public synchronized void dispose() {
+        mDisposed = true;
+        if (mChannel != null) {
+            try {
+                mChannel.close();
             } catch (IOException e) {
                 // ignore exception while closing file
             }
+            mChannel = null;
         }
 
-        return ProtoBufUtils.getImage(Display.getCurrent(), m);
+        synchronized (mImageCache) {
+            mImageCache.clear();
+            mCachedImageBytes = 0;
+        }
     }
 
     private boolean isTraceFileModified() {
@@ -117,4 +375,8 @@ public class GLTrace {
     public List<Integer> getContexts() {
         return mContextIds;
     }
+
+    public GLStateCheckpoints getStateCheckpoints() {
+        return mStateCheckpoints;
+    }
 }
@@ -38,6 +38,10 @@ public class GLSparseArrayProperty implements IGLProperty {
         mType = type;
         mDefaultValue = defaultValue;
         mSparseArray = contents;
+
+        for (int i = 0; i < mSparseArray.size(); i++) {
+            mSparseArray.valueAt(i).setParent(this);
+        }
     }
 
     public List<IGLProperty> getValues() {
@@ -74,6 +78,21 @@ public class GLSparseArrayProperty implements IGLProperty {
         mSparseArray.delete(key);
     }
 
+    /** Returns the number of elements in this array. */
+    public int size() {
+        return mSparseArray.size();
+    }
+
+    /** Returns the key of the element at the given index, in ascending key order. */
+    public int keyAt(int index) {
+        return mSparseArray.keyAt(index);
+    }
+
+    /** Returns the element at the given index, in ascending key order. */
+    public IGLProperty valueAt(int index) {
+        return mSparseArray.valueAt(index);
+    }
+
     @Override
     public GLStateType getType() {
         return mType;
@@ -105,7 +124,7 @@ public class GLSparseArrayProperty implements IGLProperty {
         for (int i = 0; i < mSparseArray.size(); i++) {
             int key = mSparseArray.keyAt(i);
             IGLProperty value = mSparseArray.get(key);
-            copy.put(key, value);
+            copy.put(key, value.clone());
         }
 
         return new GLSparseArrayProperty(mType, mDefaultValue, copy);
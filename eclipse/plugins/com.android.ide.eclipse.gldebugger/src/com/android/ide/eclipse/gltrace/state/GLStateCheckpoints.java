@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ide.eclipse.gltrace.state;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Snapshots of the GL state taken at regular intervals of a trace, so that the state as of
+ * any call can be obtained by restoring the closest snapshot and applying the transforms of
+ * at most one interval of calls.
+ * <p/>
+ * A snapshot is a deep copy of the state, but values are shared with the live state: they
+ * are immutable, and transforms replace them rather than modify them. When the snapshots
+ * exceed their budget, every other snapshot is dropped and the interval is doubled.
+ */
+public class GLStateCheckpoints {
+    /** Initial number of calls between two snapshots. */
+    static final int MIN_INTERVAL = 1024;
+
+    /**
+     * Maximum number of properties held by all the snapshots. A property takes roughly
+     * 50 bytes, so this keeps the snapshots under 25MB.
+     */
+    static final int MAX_PROPERTIES = 500000;
+
+    private final int mMaxProperties;
+    private int mInterval;
+    private int mPropertyCount;
+
+    /** The snapshot at index i is the state as of call (i + 1) * mInterval - 1. */
+    private final List<IGLProperty> mStates = new ArrayList<IGLProperty>();
+    private final List<Integer> mSizes = new ArrayList<Integer>();
+
+    public GLStateCheckpoints() {
+        this(MIN_INTERVAL, MAX_PROPERTIES);
+    }
+
+    GLStateCheckpoints(int interval, int maxProperties) {
+        mInterval = interval;
+        mMaxProperties = maxProperties;
+    }
+
+    /**
+     * Records the state as of a call, if a snapshot is due at that call. This must be called
+     * for each call of the trace, in order.
+     * @param callIndex index of the last call whose transforms were applied to the state
+     * @param state the GL state
+     */
+    public void add(int callIndex, IGLProperty state) {
+        if ((callIndex + 1) % mInterval != 0) {
+            return;
+        }
+
+        assert (callIndex + 1) / mInterval == mStates.size() + 1;
+        int size = countProperties(state);
+        mStates.add(state.clone());
+        mSizes.add(Integer.valueOf(size));
+        mPropertyCount += size;
+
+        while (mPropertyCount > mMaxProperties && mStates.size() > 1) {
+            compact();
+        }
+    }
+
+    /** Returns the number of calls between two snapshots. */
+    public int getInterval() {
+        return mInterval;
+    }
+
+    /**
+     * Returns the index of the call of the closest snapshot at or before the given call, or
+     * -1 if there is none, in which case the closest snapshot is the default state.
+     */
+    public int getCheckpoint(int callIndex) {
+        int i = Math.min((callIndex + 1) / mInterval, mStates.size());
+        return i * mInterval - 1;
+    }
+
+    /**
+     * Restores a snapshot into the given state. The state is updated in place, so that the
+     * properties that do not change are preserved.
+     * @param checkpoint index of the call of the snapshot, as returned by
+     *            {@link #getCheckpoint(int)}
+     * @param state the state to update
+     * @param changedProperties set to which the properties that changed are added
+     */
+    public void restore(int checkpoint, IGLProperty state, Set<IGLProperty> changedProperties) {
+        IGLProperty from;
+        if (checkpoint < 0) {
+            from = GLState.createDefaultState();
+        } else {
+            from = mStates.get((checkpoint + 1) / mInterval - 1);
+        }
+
+        copy(from, state, changedProperties);
+    }
+
+    /** Drops every other snapshot, doubling the interval between snapshots. */
+    private void compact() {
+        int count = 0;
+        for (int i = 0; i < mStates.size() / 2; i++) {
+            // the snapshot as of call (i + 1) * 2 * mInterval - 1 was at index 2 * i + 1.
+            mStates.set(i, mStates.get(2 * i + 1));
+            mSizes.set(i, mSizes.get(2 * i + 1));
+            count += mSizes.get(i).intValue();
+        }
+
+        int size = mStates.size() / 2;
+        mStates.subList(size, mStates.size()).clear();
+        mSizes.subList(size, mSizes.size()).clear();
+        mPropertyCount = count;
+        mInterval *= 2;
+    }
+
+    private static int countProperties(IGLProperty property) {
+        int count = 1;
+        for (IGLProperty p : getChildren(property)) {
+            count += countProperties(p);
+        }
+        return count;
+    }
+
+    private static List<IGLProperty> getChildren(IGLProperty property) {
+        if (property instanceof GLCompositeProperty) {
+            return new ArrayList<IGLProperty>(((GLCompositeProperty) property).getProperties());
+        } else if (property instanceof GLListProperty) {
+            return ((GLListProperty) property).getList();
+        } else if (property instanceof GLSparseArrayProperty) {
+            return ((GLSparseArrayProperty) property).getValues();
+        }
+
+        return new ArrayList<IGLProperty>(0);
+    }
+
+    /**
+     * Makes a property equal to another property of the same type, reusing its existing
+     * children where possible.
+     */
+    private static void copy(IGLProperty from, IGLProperty to, Set<IGLProperty> changed) {
+        if (from instanceof GLCompositeProperty) {
+            GLCompositeProperty src = (GLCompositeProperty) from;
+            GLCompositeProperty dst = (GLCompositeProperty) to;
+            for (IGLProperty p : src.getProperties()) {
+                IGLProperty q = dst.getProperty(p.getType());
+                if (q != null) {
+                    copy(p, q, changed);
+                }
+            }
+        } else if (from instanceof GLListProperty) {
+            copyList((GLListProperty) from, (GLListProperty) to, changed);
+        } else if (from instanceof GLSparseArrayProperty) {
+            copySparseArray((GLSparseArrayProperty) from, (GLSparseArrayProperty) to, changed);
+        } else {
+            Object value = from.getValue();
+            Object current = to.getValue();
+            if (value != current && (value == null || !value.equals(current))) {
+                to.setValue(value);
+                changed.add(to);
+            }
+        }
+    }
+
+    private static void copyList(GLListProperty from, GLListProperty to,
+            Set<IGLProperty> changed) {
+        List<IGLProperty> dst = to.getList();
+        if (dst.size() > from.size()) {
+            dst.subList(from.size(), dst.size()).clear();
+            changed.add(to);
+        }
+
+        for (int i = 0; i < from.size(); i++) {
+            IGLProperty p = from.get(i);
+            if (i >= dst.size()) {
+                to.add(p.clone());
+                changed.add(to);
+            } else if (dst.get(i).getType() != p.getType()) {
+                to.set(i, p.clone());
+                changed.add(to);
+            } else {
+                copy(p, dst.get(i), changed);
+            }
+        }
+    }
+
+    private static void copySparseArray(GLSparseArrayProperty from, GLSparseArrayProperty to,
+            Set<IGLProperty> changed) {
+        for (int i = to.size() - 1; i >= 0; i--) {
+            int key = to.keyAt(i);
+            if (from.getProperty(key) == null) {
+                to.delete(key);
+                changed.add(to);
+            }
+        }
+
+        for (int i = 0; i < from.size(); i++) {
+            int key = from.keyAt(i);
+            IGLProperty q = to.getProperty(key);
+            if (q == null) {
+                to.put(key, from.valueAt(i).clone());
+                changed.add(to);
+            } else {
+                copy(from.valueAt(i), q, changed);
+            }
+        }
+    }
+}
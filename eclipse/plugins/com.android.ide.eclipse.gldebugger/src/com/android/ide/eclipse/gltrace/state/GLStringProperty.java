@@ -33,7 +33,7 @@ public class GLStringProperty extends GLAbstractAtomicProperty {
 
     @Override
     public void setValue(Object value) {
-        if (value instanceof String) {
+        if (value == null || value instanceof String) {
             mCurrentValue = (String) value;
         } else {
             throw new IllegalArgumentException("Attempt to set non-string value for " //$NON-NLS-1$
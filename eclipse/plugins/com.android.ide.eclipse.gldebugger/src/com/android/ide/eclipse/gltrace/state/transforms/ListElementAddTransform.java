@@ -26,6 +26,7 @@ import com.android.ide.eclipse.gltrace.state.IGLProperty;
 public class ListElementAddTransform implements IStateTransform {
     private final IGLPropertyAccessor mAccessor;
     private final IGLProperty mElement;
+    private IGLProperty mAddedElement;
 
     public ListElementAddTransform(IGLPropertyAccessor accessor, IGLProperty element) {
         mAccessor = accessor;
@@ -36,15 +37,19 @@ public class ListElementAddTransform implements IStateTransform {
     public void apply(IGLProperty currentState) {
         GLListProperty list = getList(currentState);
         if (list != null) {
-            list.add(mElement);
+            // Add a copy of the element, so that changes made to it in one application of this
+            // transform do not show up in the next one.
+            mAddedElement = mElement.clone();
+            list.add(mAddedElement);
         }
     }
 
     @Override
     public void revert(IGLProperty currentState) {
         GLListProperty list = getList(currentState);
-        if (list != null) {
-            list.remove(mElement);
+        if (list != null && mAddedElement != null) {
+            list.remove(mAddedElement);
+            mAddedElement = null;
         }
     }
 
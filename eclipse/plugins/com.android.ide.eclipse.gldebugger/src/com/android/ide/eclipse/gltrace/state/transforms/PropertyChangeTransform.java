@@ -55,7 +55,9 @@ public class PropertyChangeTransform implements IStateTransform {
     public void apply(IGLProperty state) {
         IGLProperty property = mAccessor.getProperty(state);
 
-        assert mOldValue == null : "Transform cannot be applied multiple times";
+        // A transform may be applied again after the state was restored from a checkpoint,
+        // so only the value it replaces in this application is remembered.
+        mOldValue = null;
         if (mPredicate != null) {
             // if predicate is not null, then first check if the current value
             // passes the predicate function.
@@ -73,7 +73,7 @@ public class TexImageTransform implements IStateTransform {
 
     @Override
     public void apply(IGLProperty currentState) {
-        assert mOldValue == null : "Transform cannot be applied multiple times"; //$NON-NLS-1$
+        mOldValue = null;
 
         IGLProperty property = mAccessor.getProperty(currentState);
         if (!(property instanceof GLStringProperty)) {
@@ -61,9 +61,13 @@ import java.util.Map;
  * OpenGL Calls present in the frame.
  */
 public class FrameSummaryViewPage extends Page {
+    /** Number of frames on each side of the current frame whose images are prefetched. */
+    private static final int PREFETCH_FRAME_COUNT = 2;
+
     private final GLTrace mTrace;
 
     private int mCurrentFrame;
+    private Job mPrefetchJob;
 
     private SashForm mSash;
     private ImageCanvas mImageCanvas;
@@ -92,6 +96,15 @@ public class FrameSummaryViewPage extends Page {
         mTrace = trace;
     }
 
+    @Override
+    public void dispose() {
+        if (mPrefetchJob != null) {
+            mPrefetchJob.cancel();
+            mPrefetchJob = null;
+        }
+        super.dispose();
+    }
+
     @Override
     public void createControl(Composite parent) {
         mSash = new SashForm(parent, SWT.VERTICAL);
@@ -210,6 +223,55 @@ public class FrameSummaryViewPage extends Page {
 
         updateImageCanvas();
         updateFrameStats();
+        prefetchImages();
+    }
+
+    /**
+     * Decode the images of the frames around the current frame in the background, so that
+     * they are displayed quickly when scrolling through frames.
+     */
+    private void prefetchImages() {
+        if (mPrefetchJob != null) {
+            mPrefetchJob.cancel();
+        }
+
+        final int currentFrame = mCurrentFrame;
+        mPrefetchJob = new Job("Prefetch Frame Images") {
+            @Override
+            protected IStatus run(IProgressMonitor monitor) {
+                // prefetch the closest frames first, and the next frames before the previous
+                // ones, as frames are usually scrolled forward.
+                for (int d = 1; d <= PREFETCH_FRAME_COUNT; d++) {
+                    for (int frame : new int[] { currentFrame + d, currentFrame - d }) {
+                        if (monitor.isCanceled()) {
+                            return Status.CANCEL_STATUS;
+                        }
+
+                        GLCall call = getLastCall(frame);
+                        if (call != null) {
+                            mTrace.prefetchImage(call);
+                        }
+                    }
+                }
+                return Status.OK_STATUS;
+            }
+        };
+        mPrefetchJob.setSystem(true);
+        mPrefetchJob.setPriority(Job.DECORATE);
+        mPrefetchJob.schedule();
+    }
+
+    /** Returns the last call of a frame, or null if there is no such frame. */
+    private GLCall getLastCall(int frame) {
+        if (frame < 0 || frame >= mTrace.getFrames().size()) {
+            return null;
+        }
+
+        int lastCallIndex = mTrace.getFrame(frame).getEndIndex() - 1;
+        if (lastCallIndex >= 0 && lastCallIndex < mTrace.getGLCalls().size()) {
+            return mTrace.getGLCalls().get(lastCallIndex);
+        }
+        return null;
     }
 
     private void updateFrameStats() {
@@ -265,9 +327,8 @@ public class FrameSummaryViewPage extends Page {
     }
 
     private void updateImageCanvas() {
-        int lastCallIndex = mTrace.getFrame(mCurrentFrame).getEndIndex() - 1;
-        if (lastCallIndex >= 0 && lastCallIndex < mTrace.getGLCalls().size()) {
-            GLCall call = mTrace.getGLCalls().get(lastCallIndex);
+        GLCall call = getLastCall(mCurrentFrame);
+        if (call != null) {
             final Image image = mTrace.getImage(call);
             Display.getDefault().asyncExec(new Runnable() {
                 @Override
@@ -14,3 +14,4 @@
 
 HIERARCHYVIEWERLIB_LOCAL_DIR := $(call my-dir)
 include $(HIERARCHYVIEWERLIB_LOCAL_DIR)/src/Android.mk
+include $(HIERARCHYVIEWERLIB_LOCAL_DIR)/tests/Android.mk
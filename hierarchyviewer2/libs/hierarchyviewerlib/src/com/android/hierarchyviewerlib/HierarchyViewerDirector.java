@@ -22,6 +22,7 @@ import com.android.ddmlib.AndroidDebugBridge.IDeviceChangeListener;
 import com.android.ddmlib.IDevice;
 import com.android.ddmlib.Log;
 import com.android.ddmlib.RawImage;
+import com.android.ddmlib.ScreenshotCapture;
 import com.android.ddmlib.TimeoutException;
 import com.android.hierarchyviewerlib.device.DeviceBridge;
 import com.android.hierarchyviewerlib.device.DeviceBridge.ViewServerInfo;
@@ -39,6 +40,7 @@ import com.android.hierarchyviewerlib.ui.util.PsdFile;
 
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.SWTException;
+import org.eclipse.swt.graphics.GC;
 import org.eclipse.swt.graphics.Image;
 import org.eclipse.swt.graphics.ImageData;
 import org.eclipse.swt.graphics.ImageLoader;
@@ -76,6 +78,9 @@ public abstract class HierarchyViewerDirector implements IDeviceChangeListener,
 
     private PixelPerfectAutoRefreshTask mCurrentAutoRefreshTask;
 
+    /** Last screenshot of the pixel perfect device, to only redraw what changed since. */
+    private ScreenshotCapture mPixelPerfectCapture;
+
     private String mFilterText = ""; //$NON-NLS-1$
 
     public void terminate() {
@@ -253,10 +258,7 @@ public abstract class HierarchyViewerDirector implements IDeviceChangeListener,
                 executeInBackground("Refreshing pixel perfect screenshot", new Runnable() {
                     @Override
                     public void run() {
-                        Image screenshotImage = getScreenshotImage(device);
-                        if (screenshotImage != null) {
-                            PixelPerfectModel.getModel().setImage(screenshotImage);
-                        }
+                        refreshScreenshotImage(device);
                         synchronized (HierarchyViewerDirector.this) {
                             mPixelPerfectRefreshesInProgress--;
                         }
@@ -274,7 +276,8 @@ public abstract class HierarchyViewerDirector implements IDeviceChangeListener,
                 @Override
                 public void run() {
                     ViewNode viewNode =
-                            DeviceBridge.loadWindowData(Window.getFocusedWindow(device));
+                            DeviceBridge.loadWindowData(Window.getFocusedWindow(device),
+                                    PixelPerfectModel.getModel().getViewNode());
                     if (viewNode != null) {
                         PixelPerfectModel.getModel().setTree(viewNode);
                     }
@@ -300,28 +303,89 @@ public abstract class HierarchyViewerDirector implements IDeviceChangeListener,
         });
     }
 
+    /**
+     * Returns the capture of the screen of a device, starting a new one if the device
+     * changed.
+     */
+    private synchronized ScreenshotCapture getPixelPerfectCapture(IDevice device) {
+        if (mPixelPerfectCapture == null || mPixelPerfectCapture.getDevice() != device) {
+            mPixelPerfectCapture = new ScreenshotCapture(device);
+        }
+        return mPixelPerfectCapture;
+    }
+
+    /**
+     * Takes a screenshot of a device and returns it as a new image. The next refresh of the
+     * pixel perfect view is relative to this screenshot.
+     */
     private Image getScreenshotImage(IDevice device) {
-        try {
-            final RawImage screenshot = device.getScreenshot();
-            if (screenshot == null) {
+        ScreenshotCapture capture = getPixelPerfectCapture(device);
+        synchronized (capture) {
+            capture.reset();
+            ScreenshotCapture.Delta delta = captureScreenshot(capture);
+            if (delta == null) {
                 return null;
             }
-            class ImageContainer {
-                public Image image;
+            return createImage(delta.getImage());
+        }
+    }
+
+    /**
+     * Updates the pixel perfect image with a new screenshot of a device. Only the tiles that
+     * changed since the previous screenshot are converted and redrawn.
+     */
+    private void refreshScreenshotImage(IDevice device) {
+        ScreenshotCapture capture = getPixelPerfectCapture(device);
+        synchronized (capture) {
+            final ScreenshotCapture.Delta delta = captureScreenshot(capture);
+            if (delta == null || delta.hasChanges() == false) {
+                return;
             }
-            final ImageContainer imageContainer = new ImageContainer();
-            Display.getDefault().syncExec(new Runnable() {
-                @Override
-                public void run() {
-                    ImageData imageData =
-                            new ImageData(screenshot.width, screenshot.height, screenshot.bpp,
-                                    new PaletteData(screenshot.getRedMask(), screenshot
-                                            .getGreenMask(), screenshot.getBlueMask()), 1,
-                                    screenshot.data);
-                    imageContainer.image = new Image(Display.getDefault(), imageData);
+
+            final RawImage screenshot = delta.getImage();
+            final PixelPerfectModel model = PixelPerfectModel.getModel();
+            if (delta.isFullFrame() == false) {
+                final boolean[] updated = new boolean[1];
+                Display.getDefault().syncExec(new Runnable() {
+                    @Override
+                    public void run() {
+                        Image image = model.getImage();
+                        if (image == null || image.isDisposed()
+                                || image.getBounds().width != screenshot.width
+                                || image.getBounds().height != screenshot.height) {
+                            return;
+                        }
+                        GC gc = new GC(image);
+                        try {
+                            for (ScreenshotCapture.Tile tile : delta.getChangedTiles()) {
+                                Image tileImage = new Image(Display.getDefault(),
+                                        getImageData(screenshot, tile));
+                                gc.drawImage(tileImage, tile.x, tile.y);
+                                tileImage.dispose();
+                            }
+                        } finally {
+                            gc.dispose();
+                        }
+                        updated[0] = true;
+                    }
+                });
+                if (updated[0]) {
+                    model.notifyImageChanged();
+                    return;
                 }
-            });
-            return imageContainer.image;
+            }
+
+            Image image = createImage(screenshot);
+            if (image != null) {
+                model.setImage(image);
+            }
+        }
+    }
+
+    private ScreenshotCapture.Delta captureScreenshot(ScreenshotCapture capture) {
+        IDevice device = capture.getDevice();
+        try {
+            return capture.capture();
         } catch (IOException e) {
             Log.e(TAG, "Unable to load screenshot from device " + device);
         } catch (TimeoutException e) {
@@ -332,14 +396,56 @@ public abstract class HierarchyViewerDirector implements IDeviceChangeListener,
         return null;
     }
 
+    private static Image createImage(final RawImage screenshot) {
+        class ImageContainer {
+            public Image image;
+        }
+        final ImageContainer imageContainer = new ImageContainer();
+        Display.getDefault().syncExec(new Runnable() {
+            @Override
+            public void run() {
+                ImageData imageData =
+                        new ImageData(screenshot.width, screenshot.height, screenshot.bpp,
+                                new PaletteData(screenshot.getRedMask(), screenshot
+                                        .getGreenMask(), screenshot.getBlueMask()), 1,
+                                screenshot.data);
+                imageContainer.image = new Image(Display.getDefault(), imageData);
+            }
+        });
+        return imageContainer.image;
+    }
+
+    /** Converts one tile of a screenshot, copying only the rows and columns of the tile. */
+    private static ImageData getImageData(RawImage screenshot, ScreenshotCapture.Tile tile) {
+        int byteCount = screenshot.bpp >> 3;
+        int stride = screenshot.width * byteCount;
+        int tileStride = tile.width * byteCount;
+        byte[] data = new byte[tileStride * tile.height];
+        for (int y = 0; y < tile.height; y++) {
+            System.arraycopy(screenshot.data, (tile.y + y) * stride + tile.x * byteCount,
+                    data, y * tileStride, tileStride);
+        }
+        return new ImageData(tile.width, tile.height, screenshot.bpp,
+                new PaletteData(screenshot.getRedMask(), screenshot.getGreenMask(),
+                        screenshot.getBlueMask()), 1, data);
+    }
+
     public void loadViewTreeData(final Window window) {
+        loadViewTreeData(window, null);
+    }
+
+    /**
+     * Loads the view hierarchy of a window, reusing the parsed properties of the views that
+     * did not change since a previous load of the window.
+     */
+    private void loadViewTreeData(final Window window, final ViewNode previous) {
         executeInBackground("Loading view hierarchy", new Runnable() {
             @Override
             public void run() {
 
                 mFilterText = ""; //$NON-NLS-1$
 
-                ViewNode viewNode = DeviceBridge.loadWindowData(window);
+                ViewNode viewNode = DeviceBridge.loadWindowData(window, previous);
                 if (viewNode != null) {
                     DeviceBridge.loadProfileData(window, viewNode);
                     viewNode.setViewCount();
@@ -585,7 +691,8 @@ public abstract class HierarchyViewerDirector implements IDeviceChangeListener,
     public void reloadViewHierarchy() {
         Window window = TreeViewModel.getModel().getWindow();
         if (window != null) {
-            loadViewTreeData(window);
+            DrawableViewNode tree = TreeViewModel.getModel().getTree();
+            loadViewTreeData(window, tree == null ? null : tree.viewNode);
         }
     }
 
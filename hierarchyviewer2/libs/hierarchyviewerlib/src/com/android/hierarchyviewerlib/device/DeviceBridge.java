@@ -38,6 +38,7 @@ import java.io.DataInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -431,35 +432,25 @@ public class DeviceBridge {
     }
 
     public static ViewNode loadWindowData(Window window) {
+        return loadWindowData(window, null);
+    }
+
+    /**
+     * Loads the view hierarchy of a window. The views whose properties did not change since a
+     * previous load share the parsed properties of their previous node.
+     * @param window the window to load
+     * @param previous the root of a previously loaded hierarchy, or null
+     */
+    public static ViewNode loadWindowData(Window window, ViewNode previous) {
         DeviceConnection connection = null;
         try {
             connection = new DeviceConnection(window.getDevice());
             connection.sendCommand("DUMP " + window.encode()); //$NON-NLS-1$
             BufferedReader in = connection.getInputStream();
-            ViewNode currentNode = null;
-            int currentDepth = -1;
-            String line;
-            while ((line = in.readLine()) != null) {
-                if ("DONE.".equalsIgnoreCase(line)) {
-                    break;
-                }
-                int depth = 0;
-                while (line.charAt(depth) == ' ') {
-                    depth++;
-                }
-                while (depth <= currentDepth) {
-                    currentNode = currentNode.parent;
-                    currentDepth--;
-                }
-                currentNode = new ViewNode(window, currentNode, line.substring(depth));
-                currentDepth = depth;
-            }
+            ViewNode currentNode = parseViewHierarchy(window, in, previous);
             if (currentNode == null) {
                 return null;
             }
-            while (currentNode.parent != null) {
-                currentNode = currentNode.parent;
-            }
             ViewServerInfo serverInfo = getViewServerInfo(window.getDevice());
             if (serverInfo != null) {
                 currentNode.protocolVersion = serverInfo.protocolVersion;
@@ -476,6 +467,80 @@ public class DeviceBridge {
         return null;
     }
 
+    /**
+     * Reads a dump of the view hierarchy of a window, until its "DONE." line.
+     * @param window the window
+     * @param in the dump
+     * @param previous the root of a previously loaded hierarchy, or null
+     * @return the root of the hierarchy, or null if the dump is empty.
+     */
+    static ViewNode parseViewHierarchy(Window window, BufferedReader in, ViewNode previous)
+            throws IOException {
+        Map<String, ViewNode> previousNodes = new HashMap<String, ViewNode>();
+        if (previous != null) {
+            addNodes(previous, previousNodes);
+        }
+        // the property names are only shared by the nodes of one load, so that the names of
+        // views no longer shown are not kept.
+        Map<String, String> propertyNames = new HashMap<String, String>();
+        ViewNode currentNode = null;
+        int currentDepth = -1;
+        String line;
+        while ((line = in.readLine()) != null) {
+            if ("DONE.".equalsIgnoreCase(line)) {
+                break;
+            }
+            int depth = 0;
+            while (line.charAt(depth) == ' ') {
+                depth++;
+            }
+            while (depth <= currentDepth) {
+                currentNode = currentNode.parent;
+                currentDepth--;
+            }
+            currentNode = createNode(window, currentNode, line.substring(depth),
+                    previousNodes, propertyNames);
+            currentDepth = depth;
+        }
+        if (currentNode == null) {
+            return null;
+        }
+        while (currentNode.parent != null) {
+            currentNode = currentNode.parent;
+        }
+        return currentNode;
+    }
+
+    /** Indexes the nodes of a hierarchy by view, in the "name@hashCode" form of the dump. */
+    private static void addNodes(ViewNode node, Map<String, ViewNode> nodes) {
+        nodes.put(node.toString(), node);
+        final int N = node.children.size();
+        for (int i = 0; i < N; i++) {
+            addNodes(node.children.get(i), nodes);
+        }
+    }
+
+    /**
+     * Creates the node of a line of a dump, from the node of the same view in the previous
+     * dump if its properties did not change.
+     */
+    private static ViewNode createNode(Window window, ViewNode parent, String data,
+            Map<String, ViewNode> previousNodes, Map<String, String> propertyNames) {
+        // the line is "name@hashCode properties".
+        int delimIndex = data.indexOf(' ');
+        String view = data.substring(0, delimIndex);
+        String propertyData = data.substring(delimIndex + 1).trim();
+
+        ViewNode previous = previousNodes.get(view);
+        if (previous != null && previous.hasPropertyData(propertyData)) {
+            return new ViewNode(window, parent, previous);
+        }
+
+        int hashIndex = view.indexOf('@');
+        return new ViewNode(window, parent, view.substring(0, hashIndex),
+                view.substring(hashIndex + 1), propertyData, propertyNames);
+    }
+
     public static boolean loadProfileData(Window window, ViewNode viewNode) {
         DeviceConnection connection = null;
         try {
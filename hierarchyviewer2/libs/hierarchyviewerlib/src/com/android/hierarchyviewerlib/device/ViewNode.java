@@ -117,19 +117,99 @@ public class ViewNode {
 
     public int protocolVersion;
 
+    /**
+     * Length and hash of the properties of the view, as dumped by the device, to find out if
+     * they changed in a later dump without keeping the text.
+     */
+    int propertyDataLength;
+    long propertyDataHash;
+
     public ViewNode(Window window, ViewNode parent, String data) {
+        int delimIndex = data.indexOf('@');
+        String name = data.substring(0, delimIndex);
+        data = data.substring(delimIndex + 1);
+        delimIndex = data.indexOf(' ');
+        init(window, parent, name, data.substring(0, delimIndex),
+                data.substring(delimIndex + 1).trim(), new HashMap<String, String>());
+    }
+
+    /**
+     * Creates a node from the parts of its line in a dump of the window.
+     * @param name the class name of the view
+     * @param hashCode the hash code of the view
+     * @param propertyData the properties of the view, as dumped by the device
+     * @param propertyNames the property names of the nodes created so far, so that the nodes
+     * share a single instance of each name
+     */
+    ViewNode(Window window, ViewNode parent, String name, String hashCode, String propertyData,
+            Map<String, String> propertyNames) {
+        init(window, parent, name, hashCode, propertyData, propertyNames);
+    }
+
+    private void init(Window window, ViewNode parent, String name, String hashCode,
+            String propertyData, Map<String, String> propertyNames) {
         this.window = window;
         this.parent = parent;
         index = this.parent == null ? 0 : this.parent.children.size();
         if (this.parent != null) {
             this.parent.children.add(this);
         }
-        int delimIndex = data.indexOf('@');
-        name = data.substring(0, delimIndex);
-        data = data.substring(delimIndex + 1);
-        delimIndex = data.indexOf(' ');
-        hashCode = data.substring(0, delimIndex);
-        loadProperties(data.substring(delimIndex + 1).trim());
+        this.name = name;
+        this.hashCode = hashCode;
+        propertyDataLength = propertyData.length();
+        propertyDataHash = hashPropertyData(propertyData);
+        loadProperties(propertyData, propertyNames);
+
+        measureTime = -1;
+        layoutTime = -1;
+        drawTime = -1;
+    }
+
+    /**
+     * Creates a node for a view whose properties did not change since a previous dump of its
+     * window. The properties of the previous node are copied, so that they don't need to be
+     * parsed again, but its position in the tree, profile data and image are not.
+     */
+    ViewNode(Window window, ViewNode parent, ViewNode previous) {
+        this.window = window;
+        this.parent = parent;
+        index = this.parent == null ? 0 : this.parent.children.size();
+        if (this.parent != null) {
+            this.parent.children.add(this);
+        }
+        name = previous.name;
+        hashCode = previous.hashCode;
+        propertyDataLength = previous.propertyDataLength;
+        propertyDataHash = previous.propertyDataHash;
+        id = previous.id;
+        final int N = previous.properties.size();
+        for (int i = 0; i < N; i++) {
+            Property property = new Property();
+            property.name = previous.properties.get(i).name;
+            property.value = previous.properties.get(i).value;
+            properties.add(property);
+            namedProperties.put(property.name, property);
+        }
+        categories.addAll(previous.categories);
+
+        left = previous.left;
+        top = previous.top;
+        width = previous.width;
+        height = previous.height;
+        scrollX = previous.scrollX;
+        scrollY = previous.scrollY;
+        paddingLeft = previous.paddingLeft;
+        paddingRight = previous.paddingRight;
+        paddingTop = previous.paddingTop;
+        paddingBottom = previous.paddingBottom;
+        marginLeft = previous.marginLeft;
+        marginRight = previous.marginRight;
+        marginTop = previous.marginTop;
+        marginBottom = previous.marginBottom;
+        baseline = previous.baseline;
+        willNotDraw = previous.willNotDraw;
+        hasMargins = previous.hasMargins;
+        hasFocus = previous.hasFocus;
 
         measureTime = -1;
         layoutTime = -1;
@@ -155,13 +235,31 @@ public class ViewNode {
         }
     }
 
-    private void loadProperties(String data) {
+    /**
+     * Returns whether the properties of the view are the given ones, as dumped by the device.
+     */
+    boolean hasPropertyData(String data) {
+        return data.length() == propertyDataLength && hashPropertyData(data) == propertyDataHash;
+    }
+
+    /** Computes the 64-bit FNV-1a hash of the properties of a view. */
+    private static long hashPropertyData(String data) {
+        long hash = 0xcbf29ce484222325L;
+        final int N = data.length();
+        for (int i = 0; i < N; i++) {
+            hash ^= data.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private void loadProperties(String data, Map<String, String> propertyNames) {
         int start = 0;
         boolean stop;
         do {
             int index = data.indexOf('=', start);
             ViewNode.Property property = new ViewNode.Property();
-            property.name = data.substring(start, index);
+            property.name = getPropertyName(data.substring(start, index), propertyNames);
 
             int index2 = data.indexOf(',', index + 1);
             int length = Integer.parseInt(data.substring(index + 1, index2));
@@ -252,6 +350,16 @@ public class ViewNode {
         }
     }
 
+    private static String getPropertyName(String name, Map<String, String> propertyNames) {
+        String shared = propertyNames.get(name);
+        if (shared == null) {
+            // copy the name, so that it does not hold on to the data it was extracted from
+            shared = new String(name);
+            propertyNames.put(shared, shared);
+        }
+        return shared;
+    }
+
     public void setProfileRatings() {
         final int N = children.size();
         if (N > 1) {
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.hierarchyviewerlib.device;
+
+import com.android.hierarchyviewerlib.device.ViewNode.Property;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the loading of a view hierarchy by {@link DeviceBridge}, and the reuse of the nodes of
+ * a previous load.
+ */
+public class DeviceBridgeTest extends TestCase {
+
+    private static ViewNode parse(String dump, ViewNode previous) throws IOException {
+        return DeviceBridge.parseViewHierarchy(null /*window*/,
+                new BufferedReader(new StringReader(dump)), previous);
+    }
+
+    /** Returns the dump line of a view, with its text and position. */
+    private static String view(int depth, String name, String hashCode, String text, int left) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            sb.append(' ');
+        }
+        String leftValue = Integer.toString(left);
+        sb.append(name).append('@').append(hashCode)
+                .append(" mID=5,NO_ID")
+                .append(" layout:mLeft=").append(leftValue.length()).append(',').append(leftValue)
+                .append(" text:mText=").append(text.length()).append(',').append(text)
+                .append(" \n");
+        return sb.toString();
+    }
+
+    private static String dump(String buttonText) {
+        return view(0, "android.widget.FrameLayout", "4100", "", 0)
+                + view(1, "android.widget.LinearLayout", "4200", "", 10)
+                + view(2, "android.widget.TextView", "4300", "Hello, world", 20)
+                + view(2, "android.widget.Button", "4400", buttonText, 30)
+                + "DONE.\n";
+    }
+
+    private static void assertReused(ViewNode previous, ViewNode node) {
+        assertEquals(previous.properties.size(), node.properties.size());
+        for (int i = 0; i < node.properties.size(); i++) {
+            Property property = node.properties.get(i);
+            Property previousProperty = previous.properties.get(i);
+            // the value was not parsed again, but the property is not shared.
+            assertSame(previousProperty.value, property.value);
+            assertNotSame(previousProperty, property);
+            assertSame(property, node.namedProperties.get(property.name));
+        }
+        assertNotSame(previous.properties, node.properties);
+        assertNotSame(previous.namedProperties, node.namedProperties);
+        assertNotSame(previous.categories, node.categories);
+        assertEquals(previous.categories, node.categories);
+    }
+
+    private static void assertParsed(ViewNode previous, ViewNode node) {
+        for (Property property : node.properties) {
+            Property previousProperty = previous.namedProperties.get(property.name);
+            assertNotSame(previousProperty.value, property.value);
+        }
+    }
+
+    public void testParse() throws Exception {
+        ViewNode root = parse(dump("OK"), null /*previous*/);
+        assertEquals("android.widget.FrameLayout", root.name);
+        assertEquals("4100", root.hashCode);
+        assertEquals(1, root.children.size());
+
+        ViewNode layout = root.children.get(0);
+        assertEquals(2, layout.children.size());
+        assertEquals(10, layout.left);
+
+        ViewNode button = layout.children.get(1);
+        assertSame(layout, button.parent);
+        assertEquals(1, button.index);
+        assertEquals("NO_ID", button.id);
+        assertEquals(30, button.left);
+        assertEquals("OK", button.namedProperties.get("text:mText").value);
+        assertTrue(button.categories.contains("text"));
+        assertTrue(button.categories.contains(ViewNode.MISCELLANIOUS));
+
+        // the nodes share a single instance of each property name.
+        assertSame(layout.properties.get(0).name, button.properties.get(0).name);
+    }
+
+    public void testParse_sameDump() throws Exception {
+        ViewNode first = parse(dump("OK"), null /*previous*/);
+        ViewNode second = parse(dump("OK"), first);
+
+        assertNotSame(first, second);
+        assertReused(first, second);
+        ViewNode layout = second.children.get(0);
+        assertSame(second, layout.parent);
+        assertReused(first.children.get(0), layout);
+        assertEquals(2, layout.children.size());
+        for (int i = 0; i < layout.children.size(); i++) {
+            ViewNode child = layout.children.get(i);
+            assertSame(layout, child.parent);
+            assertEquals(i, child.index);
+            assertReused(first.children.get(0).children.get(i), child);
+        }
+        assertEquals(30, layout.children.get(1).left);
+    }
+
+    public void testParse_changedView() throws Exception {
+        ViewNode first = parse(dump("OK"), null /*previous*/);
+        ViewNode second = parse(dump("Cancel"), first);
+
+        ViewNode previousLayout = first.children.get(0);
+        ViewNode layout = second.children.get(0);
+        assertReused(first, second);
+        assertReused(previousLayout, layout);
+        assertReused(previousLayout.children.get(0), layout.children.get(0));
+
+        ViewNode button = layout.children.get(1);
+        assertParsed(previousLayout.children.get(1), button);
+        assertEquals("Cancel", button.namedProperties.get("text:mText").value);
+        assertEquals("OK",
+                previousLayout.children.get(1).namedProperties.get("text:mText").value);
+    }
+
+    public void testParse_previousTreeUnchanged() throws Exception {
+        ViewNode first = parse(dump("OK"), null /*previous*/);
+        ViewNode second = parse(dump("OK"), first);
+
+        ViewNode previousText = first.children.get(0).children.get(0);
+        ViewNode text = second.children.get(0).children.get(0);
+        text.namedProperties.get("text:mText").value = "Goodbye";
+        Property added = new Property();
+        added.name = "added:mValue";
+        added.value = "1";
+        text.properties.add(added);
+        text.namedProperties.put(added.name, added);
+        text.categories.add("added");
+
+        assertEquals("Hello, world", previousText.namedProperties.get("text:mText").value);
+        assertEquals(3, previousText.properties.size());
+        assertNull(previousText.namedProperties.get(added.name));
+        assertFalse(previousText.categories.contains("added"));
+    }
+}
@@ -24,6 +24,7 @@ import com.android.chimpchat.core.By;
 import com.android.chimpchat.core.IChimpView;
 import com.android.chimpchat.core.IChimpDevice;
 import com.android.chimpchat.core.IChimpImage;
+import com.android.chimpchat.core.IChimpRecording;
 import com.android.chimpchat.core.TouchPressType;
 import com.android.chimpchat.hierarchyviewer.HierarchyViewer;
 
@@ -90,6 +91,26 @@ public class MonkeyDevice extends PyObject implements ClassDictInit {
         return new MonkeyImage(image);
     }
 
+    @MonkeyRunnerExported(doc = "Starts recording the screen into a directory, in the " +
+            "background. The directory holds a PNG image for each distinct frame, and an " +
+            "index.txt file with the time in milliseconds and the image of each frame.",
+            args = {"path", "fps"},
+            argDocs = {"The directory to write the recording into. It is created if needed.",
+                       "The target number of frames per second. Frames that cannot be written " +
+                       "fast enough are dropped. The default is 5."},
+            returns = "A MonkeyRecording object, to stop the recording, or None if the " +
+                    "recording could not be started")
+    public MonkeyRecording startRecording(PyObject[] args, String[] kws) {
+        ArgParser ap = JythonUtils.createArgParser(args, kws);
+        Preconditions.checkNotNull(ap);
+
+        String path = ap.getString(0);
+        int fps = ap.getInt(1, 5);
+
+        IChimpRecording recording = impl.startRecording(path, fps);
+        return recording == null ? null : new MonkeyRecording(recording);
+    }
+
     @MonkeyRunnerExported(doc = "Given the name of a variable on the device, " +
             "returns the variable's value",
             args = {"key"},
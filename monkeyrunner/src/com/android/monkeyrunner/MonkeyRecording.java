@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.monkeyrunner;
+
+import com.google.common.base.Preconditions;
+
+import com.android.chimpchat.core.IChimpRecording;
+
+import com.android.monkeyrunner.doc.MonkeyRunnerExported;
+
+import org.python.core.ArgParser;
+import org.python.core.ClassDictInit;
+import org.python.core.PyInteger;
+import org.python.core.PyObject;
+
+/*
+ * Jython wrapper for the ChimpRecording class
+ */
+@MonkeyRunnerExported(doc = "A recording of the screen of a device in progress.")
+public class MonkeyRecording extends PyObject implements ClassDictInit {
+    private IChimpRecording impl;
+
+    public static void classDictInit(PyObject dict) {
+        JythonUtils.convertDocAnnotationsForClass(MonkeyRecording.class, dict);
+    }
+
+    public MonkeyRecording(IChimpRecording impl) {
+        this.impl = impl;
+    }
+
+    public IChimpRecording getImpl() {
+        return impl;
+    }
+
+    @MonkeyRunnerExported(doc = "Stops the recording, and waits until all the captured " +
+            "frames are written.")
+    public void stop(PyObject[] args, String[] kws) {
+        ArgParser ap = JythonUtils.createArgParser(args, kws);
+        Preconditions.checkNotNull(ap);
+        impl.stop();
+    }
+
+    @MonkeyRunnerExported(doc = "Returns the number of frames recorded so far",
+            returns = "The number of frames in the index of the recording")
+    public PyInteger getFrameCount(PyObject[] args, String[] kws) {
+        ArgParser ap = JythonUtils.createArgParser(args, kws);
+        Preconditions.checkNotNull(ap);
+        return new PyInteger(impl.getFrameCount());
+    }
+
+    @MonkeyRunnerExported(doc = "Returns the number of distinct frames written so far",
+            returns = "The number of images of the recording")
+    public PyInteger getImageCount(PyObject[] args, String[] kws) {
+        ArgParser ap = JythonUtils.createArgParser(args, kws);
+        Preconditions.checkNotNull(ap);
+        return new PyInteger(impl.getImageCount());
+    }
+
+    @MonkeyRunnerExported(doc = "Returns the number of frames dropped because they could not " +
+            "be written fast enough",
+            returns = "The number of dropped frames")
+    public PyInteger getDroppedFrameCount(PyObject[] args, String[] kws) {
+        ArgParser ap = JythonUtils.createArgParser(args, kws);
+        Preconditions.checkNotNull(ap);
+        return new PyInteger(impl.getDroppedFrameCount());
+    }
+}
@@ -25,6 +25,7 @@ import com.android.ddmlib.Log.ILogOutput;
 import com.android.ddmlib.Log.LogLevel;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.io.File;
 import java.io.IOException;
 
@@ -230,15 +231,7 @@ public class Screenshot {
         BufferedImage image = new BufferedImage(rawImage.width, rawImage.height,
                 BufferedImage.TYPE_INT_ARGB);
 
-        int index = 0;
-        int IndexInc = rawImage.bpp >> 3;
-        for (int y = 0 ; y < rawImage.height ; y++) {
-            for (int x = 0 ; x < rawImage.width ; x++) {
-                int value = rawImage.getARGB(index);
-                index += IndexInc;
-                image.setRGB(x, y, value);
-            }
-        }
+        rawImage.getARGB(((DataBufferInt) image.getRaster().getDataBuffer()).getData());
 
         if (!ImageIO.write(image, "png", new File(filepath))) {
             throw new IOException("Failed to find png writer");
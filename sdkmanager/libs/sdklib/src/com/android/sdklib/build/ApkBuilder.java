@@ -24,7 +24,6 @@ import com.android.sdklib.internal.build.SignedJarBuilder;
 import com.android.sdklib.internal.build.SignedJarBuilder.IZipEntryFilter;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -81,7 +80,7 @@ public final class ApkBuilder implements IArchiveBuilder {
     /**
      * Custom {@link IZipEntryFilter} to filter out everything that is not a standard java
      * resources, and also record whether the zip file contains native libraries.
-     * <p/>Used in {@link SignedJarBuilder#writeZip(java.io.InputStream, IZipEntryFilter)} when
+     * <p/>Used in {@link SignedJarBuilder#writeZip(File, IZipEntryFilter)} when
      * we only want the java resources from external jars.
      */
     private final class JavaAndNativeResourceFilter implements IZipEntryFilter {
@@ -156,6 +155,9 @@ public final class ApkBuilder implements IArchiveBuilder {
     }
 
     private File mApkFile;
+    /** The file the APK is written to before it replaces the previous APK, if any. */
+    private File mTmpApkFile;
+    private File mIndexFile;
     private File mResFile;
     private File mDexFile;
     private PrintStream mVerboseStream;
@@ -386,12 +388,48 @@ public final class ApkBuilder implements IArchiveBuilder {
      */
     public ApkBuilder(File apkFile, File resFile, File dexFile, String debugStoreOsPath,
             final PrintStream verboseStream) throws ApkCreationException {
+        this(apkFile, resFile, dexFile, debugStoreOsPath, null /*indexFile*/, verboseStream);
+    }
+
+    /**
+     * Creates a new instance that can package the APK incrementally.
+     *
+     * This creates a new builder that will create the specified output file, using the two
+     * mandatory given input files.
+     *
+     * If an index file is provided, the builder saves in it the source of each entry of the
+     * APK. When the APK is built again with the same index file, the entries whose source did
+     * not change are copied from the previous APK, with their digest, instead of being
+     * compressed and digested again. The new APK is written to a temporary file which replaces
+     * the previous APK when it is sealed. If the index or the previous APK cannot be read,
+     * the whole APK is built again.
+     *
+     * An optional debug keystore can be provided. If set, it is expected that the store password
+     * is 'android' and the key alias and password are 'androiddebugkey' and 'android'.
+     *
+     * An optional {@link PrintStream} can also be provided for verbose output. If null, there will
+     * be no output.
+     *
+     * @param apkFile the file to create
+     * @param resFile the file representing the packaged resource file.
+     * @param dexFile the file representing the dex file. This can be null for apk with no code.
+     * @param debugStoreOsPath the OS path to the debug keystore, if needed or null.
+     * @param indexFile the index of the entries of the APK. This can be null to always build
+     *                  the whole APK.
+     * @param verboseStream the stream to which verbose output should go. If null, verbose mode
+     *                      is not enabled.
+     * @throws ApkCreationException
+     */
+    public ApkBuilder(File apkFile, File resFile, File dexFile, String debugStoreOsPath,
+            File indexFile, final PrintStream verboseStream) throws ApkCreationException {
 
         SigningInfo info = getDebugKey(debugStoreOsPath, verboseStream);
         if (info != null) {
-            init(apkFile, resFile, dexFile, info.key, info.certificate, verboseStream);
+            init(apkFile, resFile, dexFile, info.key, info.certificate, indexFile,
+                    verboseStream);
         } else {
-            init(apkFile, resFile, dexFile, null /*key*/, null/*certificate*/, verboseStream);
+            init(apkFile, resFile, dexFile, null /*key*/, null/*certificate*/, indexFile,
+                    verboseStream);
         }
     }
 
@@ -417,7 +455,37 @@ public final class ApkBuilder implements IArchiveBuilder {
      */
     public ApkBuilder(File apkFile, File resFile, File dexFile, PrivateKey key,
             X509Certificate certificate, PrintStream verboseStream) throws ApkCreationException {
-        init(apkFile, resFile, dexFile, key, certificate, verboseStream);
+        init(apkFile, resFile, dexFile, key, certificate, null /*indexFile*/, verboseStream);
+    }
+
+    /**
+     * Creates a new instance that can package the APK incrementally.
+     *
+     * This creates a new builder that will create the specified output file, using the two
+     * mandatory given input files.
+     *
+     * Optional {@link PrivateKey} and {@link X509Certificate} can be provided to sign the APK.
+     *
+     * An optional {@link PrintStream} can also be provided for verbose output. If null, there will
+     * be no output.
+     *
+     * @param apkFile the file to create
+     * @param resFile the file representing the packaged resource file.
+     * @param dexFile the file representing the dex file. This can be null for apk with no code.
+     * @param key the private key used to sign the package. Can be null.
+     * @param certificate the certificate used to sign the package. Can be null.
+     * @param indexFile the index of the entries of the APK. This can be null to always build
+     *                  the whole APK.
+     * @param verboseStream the stream to which verbose output should go. If null, verbose mode
+     *                      is not enabled.
+     * @throws ApkCreationException
+     *
+     * @see #ApkBuilder(File, File, File, String, File, PrintStream)
+     */
+    public ApkBuilder(File apkFile, File resFile, File dexFile, PrivateKey key,
+            X509Certificate certificate, File indexFile, PrintStream verboseStream)
+            throws ApkCreationException {
+        init(apkFile, resFile, dexFile, key, certificate, indexFile, verboseStream);
     }
 
 
@@ -427,9 +495,12 @@ public final class ApkBuilder implements IArchiveBuilder {
      * @see #ApkBuilder(File, File, File, String, PrintStream)
      * @see #ApkBuilder(String, String, String, String, PrintStream)
      * @see #ApkBuilder(File, File, File, PrivateKey, X509Certificate, PrintStream)
+     * @see #ApkBuilder(File, File, File, String, File, PrintStream)
+     * @see #ApkBuilder(File, File, File, PrivateKey, X509Certificate, File, PrintStream)
      */
     private void init(File apkFile, File resFile, File dexFile, PrivateKey key,
-            X509Certificate certificate, PrintStream verboseStream) throws ApkCreationException {
+            X509Certificate certificate, File indexFile, PrintStream verboseStream)
+            throws ApkCreationException {
 
         try {
             checkOutputFile(mApkFile = apkFile);
@@ -440,13 +511,30 @@ public final class ApkBuilder implements IArchiveBuilder {
                 mDexFile = null;
             }
             mVerboseStream = verboseStream;
+            mIndexFile = indexFile;
+
+            // keep the previous APK until the new one is sealed, so that its entries can be
+            // reused.
+            File outputFile = mApkFile;
+            if (mIndexFile != null && mApkFile.length() > 0) {
+                outputFile = mTmpApkFile = File.createTempFile(mApkFile.getName(), ".tmp",
+                        mApkFile.getAbsoluteFile().getParentFile());
+            }
 
             mBuilder = new SignedJarBuilder(
-                    new FileOutputStream(mApkFile, false /* append */), key,
+                    new FileOutputStream(outputFile, false /* append */), key,
                     certificate);
 
             verbosePrintln("Packaging %s", mApkFile.getName());
 
+            if (mTmpApkFile != null) {
+                int count = mBuilder.setPreviousJar(mApkFile, mIndexFile);
+                if (count > 0) {
+                    verbosePrintln("Previous %1$s: %2$d indexed entries", mApkFile.getName(),
+                            count);
+                }
+            }
+
             // add the resources
             addZipFile(mResFile);
 
@@ -456,10 +544,10 @@ public final class ApkBuilder implements IArchiveBuilder {
             }
 
         } catch (ApkCreationException e) {
-            mBuilder.cleanUp();
+            cleanUp();
             throw e;
         } catch (Exception e) {
-            mBuilder.cleanUp();
+            cleanUp();
             throw new ApkCreationException(e);
         }
     }
@@ -481,6 +569,26 @@ public final class ApkBuilder implements IArchiveBuilder {
         mDebugMode = debugMode;
     }
 
+    /**
+     * Sets the number of threads compressing and digesting the entries added after this call.
+     * The default is 1, and the entries are then processed by the thread using the builder.
+     * @param threadCount the number of threads.
+     * @throws ApkCreationException if an error occurred
+     * @throws SealedApkException if the APK is already sealed.
+     */
+    public void setParallelism(int threadCount) throws ApkCreationException, SealedApkException {
+        if (mIsSealed) {
+            throw new SealedApkException("APK is already sealed");
+        }
+
+        try {
+            mBuilder.setParallelism(threadCount);
+        } catch (Exception e) {
+            cleanUp();
+            throw new ApkCreationException(e, "Failed to set the number of threads");
+        }
+    }
+
     /**
      * Adds a file to the APK at a given path
      * @param file the file to add
@@ -500,10 +608,10 @@ public final class ApkBuilder implements IArchiveBuilder {
         try {
             doAddFile(file, archivePath);
         } catch (DuplicateFileException e) {
-            mBuilder.cleanUp();
+            cleanUp();
             throw e;
         } catch (Exception e) {
-            mBuilder.cleanUp();
+            cleanUp();
             throw new ApkCreationException(e, "Failed to add %s", file);
         }
     }
@@ -530,13 +638,12 @@ public final class ApkBuilder implements IArchiveBuilder {
             mNullFilter.reset(zipFile);
 
             // ask the builder to add the content of the file.
-            FileInputStream fis = new FileInputStream(zipFile);
-            mBuilder.writeZip(fis, mNullFilter);
+            mBuilder.writeZip(zipFile, mNullFilter);
         } catch (DuplicateFileException e) {
-            mBuilder.cleanUp();
+            cleanUp();
             throw e;
         } catch (Exception e) {
-            mBuilder.cleanUp();
+            cleanUp();
             throw new ApkCreationException(e, "Failed to add %s", zipFile);
         }
     }
@@ -565,17 +672,16 @@ public final class ApkBuilder implements IArchiveBuilder {
 
             // ask the builder to add the content of the file, filtered to only let through
             // the java resources.
-            FileInputStream fis = new FileInputStream(jarFile);
-            mBuilder.writeZip(fis, mFilter);
+            mBuilder.writeZip(jarFile, mFilter);
 
             // check if native libraries were found in the external library. This should
             // constitutes an error or warning depending on if they are in lib/
             return new JarStatusImpl(mFilter.getNativeLibs(), mFilter.getNativeLibsConflict());
         } catch (DuplicateFileException e) {
-            mBuilder.cleanUp();
+            cleanUp();
             throw e;
         } catch (Exception e) {
-            mBuilder.cleanUp();
+            cleanUp();
             throw new ApkCreationException(e, "Failed to add %s", jarFile);
         }
     }
@@ -684,7 +790,7 @@ public final class ApkBuilder implements IArchiveBuilder {
                                 try {
                                     doAddFile(lib, path);
                                 } catch (IOException e) {
-                                    mBuilder.cleanUp();
+                                    cleanUp();
                                     throw new ApkCreationException(e, "Failed to add %s", lib);
                                 }
                             }
@@ -705,7 +811,7 @@ public final class ApkBuilder implements IArchiveBuilder {
             try {
                 doAddFile(entry.mFile, entry.mPath);
             } catch (IOException e) {
-                mBuilder.cleanUp();
+                cleanUp();
                 throw new ApkCreationException(e, "Failed to add %s", entry.mFile);
             }
         }
@@ -782,12 +888,42 @@ public final class ApkBuilder implements IArchiveBuilder {
         // close and sign the application package.
         try {
             mBuilder.close();
+
+            // replace the previous APK.
+            if (mTmpApkFile != null) {
+                if (mApkFile.delete() == false || mTmpApkFile.renameTo(mApkFile) == false) {
+                    throw new ApkCreationException("Failed to replace %s", mApkFile);
+                }
+                mTmpApkFile = null;
+            }
+
+            if (mIndexFile != null) {
+                mBuilder.writeIndex(mIndexFile);
+                verbosePrintln("Reused %1$d entries", mBuilder.getReusedEntryCount());
+            }
+
             mIsSealed = true;
+        } catch (ApkCreationException e) {
+            throw e;
         } catch (Exception e) {
             throw new ApkCreationException(e, "Failed to seal APK");
         } finally {
+            cleanUp();
+        }
+    }
+
+    /**
+     * Cleans up the builder after an error, or after the APK is sealed.
+     */
+    private void cleanUp() {
+        if (mBuilder != null) {
             mBuilder.cleanUp();
         }
+
+        if (mTmpApkFile != null) {
+            mTmpApkFile.delete();
+            mTmpApkFile = null;
+        }
     }
 
     /**
@@ -433,19 +433,23 @@ public class JarListSanitizer {
      * @return the sha1 value
      * @throws Sha1Exception if the sha1 value cannot be computed.
      */
-    private static String getSha1(File f) throws Sha1Exception {
+    public static String getSha1(File f) throws Sha1Exception {
         synchronized (sBuffer) {
             try {
                 MessageDigest md = MessageDigest.getInstance("SHA-1");
 
                 FileInputStream fis = new FileInputStream(f);
-                while (true) {
-                    int length = fis.read(sBuffer);
-                    if (length > 0) {
-                        md.update(sBuffer, 0, length);
-                    } else {
-                        break;
+                try {
+                    while (true) {
+                        int length = fis.read(sBuffer);
+                        if (length > 0) {
+                            md.update(sBuffer, 0, length);
+                        } else {
+                            break;
+                        }
                     }
+                } finally {
+                    fis.close();
                 }
 
                 return byteArray2Hex(md.digest());
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.sdklib.internal.build;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The index of the entries of a jar written by {@link SignedJarBuilder}, recording where the
+ * content of each entry came from.
+ * <p/>The index is saved next to the jar so that a later build can reuse the entries whose
+ * source did not change. It is a text file with one line per entry, whose fields are
+ * separated by tabs: the name of the entry, the path of its source, the modification time
+ * and size of the source, the size and CRC-32 of the content and its SHA1 digest.
+ */
+final class JarIndex {
+    private static final String HEADER = "# jar index 2"; //$NON-NLS-1$
+    private static final String NO_DIGEST = "-"; //$NON-NLS-1$
+
+    /** The source of an entry. */
+    static final class Record {
+        /** The OS path of the file or archive the entry was read from. */
+        final String source;
+        /** The modification time of the source file or archive. */
+        final long timestamp;
+        /** The size of the source file or archive. */
+        final long sourceSize;
+        /** The size of the content of the entry. */
+        final long size;
+        /** The CRC-32 of the content of the entry. */
+        final long crc;
+        /** The base64 encoded SHA1 digest of the content, or <code>null</code>. */
+        final String digest;
+
+        Record(String source, long timestamp, long sourceSize, long size, long crc,
+                String digest) {
+            this.source = source;
+            this.timestamp = timestamp;
+            this.sourceSize = sourceSize;
+            this.size = size;
+            this.crc = crc;
+            this.digest = digest;
+        }
+    }
+
+    private final Map<String, Record> mRecords = new LinkedHashMap<String, Record>();
+
+    Record get(String name) {
+        return mRecords.get(name);
+    }
+
+    void put(String name, Record record) {
+        mRecords.put(name, record);
+    }
+
+    int size() {
+        return mRecords.size();
+    }
+
+    /**
+     * Loads an index.
+     * @param file the index file.
+     * @return the index, or <code>null</code> if the file does not exist or is not a valid
+     * index.
+     */
+    static JarIndex load(File file) {
+        if (file.isFile() == false) {
+            return null;
+        }
+
+        JarIndex index = new JarIndex();
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file),
+                    "UTF-8")); //$NON-NLS-1$
+            if (HEADER.equals(reader.readLine()) == false) {
+                return null;
+            }
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", -1); //$NON-NLS-1$
+                if (fields.length != 7) {
+                    return null;
+                }
+
+                index.put(fields[0], new Record(
+                        fields[1],
+                        Long.parseLong(fields[2]),
+                        Long.parseLong(fields[3]),
+                        Long.parseLong(fields[4]),
+                        Long.parseLong(fields[5], 16),
+                        NO_DIGEST.equals(fields[6]) ? null : fields[6]));
+            }
+        } catch (IOException e) {
+            return null;
+        } catch (NumberFormatException e) {
+            return null;
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    // pass
+                }
+            }
+        }
+
+        return index;
+    }
+
+    /**
+     * Saves the index.
+     * @param file the index file.
+     * @throws IOException
+     */
+    void save(File file) throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8"); //$NON-NLS-1$
+        try {
+            writer.write(HEADER);
+            writer.write('\n');
+            for (Map.Entry<String, Record> entry : mRecords.entrySet()) {
+                Record record = entry.getValue();
+                writer.write(String.format(
+                        "%1$s\t%2$s\t%3$d\t%4$d\t%5$d\t%6$x\t%7$s\n", //$NON-NLS-1$
+                        entry.getKey(), record.source, record.timestamp, record.sourceSize,
+                        record.size, record.crc,
+                        record.digest != null ? record.digest : NO_DIGEST));
+            }
+        } finally {
+            writer.close();
+        }
+    }
+}
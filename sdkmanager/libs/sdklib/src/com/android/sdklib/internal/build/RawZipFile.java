@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.sdklib.internal.build;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipException;
+
+/**
+ * Read access to the entries of a zip file through its central directory, giving the data of
+ * each entry as it is stored in the file, without decompressing it.
+ * <p/>Zip64 archives are not supported.
+ */
+final class RawZipFile {
+    static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    static final int END_SIGNATURE = 0x06054b50;
+
+    static final int LOCAL_HEADER_SIZE = 30;
+    static final int CENTRAL_HEADER_SIZE = 46;
+    static final int END_SIZE = 22;
+
+    /** General purpose flag of encrypted entries. */
+    static final int FLAG_ENCRYPTED = 0x0001;
+    /** General purpose flag of entries whose name is encoded in UTF-8. */
+    static final int FLAG_UTF8 = 0x0800;
+
+    /** An entry of the central directory. */
+    static final class Entry {
+        final String name;
+        final int flags;
+        final int method;
+        /** The modification time and date, in MS-DOS format. */
+        final int dosTime;
+        final long crc;
+        final long compressedSize;
+        final long size;
+        final long localHeaderOffset;
+
+        Entry(String name, int flags, int method, int dosTime, long crc, long compressedSize,
+                long size, long localHeaderOffset) {
+            this.name = name;
+            this.flags = flags;
+            this.method = method;
+            this.dosTime = dosTime;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+
+        boolean isDirectory() {
+            return name.endsWith("/");
+        }
+    }
+
+    private final RandomAccessFile mFile;
+    private final List<Entry> mEntries;
+
+    /**
+     * Opens a zip file and reads its central directory.
+     * @param file the zip file
+     * @throws ZipException if the file is not a zip file, or uses unsupported features.
+     * @throws IOException
+     */
+    RawZipFile(File file) throws IOException {
+        mFile = new RandomAccessFile(file, "r");
+        try {
+            mEntries = Collections.unmodifiableList(readCentralDirectory());
+        } catch (IOException e) {
+            mFile.close();
+            throw e;
+        }
+    }
+
+    /** Returns the entries, in the order of the central directory. */
+    List<Entry> getEntries() {
+        return mEntries;
+    }
+
+    /**
+     * Returns a stream on the stored data of an entry. Only one stream can be read at a time.
+     */
+    InputStream getRawInputStream(Entry entry) throws IOException {
+        byte[] header = new byte[LOCAL_HEADER_SIZE];
+        mFile.seek(entry.localHeaderOffset);
+        mFile.readFully(header);
+        if (getInt(header, 0) != LOCAL_HEADER_SIGNATURE) {
+            throw new ZipException("Invalid local header for " + entry.name);
+        }
+
+        long start = entry.localHeaderOffset + LOCAL_HEADER_SIZE + getShort(header, 26)
+                + getShort(header, 28);
+        if (start + entry.compressedSize > mFile.length()) {
+            throw new ZipException("Truncated entry " + entry.name);
+        }
+
+        mFile.seek(start);
+        final long end = start + entry.compressedSize;
+        return new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                long remaining = end - mFile.getFilePointer();
+                if (remaining <= 0) {
+                    return -1;
+                }
+                return mFile.read(b, off, (int) Math.min(len, remaining));
+            }
+        };
+    }
+
+    void close() throws IOException {
+        mFile.close();
+    }
+
+    private List<Entry> readCentralDirectory() throws IOException {
+        // the end of central directory record is followed by a comment of up to 64k.
+        long length = mFile.length();
+        int tailSize = (int) Math.min(length, END_SIZE + 0xFFFF);
+        byte[] tail = new byte[tailSize];
+        mFile.seek(length - tailSize);
+        mFile.readFully(tail);
+
+        int end = -1;
+        for (int i = tailSize - END_SIZE; i >= 0; i--) {
+            if (getInt(tail, i) == END_SIGNATURE
+                    && i + END_SIZE + getShort(tail, i + 20) == tailSize) {
+                end = i;
+                break;
+            }
+        }
+        if (end == -1) {
+            throw new ZipException("No end of central directory record");
+        }
+
+        int count = getShort(tail, end + 10);
+        long size = getInt(tail, end + 12) & 0xFFFFFFFFL;
+        long offset = getInt(tail, end + 16) & 0xFFFFFFFFL;
+        if (count == 0xFFFF || size == 0xFFFFFFFFL || offset == 0xFFFFFFFFL) {
+            throw new ZipException("Zip64 archives are not supported");
+        }
+        if (offset + size > length - tailSize + end) {
+            throw new ZipException("Invalid central directory");
+        }
+
+        byte[] directory = new byte[(int) size];
+        mFile.seek(offset);
+        mFile.readFully(directory);
+
+        List<Entry> entries = new ArrayList<Entry>(count);
+        int pos = 0;
+        for (int i = 0; i < count; i++) {
+            if (pos + CENTRAL_HEADER_SIZE > directory.length
+                    || getInt(directory, pos) != CENTRAL_HEADER_SIGNATURE) {
+                throw new ZipException("Invalid central directory");
+            }
+            int nameLength = getShort(directory, pos + 28);
+            int extraLength = getShort(directory, pos + 30);
+            int commentLength = getShort(directory, pos + 32);
+            if (pos + CENTRAL_HEADER_SIZE + nameLength > directory.length) {
+                throw new ZipException("Invalid central directory");
+            }
+
+            entries.add(new Entry(
+                    new String(directory, pos + CENTRAL_HEADER_SIZE, nameLength, "UTF-8"),
+                    getShort(directory, pos + 8),
+                    getShort(directory, pos + 10),
+                    getInt(directory, pos + 12),
+                    getInt(directory, pos + 16) & 0xFFFFFFFFL,
+                    getInt(directory, pos + 20) & 0xFFFFFFFFL,
+                    getInt(directory, pos + 24) & 0xFFFFFFFFL,
+                    getInt(directory, pos + 42) & 0xFFFFFFFFL));
+
+            pos += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+        }
+
+        return entries;
+    }
+
+    private static int getShort(byte[] b, int off) {
+        return (b[off] & 0xFF) | (b[off + 1] & 0xFF) << 8;
+    }
+
+    private static int getInt(byte[] b, int off) {
+        return getShort(b, off) | getShort(b, off + 2) << 16;
+    }
+}
@@ -0,0 +1,363 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.sdklib.internal.build;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * A zip output stream that can also copy entries that are already compressed, as they are
+ * stored in another zip file, without decompressing and compressing them again.
+ * <p/>The content of an entry is written with the <code>write</code> methods between
+ * {@link #putNextEntry(String, long, boolean)} or
+ * {@link #putRawEntry(String, int, int, long, long, long)} and {@link #closeEntry()}.
+ * <p/>Zip64 archives are not supported.
+ */
+final class RawZipOutputStream extends OutputStream {
+    private static final int DATA_DESCRIPTOR_SIGNATURE = 0x08074b50;
+    /** General purpose flag of entries followed by a data descriptor. */
+    private static final int FLAG_DATA_DESCRIPTOR = 0x0008;
+    private static final int VERSION = 20;
+
+    /** An entry, as recorded in the central directory. */
+    private static final class Entry {
+        byte[] name;
+        int flags;
+        int method;
+        int dosTime;
+        long crc;
+        long compressedSize;
+        long size;
+        long offset;
+        boolean raw;
+    }
+
+    private final OutputStream mOut;
+    private final Deflater mDeflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private final CRC32 mCrc = new CRC32();
+    private final byte[] mDeflateBuffer = new byte[8192];
+    private final byte[] mHeader = new byte[RawZipFile.CENTRAL_HEADER_SIZE];
+
+    private final List<Entry> mEntries = new ArrayList<Entry>();
+    private final Set<String> mNames = new HashSet<String>();
+
+    /** The number of bytes written to the output. */
+    private long mWritten;
+
+    private Entry mCurrent;
+    /** The data of the current entry, if it is stored. */
+    private ByteArrayOutputStream mStoredData;
+    /** The number of bytes written for the current entry, if it is copied. */
+    private long mRawCount;
+
+    RawZipOutputStream(OutputStream out) {
+        mOut = out;
+    }
+
+    /** Sets the compression level of the next compressed entries. */
+    void setLevel(int level) {
+        mDeflater.setLevel(level);
+    }
+
+    /**
+     * Starts writing a new entry.
+     * @param name the name of the entry
+     * @param time the modification time of the entry, or -1 to use the current time
+     * @param stored whether the entry is stored rather than compressed
+     */
+    void putNextEntry(String name, long time, boolean stored) throws IOException {
+        Entry entry = createEntry(name);
+        entry.method = stored ? ZipEntry.STORED : ZipEntry.DEFLATED;
+        entry.dosTime = toDosTime(time == -1 ? System.currentTimeMillis() : time);
+
+        if (stored) {
+            // the size and crc are written before the data, so the data is kept until the end.
+            mStoredData = new ByteArrayOutputStream();
+        } else {
+            entry.flags |= FLAG_DATA_DESCRIPTOR;
+            writeLocalHeader(entry);
+        }
+        mCrc.reset();
+        mCurrent = entry;
+    }
+
+    /**
+     * Starts copying an entry as it is stored in another zip file. Exactly
+     * <var>compressedSize</var> bytes of stored data must then be written.
+     * @param name the name of the entry
+     * @param method the compression method of the entry
+     * @param dosTime the modification time of the entry, in MS-DOS format
+     * @param crc the CRC-32 of the uncompressed data
+     * @param compressedSize the size of the stored data
+     * @param size the size of the uncompressed data
+     */
+    void putRawEntry(String name, int method, int dosTime, long crc, long compressedSize,
+            long size) throws IOException {
+        Entry entry = createEntry(name);
+        entry.method = method;
+        entry.dosTime = dosTime;
+        entry.crc = crc;
+        entry.compressedSize = compressedSize;
+        entry.size = size;
+        entry.raw = true;
+
+        writeLocalHeader(entry);
+        mCurrent = entry;
+    }
+
+    /**
+     * Writes an entry whose content was already compressed with a raw {@link Deflater} at the
+     * level of this stream. The entry is written exactly as if its content was written
+     * after {@link #putNextEntry(String, long, boolean)}.
+     * @param name the name of the entry
+     * @param time the modification time of the entry, or -1 to use the current time
+     * @param crc the CRC-32 of the uncompressed data
+     * @param size the size of the uncompressed data
+     * @param data the compressed data
+     */
+    void writeDeflatedEntry(String name, long time, long crc, long size, byte[] data)
+            throws IOException {
+        Entry entry = createEntry(name);
+        entry.method = ZipEntry.DEFLATED;
+        entry.dosTime = toDosTime(time == -1 ? System.currentTimeMillis() : time);
+        entry.flags |= FLAG_DATA_DESCRIPTOR;
+        writeLocalHeader(entry);
+
+        writeOutput(data, 0, data.length);
+        entry.crc = crc;
+        entry.compressedSize = data.length;
+        entry.size = size;
+        writeDataDescriptor(entry);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (mCurrent == null) {
+            throw new ZipException("No current entry");
+        }
+
+        if (mCurrent.raw) {
+            writeOutput(b, off, len);
+            mRawCount += len;
+        } else if (mStoredData != null) {
+            mCrc.update(b, off, len);
+            mStoredData.write(b, off, len);
+        } else {
+            mCrc.update(b, off, len);
+            mCurrent.size += len;
+            mDeflater.setInput(b, off, len);
+            while (mDeflater.needsInput() == false) {
+                deflate();
+            }
+        }
+    }
+
+    /** Finishes writing the current entry, if any. */
+    void closeEntry() throws IOException {
+        Entry entry = mCurrent;
+        if (entry == null) {
+            return;
+        }
+
+        if (entry.raw) {
+            long count = mRawCount;
+            mRawCount = 0;
+            if (count != entry.compressedSize) {
+                throw new ZipException(String.format(
+                        "Invalid size for %1$s: expected %2$d bytes but got %3$d",
+                        new String(entry.name, "UTF-8"), entry.compressedSize, count));
+            }
+        } else if (mStoredData != null) {
+            byte[] data = mStoredData.toByteArray();
+            mStoredData = null;
+            entry.crc = mCrc.getValue();
+            entry.size = entry.compressedSize = data.length;
+            writeLocalHeader(entry);
+            writeOutput(data, 0, data.length);
+        } else {
+            mDeflater.finish();
+            while (mDeflater.finished() == false) {
+                deflate();
+            }
+            mDeflater.reset();
+            entry.crc = mCrc.getValue();
+            writeDataDescriptor(entry);
+        }
+
+        mCurrent = null;
+    }
+
+    /** Returns the CRC-32 of the content of the last entry that was closed. */
+    long getLastCrc() {
+        return mEntries.get(mEntries.size() - 1).crc;
+    }
+
+    /** Finishes the archive by writing its central directory, and closes the output. */
+    @Override
+    public void close() throws IOException {
+        try {
+            closeEntry();
+
+            long start = mWritten;
+            for (Entry entry : mEntries) {
+                putInt(mHeader, 0, RawZipFile.CENTRAL_HEADER_SIGNATURE);
+                putShort(mHeader, 4, VERSION);
+                putShort(mHeader, 6, VERSION);
+                putShort(mHeader, 8, entry.flags);
+                putShort(mHeader, 10, entry.method);
+                putInt(mHeader, 12, entry.dosTime);
+                putInt(mHeader, 16, entry.crc);
+                putInt(mHeader, 20, entry.compressedSize);
+                putInt(mHeader, 24, entry.size);
+                putShort(mHeader, 28, entry.name.length);
+                putShort(mHeader, 30, 0); // extra field length
+                putShort(mHeader, 32, 0); // comment length
+                putShort(mHeader, 34, 0); // disk number
+                putShort(mHeader, 36, 0); // internal attributes
+                putInt(mHeader, 38, 0);   // external attributes
+                putInt(mHeader, 42, entry.offset);
+                writeOutput(mHeader, 0, RawZipFile.CENTRAL_HEADER_SIZE);
+                writeOutput(entry.name, 0, entry.name.length);
+            }
+            long size = mWritten - start;
+            if (mEntries.size() >= 0xFFFF || start >= 0xFFFFFFFFL) {
+                throw new ZipException("Zip64 archives are not supported");
+            }
+
+            putInt(mHeader, 0, RawZipFile.END_SIGNATURE);
+            putShort(mHeader, 4, 0);  // disk number
+            putShort(mHeader, 6, 0);  // disk of the central directory
+            putShort(mHeader, 8, mEntries.size());
+            putShort(mHeader, 10, mEntries.size());
+            putInt(mHeader, 12, size);
+            putInt(mHeader, 16, start);
+            putShort(mHeader, 20, 0); // comment length
+            writeOutput(mHeader, 0, RawZipFile.END_SIZE);
+        } finally {
+            mDeflater.end();
+            mOut.close();
+        }
+    }
+
+    private Entry createEntry(String name) throws IOException {
+        closeEntry();
+        if (mNames.add(name) == false) {
+            throw new ZipException("duplicate entry: " + name);
+        }
+
+        Entry entry = new Entry();
+        entry.name = getBytes(name);
+        if (entry.name.length != name.length()) {
+            entry.flags |= RawZipFile.FLAG_UTF8;
+        }
+        entry.offset = mWritten;
+        mEntries.add(entry);
+        return entry;
+    }
+
+    private void writeLocalHeader(Entry entry) throws IOException {
+        if (entry.offset >= 0xFFFFFFFFL) {
+            throw new ZipException("Zip64 archives are not supported");
+        }
+
+        boolean descriptor = (entry.flags & FLAG_DATA_DESCRIPTOR) != 0;
+        putInt(mHeader, 0, RawZipFile.LOCAL_HEADER_SIGNATURE);
+        putShort(mHeader, 4, VERSION);
+        putShort(mHeader, 6, entry.flags);
+        putShort(mHeader, 8, entry.method);
+        putInt(mHeader, 10, entry.dosTime);
+        putInt(mHeader, 14, descriptor ? 0 : entry.crc);
+        putInt(mHeader, 18, descriptor ? 0 : entry.compressedSize);
+        putInt(mHeader, 22, descriptor ? 0 : entry.size);
+        putShort(mHeader, 26, entry.name.length);
+        putShort(mHeader, 28, 0); // extra field length
+        writeOutput(mHeader, 0, RawZipFile.LOCAL_HEADER_SIZE);
+        writeOutput(entry.name, 0, entry.name.length);
+    }
+
+    private void writeDataDescriptor(Entry entry) throws IOException {
+        putInt(mHeader, 0, DATA_DESCRIPTOR_SIGNATURE);
+        putInt(mHeader, 4, entry.crc);
+        putInt(mHeader, 8, entry.compressedSize);
+        putInt(mHeader, 12, entry.size);
+        writeOutput(mHeader, 0, 16);
+    }
+
+    private void deflate() throws IOException {
+        int count = mDeflater.deflate(mDeflateBuffer, 0, mDeflateBuffer.length);
+        if (count > 0) {
+            writeOutput(mDeflateBuffer, 0, count);
+            mCurrent.compressedSize += count;
+        }
+    }
+
+    private void writeOutput(byte[] b, int off, int len) throws IOException {
+        mOut.write(b, off, len);
+        mWritten += len;
+    }
+
+    private static byte[] getBytes(String name) {
+        try {
+            return name.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            // UTF-8 is always supported.
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** Converts a Java time to the MS-DOS date and time format used in zip files. */
+    private static int toDosTime(long time) {
+        Calendar c = Calendar.getInstance();
+        c.setTimeInMillis(time);
+        int year = c.get(Calendar.YEAR);
+        if (year < 1980) {
+            return (1 << 21) | (1 << 16); // 1980-01-01
+        }
+        return (year - 1980) << 25
+                | (c.get(Calendar.MONTH) + 1) << 21
+                | c.get(Calendar.DAY_OF_MONTH) << 16
+                | c.get(Calendar.HOUR_OF_DAY) << 11
+                | c.get(Calendar.MINUTE) << 5
+                | c.get(Calendar.SECOND) >> 1;
+    }
+
+    private static void putShort(byte[] b, int off, int value) {
+        b[off] = (byte) value;
+        b[off + 1] = (byte) (value >> 8);
+    }
+
+    private static void putInt(byte[] b, int off, long value) {
+        putShort(b, off, (int) value);
+        putShort(b, off + 2, (int) (value >> 16));
+    }
+}
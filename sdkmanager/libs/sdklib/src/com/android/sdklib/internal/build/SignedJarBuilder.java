@@ -31,6 +31,7 @@ import java.io.FileInputStream;
 import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.PrintStream;
 import java.security.DigestOutputStream;
@@ -41,13 +42,25 @@ import java.security.PrivateKey;
 import java.security.Signature;
 import java.security.SignatureException;
 import java.security.cert.X509Certificate;
+import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.jar.Attributes;
-import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
-import java.util.jar.JarOutputStream;
 import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
 import java.util.zip.ZipInputStream;
 
 /**
@@ -58,6 +71,13 @@ public class SignedJarBuilder {
     private static final String DIGEST_ATTR = "SHA1-Digest";
     private static final String DIGEST_MANIFEST_ATTR = "SHA1-Digest-Manifest";
 
+    private static final int COMPRESSION_LEVEL = 9;
+
+    /** The maximum size of an entry held in memory to be prepared by a worker thread. */
+    private static final long MAX_BUFFERED_ENTRY_SIZE = 1024 * 1024;
+    /** The maximum total size of the entries held in memory until they are written. */
+    private static final long MAX_PENDING_SIZE = 16 * 1024 * 1024;
+
     /** Write to another stream and also feed it to the Signature object. */
     private static class SignatureOutputStream extends FilterOutputStream {
         private Signature mSignature;
@@ -95,7 +115,7 @@ public class SignedJarBuilder {
         }
     }
 
-    private JarOutputStream mOutputJar;
+    private RawZipOutputStream mOutputJar;
     private PrivateKey mKey;
     private X509Certificate mCertificate;
     private Manifest mManifest;
@@ -103,6 +123,100 @@ public class SignedJarBuilder {
     private MessageDigest mMessageDigest;
 
     private byte[] mBuffer = new byte[4096];
+    private byte[] mInflateBuffer;
+
+    /** The index of the entries written so far. */
+    private final JarIndex mIndex = new JarIndex();
+    /** The jar whose entries can be reused, and its index, if any. */
+    private RawZipFile mPreviousJar;
+    private Map<String, RawZipFile.Entry> mPreviousEntries;
+    private JarIndex mPreviousIndex;
+    private int mReusedCount;
+
+    /** The threads preparing the entries, if they are prepared in parallel. */
+    private volatile ExecutorService mExecutor;
+    /** The entries being prepared, in the order they must be written. */
+    private final LinkedList<PendingEntry> mPending = new LinkedList<PendingEntry>();
+    /** The total size of the data held in memory by the entries being prepared. */
+    private long mPendingSize;
+    private final ConcurrentLinkedQueue<Deflater> mDeflaters =
+            new ConcurrentLinkedQueue<Deflater>();
+
+    /**
+     * An entry whose content was compressed and digested by a worker thread, and which is
+     * written by the thread using the builder, in the order the entries were added.
+     */
+    private interface PreparedEntry {
+        void write() throws IOException;
+    }
+
+    /** An entry being prepared by a worker thread, and the size of the data it holds. */
+    private static final class PendingEntry {
+        final Future<PreparedEntry> future;
+        final long size;
+
+        PendingEntry(Future<PreparedEntry> future, long size) {
+            this.future = future;
+            this.size = size;
+        }
+    }
+
+    /** Computes the digest of the content of an entry from its stored data. */
+    private static final class StoredDataDigester {
+        private final RawZipFile.Entry mEntry;
+        private final MessageDigest mDigest;
+        private final byte[] mBuffer;
+        private final Inflater mInflater;
+        private final CRC32 mCrc;
+        private long mSize;
+
+        StoredDataDigester(RawZipFile.Entry entry, MessageDigest digest, byte[] buffer) {
+            mEntry = entry;
+            mDigest = digest;
+            mBuffer = buffer;
+            if (entry.method == ZipEntry.DEFLATED) {
+                mInflater = new Inflater(true /*nowrap*/);
+                mCrc = new CRC32();
+            } else {
+                mInflater = null;
+                mCrc = null;
+            }
+        }
+
+        void update(byte[] b, int off, int len) throws ZipException {
+            if (mInflater == null) {
+                mDigest.update(b, off, len);
+                return;
+            }
+
+            mInflater.setInput(b, off, len);
+            try {
+                int n;
+                while ((n = mInflater.inflate(mBuffer)) > 0) {
+                    mDigest.update(mBuffer, 0, n);
+                    mCrc.update(mBuffer, 0, n);
+                    mSize += n;
+                }
+            } catch (DataFormatException e) {
+                throw new ZipException("Invalid entry data for " + mEntry.name + ": " +
+                        e.getMessage());
+            }
+        }
+
+        /** Checks the content of the entry, and returns its digest. */
+        byte[] digest() throws ZipException {
+            if (mInflater != null && (mSize != mEntry.size || mCrc.getValue() != mEntry.crc)) {
+                throw new ZipException("Invalid entry data for " + mEntry.name);
+            }
+            return mDigest.digest();
+        }
+
+        void end() {
+            if (mInflater != null) {
+                mInflater.end();
+            }
+        }
+    }
 
     /**
      * Classes which implement this interface provides a method to check whether a file should
@@ -158,8 +272,8 @@ public class SignedJarBuilder {
      */
     public SignedJarBuilder(OutputStream out, PrivateKey key, X509Certificate certificate)
             throws IOException, NoSuchAlgorithmException {
-        mOutputJar = new JarOutputStream(out);
-        mOutputJar.setLevel(9);
+        mOutputJar = new RawZipOutputStream(out);
+        mOutputJar.setLevel(COMPRESSION_LEVEL);
         mKey = key;
         mCertificate = certificate;
 
@@ -181,19 +295,119 @@ public class SignedJarBuilder {
      * @throws IOException
      */
     public void writeFile(File inputFile, String jarPath) throws IOException {
+        String source = inputFile.getAbsolutePath();
+        long timestamp = inputFile.lastModified();
+        long size = inputFile.length();
+
+        // if the file did not change since the previous jar, copy its entry from there.
+        if (mPreviousIndex != null) {
+            JarIndex.Record record = mPreviousIndex.get(jarPath);
+            RawZipFile.Entry entry = mPreviousEntries.get(jarPath);
+            if (record != null && entry != null && entry.size == size &&
+                    canReuse(record, source, timestamp, size, size, entry.crc)) {
+                copyEntry(mPreviousJar, entry, record.digest, source, timestamp, size);
+                mReusedCount++;
+                return;
+            }
+        }
+
+        // large files are streamed by this thread rather than held in memory by a worker.
+        if (mExecutor != null && size <= MAX_BUFFERED_ENTRY_SIZE) {
+            submit(new CompressTask(inputFile, jarPath, source, timestamp, size), size);
+            return;
+        }
+        writePending();
+
         // Get an input stream on the file.
         FileInputStream fis = new FileInputStream(inputFile);
+        String digest;
         try {
 
-            // create the zip entry
-            JarEntry entry = new JarEntry(jarPath);
-            entry.setTime(inputFile.lastModified());
-
-            writeEntry(fis, entry);
+            digest = writeEntry(fis, jarPath, timestamp, false /*stored*/);
         } finally {
             // close the file stream used to read the file
             fis.close();
         }
+
+        mIndex.put(jarPath, new JarIndex.Record(source, timestamp, size, size,
+                mOutputJar.getLastCrc(), digest));
+    }
+
+    /** Compresses and digests a file to be written in the archive. */
+    private final class CompressTask implements Callable<PreparedEntry> {
+        private final File mFile;
+        private final String mName;
+        private final String mSource;
+        private final long mTimestamp;
+        private final long mSize;
+
+        CompressTask(File file, String name, String source, long timestamp, long size) {
+            mFile = file;
+            mName = name;
+            mSource = source;
+            mTimestamp = timestamp;
+            mSize = size;
+        }
+
+        @Override
+        public PreparedEntry call() throws IOException {
+            final CRC32 crc = new CRC32();
+            final MessageDigest digest = mManifest != null ? createMessageDigest() : null;
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) (mSize / 2) + 64);
+            byte[] buffer = new byte[8192];
+            byte[] deflateBuffer = new byte[8192];
+
+            Deflater deflater = mDeflaters.poll();
+            if (deflater == null) {
+                deflater = new Deflater(COMPRESSION_LEVEL, true /*nowrap*/);
+            }
+
+            FileInputStream fis = new FileInputStream(mFile);
+            long size = 0;
+            try {
+                int count;
+                while ((count = fis.read(buffer)) != -1) {
+                    crc.update(buffer, 0, count);
+                    if (digest != null) {
+                        digest.update(buffer, 0, count);
+                    }
+                    size += count;
+
+                    deflater.setInput(buffer, 0, count);
+                    while (deflater.needsInput() == false) {
+                        out.write(deflateBuffer, 0, deflater.deflate(deflateBuffer));
+                    }
+                }
+
+                deflater.finish();
+                while (deflater.finished() == false) {
+                    out.write(deflateBuffer, 0, deflater.deflate(deflateBuffer));
+                }
+            } finally {
+                fis.close();
+                deflater.reset();
+                mDeflaters.add(deflater);
+                if (mExecutor == null) {
+                    // the workers were shut down while this entry was prepared.
+                    endDeflaters();
+                }
+            }
+
+            final byte[] data = out.toByteArray();
+            final long uncompressedSize = size;
+            final String digestValue = digest != null ?
+                    new BASE64Encoder().encode(digest.digest()) : null;
+            return new PreparedEntry() {
+                @Override
+                public void write() throws IOException {
+                    mOutputJar.writeDeflatedEntry(mName, mTimestamp, crc.getValue(),
+                            uncompressedSize, data);
+                    updateManifest(mName, digestValue);
+                    mIndex.put(mName, new JarIndex.Record(mSource, mTimestamp, mSize,
+                            mSize, crc.getValue(), digestValue));
+                }
+            };
+        }
     }
 
     /**
@@ -208,6 +422,8 @@ public class SignedJarBuilder {
      */
     public void writeZip(InputStream input, IZipEntryFilter filter)
             throws IOException, ZipAbortException {
+        writePending();
+
         ZipInputStream zis = new ZipInputStream(input);
 
         try {
@@ -226,18 +442,13 @@ public class SignedJarBuilder {
                     continue;
                 }
 
-                JarEntry newEntry;
-
                 // Preserve the STORED method of the input entry.
-                if (entry.getMethod() == JarEntry.STORED) {
-                    newEntry = new JarEntry(entry);
+                if (entry.getMethod() == ZipEntry.STORED) {
+                    writeEntry(zis, name, entry.getTime(), true /*stored*/);
                 } else {
-                    // Create a new entry so that the compressed len is recomputed.
-                    newEntry = new JarEntry(name);
+                    writeEntry(zis, name, -1, false /*stored*/);
                 }
 
-                writeEntry(zis, newEntry);
-
                 zis.closeEntry();
             }
         } finally {
@@ -245,25 +456,181 @@ public class SignedJarBuilder {
         }
     }
 
+    /**
+     * Copies the content of a Jar/Zip archive into the receiver archive.
+     * <p/>The entries are copied as they are stored in the archive, without compressing them
+     * again. If the receiver archive is signed, each entry is only decompressed to compute
+     * its digest, unless the index of the previous jar already has it.
+     * <p/>An optional {@link IZipEntryFilter} allows to selectively choose which files
+     * to copy over.
+     * @param input the Jar/Zip file to copy.
+     * @param filter the filter or <code>null</code>
+     * @throws IOException
+     * @throws ZipAbortException if the {@link IZipEntryFilter} filter indicated that the write
+     *                           must be aborted.
+     */
+    public void writeZip(File input, IZipEntryFilter filter)
+            throws IOException, ZipAbortException {
+        RawZipFile zip;
+        try {
+            zip = new RawZipFile(input);
+        } catch (ZipException e) {
+            // archives that cannot be read through their central directory, such as zip64
+            // archives, are read sequentially instead.
+            writeZip(new FileInputStream(input), filter);
+            return;
+        }
+
+        // the digests of the previous index are only reused if the archive itself did not
+        // change, as entries with the same size and CRC-32 can still have different content.
+        String source = input.getAbsolutePath();
+        long timestamp = input.lastModified();
+        long sourceSize = input.length();
+        try {
+            for (RawZipFile.Entry entry : zip.getEntries()) {
+                String name = entry.name;
+
+                // do not take directories or anything inside a potential META-INF folder.
+                if (entry.isDirectory() || name.startsWith("META-INF/")) {
+                    continue;
+                }
+
+                // if we have a filter, we check the entry against it
+                if (filter != null && filter.checkEntry(name) == false) {
+                    continue;
+                }
+
+                if ((entry.flags & RawZipFile.FLAG_ENCRYPTED) != 0 ||
+                        (entry.method != ZipEntry.STORED && entry.method != ZipEntry.DEFLATED)) {
+                    throw new ZipException("Unsupported entry " + name + " in " + input);
+                }
+
+                // the digest of an entry with the same content is in the previous index.
+                String digest = null;
+                if (mPreviousIndex != null && mManifest != null) {
+                    JarIndex.Record record = mPreviousIndex.get(name);
+                    if (record != null && canReuse(record, source, timestamp, sourceSize,
+                            entry.size, entry.crc)) {
+                        digest = record.digest;
+                        mReusedCount++;
+                    }
+                }
+
+                copyEntry(zip, entry, digest, source, timestamp, sourceSize);
+            }
+        } finally {
+            zip.close();
+        }
+    }
+
+    /**
+     * Sets the number of threads compressing and digesting the entries added with
+     * {@link #writeFile(File, String)} and {@link #writeZip(File, IZipEntryFilter)}.
+     * <p/>The entries are still written in the order they are added, by the thread using the
+     * builder, and the archive is the same as when they are processed sequentially. Entries
+     * larger than 1 MB are still processed by the thread using the builder. An error
+     * while reading an input file may however only be reported when adding a later entry, or
+     * when closing the archive.
+     * @param threadCount the number of threads. If 1, which is the default, the entries are
+     * processed sequentially by the thread using the builder.
+     */
+    public void setParallelism(int threadCount) throws IOException {
+        writePending();
+        shutdownWorkers();
+
+        if (threadCount > 1) {
+            mExecutor = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+                private int mCount = 0;
+
+                @Override
+                public synchronized Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "Jar Builder Worker " + (++mCount)); //$NON-NLS-1$
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+    }
+
+    /**
+     * Makes the builder reuse the entries of a jar it created before, when their source did not
+     * change since.
+     * <p/>Files added with {@link #writeFile(File, String)} are then copied from the previous jar
+     * if their size and modification time are the same, and the digests of the entries of
+     * archives added with {@link #writeZip(File, IZipEntryFilter)} are not computed again if
+     * the size and modification time of the archive are the same. Other entries are written
+     * as usual.
+     * @param previousJar the previous jar. It must not be the output of this builder.
+     * @param indexFile the index of the previous jar, written by {@link #writeIndex(File)}.
+     * @return the number of entries of the previous jar that may be reused. This is 0 if the
+     * index or the jar cannot be read, in which case every entry is written again.
+     */
+    public int setPreviousJar(File previousJar, File indexFile) {
+        JarIndex index = JarIndex.load(indexFile);
+        if (index == null || previousJar.isFile() == false) {
+            return 0;
+        }
+
+        RawZipFile jar;
+        try {
+            jar = new RawZipFile(previousJar);
+        } catch (IOException e) {
+            return 0;
+        }
+
+        closePreviousJar();
+        mPreviousJar = jar;
+        mPreviousEntries = new HashMap<String, RawZipFile.Entry>();
+        for (RawZipFile.Entry entry : jar.getEntries()) {
+            mPreviousEntries.put(entry.name, entry);
+        }
+        mPreviousIndex = index;
+        return index.size();
+    }
+
+    /**
+     * Returns the number of entries that were copied from the previous jar, or whose digest was
+     * found in its index.
+     * @see #setPreviousJar(File, File)
+     */
+    public int getReusedEntryCount() {
+        return mReusedCount;
+    }
+
+    /**
+     * Writes the index of the entries written so far, so that a later build can reuse them.
+     * @param indexFile the file to write.
+     * @throws IOException
+     * @see #setPreviousJar(File, File)
+     */
+    public void writeIndex(File indexFile) throws IOException {
+        mIndex.save(indexFile);
+    }
+
     /**
      * Closes the Jar archive by creating the manifest, and signing the archive.
      * @throws IOException
      * @throws GeneralSecurityException
      */
     public void close() throws IOException, GeneralSecurityException {
+        writePending();
+        shutdownWorkers();
+        closePreviousJar();
+
         if (mManifest != null) {
             // write the manifest to the jar file
-            mOutputJar.putNextEntry(new JarEntry(JarFile.MANIFEST_NAME));
+            mOutputJar.putNextEntry(JarFile.MANIFEST_NAME, -1, false /*stored*/);
             mManifest.write(mOutputJar);
 
             // CERT.SF
             Signature signature = Signature.getInstance("SHA1with" + mKey.getAlgorithm());
             signature.initSign(mKey);
-            mOutputJar.putNextEntry(new JarEntry("META-INF/CERT.SF"));
+            mOutputJar.putNextEntry("META-INF/CERT.SF", -1, false /*stored*/);
             writeSignatureFile(new SignatureOutputStream(mOutputJar, signature));
 
             // CERT.*
-            mOutputJar.putNextEntry(new JarEntry("META-INF/CERT." + mKey.getAlgorithm()));
+            mOutputJar.putNextEntry("META-INF/CERT." + mKey.getAlgorithm(), -1,
+                    false /*stored*/);
             writeSignatureBlock(signature, mCertificate, mKey);
         }
 
@@ -276,6 +643,14 @@ public class SignedJarBuilder {
      * This does nothing if {@link #close()} was called successfully.
      */
     public void cleanUp() {
+        for (PendingEntry pending : mPending) {
+            pending.future.cancel(true /*mayInterruptIfRunning*/);
+        }
+        mPending.clear();
+        mPendingSize = 0;
+        shutdownWorkers();
+        closePreviousJar();
+
         if (mOutputJar != null) {
             try {
                 mOutputJar.close();
@@ -288,12 +663,16 @@ public class SignedJarBuilder {
     /**
      * Adds an entry to the output jar, and write its content from the {@link InputStream}
      * @param input The input stream from where to write the entry content.
-     * @param entry the entry to write in the jar.
+     * @param name the name of the entry to write in the jar.
+     * @param time the modification time of the entry, or -1 to use the current time.
+     * @param stored whether the entry is stored rather than compressed.
+     * @return the digest of the entry, or <code>null</code> if the archive is not signed.
      * @throws IOException
      */
-    private void writeEntry(InputStream input, JarEntry entry) throws IOException {
+    private String writeEntry(InputStream input, String name, long time, boolean stored)
+            throws IOException {
         // add the entry to the jar archive
-        mOutputJar.putNextEntry(entry);
+        mOutputJar.putNextEntry(name, time, stored);
 
         // read the content of the entry from the input stream, and write it into the archive.
         int count;
@@ -309,14 +688,240 @@ public class SignedJarBuilder {
         // close the entry for this file
         mOutputJar.closeEntry();
 
-        if (mManifest != null) {
-            // update the manifest for this entry.
-            Attributes attr = mManifest.getAttributes(entry.getName());
-            if (attr == null) {
-                attr = new Attributes();
-                mManifest.getEntries().put(entry.getName(), attr);
+        return updateManifest(name, null);
+    }
+
+    /**
+     * Adds an entry of another archive to the output jar, copying its stored data.
+     * @param zip the archive containing the entry.
+     * @param entry the entry to copy.
+     * @param digest the digest of the entry if it is already known, or <code>null</code>.
+     * @param source the OS path of the source of the entry, for the index.
+     * @param timestamp the modification time of the source of the entry, for the index.
+     * @param sourceSize the size of the source of the entry, for the index.
+     * @throws IOException
+     */
+    private void copyEntry(RawZipFile zip, RawZipFile.Entry entry, String digest,
+            String source, long timestamp, long sourceSize) throws IOException {
+        InputStream input = zip.getRawInputStream(entry);
+
+        // the archive is read by this thread, and only the digest is computed by a worker. Large
+        // entries are streamed by this thread rather than held in memory.
+        if (mExecutor != null && entry.compressedSize <= MAX_BUFFERED_ENTRY_SIZE) {
+            byte[] data = new byte[(int) entry.compressedSize];
+            int offset = 0;
+            int count;
+            while (offset < data.length &&
+                    (count = input.read(data, offset, data.length - offset)) != -1) {
+                offset += count;
+            }
+            submit(new CopyTask(entry, data, digest, source, timestamp, sourceSize),
+                    data.length);
+            return;
+        }
+        writePending();
+
+        mOutputJar.putRawEntry(entry.name, entry.method, entry.dosTime, entry.crc,
+                entry.compressedSize, entry.size);
+
+        // the digest is computed on the uncompressed data.
+        StoredDataDigester digester = null;
+        if (mMessageDigest != null && digest == null) {
+            if (mInflateBuffer == null) {
+                mInflateBuffer = new byte[16384];
+            }
+            digester = new StoredDataDigester(entry, mMessageDigest, mInflateBuffer);
+        }
+
+        try {
+            int count;
+            while ((count = input.read(mBuffer)) != -1) {
+                mOutputJar.write(mBuffer, 0, count);
+                if (digester != null) {
+                    digester.update(mBuffer, 0, count);
+                }
+            }
+
+            if (digester != null) {
+                digest = mBase64Encoder.encode(digester.digest());
+            }
+        } finally {
+            if (digester != null) {
+                digester.end();
+            }
+        }
+
+        mOutputJar.closeEntry();
+
+        digest = updateManifest(entry.name, digest);
+        mIndex.put(entry.name, new JarIndex.Record(source, timestamp, sourceSize, entry.size,
+                entry.crc, digest));
+    }
+
+    /** Digests the stored data of an entry of another archive to be copied in the archive. */
+    private final class CopyTask implements Callable<PreparedEntry> {
+        private final RawZipFile.Entry mEntry;
+        private final byte[] mData;
+        private final String mDigest;
+        private final String mSource;
+        private final long mTimestamp;
+        private final long mSourceSize;
+
+        CopyTask(RawZipFile.Entry entry, byte[] data, String digest, String source,
+                long timestamp, long sourceSize) {
+            mEntry = entry;
+            mData = data;
+            mDigest = digest;
+            mSource = source;
+            mTimestamp = timestamp;
+            mSourceSize = sourceSize;
+        }
+
+        @Override
+        public PreparedEntry call() throws IOException {
+            String digest = mDigest;
+            if (mManifest != null && digest == null) {
+                StoredDataDigester digester = new StoredDataDigester(mEntry,
+                        createMessageDigest(), new byte[16384]);
+                try {
+                    digester.update(mData, 0, mData.length);
+                    digest = new BASE64Encoder().encode(digester.digest());
+                } finally {
+                    digester.end();
+                }
+            }
+
+            final String digestValue = digest;
+            return new PreparedEntry() {
+                @Override
+                public void write() throws IOException {
+                    mOutputJar.putRawEntry(mEntry.name, mEntry.method, mEntry.dosTime,
+                            mEntry.crc, mEntry.compressedSize, mEntry.size);
+                    mOutputJar.write(mData, 0, mData.length);
+                    mOutputJar.closeEntry();
+
+                    updateManifest(mEntry.name, digestValue);
+                    mIndex.put(mEntry.name, new JarIndex.Record(mSource, mTimestamp,
+                            mSourceSize, mEntry.size, mEntry.crc, digestValue));
+                }
+            };
+        }
+    }
+
+    /**
+     * Queues an entry to be prepared by a worker thread, and writes the entries that are
+     * ready if the waiting entries hold too much data.
+     * @param task the task preparing the entry.
+     * @param size the size of the data held in memory by the entry.
+     */
+    private void submit(Callable<PreparedEntry> task, long size) throws IOException {
+        mPending.add(new PendingEntry(mExecutor.submit(task), size));
+        mPendingSize += size;
+        while (mPendingSize > MAX_PENDING_SIZE) {
+            writeNextPending();
+        }
+    }
+
+    /** Writes the entries being prepared, waiting for them if needed. */
+    private void writePending() throws IOException {
+        while (mPending.isEmpty() == false) {
+            writeNextPending();
+        }
+    }
+
+    private void writeNextPending() throws IOException {
+        PendingEntry pending = mPending.removeFirst();
+        mPendingSize -= pending.size;
+        try {
+            pending.future.get().write();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private void shutdownWorkers() {
+        ExecutorService executor = mExecutor;
+        if (executor != null) {
+            // a task still running returns its deflater after this, and ends it itself.
+            mExecutor = null;
+            executor.shutdownNow();
+        }
+
+        endDeflaters();
+    }
+
+    private void endDeflaters() {
+        Deflater deflater;
+        while ((deflater = mDeflaters.poll()) != null) {
+            deflater.end();
+        }
+    }
+
+    private MessageDigest createMessageDigest() throws IOException {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            // the algorithm was already found when creating the builder.
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Adds the digest of an entry to the manifest.
+     * @param name the name of the entry.
+     * @param digest the digest of the entry, or <code>null</code> to use the digest of the data
+     * that was just written.
+     * @return the digest of the entry, or <code>null</code> if the archive is not signed.
+     */
+    private String updateManifest(String name, String digest) {
+        if (mManifest == null) {
+            return null;
+        }
+
+        if (digest == null) {
+            digest = mBase64Encoder.encode(mMessageDigest.digest());
+        }
+
+        // update the manifest for this entry.
+        Attributes attr = mManifest.getAttributes(name);
+        if (attr == null) {
+            attr = new Attributes();
+            mManifest.getEntries().put(name, attr);
+        }
+        attr.putValue(DIGEST_ATTR, digest);
+        return digest;
+    }
+
+    /**
+     * Returns whether a record of the previous index describes the same content from the same
+     * source, with a digest if one is needed.
+     */
+    private boolean canReuse(JarIndex.Record record, String source, long timestamp,
+            long sourceSize, long size, long crc) {
+        return source.equals(record.source) && record.timestamp == timestamp &&
+                record.sourceSize == sourceSize && record.size == size && record.crc == crc &&
+                (mManifest == null || record.digest != null);
+    }
+
+    private void closePreviousJar() {
+        if (mPreviousJar != null) {
+            try {
+                mPreviousJar.close();
+            } catch (IOException e) {
+                // pass
             }
-            attr.putValue(DIGEST_ATTR, mBase64Encoder.encode(mMessageDigest.digest()));
+            mPreviousJar = null;
+            mPreviousEntries = null;
+            mPreviousIndex = null;
         }
     }
 
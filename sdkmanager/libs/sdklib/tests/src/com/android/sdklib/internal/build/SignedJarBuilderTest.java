@@ -0,0 +1,375 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.sdklib.internal.build;
+
+import com.android.sdklib.internal.build.DebugKeyProvider.IKeyGenOutput;
+import com.android.sdklib.internal.build.SignedJarBuilder.IZipEntryFilter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.TestCase;
+
+public class SignedJarBuilderTest extends TestCase {
+
+    private File mTmpDir;
+    private PrivateKey mKey;
+    private X509Certificate mCertificate;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        mTmpDir = File.createTempFile(this.getClass().getSimpleName(), "");
+        assertTrue(mTmpDir.delete());
+        assertTrue(mTmpDir.mkdirs());
+
+        IKeyGenOutput output = new IKeyGenOutput() {
+            @Override
+            public void out(String message) {
+            }
+
+            @Override
+            public void err(String message) {
+            }
+        };
+        DebugKeyProvider provider = new DebugKeyProvider(
+                new File(mTmpDir, "debug.keystore").getAbsolutePath(), null /*storeType*/,
+                output);
+        mKey = provider.getDebugKey();
+        mCertificate = (X509Certificate) provider.getCertificate();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+        for (File f : mTmpDir.listFiles()) {
+            f.delete();
+        }
+        mTmpDir.delete();
+    }
+
+    /**
+     * Creates a zip file with compressible and random entries, some of them stored, a
+     * directory, a META-INF entry and a non-ASCII name.
+     */
+    private File createZip(String name, int count) throws IOException {
+        File file = new File(mTmpDir, name);
+        ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(file));
+        Random random = new Random(count);
+
+        zos.putNextEntry(new ZipEntry("res/"));
+        zos.putNextEntry(new ZipEntry("META-INF/MANIFEST.MF"));
+        zos.write("Manifest-Version: 1.0\r\n".getBytes("UTF-8"));
+        zos.putNextEntry(new ZipEntry("res/\u00e9t\u00e9.txt"));
+        zos.write("summer".getBytes("UTF-8"));
+
+        for (int i = 0; i < count; i++) {
+            byte[] data = new byte[random.nextInt(4096)];
+            if (i % 2 == 0) {
+                random.nextBytes(data);
+            } else {
+                Arrays.fill(data, (byte) ('a' + i % 26));
+            }
+
+            ZipEntry entry = new ZipEntry(String.format("res/raw/entry%05d", i));
+            if (i % 5 == 0) {
+                CRC32 crc = new CRC32();
+                crc.update(data);
+                entry.setMethod(ZipEntry.STORED);
+                entry.setSize(data.length);
+                entry.setCrc(crc.getValue());
+            }
+            zos.putNextEntry(entry);
+            zos.write(data);
+        }
+
+        zos.close();
+        return file;
+    }
+
+    private static byte[] readFully(InputStream input) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int count;
+        while ((count = input.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+        }
+        return out.toByteArray();
+    }
+
+    /** Returns the content of the entries of a zip file that are not directories. */
+    private static Map<String, byte[]> readZip(File file) throws IOException {
+        Map<String, byte[]> entries = new HashMap<String, byte[]>();
+        ZipFile zip = new ZipFile(file);
+        try {
+            for (Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements(); ) {
+                ZipEntry entry = e.nextElement();
+                if (entry.isDirectory() == false) {
+                    entries.put(entry.getName(), readFully(zip.getInputStream(entry)));
+                }
+            }
+        } finally {
+            zip.close();
+        }
+        return entries;
+    }
+
+    private File sign(File input, boolean sequential, IZipEntryFilter filter) throws Exception {
+        File output = new File(mTmpDir, input.getName() + (sequential ? ".seq.apk" : ".apk"));
+        SignedJarBuilder builder = new SignedJarBuilder(new FileOutputStream(output), mKey,
+                mCertificate);
+        if (sequential) {
+            builder.writeZip(new FileInputStream(input), filter);
+        } else {
+            builder.writeZip(input, filter);
+        }
+        builder.close();
+        return output;
+    }
+
+    public void testWriteZip() throws Exception {
+        File input = createZip("input.zip", 100);
+        File output = sign(input, false /*sequential*/, null /*filter*/);
+
+        Map<String, byte[]> expected = readZip(input);
+        expected.remove("META-INF/MANIFEST.MF");
+        Map<String, byte[]> actual = readZip(output);
+        byte[] manifestData = actual.remove("META-INF/MANIFEST.MF");
+        assertNotNull(actual.remove("META-INF/CERT.SF"));
+        assertNotNull(actual.remove("META-INF/CERT.RSA"));
+
+        assertEquals(expected.keySet(), actual.keySet());
+        Manifest manifest = new Manifest(new java.io.ByteArrayInputStream(manifestData));
+        MessageDigest md = MessageDigest.getInstance("SHA1");
+        for (Map.Entry<String, byte[]> entry : expected.entrySet()) {
+            assertTrue(entry.getKey(), Arrays.equals(entry.getValue(),
+                    actual.get(entry.getKey())));
+
+            Attributes attr = manifest.getAttributes(entry.getKey());
+            assertNotNull(entry.getKey(), attr);
+            assertEquals(new sun.misc.BASE64Encoder().encode(md.digest(entry.getValue())),
+                    attr.getValue("SHA1-Digest"));
+        }
+
+        // the output is also readable sequentially, and the methods are preserved.
+        ZipInputStream zis = new ZipInputStream(new FileInputStream(output));
+        ZipFile zip = new ZipFile(input);
+        try {
+            ZipEntry entry;
+            int count = 0;
+            while ((entry = zis.getNextEntry()) != null) {
+                readFully(zis);
+                if (entry.getName().startsWith("res/raw/")) {
+                    assertEquals(zip.getEntry(entry.getName()).getMethod(), entry.getMethod());
+                    count++;
+                }
+            }
+            assertEquals(100, count);
+        } finally {
+            zis.close();
+            zip.close();
+        }
+    }
+
+    public void testWriteZipMatchesSequentialCopy() throws Exception {
+        File input = createZip("input.zip", 100);
+        IZipEntryFilter filter = new IZipEntryFilter() {
+            @Override
+            public boolean checkEntry(String archivePath) {
+                return archivePath.endsWith("7") == false;
+            }
+        };
+
+        Map<String, byte[]> copied = readZip(sign(input, false /*sequential*/, filter));
+        Map<String, byte[]> sequential = readZip(sign(input, true /*sequential*/, filter));
+
+        assertEquals(sequential.keySet(), copied.keySet());
+        assertFalse(copied.containsKey("res/raw/entry00007"));
+        assertTrue(Arrays.equals(sequential.get(JarFile.MANIFEST_NAME),
+                copied.get(JarFile.MANIFEST_NAME)));
+    }
+
+    private static void writeFile(File file, byte[] data) throws IOException {
+        FileOutputStream fos = new FileOutputStream(file);
+        try {
+            fos.write(data);
+        } finally {
+            fos.close();
+        }
+    }
+
+    /**
+     * Builds a jar from a zip file and some files, reusing the entries of a previous jar if
+     * <var>previous</var> is not null.
+     */
+    private SignedJarBuilder build(File output, File zip, File[] files, File previous,
+            File index) throws Exception {
+        SignedJarBuilder builder = new SignedJarBuilder(new FileOutputStream(output), mKey,
+                mCertificate);
+        if (previous != null) {
+            assertTrue(builder.setPreviousJar(previous, index) > 0);
+        }
+        builder.writeZip(zip, null /*filter*/);
+        for (File file : files) {
+            builder.writeFile(file, file.getName());
+        }
+        builder.close();
+        builder.writeIndex(index);
+        return builder;
+    }
+
+    public void testIncrementalBuild() throws Exception {
+        File zip = createZip("resources.zip", 100);
+        Random random = new Random(42);
+        File[] files = new File[3];
+        for (int i = 0; i < files.length; i++) {
+            byte[] data = new byte[1 << 20];
+            random.nextBytes(data);
+            Arrays.fill(data, 0, data.length / 2, (byte) i);
+            files[i] = new File(mTmpDir, "file" + i + ".bin");
+            writeFile(files[i], data);
+        }
+
+        File index = new File(mTmpDir, "index");
+        File first = new File(mTmpDir, "first.jar");
+        build(first, zip, files, null /*previous*/, index);
+
+        // nothing changed: every entry is reused.
+        File second = new File(mTmpDir, "second.jar");
+        SignedJarBuilder builder = build(second, zip, files, first, index);
+        assertEquals(104, builder.getReusedEntryCount());
+        assertTrue(Arrays.equals(readZip(first).get(JarFile.MANIFEST_NAME),
+                readZip(second).get(JarFile.MANIFEST_NAME)));
+
+        // a file changes: only the changed file is written again.
+        byte[] data = new byte[1000];
+        random.nextBytes(data);
+        writeFile(files[1], data);
+        assertTrue(files[1].setLastModified(files[1].lastModified() + 2000));
+
+        File third = new File(mTmpDir, "third.jar");
+        builder = build(third, zip, files, second, index);
+        assertEquals(103, builder.getReusedEntryCount());
+
+        // the zip file is created again with the same content: the digests of its entries are
+        // computed again, as they cannot be told apart from entries with the same size and
+        // CRC-32 but a different content.
+        zip = createZip("resources.zip", 100);
+        assertTrue(zip.setLastModified(zip.lastModified() + 2000));
+
+        File fourth = new File(mTmpDir, "fourth.jar");
+        builder = build(fourth, zip, files, third, index);
+        assertEquals(3, builder.getReusedEntryCount());
+
+        // the result is the same as a full build.
+        File fifth = new File(mTmpDir, "fifth.jar");
+        build(fifth, zip, files, null /*previous*/, new File(mTmpDir, "index2"));
+        Map<String, byte[]> expected = readZip(fifth);
+        Map<String, byte[]> actual = readZip(fourth);
+        assertEquals(expected.keySet(), actual.keySet());
+        for (String name : expected.keySet()) {
+            if (name.equals("META-INF/CERT.RSA") == false) {
+                assertTrue(name, Arrays.equals(expected.get(name), actual.get(name)));
+            }
+        }
+    }
+
+    /** Builds a jar from a zip file and some files, using the given number of threads. */
+    private File build(File output, File zip, File[] files, boolean signed, int threadCount)
+            throws Exception {
+        SignedJarBuilder builder = new SignedJarBuilder(new FileOutputStream(output),
+                signed ? mKey : null, signed ? mCertificate : null);
+        builder.setParallelism(threadCount);
+        for (int i = 0; i < files.length; i++) {
+            builder.writeFile(files[i], files[i].getName());
+            if (i == files.length / 2) {
+                builder.writeZip(zip, null /*filter*/);
+            }
+        }
+        // entries read sequentially are written after the ones being prepared.
+        builder.writeZip(new FileInputStream(zip), new IZipEntryFilter() {
+            @Override
+            public boolean checkEntry(String archivePath) {
+                return false;
+            }
+        });
+        builder.writeFile(files[0], "last/" + files[0].getName());
+        builder.close();
+        return output;
+    }
+
+    private File[] createFiles(int count, int size) throws IOException {
+        Random random = new Random(count);
+        File[] files = new File[count];
+        for (int i = 0; i < count; i++) {
+            byte[] data = new byte[random.nextInt(size)];
+            random.nextBytes(data);
+            Arrays.fill(data, 0, data.length / 2, (byte) i);
+            files[i] = new File(mTmpDir, String.format("file%03d.bin", i));
+            writeFile(files[i], data);
+        }
+        return files;
+    }
+
+    public void testParallelBuild() throws Exception {
+        File zip = createZip("resources.zip", 200);
+        File[] files = createFiles(50, 100000);
+
+        // a file too large to be held in memory by a worker is written in between the others.
+        byte[] data = new byte[3 << 20];
+        new Random(3).nextBytes(data);
+        writeFile(files[10], data);
+
+        // without signature, the archives are byte-identical.
+        byte[] sequential = readFully(new FileInputStream(build(
+                new File(mTmpDir, "sequential.jar"), zip, files, false /*signed*/, 1)));
+        byte[] parallel = readFully(new FileInputStream(build(
+                new File(mTmpDir, "parallel.jar"), zip, files, false /*signed*/, 4)));
+        assertTrue(Arrays.equals(sequential, parallel));
+
+        // with a signature, only the time of the META-INF entries may differ.
+        Map<String, byte[]> expected = readZip(build(
+                new File(mTmpDir, "sequential.apk"), zip, files, true /*signed*/, 1));
+        Map<String, byte[]> actual = readZip(build(
+                new File(mTmpDir, "parallel.apk"), zip, files, true /*signed*/, 4));
+        assertEquals(expected.keySet(), actual.keySet());
+        for (String name : expected.keySet()) {
+            assertTrue(name, Arrays.equals(expected.get(name), actual.get(name)));
+        }
+    }
+}
@@ -3,3 +3,4 @@
 TRACEVIEW_LOCAL_DIR := $(call my-dir)
 include $(TRACEVIEW_LOCAL_DIR)/etc/Android.mk
 include $(TRACEVIEW_LOCAL_DIR)/src/Android.mk
+include $(TRACEVIEW_LOCAL_DIR)/tests/Android.mk
@@ -42,6 +42,14 @@ if exist %frameworkdir%%jarfile% goto JarFileOk
 
 set jarpath=%frameworkdir%%jarfile%
 
+rem Queries run without the UI, and don't need SWT.
+if not "%1"=="-q" goto QueryDone
+    shift
+    call %java_exe% -cp %jarpath% com.android.traceview.TraceQuery %1 %2 %3 %4 %5 %6 %7 %8 %9
+    exit /B %ERRORLEVEL%
+
+:QueryDone
+
 if not defined ANDROID_SWT goto QueryArch
     set swt_path=%ANDROID_SWT%
     goto SwtDone
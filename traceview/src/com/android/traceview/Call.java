@@ -18,160 +18,127 @@ package com.android.traceview;
 
 import org.eclipse.swt.graphics.Color;
 
+/**
+ * A view of a call of a {@link CallList}, used as a block of the {@link TimeLineView}.
+ * Two views of the same call are equal.
+ */
 class Call implements TimeLineView.Block {
-    final private ThreadData mThreadData;
-    final private MethodData mMethodData;
-    final Call mCaller; // the caller, or null if this is the root
-
-    private String mName;
-    private boolean mIsRecursive;
-
-    long mGlobalStartTime;
-    long mGlobalEndTime;
-
-    long mThreadStartTime;
-    long mThreadEndTime;
+    private final CallList mCalls;
+    private final int mIndex;
 
-    long mInclusiveRealTime; // real time spent in this call including its children
-    long mExclusiveRealTime; // real time spent in this call including its children
-
-    long mInclusiveCpuTime; // cpu time spent in this call including its children
-    long mExclusiveCpuTime; // cpu time spent in this call excluding its children
-
-    Call(ThreadData threadData, MethodData methodData, Call caller) {
-        mThreadData = threadData;
-        mMethodData = methodData;
-        mName = methodData.getProfileName();
-        mCaller = caller;
-    }
-
-    public void updateName() {
-        mName = mMethodData.getProfileName();
+    Call(CallList calls, int index) {
+        mCalls = calls;
+        mIndex = index;
     }
 
     @Override
     public double addWeight(int x, int y, double weight) {
-        return mMethodData.addWeight(x, y, weight);
+        return getMethodData().addWeight(x, y, weight);
     }
 
     @Override
     public void clearWeight() {
-        mMethodData.clearWeight();
+        getMethodData().clearWeight();
     }
 
     @Override
     public long getStartTime() {
-        return mGlobalStartTime;
+        return mCalls.getGlobalStartTime(mIndex);
     }
 
     @Override
     public long getEndTime() {
-        return mGlobalEndTime;
+        return mCalls.getGlobalEndTime(mIndex);
+    }
+
+    long getThreadStartTime() {
+        return mCalls.getThreadStartTime(mIndex);
+    }
+
+    long getThreadEndTime() {
+        return mCalls.getThreadEndTime(mIndex);
     }
 
     @Override
     public long getExclusiveCpuTime() {
-        return mExclusiveCpuTime;
+        return mCalls.getExclusiveCpuTime(mIndex);
     }
 
     @Override
     public long getInclusiveCpuTime() {
-        return mInclusiveCpuTime;
+        return mCalls.getInclusiveCpuTime(mIndex);
     }
 
     @Override
     public long getExclusiveRealTime() {
-        return mExclusiveRealTime;
+        return mCalls.getExclusiveRealTime(mIndex);
     }
 
     @Override
     public long getInclusiveRealTime() {
-        return mInclusiveRealTime;
+        return mCalls.getInclusiveRealTime(mIndex);
     }
 
     @Override
     public Color getColor() {
-        return mMethodData.getColor();
+        return getMethodData().getColor();
     }
 
     @Override
     public String getName() {
-        return mName;
-    }
-
-    public void setName(String name) {
-        mName = name;
+        // the root call of a thread is named after the thread.
+        if (mCalls.getCaller(mIndex) < 0) {
+            return getThreadData().getName();
+        }
+        return getMethodData().getProfileName();
     }
 
     public ThreadData getThreadData() {
-        return mThreadData;
+        return mCalls.getThreadData(mIndex);
     }
 
     public int getThreadId() {
-        return mThreadData.getId();
+        return getThreadData().getId();
     }
 
     @Override
     public MethodData getMethodData() {
-        return mMethodData;
+        return mCalls.getMethodData(mIndex);
     }
 
     @Override
     public boolean isContextSwitch() {
-        return mMethodData.getId() < 0;
+        return getMethodData().getId() < 0;
     }
 
     @Override
     public boolean isIgnoredBlock() {
         // Ignore the top-level call or context switches within the top-level call.
-        return mCaller == null || isContextSwitch() && mCaller.mCaller == null;
+        int caller = mCalls.getCaller(mIndex);
+        return caller < 0 || isContextSwitch() && mCalls.getCaller(caller) < 0;
     }
 
     @Override
     public TimeLineView.Block getParentBlock() {
-        return mCaller;
+        int caller = mCalls.getCaller(mIndex);
+        return caller < 0 ? null : mCalls.get(caller);
     }
 
     public boolean isRecursive() {
-        return mIsRecursive;
-    }
-
-    void setRecursive(boolean isRecursive) {
-        mIsRecursive = isRecursive;
+        return mCalls.isRecursive(mIndex);
     }
 
-    void addCpuTime(long elapsedCpuTime) {
-        mExclusiveCpuTime += elapsedCpuTime;
-        mInclusiveCpuTime += elapsedCpuTime;
-    }
-
-    /**
-     * Record time spent in the method call.
-     */
-    void finish() {
-        if (mCaller != null) {
-            mCaller.mInclusiveCpuTime += mInclusiveCpuTime;
-            mCaller.mInclusiveRealTime += mInclusiveRealTime;
-        }
-
-        mMethodData.addElapsedExclusive(mExclusiveCpuTime, mExclusiveRealTime);
-        if (!mIsRecursive) {
-            mMethodData.addTopExclusive(mExclusiveCpuTime, mExclusiveRealTime);
+    @Override
+    public boolean equals(Object o) {
+        if (o instanceof Call) {
+            Call call = (Call) o;
+            return call.mCalls == mCalls && call.mIndex == mIndex;
         }
-        mMethodData.addElapsedInclusive(mInclusiveCpuTime, mInclusiveRealTime,
-                mIsRecursive, mCaller);
+        return false;
     }
 
-    public static final class TraceAction {
-        public static final int ACTION_ENTER = 0;
-        public static final int ACTION_EXIT = 1;
-
-        public final int mAction;
-        public final Call mCall;
-
-        public TraceAction(int action, Call call) {
-            mAction = action;
-            mCall = call;
-        }
+    @Override
+    public int hashCode() {
+        return mIndex;
     }
 }
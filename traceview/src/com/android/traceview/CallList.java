@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.traceview;
+
+import java.util.BitSet;
+
+/**
+ * The method calls of a trace, stored in parallel arrays indexed by call number.
+ * <p/>A trace holds millions of calls, so they are not kept as objects: {@link Call} is only a
+ * view of one entry of the list, created when the UI needs one. Calls are numbered in the
+ * order they were entered, so the callees of a call always come after it.
+ */
+final class CallList {
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private int mSize;
+
+    private MethodData[] mMethods = new MethodData[INITIAL_CAPACITY];
+    private ThreadData[] mThreads = new ThreadData[INITIAL_CAPACITY];
+    private int[] mCallers = new int[INITIAL_CAPACITY]; // -1 for the root call of a thread
+    private final BitSet mRecursive = new BitSet();
+
+    private long[] mGlobalStartTimes = new long[INITIAL_CAPACITY];
+    private long[] mGlobalEndTimes = new long[INITIAL_CAPACITY];
+    private long[] mThreadStartTimes = new long[INITIAL_CAPACITY];
+    private long[] mThreadEndTimes = new long[INITIAL_CAPACITY];
+
+    private long[] mInclusiveCpuTimes = new long[INITIAL_CAPACITY];
+    private long[] mExclusiveCpuTimes = new long[INITIAL_CAPACITY];
+    private long[] mInclusiveRealTimes = new long[INITIAL_CAPACITY];
+    private long[] mExclusiveRealTimes = new long[INITIAL_CAPACITY];
+
+    /**
+     * Adds a call, with all its times set to 0.
+     * @param threadData the thread making the call
+     * @param methodData the method called
+     * @param caller the number of the calling call, or -1 for the root call of a thread
+     * @return the number of the new call.
+     */
+    int add(ThreadData threadData, MethodData methodData, int caller) {
+        if (mSize == mCallers.length) {
+            setCapacity(mSize * 2);
+        }
+
+        mThreads[mSize] = threadData;
+        mMethods[mSize] = methodData;
+        mCallers[mSize] = caller;
+        return mSize++;
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    /**
+     * Releases the unused space of the arrays, once all the calls were added.
+     */
+    void trimToSize() {
+        if (mSize < mCallers.length) {
+            setCapacity(mSize);
+        }
+    }
+
+    private void setCapacity(int capacity) {
+        mMethods = copyOf(mMethods, new MethodData[capacity]);
+        mThreads = copyOf(mThreads, new ThreadData[capacity]);
+        mCallers = copyOf(mCallers, capacity);
+        mGlobalStartTimes = copyOf(mGlobalStartTimes, capacity);
+        mGlobalEndTimes = copyOf(mGlobalEndTimes, capacity);
+        mThreadStartTimes = copyOf(mThreadStartTimes, capacity);
+        mThreadEndTimes = copyOf(mThreadEndTimes, capacity);
+        mInclusiveCpuTimes = copyOf(mInclusiveCpuTimes, capacity);
+        mExclusiveCpuTimes = copyOf(mExclusiveCpuTimes, capacity);
+        mInclusiveRealTimes = copyOf(mInclusiveRealTimes, capacity);
+        mExclusiveRealTimes = copyOf(mExclusiveRealTimes, capacity);
+    }
+
+    private <T> T[] copyOf(T[] array, T[] newArray) {
+        System.arraycopy(array, 0, newArray, 0, mSize);
+        return newArray;
+    }
+
+    private int[] copyOf(int[] array, int capacity) {
+        int[] newArray = new int[capacity];
+        System.arraycopy(array, 0, newArray, 0, mSize);
+        return newArray;
+    }
+
+    private long[] copyOf(long[] array, int capacity) {
+        long[] newArray = new long[capacity];
+        System.arraycopy(array, 0, newArray, 0, mSize);
+        return newArray;
+    }
+
+    /**
+     * Returns a view of a call.
+     */
+    Call get(int call) {
+        return new Call(this, call);
+    }
+
+    MethodData getMethodData(int call) {
+        return mMethods[call];
+    }
+
+    ThreadData getThreadData(int call) {
+        return mThreads[call];
+    }
+
+    /**
+     * Returns the number of the calling call, or -1 for the root call of a thread.
+     */
+    int getCaller(int call) {
+        return mCallers[call];
+    }
+
+    boolean isRecursive(int call) {
+        return mRecursive.get(call);
+    }
+
+    void setRecursive(int call, boolean isRecursive) {
+        mRecursive.set(call, isRecursive);
+    }
+
+    long getGlobalStartTime(int call) {
+        return mGlobalStartTimes[call];
+    }
+
+    void setGlobalStartTime(int call, long time) {
+        mGlobalStartTimes[call] = time;
+    }
+
+    long getGlobalEndTime(int call) {
+        return mGlobalEndTimes[call];
+    }
+
+    void setGlobalEndTime(int call, long time) {
+        mGlobalEndTimes[call] = time;
+    }
+
+    long getThreadStartTime(int call) {
+        return mThreadStartTimes[call];
+    }
+
+    void setThreadStartTime(int call, long time) {
+        mThreadStartTimes[call] = time;
+    }
+
+    long getThreadEndTime(int call) {
+        return mThreadEndTimes[call];
+    }
+
+    void setThreadEndTime(int call, long time) {
+        mThreadEndTimes[call] = time;
+    }
+
+    long getInclusiveCpuTime(int call) {
+        return mInclusiveCpuTimes[call];
+    }
+
+    long getExclusiveCpuTime(int call) {
+        return mExclusiveCpuTimes[call];
+    }
+
+    long getInclusiveRealTime(int call) {
+        return mInclusiveRealTimes[call];
+    }
+
+    long getExclusiveRealTime(int call) {
+        return mExclusiveRealTimes[call];
+    }
+
+    void addCpuTime(int call, long elapsedCpuTime) {
+        mExclusiveCpuTimes[call] += elapsedCpuTime;
+        mInclusiveCpuTimes[call] += elapsedCpuTime;
+    }
+
+    /**
+     * Computes the real times of a call, once the calls it made were finished.
+     * <p/>Until then, the inclusive real time of the call holds the time spent in its callees.
+     */
+    void computeRealTimes(int call) {
+        long realTime = mGlobalEndTimes[call] - mGlobalStartTimes[call];
+        mExclusiveRealTimes[call] = Math.max(realTime - mInclusiveRealTimes[call], 0);
+        mInclusiveRealTimes[call] = realTime;
+    }
+
+    /**
+     * Records the time spent in a call into its method and its caller. The calls it made
+     * must be finished first.
+     */
+    void finish(int call) {
+        finish(call, null);
+    }
+
+    /**
+     * Same as {@link #finish(int)}, but records the time spent in the call into the profile of
+     * its thread instead of its method, if <var>profile</var> is not null. Calls of different
+     * threads can then be finished concurrently.
+     */
+    void finish(int call, ThreadProfile profile) {
+        MethodData methodData = mMethods[call];
+        int caller = mCallers[call];
+        long inclusiveCpuTime = mInclusiveCpuTimes[call];
+        long inclusiveRealTime = mInclusiveRealTimes[call];
+        long exclusiveCpuTime = mExclusiveCpuTimes[call];
+        long exclusiveRealTime = mExclusiveRealTimes[call];
+        boolean isRecursive = mRecursive.get(call);
+
+        MethodData parentMethod = null;
+        boolean parentIsRecursive = false;
+        if (caller >= 0) {
+            mInclusiveCpuTimes[caller] += inclusiveCpuTime;
+            mInclusiveRealTimes[caller] += inclusiveRealTime;
+            parentMethod = mMethods[caller];
+            parentIsRecursive = mRecursive.get(caller);
+        }
+
+        if (profile != null) {
+            profile.addCall(call, methodData, exclusiveCpuTime, exclusiveRealTime,
+                    inclusiveCpuTime, inclusiveRealTime, isRecursive, parentMethod,
+                    parentIsRecursive);
+            return;
+        }
+
+        methodData.addElapsedExclusive(exclusiveCpuTime, exclusiveRealTime);
+        if (!isRecursive) {
+            methodData.addTopExclusive(exclusiveCpuTime, exclusiveRealTime);
+        }
+        methodData.addElapsedInclusive(inclusiveCpuTime, inclusiveRealTime,
+                isRecursive, parentMethod, parentIsRecursive);
+    }
+}
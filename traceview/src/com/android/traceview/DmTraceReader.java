@@ -28,9 +28,14 @@ import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -55,10 +60,10 @@ public class DmTraceReader extends TraceReader {
     private ProfileProvider mProfileProvider;
     private String mTraceFileName;
     private MethodData mTopLevel;
-    private ArrayList<Call> mCallList;
+    private CallList mCallList;
     private HashMap<String, String> mPropertiesMap;
-    private HashMap<Integer, MethodData> mMethodMap;
-    private HashMap<Integer, ThreadData> mThreadMap;
+    private IntMap<MethodData> mMethodMap;
+    private IntMap<ThreadData> mThreadMap;
     private ThreadData[] mSortedThreads;
     private MethodData[] mSortedMethods;
     private long mTotalCpuTime;
@@ -66,17 +71,28 @@ public class DmTraceReader extends TraceReader {
     private MethodData mContextSwitch;
     private int mRecordSize;
     private ClockSource mClockSource;
+    /** the number of threads used to compute the profile */
+    private final int mParallelism;
 
     // A regex for matching the thread "id name" lines in the .key file
     private static final Pattern mIdNamePattern = Pattern.compile("(\\d+)\t(.*)");  //$NON-NLS-1$
 
     public DmTraceReader(String traceFileName, boolean regression) throws IOException {
+        this(traceFileName, regression, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Reads a trace, using up to <var>parallelism</var> threads to compute the profile.
+     */
+    DmTraceReader(String traceFileName, boolean regression, int parallelism)
+            throws IOException {
         mTraceFileName = traceFileName;
         mRegression = regression;
+        mParallelism = parallelism;
         mPropertiesMap = new HashMap<String, String>();
-        mMethodMap = new HashMap<Integer, MethodData>();
-        mThreadMap = new HashMap<Integer, ThreadData>();
-        mCallList = new ArrayList<Call>();
+        mMethodMap = new IntMap<MethodData>(1024);
+        mThreadMap = new IntMap<ThreadData>();
+        mCallList = new CallList();
 
         // Create a single top-level MethodData object to hold the profile data
         // for time spent in the unknown caller.
@@ -161,9 +177,9 @@ public class DmTraceReader extends TraceReader {
         MappedByteBuffer buffer = mapFile(mTraceFileName, offset);
         readDataFileHeader(buffer);
 
-        ArrayList<TraceAction> trace = null;
+        TraceActionList trace = null;
         if (mClockSource == ClockSource.THREAD_CPU) {
-            trace = new ArrayList<TraceAction>();
+            trace = new TraceActionList();
         }
 
         final boolean haveThreadClock = mClockSource != ClockSource.WALL;
@@ -227,7 +243,7 @@ public class DmTraceReader extends TraceReader {
             ThreadData threadData = mThreadMap.get(threadId);
             if (threadData == null) {
                 String name = String.format("[%1$d]", threadId);  //$NON-NLS-1$
-                threadData = new ThreadData(threadId, name, mTopLevel);
+                threadData = new ThreadData(threadId, name, mTopLevel, mCallList);
                 mThreadMap.put(threadId, threadData);
             }
 
@@ -264,17 +280,17 @@ public class DmTraceReader extends TraceReader {
                     // time and itself accounts for zero thread time.
                     if (prevThreadData != null && prevThreadData != threadData) {
                         // Begin context switch from previous thread.
-                        Call switchCall = prevThreadData.enter(mContextSwitch, trace);
-                        switchCall.mThreadStartTime = prevThreadData.mThreadEndTime;
-                        mCallList.add(switchCall);
+                        int switchCall = prevThreadData.enter(mContextSwitch, trace);
+                        mCallList.setThreadStartTime(switchCall, prevThreadData.mThreadEndTime);
 
                         // Return from context switch to current thread.
-                        Call top = threadData.top();
-                        if (top.getMethodData() == mContextSwitch) {
+                        int top = threadData.top();
+                        if (mCallList.getMethodData(top) == mContextSwitch) {
                             threadData.exit(mContextSwitch, trace);
                             long beforeSwitch = elapsedThreadTime / 2;
-                            top.mThreadStartTime += beforeSwitch;
-                            top.mThreadEndTime = top.mThreadStartTime;
+                            long switchTime = mCallList.getThreadStartTime(top) + beforeSwitch;
+                            mCallList.setThreadStartTime(top, switchTime);
+                            mCallList.setThreadEndTime(top, switchTime);
                         }
                     }
                     prevThreadData = threadData;
@@ -285,44 +301,42 @@ public class DmTraceReader extends TraceReader {
                     // As above, we represent the context switch using a special method call.
                     long sleepTime = elapsedGlobalTime - elapsedThreadTime;
                     if (sleepTime > MIN_CONTEXT_SWITCH_TIME_USEC) {
-                        Call switchCall = threadData.enter(mContextSwitch, trace);
+                        int switchCall = threadData.enter(mContextSwitch, trace);
                         long beforeSwitch = elapsedThreadTime / 2;
                         long afterSwitch = elapsedThreadTime - beforeSwitch;
-                        switchCall.mGlobalStartTime = globalTime - elapsedGlobalTime + beforeSwitch;
-                        switchCall.mGlobalEndTime = globalTime - afterSwitch;
-                        switchCall.mThreadStartTime = threadTime - afterSwitch;
-                        switchCall.mThreadEndTime = switchCall.mThreadStartTime;
+                        mCallList.setGlobalStartTime(switchCall,
+                                globalTime - elapsedGlobalTime + beforeSwitch);
+                        mCallList.setGlobalEndTime(switchCall, globalTime - afterSwitch);
+                        mCallList.setThreadStartTime(switchCall, threadTime - afterSwitch);
+                        mCallList.setThreadEndTime(switchCall, threadTime - afterSwitch);
                         threadData.exit(mContextSwitch, trace);
-                        mCallList.add(switchCall);
                     }
                 }
 
                 // Add thread CPU time.
-                Call top = threadData.top();
-                top.addCpuTime(elapsedThreadTime);
+                mCallList.addCpuTime(threadData.top(), elapsedThreadTime);
             }
 
             switch (methodAction) {
                 case METHOD_TRACE_ENTER: {
-                    Call call = threadData.enter(methodData, trace);
+                    int call = threadData.enter(methodData, trace);
                     if (haveGlobalClock) {
-                        call.mGlobalStartTime = globalTime;
+                        mCallList.setGlobalStartTime(call, globalTime);
                     }
                     if (haveThreadClock) {
-                        call.mThreadStartTime = threadTime;
+                        mCallList.setThreadStartTime(call, threadTime);
                     }
-                    mCallList.add(call);
                     break;
                 }
                 case METHOD_TRACE_EXIT:
                 case METHOD_TRACE_UNROLL: {
-                    Call call = threadData.exit(methodData, trace);
-                    if (call != null) {
+                    int call = threadData.exit(methodData, trace);
+                    if (call >= 0) {
                         if (haveGlobalClock) {
-                            call.mGlobalEndTime = globalTime;
+                            mCallList.setGlobalEndTime(call, globalTime);
                         }
                         if (haveThreadClock) {
-                            call.mThreadEndTime = threadTime;
+                            mCallList.setThreadEndTime(call, threadTime);
                         }
                     }
                     break;
@@ -333,58 +347,67 @@ public class DmTraceReader extends TraceReader {
         }
 
         // Exit any pending open-ended calls.
-        for (ThreadData threadData : mThreadMap.values()) {
-            threadData.endTrace(trace);
+        for (int i = 0; i < mThreadMap.size(); i++) {
+            mThreadMap.valueAt(i).endTrace(trace);
         }
+        mCallList.trimToSize();
 
         // Recreate the global timeline from thread times, if needed.
         if (!haveGlobalClock) {
             long globalTime = 0;
-            prevThreadData = null;
-            for (TraceAction traceAction : trace) {
-                Call call = traceAction.mCall;
-                ThreadData threadData = call.getThreadData();
-
-                if (traceAction.mAction == TraceAction.ACTION_ENTER) {
-                    long threadTime = call.mThreadStartTime;
-                    globalTime += call.mThreadStartTime - threadData.mThreadCurrentTime;
-                    call.mGlobalStartTime = globalTime;
+            for (int i = 0; i < trace.size(); i++) {
+                int call = trace.getCall(i);
+                int action = trace.getAction(i);
+                ThreadData threadData = mCallList.getThreadData(call);
+
+                if (action == TraceActionList.ACTION_ENTER) {
+                    long threadTime = mCallList.getThreadStartTime(call);
+                    globalTime += threadTime - threadData.mThreadCurrentTime;
+                    mCallList.setGlobalStartTime(call, globalTime);
                     if (!threadData.mHaveGlobalTime) {
                         threadData.mHaveGlobalTime = true;
                         threadData.mGlobalStartTime = globalTime;
                     }
                     threadData.mThreadCurrentTime = threadTime;
-                } else if (traceAction.mAction == TraceAction.ACTION_EXIT) {
-                    long threadTime = call.mThreadEndTime;
-                    globalTime += call.mThreadEndTime - threadData.mThreadCurrentTime;
-                    call.mGlobalEndTime = globalTime;
+                } else if (action == TraceActionList.ACTION_EXIT) {
+                    long threadTime = mCallList.getThreadEndTime(call);
+                    globalTime += threadTime - threadData.mThreadCurrentTime;
+                    mCallList.setGlobalEndTime(call, globalTime);
                     threadData.mGlobalEndTime = globalTime;
                     threadData.mThreadCurrentTime = threadTime;
                 } // else, ignore ACTION_INCOMPLETE calls, nothing to do
-                prevThreadData = threadData;
             }
         }
 
-        // Finish updating all calls and calculate the total time spent.
-        for (int i = mCallList.size() - 1; i >= 0; i--) {
-            Call call = mCallList.get(i);
-
-            // Calculate exclusive real-time by subtracting inclusive real time
-            // accumulated by children from the total span.
-            long realTime = call.mGlobalEndTime - call.mGlobalStartTime;
-            call.mExclusiveRealTime = Math.max(realTime - call.mInclusiveRealTime, 0);
-            call.mInclusiveRealTime = realTime;
+        // Finish updating all calls, from the last call to the first, so that callees are
+        // finished before their callers. The root calls of the threads are finished last.
+        if (mParallelism > 1 && mThreadMap.size() > 1) {
+            finishCallsInParallel();
+        } else {
+            for (int call = mCallList.size() - 1; call >= 0; call--) {
+                if (mCallList.getCaller(call) < 0) {
+                    continue;
+                }
 
-            call.finish();
+                // Calculate exclusive real-time by subtracting inclusive real time
+                // accumulated by children from the total span.
+                mCallList.computeRealTimes(call);
+                mCallList.finish(call);
+            }
+            for (int i = 0; i < mThreadMap.size(); i++) {
+                ThreadData threadData = mThreadMap.valueAt(i);
+                threadData.updateRootCallTimeBounds();
+                mCallList.finish(threadData.getRootCallIndex());
+            }
         }
+
+        // Calculate the total time spent.
         mTotalCpuTime = 0;
         mTotalRealTime = 0;
-        for (ThreadData threadData : mThreadMap.values()) {
-            Call rootCall = threadData.getRootCall();
-            threadData.updateRootCallTimeBounds();
-            rootCall.finish();
-            mTotalCpuTime += rootCall.mInclusiveCpuTime;
-            mTotalRealTime += rootCall.mInclusiveRealTime;
+        for (int i = 0; i < mThreadMap.size(); i++) {
+            int rootCall = mThreadMap.valueAt(i).getRootCallIndex();
+            mTotalCpuTime += mCallList.getInclusiveCpuTime(rootCall);
+            mTotalRealTime += mCallList.getInclusiveRealTime(rootCall);
         }
 
         if (mRegression) {
@@ -396,6 +419,148 @@ public class DmTraceReader extends TraceReader {
         }
     }
 
+    /**
+     * Finishes the calls of each thread in a separate task, into a profile of the thread, and
+     * then merges the profiles of the threads into the methods. The call trees of the threads
+     * don't share any call, and the profiles are merged in the order the calls are finished by
+     * the sequential pass, so the result is the same.
+     */
+    private void finishCallsInParallel() {
+        // Find the calls of each thread, in increasing order.
+        final int threadCount = mThreadMap.size();
+        HashMap<ThreadData, Integer> threadIndexes = new HashMap<ThreadData, Integer>();
+        for (int i = 0; i < threadCount; i++) {
+            threadIndexes.put(mThreadMap.valueAt(i), Integer.valueOf(i));
+        }
+        int callCount = mCallList.size();
+        int[] callThreads = new int[callCount];
+        final int[] counts = new int[threadCount];
+        ThreadData lastThread = null;
+        int lastIndex = -1;
+        for (int call = 0; call < callCount; call++) {
+            ThreadData threadData = mCallList.getThreadData(call);
+            if (threadData != lastThread) {
+                lastThread = threadData;
+                lastIndex = threadIndexes.get(threadData).intValue();
+            }
+            callThreads[call] = lastIndex;
+            counts[lastIndex]++;
+        }
+        final int[][] threadCalls = new int[threadCount][];
+        for (int i = 0; i < threadCount; i++) {
+            threadCalls[i] = new int[counts[i]];
+            counts[i] = 0;
+        }
+        for (int call = 0; call < callCount; call++) {
+            int thread = callThreads[call];
+            threadCalls[thread][counts[thread]++] = call;
+        }
+        callThreads = null;
+
+        // Start with the busiest threads, which take the longest.
+        Integer[] order = new Integer[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            order[i] = Integer.valueOf(i);
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer t1, Integer t2) {
+                return counts[t2.intValue()] - counts[t1.intValue()];
+            }
+        });
+
+        final ThreadProfile[] profiles = new ThreadProfile[threadCount];
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(threadCount);
+        for (Integer thread : order) {
+            final int t = thread.intValue();
+            profiles[t] = new ThreadProfile();
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    int[] calls = threadCalls[t];
+                    for (int i = calls.length - 1; i >= 0; i--) {
+                        int call = calls[i];
+                        if (mCallList.getCaller(call) < 0) {
+                            continue;
+                        }
+                        mCallList.computeRealTimes(call);
+                        mCallList.finish(call, profiles[t]);
+                    }
+                    ThreadData threadData = mThreadMap.valueAt(t);
+                    threadData.updateRootCallTimeBounds();
+                    mCallList.finish(threadData.getRootCallIndex(), profiles[t]);
+                    return null;
+                }
+            });
+        }
+        invokeAll(tasks);
+
+        // Merge the profiles of the threads, a range of methods in each task.
+        final MethodData[] methods = new MethodData[mMethodMap.size()];
+        for (int i = 0; i < methods.length; i++) {
+            methods[i] = mMethodMap.valueAt(i);
+        }
+        invokeOnRanges(methods.length, new RangeTask() {
+            @Override
+            public void run(int start, int end) {
+                for (int i = start; i < end; i++) {
+                    ThreadProfile.merge(methods[i], profiles);
+                }
+            }
+        });
+    }
+
+    /**
+     * A task run on a range of indexes by {@link DmTraceReader#invokeOnRanges}.
+     */
+    private interface RangeTask {
+        void run(int start, int end);
+    }
+
+    /**
+     * Splits the indexes from 0 to <var>size</var> in ranges, and runs a task on each range,
+     * using up to {@link #mParallelism} threads.
+     */
+    private void invokeOnRanges(int size, final RangeTask task) {
+        int rangeSize = Math.max(size / (4 * mParallelism), 1);
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (int start = 0; start < size; start += rangeSize) {
+            final int rangeStart = start;
+            final int rangeEnd = Math.min(start + rangeSize, size);
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    task.run(rangeStart, rangeEnd);
+                    return null;
+                }
+            });
+        }
+        invokeAll(tasks);
+    }
+
+    /**
+     * Runs tasks on up to {@link #mParallelism} threads, and waits for all of them to finish.
+     */
+    private <T> void invokeAll(List<Callable<T>> tasks) {
+        if (tasks.isEmpty()) {
+            return;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(mParallelism, tasks.size()));
+        try {
+            for (Future<T> future : executor.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
     static final int PARSE_VERSION = 0;
     static final int PARSE_THREADS = 1;
     static final int PARSE_METHODS = 2;
@@ -493,7 +658,7 @@ public class DmTraceReader extends TraceReader {
         if (name == null) name = "(unknown)";
 
         int id = Integer.decode(idStr);
-        mThreadMap.put(id, new ThreadData(id, name, mTopLevel));
+        mThreadMap.put(id, new ThreadData(id, name, mTopLevel, mCallList));
     }
 
     void parseMethod(String line) {
@@ -536,8 +701,10 @@ public class DmTraceReader extends TraceReader {
         final TimeBase timeBase = getPreferredTimeBase();
 
         // Sort the threads into decreasing cpu time
-        Collection<ThreadData> tv = mThreadMap.values();
-        mSortedThreads = tv.toArray(new ThreadData[tv.size()]);
+        mSortedThreads = new ThreadData[mThreadMap.size()];
+        for (int i = 0; i < mSortedThreads.length; i++) {
+            mSortedThreads[i] = mThreadMap.valueAt(i);
+        }
         Arrays.sort(mSortedThreads, new Comparator<ThreadData>() {
             @Override
             public int compare(ThreadData td1, ThreadData td2) {
@@ -550,9 +717,10 @@ public class DmTraceReader extends TraceReader {
         });
 
         // Sort the methods into decreasing inclusive time
-        Collection<MethodData> mv = mMethodMap.values();
-        MethodData[] methods;
-        methods = mv.toArray(new MethodData[mv.size()]);
+        MethodData[] methods = new MethodData[mMethodMap.size()];
+        for (int i = 0; i < methods.length; i++) {
+            methods[i] = mMethodMap.valueAt(i);
+        }
         Arrays.sort(methods, new Comparator<MethodData>() {
             @Override
             public int compare(MethodData md1, MethodData md2) {
@@ -582,15 +750,21 @@ public class DmTraceReader extends TraceReader {
             mSortedMethods[ii++] = md;
         }
 
-        // Let each method analyze its profile data
-        for (MethodData md : mSortedMethods) {
-            md.analyzeData(timeBase);
-        }
-
-        // Update all the calls to include the method rank in
-        // their name.
-        for (Call call : mCallList) {
-            call.updateName();
+        // Let each method analyze its profile data. The calls get the method rank in their
+        // name from the method.
+        if (mParallelism > 1) {
+            invokeOnRanges(mSortedMethods.length, new RangeTask() {
+                @Override
+                public void run(int start, int end) {
+                    for (int i = start; i < end; i++) {
+                        mSortedMethods[i].analyzeData(timeBase);
+                    }
+                }
+            });
+        } else {
+            for (MethodData md : mSortedMethods) {
+                md.analyzeData(timeBase);
+            }
         }
 
         if (mRegression) {
@@ -619,9 +793,12 @@ public class DmTraceReader extends TraceReader {
             }
         }
 
-        for (Call call : mCallList) {
-            record = new TimeLineView.Record(call.getThreadData(), call);
-            timeRecs.add(record);
+        for (int call = 0; call < mCallList.size(); call++) {
+            if (mCallList.getCaller(call) >= 0) {
+                record = new TimeLineView.Record(mCallList.getThreadData(call),
+                        mCallList.get(call));
+                timeRecs.add(record);
+            }
         }
 
         if (mRegression) {
@@ -634,7 +811,8 @@ public class DmTraceReader extends TraceReader {
     private void dumpThreadTimes() {
         System.out.print("\nThread Times\n");
         System.out.print("id  t-start    t-end  g-start    g-end     name\n");
-        for (ThreadData threadData : mThreadMap.values()) {
+        for (int i = 0; i < mThreadMap.size(); i++) {
+            ThreadData threadData = mThreadMap.valueAt(i);
             System.out.format("%2d %8d %8d %8d %8d  %s\n",
                     threadData.getId(),
                     threadData.mThreadStartTime, threadData.mThreadEndTime,
@@ -646,12 +824,16 @@ public class DmTraceReader extends TraceReader {
     private void dumpCallTimes() {
         System.out.print("\nCall Times\n");
         System.out.print("id  t-start    t-end  g-start    g-end    excl.    incl.  method\n");
-        for (Call call : mCallList) {
+        for (int call = 0; call < mCallList.size(); call++) {
+            if (mCallList.getCaller(call) < 0) {
+                continue;
+            }
             System.out.format("%2d %8d %8d %8d %8d %8d %8d  %s\n",
-                    call.getThreadId(), call.mThreadStartTime, call.mThreadEndTime,
-                    call.mGlobalStartTime, call.mGlobalEndTime,
-                    call.mExclusiveCpuTime, call.mInclusiveCpuTime,
-                    call.getMethodData().getName());
+                    mCallList.getThreadData(call).getId(),
+                    mCallList.getThreadStartTime(call), mCallList.getThreadEndTime(call),
+                    mCallList.getGlobalStartTime(call), mCallList.getGlobalEndTime(call),
+                    mCallList.getExclusiveCpuTime(call), mCallList.getInclusiveCpuTime(call),
+                    mCallList.getMethodData(call).getName());
         }
     }
 
@@ -672,8 +854,8 @@ public class DmTraceReader extends TraceReader {
         for (TimeLineView.Record record : timeRecs) {
             Call call = (Call) record.block;
             System.out.format("%2d %8d %8d %8d %8d  %s\n",
-                    call.getThreadId(), call.mThreadStartTime, call.mThreadEndTime,
-                    call.mGlobalStartTime, call.mGlobalEndTime,
+                    call.getThreadId(), call.getThreadStartTime(), call.getThreadEndTime(),
+                    call.getStartTime(), call.getEndTime(),
                     call.getMethodData().getName());
         }
     }
@@ -681,7 +863,8 @@ public class DmTraceReader extends TraceReader {
     @Override
     public HashMap<Integer, String> getThreadLabels() {
         HashMap<Integer, String> labels = new HashMap<Integer, String>();
-        for (ThreadData t : mThreadMap.values()) {
+        for (int i = 0; i < mThreadMap.size(); i++) {
+            ThreadData t = mThreadMap.valueAt(i);
             labels.put(t.getId(), t.getName());
         }
         return labels;
@@ -697,6 +880,13 @@ public class DmTraceReader extends TraceReader {
         return mSortedThreads;
     }
 
+    /**
+     * Returns all the calls of the trace, in the order they were made.
+     */
+    CallList getCallList() {
+        return mCallList;
+    }
+
     @Override
     public long getTotalCpuTime() {
         return mTotalCpuTime;
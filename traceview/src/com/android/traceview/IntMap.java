@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.traceview;
+
+/**
+ * A map from int keys to objects, without boxing the keys.
+ * <p/>The entries are kept in insertion order in parallel arrays, and {@link #keyAt(int)} and
+ * {@link #valueAt(int)} iterate over them in that order. An open addressing hash table of
+ * entry indices is used for lookups. Entries can't be removed.
+ */
+final class IntMap<V> {
+    /** index + 1 of the entries, 0 for an empty slot */
+    private int[] mTable;
+    private int[] mKeys;
+    private Object[] mValues;
+    private int mSize;
+
+    IntMap() {
+        this(4);
+    }
+
+    /**
+     * @param capacity the number of entries the map can hold before growing
+     */
+    IntMap(int capacity) {
+        capacity = Math.max(capacity, 2);
+        mKeys = new int[capacity];
+        mValues = new Object[capacity];
+        mTable = new int[Integer.highestOneBit(capacity * 2 - 1) * 2];
+    }
+
+    /**
+     * Returns the value of a key, or null if the map doesn't contain it.
+     */
+    @SuppressWarnings("unchecked")
+    V get(int key) {
+        int mask = mTable.length - 1;
+        for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+            int entry = mTable[slot];
+            if (entry == 0) {
+                return null;
+            }
+            if (mKeys[entry - 1] == key) {
+                return (V) mValues[entry - 1];
+            }
+        }
+    }
+
+    /**
+     * Sets the value of a key, replacing its previous value if any.
+     */
+    void put(int key, V value) {
+        int mask = mTable.length - 1;
+        int slot = hash(key) & mask;
+        for (; mTable[slot] != 0; slot = (slot + 1) & mask) {
+            int entry = mTable[slot];
+            if (mKeys[entry - 1] == key) {
+                mValues[entry - 1] = value;
+                return;
+            }
+        }
+
+        if (mSize == mKeys.length) {
+            int capacity = mKeys.length * 2;
+            int[] keys = new int[capacity];
+            Object[] values = new Object[capacity];
+            System.arraycopy(mKeys, 0, keys, 0, mSize);
+            System.arraycopy(mValues, 0, values, 0, mSize);
+            mKeys = keys;
+            mValues = values;
+        }
+        mKeys[mSize] = key;
+        mValues[mSize] = value;
+        mSize++;
+
+        if (mSize * 2 > mTable.length) {
+            rehash(mTable.length * 2);
+        } else {
+            mTable[slot] = mSize;
+        }
+    }
+
+    /**
+     * Returns the number of entries.
+     */
+    int size() {
+        return mSize;
+    }
+
+    /**
+     * Returns the key of an entry, in insertion order.
+     */
+    int keyAt(int index) {
+        return mKeys[index];
+    }
+
+    /**
+     * Returns the value of an entry, in insertion order.
+     */
+    @SuppressWarnings("unchecked")
+    V valueAt(int index) {
+        return (V) mValues[index];
+    }
+
+    private void rehash(int tableSize) {
+        mTable = new int[tableSize];
+        int mask = tableSize - 1;
+        for (int i = 0; i < mSize; i++) {
+            int slot = hash(mKeys[i]) & mask;
+            while (mTable[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            mTable[slot] = i + 1;
+        }
+    }
+
+    private static int hash(int key) {
+        // method ids are aligned on 4, so spread all the bits over the low ones.
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
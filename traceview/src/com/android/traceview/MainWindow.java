@@ -39,6 +39,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.channels.FileChannel;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Properties;
 
@@ -210,6 +211,12 @@ public class MainWindow extends ApplicationWindow {
         TraceReader reader = null;
         boolean regression = false;
 
+        // Queries don't need the UI.
+        if (args.length > 0 && args[0].equals("-q")) {
+            System.exit(TraceQuery.run(Arrays.copyOfRange(args, 1, args.length),
+                    System.out, System.err));
+        }
+
         // ping the usage server
 
         String revision = getRevision();
@@ -235,6 +242,7 @@ public class MainWindow extends ApplicationWindow {
         if (argc != len - 1) {
             System.out.printf("Usage: java %s [-r] trace%n", MainWindow.class.getName());
             System.out.printf("  -r   regression only%n");
+            System.out.printf("  -q   query traces without the UI, run with -q alone for help%n");
             return;
         }
 
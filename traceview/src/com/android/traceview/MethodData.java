@@ -21,9 +21,7 @@ import org.eclipse.swt.graphics.Image;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
 import java.util.Comparator;
-import java.util.HashMap;
 
 public class MethodData {
 
@@ -47,14 +45,15 @@ public class MethodData {
     private Color mFadedColor;
     private Image mImage;
     private Image mFadedImage;
-    private HashMap<Integer, ProfileData> mParents;
-    private HashMap<Integer, ProfileData> mChildren;
+    // The parents and children of this method, by method id
+    private IntMap<ProfileData> mParents;
+    private IntMap<ProfileData> mChildren;
 
     // The parents of this method when this method was in a recursive call
-    private HashMap<Integer, ProfileData> mRecursiveParents;
+    private IntMap<ProfileData> mRecursiveParents;
 
     // The children of this method when this method was in a recursive call
-    private HashMap<Integer, ProfileData> mRecursiveChildren;
+    private IntMap<ProfileData> mRecursiveChildren;
 
     private ProfileNode[] mProfileNodes;
     private int mX;
@@ -114,7 +113,7 @@ public class MethodData {
     }
 
     public void addElapsedInclusive(long cpuTime, long realTime,
-            boolean isRecursive, Call parent) {
+            boolean isRecursive, MethodData parentMethod, boolean parentIsRecursive) {
         if (isRecursive == false) {
             mElapsedInclusiveCpuTime += cpuTime;
             mElapsedInclusiveRealTime += realTime;
@@ -123,12 +122,11 @@ public class MethodData {
             mNumCalls[1] += 1;
         }
 
-        if (parent == null)
+        if (parentMethod == null)
             return;
 
         // Find the child method in the parent
-        MethodData parentMethod = parent.getMethodData();
-        if (parent.isRecursive()) {
+        if (parentIsRecursive) {
             parentMethod.mRecursiveChildren = updateInclusive(cpuTime, realTime,
                     parentMethod, this, false,
                     parentMethod.mRecursiveChildren);
@@ -147,11 +145,34 @@ public class MethodData {
         }
     }
 
-    private HashMap<Integer, ProfileData> updateInclusive(long cpuTime, long realTime,
+    /**
+     * Adds the inclusive times and calls of several calls at once, for calls whose parents and
+     * children are set with {@link #setRelatives}.
+     */
+    void addElapsedInclusive(long cpuTime, long realTime, int calls, int recursiveCalls) {
+        mElapsedInclusiveCpuTime += cpuTime;
+        mElapsedInclusiveRealTime += realTime;
+        mNumCalls[0] += calls;
+        mNumCalls[1] += recursiveCalls;
+    }
+
+    /**
+     * Sets the parents and children of the method, by method id, or null for none.
+     * @see ThreadProfile#merge(MethodData, ThreadProfile[])
+     */
+    void setRelatives(IntMap<ProfileData> parents, IntMap<ProfileData> children,
+            IntMap<ProfileData> recursiveParents, IntMap<ProfileData> recursiveChildren) {
+        mParents = parents;
+        mChildren = children;
+        mRecursiveParents = recursiveParents;
+        mRecursiveChildren = recursiveChildren;
+    }
+
+    private IntMap<ProfileData> updateInclusive(long cpuTime, long realTime,
             MethodData contextMethod, MethodData elementMethod,
-            boolean elementIsParent, HashMap<Integer, ProfileData> map) {
+            boolean elementIsParent, IntMap<ProfileData> map) {
         if (map == null) {
-            map = new HashMap<Integer, ProfileData>(4);
+            map = new IntMap<ProfileData>();
         } else {
             ProfileData profileData = map.get(elementMethod.mId);
             if (profileData != null) {
@@ -210,15 +231,17 @@ public class MethodData {
     }
 
     // Create and return a ProfileData[] array that is a sorted copy
-    // of the given HashMap values.
-    private ProfileData[] sortProfileData(HashMap<Integer, ProfileData> map,
+    // of the given map values.
+    private ProfileData[] sortProfileData(IntMap<ProfileData> map,
             final TimeBase timeBase) {
         if (map == null)
             return null;
 
-        // Convert the hash values to an array of ProfileData
-        Collection<ProfileData> values = map.values();
-        ProfileData[] sorted = values.toArray(new ProfileData[values.size()]);
+        // Convert the map values to an array of ProfileData
+        ProfileData[] sorted = new ProfileData[map.size()];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = map.valueAt(i);
+        }
 
         // Sort the array by elapsed inclusive time
         Arrays.sort(sorted, new Comparator<ProfileData>() {
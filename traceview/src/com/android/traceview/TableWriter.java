@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.traceview;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Writes the tables computed by {@link TraceQuery}, row by row, so that the output of a batch
+ * of traces does not need to be kept in memory.
+ * <p/>A table has properties, such as the trace it was computed from, and rows of values.
+ * Values are strings or numbers.
+ */
+abstract class TableWriter {
+    static final String FORMAT_CSV = "csv";    //$NON-NLS-1$
+    static final String FORMAT_JSON = "json";  //$NON-NLS-1$
+
+    protected final PrintStream mOut;
+
+    protected TableWriter(PrintStream out) {
+        mOut = out;
+    }
+
+    /**
+     * Returns a writer for a format, or null if the format is unknown.
+     */
+    static TableWriter create(String format, PrintStream out) {
+        if (FORMAT_CSV.equals(format)) {
+            return new CsvWriter(out);
+        }
+        if (FORMAT_JSON.equals(format)) {
+            return new JsonWriter(out);
+        }
+        return null;
+    }
+
+    /**
+     * Starts a table.
+     * @param properties the properties of the table, in order
+     * @param columns the names of the columns of the rows
+     */
+    abstract void startTable(Map<String, Object> properties, String[] columns);
+
+    /**
+     * Adds a row to the current table, with a value for each column.
+     */
+    abstract void addRow(Object... values);
+
+    /**
+     * Ends the current table, and flushes the output.
+     */
+    abstract void endTable();
+
+    /**
+     * Writes comma-separated values, with a header line each time the columns change. The
+     * properties of the tables are repeated at the start of each row.
+     */
+    private static final class CsvWriter extends TableWriter {
+        private String[] mHeader;
+        private Object[] mProperties;
+
+        CsvWriter(PrintStream out) {
+            super(out);
+        }
+
+        @Override
+        void startTable(Map<String, Object> properties, String[] columns) {
+            String[] header = new String[properties.size() + columns.length];
+            properties.keySet().toArray(header);
+            System.arraycopy(columns, 0, header, properties.size(), columns.length);
+            if (Arrays.equals(header, mHeader) == false) {
+                mHeader = header;
+                writeLine(header);
+            }
+            mProperties = properties.values().toArray();
+        }
+
+        @Override
+        void addRow(Object... values) {
+            Object[] line = new Object[mProperties.length + values.length];
+            System.arraycopy(mProperties, 0, line, 0, mProperties.length);
+            System.arraycopy(values, 0, line, mProperties.length, values.length);
+            writeLine(line);
+        }
+
+        @Override
+        void endTable() {
+            mOut.flush();
+        }
+
+        private void writeLine(Object[] values) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) {
+                    sb.append(',');
+                }
+                String value = String.valueOf(values[i]);
+                if (value.indexOf(',') >= 0 || value.indexOf('"') >= 0
+                        || value.indexOf('\n') >= 0) {
+                    sb.append('"').append(value.replace("\"", "\"\"")).append('"'); //$NON-NLS-1$
+                } else {
+                    sb.append(value);
+                }
+            }
+            mOut.println(sb.toString());
+        }
+    }
+
+    /**
+     * Writes each table as a JSON object on a single line, with its properties and an array of
+     * rows, each row being an object mapping column names to values.
+     */
+    private static final class JsonWriter extends TableWriter {
+        private String[] mColumns;
+        private boolean mFirstRow;
+
+        JsonWriter(PrintStream out) {
+            super(out);
+        }
+
+        @Override
+        void startTable(Map<String, Object> properties, String[] columns) {
+            mColumns = columns;
+            mFirstRow = true;
+            mOut.print('{');
+            for (Map.Entry<String, Object> entry : properties.entrySet()) {
+                writeValue(entry.getKey());
+                mOut.print(':');
+                writeValue(entry.getValue());
+                mOut.print(',');
+            }
+            mOut.print("\"rows\":[");  //$NON-NLS-1$
+        }
+
+        @Override
+        void addRow(Object... values) {
+            if (mFirstRow == false) {
+                mOut.print(',');
+            }
+            mFirstRow = false;
+            mOut.print('{');
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) {
+                    mOut.print(',');
+                }
+                writeValue(mColumns[i]);
+                mOut.print(':');
+                writeValue(values[i]);
+            }
+            mOut.print('}');
+        }
+
+        @Override
+        void endTable() {
+            mOut.println("]}");  //$NON-NLS-1$
+            mOut.flush();
+        }
+
+        private void writeValue(Object value) {
+            if (value instanceof Number) {
+                mOut.print(value);
+                return;
+            }
+
+            String s = String.valueOf(value);
+            StringBuilder sb = new StringBuilder(s.length() + 2);
+            sb.append('"');
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                switch (c) {
+                case '"':
+                    sb.append("\\\"");  //$NON-NLS-1$
+                    break;
+                case '\\':
+                    sb.append("\\\\");  //$NON-NLS-1$
+                    break;
+                case '\n':
+                    sb.append("\\n");  //$NON-NLS-1$
+                    break;
+                case '\t':
+                    sb.append("\\t");  //$NON-NLS-1$
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));  //$NON-NLS-1$
+                    } else {
+                        sb.append(c);
+                    }
+                }
+            }
+            sb.append('"');
+            mOut.print(sb.toString());
+        }
+    }
+}
@@ -16,7 +16,6 @@
 
 package com.android.traceview;
 
-import java.util.ArrayList;
 import java.util.HashMap;
 
 class ThreadData implements TimeLineView.Row {
@@ -25,8 +24,12 @@ class ThreadData implements TimeLineView.Row {
     private String mName;
     private boolean mIsEmpty;
 
-    private Call mRootCall;
-    private ArrayList<Call> mStack = new ArrayList<Call>();
+    private final CallList mCalls;
+    private int mRootCall;
+
+    // The numbers of the calls on the stack, the root call being at the bottom.
+    private int[] mStack = new int[16];
+    private int mStackSize;
 
     // This is a hash of all the methods that are currently on the stack.
     private HashMap<MethodData, Integer> mStackMethods = new HashMap<MethodData, Integer>();
@@ -41,13 +44,13 @@ class ThreadData implements TimeLineView.Row {
 
     long mThreadCurrentTime; // only used while parsing thread-cpu clock
 
-    ThreadData(int id, String name, MethodData topLevel) {
+    ThreadData(int id, String name, MethodData topLevel, CallList calls) {
         mId = id;
         mName = String.format("[%d] %s", id, name);
         mIsEmpty = true;
-        mRootCall = new Call(this, topLevel, null);
-        mRootCall.setName(mName);
-        mStack.add(mRootCall);
+        mCalls = calls;
+        mRootCall = calls.add(this, topLevel, -1);
+        push(mRootCall);
     }
 
     @Override
@@ -56,6 +59,13 @@ class ThreadData implements TimeLineView.Row {
     }
 
     public Call getRootCall() {
+        return mCalls.get(mRootCall);
+    }
+
+    /**
+     * Returns the number of the root call of the thread in its {@link CallList}.
+     */
+    int getRootCallIndex() {
         return mRootCall;
     }
 
@@ -66,50 +76,58 @@ class ThreadData implements TimeLineView.Row {
         return mIsEmpty;
     }
 
-    Call enter(MethodData method, ArrayList<TraceAction> trace) {
+    /**
+     * Adds a call to the stack.
+     * @return the number of the new call.
+     */
+    int enter(MethodData method, TraceActionList trace) {
         if (mIsEmpty) {
             mIsEmpty = false;
             if (trace != null) {
-                trace.add(new TraceAction(TraceAction.ACTION_ENTER, mRootCall));
+                trace.add(TraceActionList.ACTION_ENTER, mRootCall);
             }
         }
 
-        Call caller = top();
-        Call call = new Call(this, method, caller);
-        mStack.add(call);
+        int call = mCalls.add(this, method, top());
+        push(call);
 
         if (trace != null) {
-            trace.add(new TraceAction(TraceAction.ACTION_ENTER, call));
+            trace.add(TraceActionList.ACTION_ENTER, call);
         }
 
         Integer num = mStackMethods.get(method);
         if (num == null) {
             num = 0;
         } else if (num > 0) {
-            call.setRecursive(true);
+            mCalls.setRecursive(call, true);
         }
         mStackMethods.put(method, num + 1);
 
         return call;
     }
 
-    Call exit(MethodData method, ArrayList<TraceAction> trace) {
-        Call call = top();
-        if (call.mCaller == null) {
-            return null;
+    /**
+     * Removes the top call from the stack.
+     * @return the number of the call, or -1 if the stack only holds the root call.
+     */
+    int exit(MethodData method, TraceActionList trace) {
+        int call = top();
+        if (mCalls.getCaller(call) < 0) {
+            return -1;
         }
 
-        if (call.getMethodData() != method) {
+        MethodData callMethod = mCalls.getMethodData(call);
+        if (callMethod != method) {
             String error = "Method exit (" + method.getName()
-                    + ") does not match current method (" + call.getMethodData().getName()
+                    + ") does not match current method (" + callMethod.getName()
                     + ")";
             throw new RuntimeException(error);
         }
 
-        mStack.remove(mStack.size() - 1);
+        mStackSize--;
 
         if (trace != null) {
-            trace.add(new TraceAction(TraceAction.ACTION_EXIT, call));
+            trace.add(TraceActionList.ACTION_EXIT, call);
         }
 
         Integer num = mStackMethods.get(method);
@@ -124,29 +142,38 @@ class ThreadData implements TimeLineView.Row {
         return call;
     }
 
-    Call top() {
-        return mStack.get(mStack.size() - 1);
+    int top() {
+        return mStack[mStackSize - 1];
+    }
+
+    private void push(int call) {
+        if (mStackSize == mStack.length) {
+            int[] stack = new int[mStackSize * 2];
+            System.arraycopy(mStack, 0, stack, 0, mStackSize);
+            mStack = stack;
+        }
+        mStack[mStackSize++] = call;
     }
 
-    void endTrace(ArrayList<TraceAction> trace) {
-        for (int i = mStack.size() - 1; i >= 1; i--) {
-            Call call = mStack.get(i);
-            call.mGlobalEndTime = mGlobalEndTime;
-            call.mThreadEndTime = mThreadEndTime;
+    void endTrace(TraceActionList trace) {
+        for (int i = mStackSize - 1; i >= 1; i--) {
+            int call = mStack[i];
+            mCalls.setGlobalEndTime(call, mGlobalEndTime);
+            mCalls.setThreadEndTime(call, mThreadEndTime);
             if (trace != null) {
-                trace.add(new TraceAction(TraceAction.ACTION_INCOMPLETE, call));
+                trace.add(TraceActionList.ACTION_INCOMPLETE, call);
             }
         }
-        mStack.clear();
+        mStackSize = 0;
         mStackMethods.clear();
     }
 
     void updateRootCallTimeBounds() {
         if (!mIsEmpty) {
-            mRootCall.mGlobalStartTime = mGlobalStartTime;
-            mRootCall.mGlobalEndTime = mGlobalEndTime;
-            mRootCall.mThreadStartTime = mThreadStartTime;
-            mRootCall.mThreadEndTime = mThreadEndTime;
+            mCalls.setGlobalStartTime(mRootCall, mGlobalStartTime);
+            mCalls.setGlobalEndTime(mRootCall, mGlobalEndTime);
+            mCalls.setThreadStartTime(mRootCall, mThreadStartTime);
+            mCalls.setThreadEndTime(mRootCall, mThreadEndTime);
         }
     }
 
@@ -161,10 +188,10 @@ class ThreadData implements TimeLineView.Row {
     }
 
     public long getCpuTime() {
-        return mRootCall.mInclusiveCpuTime;
+        return mCalls.getInclusiveCpuTime(mRootCall);
     }
 
     public long getRealTime() {
-        return mRootCall.mInclusiveRealTime;
+        return mCalls.getInclusiveRealTime(mRootCall);
     }
 }
@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.traceview;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * The profile of the calls of a single thread: the times and calls of each method, and of the
+ * parents and children of each method.
+ * <p/>The call trees of the threads are independent, so {@link DmTraceReader} computes the
+ * profiles of the threads in parallel, and then merges them into the {@link MethodData} with
+ * {@link #merge(MethodData, ThreadProfile[])}. The result is the same as finishing all the
+ * calls into the {@link MethodData} directly, including the order of the parents and children
+ * of the methods: each of them remembers the call it was found in, and they are added to the
+ * method in the order the calls would have been finished.
+ */
+final class ThreadProfile {
+    private static final int PARENTS = 0;
+    private static final int CHILDREN = 1;
+    private static final int RECURSIVE_PARENTS = 2;
+    private static final int RECURSIVE_CHILDREN = 3;
+
+    /** the profile of each method called by the thread, by method id */
+    private final IntMap<MethodProfile> mMethods = new IntMap<MethodProfile>(256);
+
+    /**
+     * Adds a finished call to the profile. Calls must be added from the last one to the first
+     * one, as {@link CallList#finish(int)} does.
+     * @param call the number of the call
+     * @param method the method called
+     * @param parentMethod the method of the caller, or null for the root call of the thread
+     */
+    void addCall(int call, MethodData method, long exclusiveCpuTime, long exclusiveRealTime,
+            long inclusiveCpuTime, long inclusiveRealTime, boolean isRecursive,
+            MethodData parentMethod, boolean parentIsRecursive) {
+        MethodProfile profile = getProfile(method);
+        profile.mExclusiveCpuTime += exclusiveCpuTime;
+        profile.mExclusiveRealTime += exclusiveRealTime;
+        if (isRecursive == false) {
+            profile.mTopExclusiveCpuTime += exclusiveCpuTime;
+            profile.mTopExclusiveRealTime += exclusiveRealTime;
+            profile.mInclusiveCpuTime += inclusiveCpuTime;
+            profile.mInclusiveRealTime += inclusiveRealTime;
+            profile.mCalls += 1;
+        } else {
+            profile.mRecursiveCalls += 1;
+        }
+
+        if (parentMethod == null) {
+            return;
+        }
+
+        MethodProfile parentProfile = getProfile(parentMethod);
+        parentProfile.addRelative(parentIsRecursive ? RECURSIVE_CHILDREN : CHILDREN, method,
+                call, inclusiveCpuTime, inclusiveRealTime);
+        profile.addRelative(isRecursive ? RECURSIVE_PARENTS : PARENTS, parentMethod,
+                call, inclusiveCpuTime, inclusiveRealTime);
+    }
+
+    private MethodProfile getProfile(MethodData method) {
+        MethodProfile profile = mMethods.get(method.getId());
+        if (profile == null) {
+            profile = new MethodProfile();
+            mMethods.put(method.getId(), profile);
+        }
+        return profile;
+    }
+
+    /**
+     * Adds the profiles of a method in several threads to the method.
+     */
+    static void merge(MethodData method, ThreadProfile[] profiles) {
+        ArrayList<MethodProfile> methodProfiles = new ArrayList<MethodProfile>(profiles.length);
+        long inclusiveCpuTime = 0;
+        long inclusiveRealTime = 0;
+        int calls = 0;
+        int recursiveCalls = 0;
+        for (ThreadProfile threadProfile : profiles) {
+            MethodProfile profile = threadProfile.mMethods.get(method.getId());
+            if (profile == null) {
+                continue;
+            }
+            methodProfiles.add(profile);
+            method.addElapsedExclusive(profile.mExclusiveCpuTime, profile.mExclusiveRealTime);
+            method.addTopExclusive(profile.mTopExclusiveCpuTime, profile.mTopExclusiveRealTime);
+            inclusiveCpuTime += profile.mInclusiveCpuTime;
+            inclusiveRealTime += profile.mInclusiveRealTime;
+            calls += profile.mCalls;
+            recursiveCalls += profile.mRecursiveCalls;
+        }
+        if (methodProfiles.isEmpty()) {
+            return;
+        }
+
+        method.addElapsedInclusive(inclusiveCpuTime, inclusiveRealTime, calls, recursiveCalls);
+        method.setRelatives(
+                mergeRelatives(method, methodProfiles, PARENTS),
+                mergeRelatives(method, methodProfiles, CHILDREN),
+                mergeRelatives(method, methodProfiles, RECURSIVE_PARENTS),
+                mergeRelatives(method, methodProfiles, RECURSIVE_CHILDREN));
+    }
+
+    /**
+     * Merges one kind of relatives of a method in several threads, and returns them as the
+     * method keeps them, or null if the method has none.
+     */
+    private static IntMap<ProfileData> mergeRelatives(MethodData method,
+            ArrayList<MethodProfile> methodProfiles, int kind) {
+        IntMap<Relative> merged = null;
+        for (MethodProfile profile : methodProfiles) {
+            IntMap<Relative> relatives = profile.mRelatives[kind];
+            if (relatives == null) {
+                continue;
+            }
+            if (merged == null) {
+                merged = new IntMap<Relative>(relatives.size());
+            }
+            for (int i = 0; i < relatives.size(); i++) {
+                Relative relative = relatives.valueAt(i);
+                Relative mergedRelative = merged.get(relatives.keyAt(i));
+                if (mergedRelative == null) {
+                    merged.put(relatives.keyAt(i), relative);
+                } else {
+                    mergedRelative.mCpuTime += relative.mCpuTime;
+                    mergedRelative.mRealTime += relative.mRealTime;
+                    mergedRelative.mCalls += relative.mCalls;
+                    mergedRelative.mFirstCall = Math.max(mergedRelative.mFirstCall,
+                            relative.mFirstCall);
+                }
+            }
+        }
+        if (merged == null) {
+            return null;
+        }
+
+        // Calls are finished from the last one to the first one.
+        Relative[] sorted = new Relative[merged.size()];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = merged.valueAt(i);
+        }
+        Arrays.sort(sorted, new Comparator<Relative>() {
+            @Override
+            public int compare(Relative r1, Relative r2) {
+                return r2.mFirstCall - r1.mFirstCall;
+            }
+        });
+
+        boolean isParent = kind == PARENTS || kind == RECURSIVE_PARENTS;
+        IntMap<ProfileData> map = new IntMap<ProfileData>(sorted.length);
+        for (Relative relative : sorted) {
+            ProfileData profileData = new ProfileData(method, relative.mMethod, isParent);
+            profileData.setElapsedInclusive(relative.mCpuTime, relative.mRealTime);
+            profileData.setNumCalls(relative.mCalls);
+            map.put(relative.mMethod.getId(), profileData);
+        }
+        return map;
+    }
+
+    /**
+     * The times and calls of a method in a thread.
+     */
+    private static final class MethodProfile {
+        long mExclusiveCpuTime;
+        long mExclusiveRealTime;
+        long mTopExclusiveCpuTime;
+        long mTopExclusiveRealTime;
+        long mInclusiveCpuTime;
+        long mInclusiveRealTime;
+        int mCalls;
+        int mRecursiveCalls;
+
+        /** the parents and children of the method, by kind and by method id */
+        final IntMap<Relative>[] mRelatives = newRelativeMaps(4);
+
+        void addRelative(int kind, MethodData method, int call, long cpuTime, long realTime) {
+            IntMap<Relative> relatives = mRelatives[kind];
+            if (relatives == null) {
+                relatives = mRelatives[kind] = new IntMap<Relative>();
+            }
+            Relative relative = relatives.get(method.getId());
+            if (relative == null) {
+                relative = new Relative(method, call);
+                relatives.put(method.getId(), relative);
+            }
+            relative.mCpuTime += cpuTime;
+            relative.mRealTime += realTime;
+            relative.mCalls += 1;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static IntMap<Relative>[] newRelativeMaps(int count) {
+            // arrays of a generic type can't be created directly.
+            return (IntMap<Relative>[]) new IntMap<?>[count];
+        }
+    }
+
+    /**
+     * A parent or a child of a method in a thread.
+     */
+    private static final class Relative {
+        final MethodData mMethod;
+        /** the first call finished with this relative, which is the last one made */
+        int mFirstCall;
+        long mCpuTime;
+        long mRealTime;
+        int mCalls;
+
+        Relative(MethodData method, int firstCall) {
+            mMethod = method;
+            mFirstCall = firstCall;
+        }
+    }
+}
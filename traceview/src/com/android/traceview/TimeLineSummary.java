@@ -0,0 +1,277 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.traceview;
+
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+
+/**
+ * A multi-resolution summary of the segments of a row of the {@link TimeLineView}, used to
+ * draw the row one pixel at a time when many segments fall in each pixel.
+ * <p/>Like a mipmap, the summary is made of levels. Level 0 divides the time span of the row
+ * in buckets of a power of two time units, holding {@link #SEGMENTS_PER_BUCKET} segments on
+ * average, and the buckets of each level are twice as wide as the ones of the level below.
+ * For each bucket, the summary keeps the time covered by its dominant method, the method
+ * covering the most time in the bucket, and the segment to draw for the bucket: the segment of
+ * the dominant method covering the most time in the bucket.
+ * <p/>Level 0 is exact. Above it, the dominant method of a bucket is the dominant method of its
+ * half covering the most time, which is only an approximation when its halves have different
+ * dominant methods.
+ * <p/>Segments are identified by their index in the arrays given to the constructor.
+ */
+final class TimeLineSummary {
+    /** average number of segments in a bucket of level 0 */
+    static final int SEGMENTS_PER_BUCKET = 8;
+
+    private final long mOrigin;
+    /** the buckets of level 0 are 1 << mShift time units wide */
+    private final int mShift;
+    /** the segment to draw for each bucket of each level, or -1 for an empty bucket */
+    private final int[][] mSegments;
+    /** the time covered by the dominant method of each bucket of each level */
+    private final long[][] mCoverages;
+
+    /**
+     * Creates the summary of a row.
+     * @param starts the start time of the segments, in increasing order
+     * @param ends the end time of the segments. Segments may not overlap.
+     * @param methods the method of the segments, or null for segments that are not drawn.
+     *     Methods are compared by identity.
+     * @param contextSwitches the segments that are context switches. They don't count in the
+     *     time covered by their method, but they are drawn for buckets where nothing else is.
+     */
+    TimeLineSummary(long[] starts, long[] ends, Object[] methods, BitSet contextSwitches) {
+        int count = starts.length;
+        long start = count > 0 ? starts[0] : 0;
+        long end = start;
+        for (int i = 0; i < count; i++) {
+            end = Math.max(end, ends[i]);
+        }
+        long span = Math.max(end - start, 1);
+        long width = Math.max(span * SEGMENTS_PER_BUCKET / Math.max(count, 1), 1);
+
+        mOrigin = start;
+        mShift = 64 - Long.numberOfLeadingZeros(width - 1);
+
+        int levelCount = 1;
+        for (long buckets = getBucketCount(span, 0); buckets > 1; buckets = (buckets + 1) / 2) {
+            levelCount++;
+        }
+        mSegments = new int[levelCount][];
+        mCoverages = new long[levelCount][];
+
+        int[] ids = getMethodIds(methods);
+        computeLevel0(starts, ends, ids, contextSwitches, (int) getBucketCount(span, 0));
+        for (int level = 1; level < levelCount; level++) {
+            computeLevel(level, ids);
+        }
+    }
+
+    /**
+     * Returns the level to use to draw pixels spanning <var>rangePerPixel</var> time units,
+     * which is the level with the widest buckets still narrower than a pixel, or -1 if
+     * segments are few enough to be drawn one by one.
+     */
+    int getLevel(double rangePerPixel) {
+        int level = -1;
+        while (level + 1 < mSegments.length && getBucketWidth(level + 1) <= rangePerPixel) {
+            level++;
+        }
+        return level;
+    }
+
+    int getLevelCount() {
+        return mSegments.length;
+    }
+
+    int getBucketCount(int level) {
+        return mSegments[level].length;
+    }
+
+    long getBucketWidth(int level) {
+        return 1L << (mShift + level);
+    }
+
+    long getBucketStart(int level, int bucket) {
+        return mOrigin + ((long) bucket << (mShift + level));
+    }
+
+    /**
+     * Returns the bucket of a level containing a time, or the first or last bucket of the level
+     * if the time is out of the row.
+     */
+    int getBucket(int level, double time) {
+        double bucket = Math.floor((time - mOrigin) / getBucketWidth(level));
+        return (int) Math.max(0, Math.min(bucket, mSegments[level].length - 1));
+    }
+
+    /**
+     * Returns the segment to draw for a bucket, or -1 if no segment is drawn in the bucket.
+     */
+    int getSegment(int level, int bucket) {
+        return mSegments[level][bucket];
+    }
+
+    /**
+     * Returns the time covered by the dominant method of a bucket.
+     */
+    long getCoverage(int level, int bucket) {
+        return mCoverages[level][bucket];
+    }
+
+    private long getBucketCount(long span, int level) {
+        return ((span - 1) >> (mShift + level)) + 1;
+    }
+
+    /**
+     * Numbers the methods of the segments, so that the time they cover can be added up in
+     * arrays. Segments that are not drawn get -1.
+     */
+    private static int[] getMethodIds(Object[] methods) {
+        IdentityHashMap<Object, Integer> idMap = new IdentityHashMap<Object, Integer>();
+        int[] ids = new int[methods.length];
+        for (int i = 0; i < methods.length; i++) {
+            if (methods[i] == null) {
+                ids[i] = -1;
+                continue;
+            }
+            Integer id = idMap.get(methods[i]);
+            if (id == null) {
+                id = Integer.valueOf(idMap.size());
+                idMap.put(methods[i], id);
+            }
+            ids[i] = id.intValue();
+        }
+        return ids;
+    }
+
+    private void computeLevel0(long[] starts, long[] ends, int[] ids, BitSet contextSwitches,
+            int bucketCount) {
+        int[] segments = new int[bucketCount];
+        long[] coverages = new long[bucketCount];
+        mSegments[0] = segments;
+        mCoverages[0] = coverages;
+
+        int methodCount = 0;
+        for (int id : ids) {
+            methodCount = Math.max(methodCount, id + 1);
+        }
+        // the time covered by each method in the current bucket, the segment of the method
+        // covering the most time in it, and the methods found in it.
+        long[] methodCoverages = new long[methodCount];
+        long[] segmentCoverages = new long[methodCount];
+        int[] methodSegments = new int[methodCount];
+        int[] bucketMethods = new int[methodCount];
+        int bucketMethodCount = 0;
+        int contextSwitch = -1;
+
+        long width = getBucketWidth(0);
+        int bucket = 0;
+        for (int i = 0; i <= ids.length; i++) {
+            int first = bucketCount;
+            int last = bucketCount;
+            if (i < ids.length) {
+                if (ids[i] < 0 || ends[i] <= starts[i]) {
+                    continue;
+                }
+                first = (int) ((starts[i] - mOrigin) >> mShift);
+                last = (int) ((ends[i] - 1 - mOrigin) >> mShift);
+            }
+
+            for (int b = Math.max(first, bucket); b <= last; b++) {
+                if (b != bucket) {
+                    // done with the current bucket, record its dominant method.
+                    int segment = contextSwitch;
+                    long coverage = 0;
+                    for (int j = 0; j < bucketMethodCount; j++) {
+                        int id = bucketMethods[j];
+                        if (methodCoverages[id] > coverage) {
+                            coverage = methodCoverages[id];
+                            segment = methodSegments[id];
+                        }
+                        methodCoverages[id] = 0;
+                        segmentCoverages[id] = 0;
+                    }
+                    segments[bucket] = segment;
+                    coverages[bucket] = coverage;
+                    bucketMethodCount = 0;
+                    contextSwitch = -1;
+
+                    // the buckets no segment reached are empty.
+                    for (bucket++; bucket < Math.min(b, bucketCount); bucket++) {
+                        segments[bucket] = -1;
+                    }
+                    if (b == bucketCount) {
+                        break;
+                    }
+                }
+
+                if (contextSwitches.get(i)) {
+                    if (contextSwitch < 0) {
+                        contextSwitch = i;
+                    }
+                    continue;
+                }
+
+                long bucketStart = mOrigin + ((long) b << mShift);
+                long coverage = Math.min(ends[i], bucketStart + width)
+                        - Math.max(starts[i], bucketStart);
+                int id = ids[i];
+                if (methodCoverages[id] == 0) {
+                    bucketMethods[bucketMethodCount++] = id;
+                }
+                methodCoverages[id] += coverage;
+                if (coverage > segmentCoverages[id]) {
+                    segmentCoverages[id] = coverage;
+                    methodSegments[id] = i;
+                }
+            }
+        }
+    }
+
+    private void computeLevel(int level, int[] ids) {
+        int[] lowerSegments = mSegments[level - 1];
+        long[] lowerCoverages = mCoverages[level - 1];
+        int bucketCount = (lowerSegments.length + 1) / 2;
+        int[] segments = new int[bucketCount];
+        long[] coverages = new long[bucketCount];
+        mSegments[level] = segments;
+        mCoverages[level] = coverages;
+
+        for (int b = 0; b < bucketCount; b++) {
+            int segment1 = lowerSegments[2 * b];
+            long coverage1 = lowerCoverages[2 * b];
+            int segment2 = -1;
+            long coverage2 = 0;
+            if (2 * b + 1 < lowerSegments.length) {
+                segment2 = lowerSegments[2 * b + 1];
+                coverage2 = lowerCoverages[2 * b + 1];
+            }
+
+            if (segment2 < 0 || (segment1 >= 0 && coverage1 >= coverage2)) {
+                segments[b] = segment1;
+                coverages[b] = coverage1;
+            } else {
+                segments[b] = segment2;
+                coverages[b] = coverage2;
+            }
+            if (segment1 >= 0 && segment2 >= 0 && ids[segment1] == ids[segment2]) {
+                coverages[b] = coverage1 + coverage2;
+            }
+        }
+    }
+}
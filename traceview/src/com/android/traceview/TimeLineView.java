@@ -44,10 +44,12 @@ import org.eclipse.swt.widgets.ScrollBar;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Observable;
 import java.util.Observer;
 
@@ -56,6 +58,8 @@ public class TimeLineView extends Composite implements Observer {
     private HashMap<String, RowData> mRowByName;
     private RowData[] mRows;
     private Segment[] mSegments;
+    /** a block of each method found in the segments, to clear the per-method pixel weights */
+    private Block[] mWeightBlocks;
     private HashMap<Integer, String> mThreadLabels;
     private Timescale mTimescale;
     private Surface mSurface;
@@ -526,12 +530,33 @@ public class TimeLineView extends Composite implements Observer {
                     long timeDiff = bd1.mStartTime - bd2.mStartTime;
                     if (timeDiff == 0)
                         timeDiff = bd1.mEndTime - bd2.mEndTime;
-                    return (int) timeDiff;
+                    return Long.signum(timeDiff);
                 }
                 return diff;
             }
         });
 
+        // Find the segments of each row, which are now contiguous, and summarize them.
+        int first = 0;
+        for (int ii = 1; ii <= mSegments.length; ++ii) {
+            if (ii == mSegments.length || mSegments[ii].mRowData != mSegments[first].mRowData) {
+                mSegments[first].mRowData.setSegments(mSegments, first, ii);
+                first = ii;
+            }
+        }
+        HashSet<MethodData> methods = new HashSet<MethodData>();
+        ArrayList<Block> weightBlocks = new ArrayList<Block>();
+        for (RowData rd : mRows) {
+            if (rd.mSummary == null)
+                rd.setSegments(mSegments, 0, 0);
+            for (int ii = rd.mFirstSegment; ii < rd.mSegmentEnd; ++ii) {
+                Block block = mSegments[ii].mBlock;
+                if (methods.add(block.getMethodData()))
+                    weightBlocks.add(block);
+            }
+        }
+        mWeightBlocks = weightBlocks.toArray(new Block[weightBlocks.size()]);
+
         if (false) {
             for (Segment segment : mSegments) {
                 System.out.printf("seg '%s' [%6d, %6d] %s\n",
@@ -1337,15 +1362,11 @@ public class TimeLineView extends Composite implements Observer {
         private void computeStrips() {
             double minVal = mScaleInfo.getMinVal();
             double maxVal = mScaleInfo.getMaxVal();
-
-            // Allocate space for the pixel data
-            Pixel[] pixels = new Pixel[mNumRows];
-            for (int ii = 0; ii < mNumRows; ++ii)
-                pixels[ii] = new Pixel();
+            double rangePerPixel = 1.0 / mScaleInfo.getPixelsPerRange();
 
             // Clear the per-block pixel data
-            for (int ii = 0; ii < mSegments.length; ++ii) {
-                mSegments[ii].mBlock.clearWeight();
+            for (Block block : mWeightBlocks) {
+                block.clearWeight();
             }
 
             mStripList.clear();
@@ -1381,187 +1402,191 @@ public class TimeLineView extends Composite implements Observer {
                 mHighlightInclusive.add(new Range(callPixelStart + LeftMargin,
                         callPixelEnd + LeftMargin, y1, color));
             }
-            for (Segment segment : mSegments) {
-                if (segment.mEndTime <= minVal)
-                    continue;
-                if (segment.mStartTime >= maxVal)
-                    continue;
+            updateHighlightSegments();
 
-                Block block = segment.mBlock;
+            // Only the visible rows are computed.
+            for (int rank = mStartRow; rank <= mEndRow; ++rank) {
+                RowData rd = mRows[rank];
 
-                // Skip over blocks that were not assigned a color, including the
-                // top level block and others that have zero inclusive time.
-                Color color = block.getColor();
-                if (color == null)
+                // When many segments fall in each pixel, draw the pixels from the summary of
+                // the row instead of going through all its segments.
+                int level = rd.mSummary.getLevel(rangePerPixel);
+                if (level >= 0) {
+                    computeSummaryStrips(rd, level, minVal, maxVal);
                     continue;
+                }
 
-                double recordStart = Math.max(segment.mStartTime, minVal);
-                double recordEnd = Math.min(segment.mEndTime, maxVal);
-                if (recordStart == recordEnd)
-                    continue;
-                int pixelStart = mScaleInfo.valueToPixel(recordStart);
-                int pixelEnd = mScaleInfo.valueToPixel(recordEnd);
-                int width = pixelEnd - pixelStart;
-                boolean isContextSwitch = segment.mIsContextSwitch;
+                Pixel pix = new Pixel();
+                int first = findSegment(rd.mFirstSegment, rd.mSegmentEnd, minVal);
+                for (int ii = first; ii < rd.mSegmentEnd; ++ii) {
+                    Segment segment = mSegments[ii];
+                    if (segment.mStartTime >= maxVal)
+                        break;
 
-                RowData rd = segment.mRowData;
-                MethodData md = block.getMethodData();
+                    Block block = segment.mBlock;
 
-                // We will add the scroll offset later when we draw the strips
-                int y1 = rd.mRank * rowYSpace + rowYMarginHalf;
+                    // Skip over blocks that were not assigned a color, including the
+                    // top level block and others that have zero inclusive time.
+                    Color color = block.getColor();
+                    if (color == null)
+                        continue;
 
-                // If we can't display any more rows, then quit
-                if (rd.mRank > mEndRow)
-                    break;
+                    double recordStart = Math.max(segment.mStartTime, minVal);
+                    double recordEnd = Math.min(segment.mEndTime, maxVal);
+                    if (recordStart == recordEnd)
+                        continue;
+                    int pixelStart = mScaleInfo.valueToPixel(recordStart);
+                    int pixelEnd = mScaleInfo.valueToPixel(recordEnd);
+                    int width = pixelEnd - pixelStart;
+                    boolean isContextSwitch = segment.mIsContextSwitch;
 
-                // System.out.printf("segment %s val: [%.1f, %.1f] frac [%f, %f]
-                // pixel: [%d, %d] pix.start %d weight %.2f %s\n",
-                // block.getName(), recordStart, recordEnd,
-                // scaleInfo.valueToPixelFraction(recordStart),
-                // scaleInfo.valueToPixelFraction(recordEnd),
-                // pixelStart, pixelEnd, pixels[rd.rank].start,
-                // pixels[rd.rank].maxWeight,
-                // pixels[rd.rank].segment != null
-                // ? pixels[rd.rank].segment.block.getName()
-                // : "null");
+                    MethodData md = block.getMethodData();
 
-                if (mHighlightMethodData != null) {
-                    if (mHighlightMethodData == md) {
-                        if (prevMethodStart != pixelStart || prevMethodEnd != pixelEnd) {
-                            prevMethodStart = pixelStart;
-                            prevMethodEnd = pixelEnd;
-                            int rangeWidth = width;
-                            if (rangeWidth == 0)
-                                rangeWidth = 1;
-                            mHighlightExclusive.add(new Range(pixelStart
-                                    + LeftMargin, rangeWidth, y1, color));
-                            callStart = block.getStartTime();
-                            int callPixelStart = -1;
-                            if (callStart >= minVal)
-                                callPixelStart = mScaleInfo.valueToPixel(callStart);
-                            int callPixelEnd = -1;
-                            callEnd = block.getEndTime();
-                            if (callEnd <= maxVal)
-                                callPixelEnd = mScaleInfo.valueToPixel(callEnd);
-                            if (prevCallStart != callPixelStart || prevCallEnd != callPixelEnd) {
-                                prevCallStart = callPixelStart;
-                                prevCallEnd = callPixelEnd;
-                                mHighlightInclusive.add(new Range(
-                                        callPixelStart + LeftMargin,
-                                        callPixelEnd + LeftMargin, y1, color));
+                    // We will add the scroll offset later when we draw the strips
+                    int y1 = rd.mRank * rowYSpace + rowYMarginHalf;
+
+                    // System.out.printf("segment %s val: [%.1f, %.1f] frac [%f, %f]
+                    // pixel: [%d, %d] pix.start %d weight %.2f %s\n",
+                    // block.getName(), recordStart, recordEnd,
+                    // scaleInfo.valueToPixelFraction(recordStart),
+                    // scaleInfo.valueToPixelFraction(recordEnd),
+                    // pixelStart, pixelEnd, pixels[rd.rank].start,
+                    // pixels[rd.rank].maxWeight,
+                    // pixels[rd.rank].segment != null
+                    // ? pixels[rd.rank].segment.block.getName()
+                    // : "null");
+
+                    if (mHighlightMethodData != null) {
+                        if (mHighlightMethodData == md) {
+                            if (prevMethodStart != pixelStart || prevMethodEnd != pixelEnd) {
+                                prevMethodStart = pixelStart;
+                                prevMethodEnd = pixelEnd;
+                                int rangeWidth = width;
+                                if (rangeWidth == 0)
+                                    rangeWidth = 1;
+                                mHighlightExclusive.add(new Range(pixelStart
+                                        + LeftMargin, rangeWidth, y1, color));
+                                callStart = block.getStartTime();
+                                int callPixelStart = -1;
+                                if (callStart >= minVal)
+                                    callPixelStart = mScaleInfo.valueToPixel(callStart);
+                                int callPixelEnd = -1;
+                                callEnd = block.getEndTime();
+                                if (callEnd <= maxVal)
+                                    callPixelEnd = mScaleInfo.valueToPixel(callEnd);
+                                if (prevCallStart != callPixelStart
+                                        || prevCallEnd != callPixelEnd) {
+                                    prevCallStart = callPixelStart;
+                                    prevCallEnd = callPixelEnd;
+                                    mHighlightInclusive.add(new Range(
+                                            callPixelStart + LeftMargin,
+                                            callPixelEnd + LeftMargin, y1, color));
+                                }
                             }
+                        } else if (mFadeColors) {
+                            color = md.getFadedColor();
                         }
-                    } else if (mFadeColors) {
-                        color = md.getFadedColor();
-                    }
-                } else if (mHighlightCall != null) {
-                    if (segment.mStartTime >= callStart
-                            && segment.mEndTime <= callEnd && callMethod == md
-                            && callRowData == rd) {
-                        if (prevMethodStart != pixelStart || prevMethodEnd != pixelEnd) {
-                            prevMethodStart = pixelStart;
-                            prevMethodEnd = pixelEnd;
-                            int rangeWidth = width;
-                            if (rangeWidth == 0)
-                                rangeWidth = 1;
-                            mHighlightExclusive.add(new Range(pixelStart
-                                    + LeftMargin, rangeWidth, y1, color));
+                    } else if (mHighlightCall != null) {
+                        if (segment.mStartTime >= callStart
+                                && segment.mEndTime <= callEnd && callMethod == md
+                                && callRowData == rd) {
+                            if (prevMethodStart != pixelStart || prevMethodEnd != pixelEnd) {
+                                prevMethodStart = pixelStart;
+                                prevMethodEnd = pixelEnd;
+                                int rangeWidth = width;
+                                if (rangeWidth == 0)
+                                    rangeWidth = 1;
+                                mHighlightExclusive.add(new Range(pixelStart
+                                        + LeftMargin, rangeWidth, y1, color));
+                            }
+                        } else if (mFadeColors) {
+                            color = md.getFadedColor();
                         }
-                    } else if (mFadeColors) {
-                        color = md.getFadedColor();
                     }
-                }
 
-                // Cases:
-                // 1. This segment starts on a different pixel than the
-                // previous segment started on. In this case, emit
-                // the pixel strip, if any, and:
-                // A. If the width is 0, then add this segment's
-                // weight to the Pixel.
-                // B. If the width > 0, then emit a strip for this
-                // segment (no partial Pixel data).
-                //
-                // 2. Otherwise (the new segment starts on the same
-                // pixel as the previous segment): add its "weight"
-                // to the current pixel, and:
-                // A. If the new segment has width 1,
-                // then emit the pixel strip and then
-                // add the segment's weight to the pixel.
-                // B. If the new segment has width > 1,
-                // then emit the pixel strip, and emit the rest
-                // of the strip for this segment (no partial Pixel
-                // data).
-
-                Pixel pix = pixels[rd.mRank];
-                if (pix.mStart != pixelStart) {
-                    if (pix.mSegment != null) {
-                        // Emit the pixel strip. This also clears the pixel.
-                        emitPixelStrip(rd, y1, pix);
-                    }
+                    // Cases:
+                    // 1. This segment starts on a different pixel than the
+                    // previous segment started on. In this case, emit
+                    // the pixel strip, if any, and:
+                    // A. If the width is 0, then add this segment's
+                    // weight to the Pixel.
+                    // B. If the width > 0, then emit a strip for this
+                    // segment (no partial Pixel data).
+                    //
+                    // 2. Otherwise (the new segment starts on the same
+                    // pixel as the previous segment): add its "weight"
+                    // to the current pixel, and:
+                    // A. If the new segment has width 1,
+                    // then emit the pixel strip and then
+                    // add the segment's weight to the pixel.
+                    // B. If the new segment has width > 1,
+                    // then emit the pixel strip, and emit the rest
+                    // of the strip for this segment (no partial Pixel
+                    // data).
+
+                    if (pix.mStart != pixelStart) {
+                        if (pix.mSegment != null) {
+                            // Emit the pixel strip. This also clears the pixel.
+                            emitPixelStrip(rd, y1, pix);
+                        }
 
-                    if (width == 0) {
-                        // Compute the "weight" of this segment for the first
-                        // pixel. For a pixel N, the "weight" of a segment is
-                        // how much of the region [N - 0.5, N + 0.5] is covered
-                        // by the segment.
+                        if (width == 0) {
+                            // Compute the "weight" of this segment for the first
+                            // pixel. For a pixel N, the "weight" of a segment is
+                            // how much of the region [N - 0.5, N + 0.5] is covered
+                            // by the segment.
+                            double weight = computeWeight(recordStart, recordEnd,
+                                    isContextSwitch, pixelStart);
+                            weight = block.addWeight(pixelStart, rd.mRank, weight);
+                            if (weight > pix.mMaxWeight) {
+                                pix.setFields(pixelStart, weight, segment, color,
+                                        rd);
+                            }
+                        } else {
+                            int x1 = pixelStart + LeftMargin;
+                            Strip strip = new Strip(
+                                    x1, isContextSwitch ? y1 + rowHeight - 1 : y1,
+                                    width, isContextSwitch ? 1 : rowHeight,
+                                    rd, segment, color);
+                            mStripList.add(strip);
+                        }
+                    } else {
                         double weight = computeWeight(recordStart, recordEnd,
                                 isContextSwitch, pixelStart);
                         weight = block.addWeight(pixelStart, rd.mRank, weight);
                         if (weight > pix.mMaxWeight) {
-                            pix.setFields(pixelStart, weight, segment, color,
-                                    rd);
+                            pix.setFields(pixelStart, weight, segment, color, rd);
+                        }
+                        if (width == 1) {
+                            // Emit the pixel strip. This also clears the pixel.
+                            emitPixelStrip(rd, y1, pix);
+
+                            // Compute the weight for the next pixel
+                            pixelStart += 1;
+                            weight = computeWeight(recordStart, recordEnd,
+                                    isContextSwitch, pixelStart);
+                            weight = block.addWeight(pixelStart, rd.mRank, weight);
+                            pix.setFields(pixelStart, weight, segment, color, rd);
+                        } else if (width > 1) {
+                            // Emit the pixel strip. This also clears the pixel.
+                            emitPixelStrip(rd, y1, pix);
+
+                            // Emit a strip for the rest of the segment.
+                            pixelStart += 1;
+                            width -= 1;
+                            int x1 = pixelStart + LeftMargin;
+                            Strip strip = new Strip(
+                                    x1, isContextSwitch ? y1 + rowHeight - 1 : y1,
+                                    width, isContextSwitch ? 1 : rowHeight,
+                                    rd,segment, color);
+                            mStripList.add(strip);
                         }
-                    } else {
-                        int x1 = pixelStart + LeftMargin;
-                        Strip strip = new Strip(
-                                x1, isContextSwitch ? y1 + rowHeight - 1 : y1,
-                                width, isContextSwitch ? 1 : rowHeight,
-                                rd, segment, color);
-                        mStripList.add(strip);
-                    }
-                } else {
-                    double weight = computeWeight(recordStart, recordEnd,
-                            isContextSwitch, pixelStart);
-                    weight = block.addWeight(pixelStart, rd.mRank, weight);
-                    if (weight > pix.mMaxWeight) {
-                        pix.setFields(pixelStart, weight, segment, color, rd);
-                    }
-                    if (width == 1) {
-                        // Emit the pixel strip. This also clears the pixel.
-                        emitPixelStrip(rd, y1, pix);
-
-                        // Compute the weight for the next pixel
-                        pixelStart += 1;
-                        weight = computeWeight(recordStart, recordEnd,
-                                isContextSwitch, pixelStart);
-                        weight = block.addWeight(pixelStart, rd.mRank, weight);
-                        pix.setFields(pixelStart, weight, segment, color, rd);
-                    } else if (width > 1) {
-                        // Emit the pixel strip. This also clears the pixel.
-                        emitPixelStrip(rd, y1, pix);
-
-                        // Emit a strip for the rest of the segment.
-                        pixelStart += 1;
-                        width -= 1;
-                        int x1 = pixelStart + LeftMargin;
-                        Strip strip = new Strip(
-                                x1, isContextSwitch ? y1 + rowHeight - 1 : y1,
-                                width, isContextSwitch ? 1 : rowHeight,
-                                rd,segment, color);
-                        mStripList.add(strip);
                     }
                 }
-            }
 
-            // Emit the last pixels of each row, if any
-            for (int ii = 0; ii < mNumRows; ++ii) {
-                Pixel pix = pixels[ii];
-                if (pix.mSegment != null) {
-                    RowData rd = pix.mRowData;
-                    int y1 = rd.mRank * rowYSpace + rowYMarginHalf;
-                    // Emit the pixel strip. This also clears the pixel.
-                    emitPixelStrip(rd, y1, pix);
-                }
+                // Emit the last pixel of the row, if any
+                int y1 = rd.mRank * rowYSpace + rowYMarginHalf;
+                emitPixelStrip(rd, y1, pix);
             }
 
             if (false) {
@@ -1574,6 +1599,250 @@ public class TimeLineView extends Composite implements Observer {
             }
         }
 
+        /**
+         * Computes the strips of a row from a level of its summary. Each pixel shows the
+         * segment of the method covering the most time in the buckets it contains.
+         */
+        private void computeSummaryStrips(RowData rd, int level, double minVal, double maxVal) {
+            TimeLineSummary summary = rd.mSummary;
+            long bucketWidth = summary.getBucketWidth(level);
+            boolean highlighting = mHighlightMethodData != null || mHighlightCall != null;
+
+            // We will add the scroll offset later when we draw the strips
+            int y1 = rd.mRank * rowYSpace + rowYMarginHalf;
+
+            Pixel pix = new Pixel();
+            Strip strip = null;
+            int x = -2;
+            int bucketCount = 0; // the number of buckets in the current pixel
+            int last = summary.getBucket(level, maxVal);
+            for (int bucket = summary.getBucket(level, minVal); bucket <= last; ++bucket) {
+                double center = summary.getBucketStart(level, bucket) + bucketWidth / 2.0;
+                int bucketX = mScaleInfo.valueToPixel(Math.max(minVal, Math.min(center, maxVal)));
+                if (bucketX != x) {
+                    strip = emitSummaryPixel(rd, y1, pix, bucketCount * bucketWidth, strip);
+                    x = bucketX;
+                    bucketCount = 0;
+                }
+                bucketCount += 1;
+
+                int index = summary.getSegment(level, bucket);
+                if (index < 0)
+                    continue;
+                Segment segment = mSegments[rd.mFirstSegment + index];
+                Block block = segment.mBlock;
+                Color color = block.getColor();
+                if (highlighting && mFadeColors && isHighlighted(rd, segment) == false)
+                    color = block.getMethodData().getFadedColor();
+
+                // The weight is the time covered by the method in the pixel until the pixel
+                // is emitted.
+                double weight = block.addWeight(x, rd.mRank, summary.getCoverage(level, bucket));
+                if (pix.mSegment == null || weight > pix.mMaxWeight) {
+                    pix.setFields(x, weight, segment, color, rd);
+                }
+            }
+            emitSummaryPixel(rd, y1, pix, bucketCount * bucketWidth, strip);
+
+            if (highlighting)
+                addSummaryHighlights(rd, y1, minVal, maxVal);
+        }
+
+        /**
+         * Emits the strip of a pixel computed from a row summary. A pixel entirely covered by
+         * a method is drawn at full height, extending the strip of the previous pixel if it
+         * shows the same segment.
+         * @param pixelRange the time spanned by the buckets of the pixel
+         * @return the strip to extend with the next pixel, if any.
+         */
+        private Strip emitSummaryPixel(RowData rd, int y, Pixel pixel, double pixelRange,
+                Strip strip) {
+            Segment segment = pixel.mSegment;
+            if (segment == null)
+                return strip;
+            pixel.mMaxWeight /= pixelRange;
+            if (segment.mIsContextSwitch == false && pixel.mMaxWeight < 1) {
+                emitPixelStrip(rd, y, pixel);
+                return null;
+            }
+
+            int x = pixel.mStart + LeftMargin;
+            if (strip != null && strip.mSegment == segment && strip.mColor == pixel.mColor
+                    && strip.mX + strip.mWidth == x) {
+                strip.mWidth += 1;
+            } else {
+                strip = new Strip(x, segment.mIsContextSwitch ? y + rowHeight - 1 : y, 1,
+                        segment.mIsContextSwitch ? 1 : rowHeight, rd, segment, pixel.mColor);
+                mStripList.add(strip);
+            }
+            pixel.mSegment = null;
+            pixel.mMaxWeight = 0.0;
+            return strip;
+        }
+
+        /**
+         * Computes the highlight ranges of a row drawn from its summary. Only the first
+         * highlighted segment ending in each pixel is used, so that the cost depends on the
+         * number of pixels and not on the number of segments.
+         */
+        private void addSummaryHighlights(RowData rd, int y1, double minVal, double maxVal) {
+            double rangePerPixel = 1.0 / mScaleInfo.getPixelsPerRange();
+            int end = findHighlightRow(rd.mSegmentEnd);
+            int ii = findHighlightSegment(findHighlightRow(rd.mFirstSegment), end, minVal);
+            int prevCallStart = -1;
+            int prevCallEnd = -1;
+            while (ii < end) {
+                Segment segment = mSegments[mHighlightSegments[ii]];
+                if (segment.mStartTime >= maxVal)
+                    break;
+
+                Block block = segment.mBlock;
+                Color color = block.getColor();
+                double recordStart = Math.max(segment.mStartTime, minVal);
+                double recordEnd = Math.min(segment.mEndTime, maxVal);
+                int pixelStart = mScaleInfo.valueToPixel(recordStart);
+                int pixelEnd = mScaleInfo.valueToPixel(recordEnd);
+                int rangeWidth = Math.max(pixelEnd - pixelStart, 1);
+                mHighlightExclusive.add(new Range(pixelStart + LeftMargin, rangeWidth, y1,
+                        color));
+
+                if (mHighlightMethodData != null) {
+                    long callStart = block.getStartTime();
+                    int callPixelStart = -1;
+                    if (callStart >= minVal)
+                        callPixelStart = mScaleInfo.valueToPixel(callStart);
+                    long callEnd = block.getEndTime();
+                    int callPixelEnd = -1;
+                    if (callEnd <= maxVal)
+                        callPixelEnd = mScaleInfo.valueToPixel(callEnd);
+                    if (prevCallStart != callPixelStart || prevCallEnd != callPixelEnd) {
+                        prevCallStart = callPixelStart;
+                        prevCallEnd = callPixelEnd;
+                        mHighlightInclusive.add(new Range(callPixelStart + LeftMargin,
+                                callPixelEnd + LeftMargin, y1, color));
+                    }
+                }
+
+                // Skip the highlighted segments ending in the same pixel.
+                double pixelEndVal = mScaleInfo.pixelToValue(pixelEnd) + rangePerPixel / 2;
+                ii = findHighlightSegment(ii + 1, end, pixelEndVal);
+            }
+        }
+
+        /**
+         * Returns whether a segment is part of the highlighted method or call.
+         */
+        private boolean isHighlighted(RowData rd, Segment segment) {
+            MethodData md = segment.mBlock.getMethodData();
+            if (mHighlightMethodData != null)
+                return md == mHighlightMethodData;
+            if (mHighlightCall != null) {
+                return rd == mHighlightRowData && md == mHighlightCall.getMethodData()
+                        && segment.mStartTime >= mHighlightCall.getStartTime()
+                        && segment.mEndTime <= mHighlightCall.getEndTime();
+            }
+            return false;
+        }
+
+        /**
+         * Finds the segments of the highlighted method or call, when they change. They are
+         * only used to highlight the rows drawn from their summary.
+         */
+        private void updateHighlightSegments() {
+            if (mHighlightMethodData == mHighlightSegmentsMethod
+                    && mHighlightCall == mHighlightSegmentsCall) {
+                return;
+            }
+            mHighlightSegmentsMethod = mHighlightMethodData;
+            mHighlightSegmentsCall = mHighlightCall;
+            mHighlightRowData = null;
+            mHighlightSegmentCount = 0;
+
+            // Look at all the segments for a method, and at the segments of the thread during
+            // the call for a call.
+            int first = 0;
+            int end = 0;
+            if (mHighlightMethodData != null) {
+                end = mSegments.length;
+            } else if (mHighlightCall != null) {
+                String threadName = mThreadLabels.get(mHighlightCall.getThreadId());
+                mHighlightRowData = mRowByName.get(threadName);
+                if (mHighlightRowData != null) {
+                    first = findSegment(mHighlightRowData.mFirstSegment,
+                            mHighlightRowData.mSegmentEnd, mHighlightCall.getStartTime());
+                    end = mHighlightRowData.mSegmentEnd;
+                }
+            }
+
+            for (int ii = first; ii < end; ++ii) {
+                Segment segment = mSegments[ii];
+                if (mHighlightCall != null
+                        && segment.mStartTime >= mHighlightCall.getEndTime())
+                    break;
+                if (isHighlighted(segment.mRowData, segment) == false)
+                    continue;
+                if (mHighlightSegmentCount == mHighlightSegments.length) {
+                    int[] segments = new int[mHighlightSegmentCount * 2];
+                    System.arraycopy(mHighlightSegments, 0, segments, 0,
+                            mHighlightSegmentCount);
+                    mHighlightSegments = segments;
+                }
+                mHighlightSegments[mHighlightSegmentCount++] = ii;
+            }
+        }
+
+        /**
+         * Returns the first segment in [first, end) ending after a time. The segments must
+         * be in the same row.
+         */
+        private int findSegment(int first, int end, double time) {
+            int low = first;
+            int high = end;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (mSegments[mid].mEndTime > time)
+                    high = mid;
+                else
+                    low = mid + 1;
+            }
+            return low;
+        }
+
+        /**
+         * Returns the first highlighted segment in [first, end) ending after a time. The
+         * segments must be in the same row.
+         */
+        private int findHighlightSegment(int first, int end, double time) {
+            int low = first;
+            int high = end;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (mSegments[mHighlightSegments[mid]].mEndTime > time)
+                    high = mid;
+                else
+                    low = mid + 1;
+            }
+            return low;
+        }
+
+        /**
+         * Returns the first highlighted segment whose index is greater or equal to a segment
+         * index. The highlighted segments of a row are between the values returned for its
+         * first and its end segments.
+         */
+        private int findHighlightRow(int segment) {
+            int low = 0;
+            int high = mHighlightSegmentCount;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (mHighlightSegments[mid] >= segment)
+                    high = mid;
+                else
+                    low = mid + 1;
+            }
+            return low;
+        }
+
         private double computeWeight(double start, double end,
                 boolean isContextSwitch, int pixel) {
             if (isContextSwitch) {
@@ -1977,6 +2246,13 @@ public class TimeLineView extends Composite implements Observer {
         private ArrayList<Strip> mStripList = new ArrayList<Strip>();
         private ArrayList<Range> mHighlightExclusive = new ArrayList<Range>();
         private ArrayList<Range> mHighlightInclusive = new ArrayList<Range>();
+        /** the segments of the highlighted method or call, by increasing index */
+        private int[] mHighlightSegments = new int[16];
+        private int mHighlightSegmentCount;
+        private MethodData mHighlightSegmentsMethod;
+        private Call mHighlightSegmentsCall;
+        /** the row of the highlighted call */
+        private RowData mHighlightRowData;
         private int mMinStripHeight = 2;
         private double mCachedMinVal;
         private double mCachedMaxVal;
@@ -2074,11 +2350,39 @@ public class TimeLineView extends Composite implements Observer {
             mStack.remove(mStack.size() - 1);
         }
 
+        /**
+         * Sets the range of the sorted segments belonging to this row, and summarizes them.
+         */
+        public void setSegments(Segment[] segments, int first, int end) {
+            mFirstSegment = first;
+            mSegmentEnd = end;
+
+            int count = end - first;
+            long[] starts = new long[count];
+            long[] ends = new long[count];
+            MethodData[] methods = new MethodData[count];
+            BitSet contextSwitches = new BitSet();
+            for (int ii = 0; ii < count; ++ii) {
+                Segment segment = segments[first + ii];
+                starts[ii] = segment.mStartTime;
+                ends[ii] = segment.mEndTime;
+                // Blocks without a color are not drawn.
+                if (segment.mBlock.getColor() != null)
+                    methods[ii] = segment.mBlock.getMethodData();
+                if (segment.mIsContextSwitch)
+                    contextSwitches.set(ii);
+            }
+            mSummary = new TimeLineSummary(starts, ends, methods, contextSwitches);
+        }
+
         private String mName;
         private int mRank;
         private long mElapsed;
         private long mEndTime;
         private ArrayList<Block> mStack;
+        private int mFirstSegment;
+        private int mSegmentEnd;
+        private TimeLineSummary mSummary;
     }
 
     private static class Segment {
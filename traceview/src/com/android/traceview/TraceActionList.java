@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.traceview;
+
+/**
+ * The sequence of method entries and exits of a trace, across all threads. Each action is
+ * packed in an int with the number of its call in the {@link CallList}.
+ */
+final class TraceActionList {
+    public static final int ACTION_ENTER = 0;
+    public static final int ACTION_EXIT = 1;
+    public static final int ACTION_INCOMPLETE = 2;
+
+    private static final int ACTION_BITS = 2;
+    private static final int ACTION_MASK = (1 << ACTION_BITS) - 1;
+
+    private int[] mActions = new int[1024];
+    private int mSize;
+
+    void add(int action, int call) {
+        if (mSize == mActions.length) {
+            int[] actions = new int[mSize * 2];
+            System.arraycopy(mActions, 0, actions, 0, mSize);
+            mActions = actions;
+        }
+        mActions[mSize++] = (call << ACTION_BITS) | action;
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    int getAction(int index) {
+        return mActions[index] & ACTION_MASK;
+    }
+
+    int getCall(int index) {
+        return mActions[index] >>> ACTION_BITS;
+    }
+}
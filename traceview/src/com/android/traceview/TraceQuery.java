@@ -0,0 +1,476 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.traceview;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Queries traces from the command line, without the UI, and writes the results as CSV or
+ * JSON.
+ * <p/>The traces are read one at a time, and the result of each trace is written before the
+ * next one is read, so that a batch of traces can be processed with the memory needed by a
+ * single trace. Times are in microseconds.
+ * <ul>
+ * <li><code>top</code> writes the methods with the most exclusive or inclusive time of each
+ * trace.</li>
+ * <li><code>paths</code> writes the call paths leading to the methods matching a pattern, with
+ * the time spent in the calls made through each path.</li>
+ * <li><code>diff</code> writes the difference between the methods of a base trace and of each
+ * of the other traces.</li>
+ * </ul>
+ */
+public final class TraceQuery {
+    static final String COMMAND_TOP = "top";      //$NON-NLS-1$
+    static final String COMMAND_PATHS = "paths";  //$NON-NLS-1$
+    static final String COMMAND_DIFF = "diff";    //$NON-NLS-1$
+
+    private static final String CLOCK_CPU = "cpu";    //$NON-NLS-1$
+    private static final String CLOCK_REAL = "real";  //$NON-NLS-1$
+
+    private static final String PATH_SEPARATOR = " > ";  //$NON-NLS-1$
+
+    private static final int DEFAULT_LIMIT = 20;
+
+    private final PrintStream mErr;
+    private TableWriter mWriter;
+    private String mCommand;
+    private int mLimit = DEFAULT_LIMIT;
+    private boolean mSortInclusive;
+    /** the clock to report, or null to use the preferred clock of each trace */
+    private TimeBase mTimeBase;
+    private Pattern mMethodPattern;
+    private final List<String> mTraces = new ArrayList<String>();
+
+    private TraceQuery(PrintStream err) {
+        mErr = err;
+    }
+
+    public static void main(String[] args) {
+        System.exit(run(args, System.out, System.err));
+    }
+
+    /**
+     * Runs a query, and returns the exit code of the command: 0 on success, 1 if a trace
+     * could not be read, 2 if the arguments are invalid.
+     */
+    static int run(String[] args, PrintStream out, PrintStream err) {
+        TraceQuery query = new TraceQuery(err);
+        String error = query.parseArgs(args, out);
+        if (error != null) {
+            err.println(error);
+            printUsage(err);
+            return 2;
+        }
+        return query.execute() ? 0 : 1;
+    }
+
+    static void printUsage(PrintStream out) {
+        out.println("Usage: traceview -q <command> [options] trace...");
+        out.println("Commands:");
+        out.println("  top    methods with the most time in each trace");
+        out.println("  paths  call paths leading to the methods matching -m, in each trace");
+        out.println("  diff   differences between the methods of the first trace and of "
+                + "each of the others");
+        out.println("Options:");
+        out.println("  -f csv|json             output format (default csv)");
+        out.println("  -t cpu|real             clock (default: the preferred clock of the "
+                + "trace)");
+        out.println("  -s exclusive|inclusive  time to sort the methods with (default "
+                + "exclusive)");
+        out.println("  -n count                number of rows per trace, 0 for all (default "
+                + DEFAULT_LIMIT + ")");
+        out.println("  -m regex                methods to find the paths of, by name");
+    }
+
+    /**
+     * Parses the arguments, and returns an error message, or null if they are valid.
+     */
+    private String parseArgs(String[] args, PrintStream out) {
+        if (args.length == 0) {
+            return "Missing command";
+        }
+        mCommand = args[0];
+        if (COMMAND_TOP.equals(mCommand) == false && COMMAND_PATHS.equals(mCommand) == false
+                && COMMAND_DIFF.equals(mCommand) == false) {
+            return String.format("Unknown command '%s'", mCommand);
+        }
+
+        String format = TableWriter.FORMAT_CSV;
+        int argc = 1;
+        for (; argc < args.length && args[argc].startsWith("-"); argc++) {
+            String arg = args[argc];
+            if (argc + 1 == args.length) {
+                return String.format("Missing value for %s", arg);
+            }
+            String value = args[++argc];
+            if (arg.equals("-f")) {
+                format = value;
+            } else if (arg.equals("-t")) {
+                if (value.equals(CLOCK_CPU)) {
+                    mTimeBase = TimeBase.CPU_TIME;
+                } else if (value.equals(CLOCK_REAL)) {
+                    mTimeBase = TimeBase.REAL_TIME;
+                } else {
+                    return String.format("Unknown clock '%s'", value);
+                }
+            } else if (arg.equals("-s")) {
+                if (value.equals("inclusive")) {
+                    mSortInclusive = true;
+                } else if (value.equals("exclusive") == false) {
+                    return String.format("Unknown sort '%s'", value);
+                }
+            } else if (arg.equals("-n")) {
+                try {
+                    mLimit = Integer.parseInt(value);
+                } catch (NumberFormatException e) {
+                    mLimit = -1;
+                }
+                if (mLimit < 0) {
+                    return String.format("Invalid count '%s'", value);
+                }
+            } else if (arg.equals("-m")) {
+                try {
+                    mMethodPattern = Pattern.compile(value);
+                } catch (PatternSyntaxException e) {
+                    return e.getMessage();
+                }
+            } else {
+                return String.format("Unknown option '%s'", arg);
+            }
+        }
+        mTraces.addAll(Arrays.asList(args).subList(argc, args.length));
+
+        mWriter = TableWriter.create(format, out);
+        if (mWriter == null) {
+            return String.format("Unknown format '%s'", format);
+        }
+        if (COMMAND_PATHS.equals(mCommand) && mMethodPattern == null) {
+            return "Missing -m for paths";
+        }
+        int minTraces = COMMAND_DIFF.equals(mCommand) ? 2 : 1;
+        if (mTraces.size() < minTraces) {
+            return "Missing trace";
+        }
+        return null;
+    }
+
+    /**
+     * Runs the query, and returns false if a trace could not be read.
+     */
+    private boolean execute() {
+        boolean success = true;
+        if (COMMAND_DIFF.equals(mCommand)) {
+            String baseTrace = mTraces.get(0);
+            DmTraceReader baseReader = read(baseTrace);
+            if (baseReader == null) {
+                return false;
+            }
+            TimeBase timeBase = getTimeBase(baseReader);
+            Map<String, MethodStats> base = getMethodStats(baseReader, timeBase);
+            // Only keep the summary of the base trace while reading the others.
+            baseReader = null;
+
+            for (String trace : mTraces.subList(1, mTraces.size())) {
+                DmTraceReader reader = read(trace);
+                if (reader == null) {
+                    success = false;
+                    continue;
+                }
+                writeDiff(baseTrace, base, trace, getMethodStats(reader, timeBase), timeBase);
+            }
+            return success;
+        }
+
+        for (String trace : mTraces) {
+            DmTraceReader reader = read(trace);
+            if (reader == null) {
+                success = false;
+                continue;
+            }
+            if (COMMAND_TOP.equals(mCommand)) {
+                writeTop(trace, reader);
+            } else {
+                writePaths(trace, reader);
+            }
+        }
+        return success;
+    }
+
+    /**
+     * Reads a trace, or returns null after reporting the error if it can't be read.
+     */
+    private DmTraceReader read(String traceName) {
+        // Like the UI, accept the name of the trace without its extension.
+        if (new File(traceName).exists() == false && new File(traceName + ".trace").exists()) {
+            traceName = traceName + ".trace";
+        }
+        try {
+            return new DmTraceReader(traceName, false);
+        } catch (IOException e) {
+            mErr.printf("Failed to read the trace file '%s': %s\n", traceName, e.getMessage());
+        } catch (RuntimeException e) {
+            mErr.printf("Failed to read the trace file '%s': %s\n", traceName, e);
+        }
+        return null;
+    }
+
+    private TimeBase getTimeBase(TraceReader reader) {
+        return mTimeBase != null ? mTimeBase : reader.getPreferredTimeBase();
+    }
+
+    private static String getClockName(TimeBase timeBase) {
+        return timeBase == TimeBase.CPU_TIME ? CLOCK_CPU : CLOCK_REAL;
+    }
+
+    private int getRowCount(int size) {
+        return mLimit == 0 ? size : Math.min(mLimit, size);
+    }
+
+    /**
+     * Writes the methods of a trace with the most exclusive or inclusive time.
+     */
+    private void writeTop(String trace, TraceReader reader) {
+        final TimeBase timeBase = getTimeBase(reader);
+        MethodData[] methods = reader.getMethods().clone();
+        Arrays.sort(methods, new Comparator<MethodData>() {
+            @Override
+            public int compare(MethodData md1, MethodData md2) {
+                long time1 = getTime(md1);
+                long time2 = getTime(md2);
+                if (time1 != time2) {
+                    return time2 > time1 ? 1 : -1;
+                }
+                return md1.getName().compareTo(md2.getName());
+            }
+
+            private long getTime(MethodData md) {
+                return mSortInclusive ? timeBase.getElapsedInclusiveTime(md)
+                        : timeBase.getElapsedExclusiveTime(md);
+            }
+        });
+
+        long total = timeBase == TimeBase.CPU_TIME ? reader.getTotalCpuTime()
+                : reader.getTotalRealTime();
+        Map<String, Object> properties = new LinkedHashMap<String, Object>();
+        properties.put("trace", trace);
+        properties.put("clock", getClockName(timeBase));
+        properties.put("total", Long.valueOf(total));
+        mWriter.startTable(properties, new String[] {
+                "rank", "method", "exclusive", "exclusive_percent", "inclusive",
+                "inclusive_percent", "calls" });
+        for (int i = 0; i < getRowCount(methods.length); i++) {
+            MethodData md = methods[i];
+            long exclusive = timeBase.getElapsedExclusiveTime(md);
+            long inclusive = timeBase.getElapsedInclusiveTime(md);
+            mWriter.addRow(Integer.valueOf(md.getRank()), md.getName(),
+                    Long.valueOf(exclusive), getPercent(exclusive, total),
+                    Long.valueOf(inclusive), getPercent(inclusive, total),
+                    Integer.valueOf(md.getTotalCalls()));
+        }
+        mWriter.endTable();
+    }
+
+    private static Double getPercent(long time, long total) {
+        return Double.valueOf(total == 0 ? 0 : Math.round(time * 10000.0 / total) / 100.0);
+    }
+
+    /**
+     * Writes the call paths leading to the methods matching the pattern of the query, from the
+     * root of the threads, with the calls made through each path and their inclusive time.
+     * Calls made while the method was already running are counted in the outermost call.
+     */
+    private void writePaths(String trace, DmTraceReader reader) {
+        TimeBase timeBase = getTimeBase(reader);
+        CallList calls = reader.getCallList();
+        Map<MethodData, Boolean> matches = new HashMap<MethodData, Boolean>();
+        final Map<String, PathStats> paths = new HashMap<String, PathStats>();
+        ArrayList<MethodData> path = new ArrayList<MethodData>();
+        for (int call = 0; call < calls.size(); call++) {
+            if (calls.getCaller(call) < 0 || calls.isRecursive(call)) {
+                continue;
+            }
+            MethodData md = calls.getMethodData(call);
+            Boolean match = matches.get(md);
+            if (match == null) {
+                match = Boolean.valueOf(mMethodPattern.matcher(md.getName()).find());
+                matches.put(md, match);
+            }
+            if (match.booleanValue() == false) {
+                continue;
+            }
+
+            // The root call of the thread is not part of the path.
+            path.clear();
+            for (int c = call; calls.getCaller(c) >= 0; c = calls.getCaller(c)) {
+                path.add(calls.getMethodData(c));
+            }
+            StringBuilder sb = new StringBuilder();
+            for (int i = path.size() - 1; i >= 0; i--) {
+                sb.append(path.get(i).getName());
+                if (i > 0) {
+                    sb.append(PATH_SEPARATOR);
+                }
+            }
+            String key = sb.toString();
+            PathStats stats = paths.get(key);
+            if (stats == null) {
+                stats = new PathStats(md);
+                paths.put(key, stats);
+            }
+            stats.mCalls++;
+            stats.mInclusiveTime += timeBase == TimeBase.CPU_TIME
+                    ? calls.getInclusiveCpuTime(call) : calls.getInclusiveRealTime(call);
+        }
+
+        List<String> sortedPaths = new ArrayList<String>(paths.keySet());
+        Collections.sort(sortedPaths, new Comparator<String>() {
+            @Override
+            public int compare(String path1, String path2) {
+                long time1 = paths.get(path1).mInclusiveTime;
+                long time2 = paths.get(path2).mInclusiveTime;
+                if (time1 != time2) {
+                    return time2 > time1 ? 1 : -1;
+                }
+                return path1.compareTo(path2);
+            }
+        });
+
+        Map<String, Object> properties = new LinkedHashMap<String, Object>();
+        properties.put("trace", trace);
+        properties.put("clock", getClockName(timeBase));
+        properties.put("pattern", mMethodPattern.pattern());
+        mWriter.startTable(properties, new String[] { "method", "path", "calls", "inclusive" });
+        for (int i = 0; i < getRowCount(sortedPaths.size()); i++) {
+            String key = sortedPaths.get(i);
+            PathStats stats = paths.get(key);
+            mWriter.addRow(stats.mMethod.getName(), key, Integer.valueOf(stats.mCalls),
+                    Long.valueOf(stats.mInclusiveTime));
+        }
+        mWriter.endTable();
+    }
+
+    /**
+     * Returns the times and calls of the methods of a trace, by method name. The ids of the
+     * methods are not stable from one trace to another, but their names are.
+     */
+    private static Map<String, MethodStats> getMethodStats(TraceReader reader,
+            TimeBase timeBase) {
+        Map<String, MethodStats> stats = new LinkedHashMap<String, MethodStats>();
+        for (MethodData md : reader.getMethods()) {
+            stats.put(md.getName(), new MethodStats(timeBase.getElapsedExclusiveTime(md),
+                    timeBase.getElapsedInclusiveTime(md), md.getTotalCalls()));
+        }
+        return stats;
+    }
+
+    /**
+     * Writes the methods whose time changed the most between a base trace and another trace.
+     */
+    private void writeDiff(String baseTrace, final Map<String, MethodStats> base, String trace,
+            final Map<String, MethodStats> current, TimeBase timeBase) {
+        Set<String> names = new LinkedHashSet<String>(base.keySet());
+        names.addAll(current.keySet());
+        List<String> sortedNames = new ArrayList<String>(names);
+        Collections.sort(sortedNames, new Comparator<String>() {
+            @Override
+            public int compare(String name1, String name2) {
+                long delta1 = Math.abs(getDelta(name1));
+                long delta2 = Math.abs(getDelta(name2));
+                if (delta1 != delta2) {
+                    return delta2 > delta1 ? 1 : -1;
+                }
+                return name1.compareTo(name2);
+            }
+
+            private long getDelta(String name) {
+                MethodStats before = getStats(base, name);
+                MethodStats after = getStats(current, name);
+                return mSortInclusive ? after.mInclusiveTime - before.mInclusiveTime
+                        : after.mExclusiveTime - before.mExclusiveTime;
+            }
+        });
+
+        Map<String, Object> properties = new LinkedHashMap<String, Object>();
+        properties.put("base", baseTrace);
+        properties.put("trace", trace);
+        properties.put("clock", getClockName(timeBase));
+        mWriter.startTable(properties, new String[] {
+                "method", "base_exclusive", "exclusive", "exclusive_delta", "base_inclusive",
+                "inclusive", "inclusive_delta", "base_calls", "calls" });
+        for (int i = 0; i < getRowCount(sortedNames.size()); i++) {
+            String name = sortedNames.get(i);
+            MethodStats before = getStats(base, name);
+            MethodStats after = getStats(current, name);
+            mWriter.addRow(name,
+                    Long.valueOf(before.mExclusiveTime), Long.valueOf(after.mExclusiveTime),
+                    Long.valueOf(after.mExclusiveTime - before.mExclusiveTime),
+                    Long.valueOf(before.mInclusiveTime), Long.valueOf(after.mInclusiveTime),
+                    Long.valueOf(after.mInclusiveTime - before.mInclusiveTime),
+                    Integer.valueOf(before.mCalls), Integer.valueOf(after.mCalls));
+        }
+        mWriter.endTable();
+    }
+
+    private static MethodStats getStats(Map<String, MethodStats> stats, String name) {
+        MethodStats s = stats.get(name);
+        return s != null ? s : MethodStats.NONE;
+    }
+
+    /**
+     * The times and calls of a method, kept for the diff once its trace is released.
+     */
+    private static final class MethodStats {
+        static final MethodStats NONE = new MethodStats(0, 0, 0);
+
+        final long mExclusiveTime;
+        final long mInclusiveTime;
+        final int mCalls;
+
+        MethodStats(long exclusiveTime, long inclusiveTime, int calls) {
+            mExclusiveTime = exclusiveTime;
+            mInclusiveTime = inclusiveTime;
+            mCalls = calls;
+        }
+    }
+
+    /**
+     * The calls made through a call path.
+     */
+    private static final class PathStats {
+        final MethodData mMethod;
+        int mCalls;
+        long mInclusiveTime;
+
+        PathStats(MethodData method) {
+            mMethod = method;
+        }
+    }
+}
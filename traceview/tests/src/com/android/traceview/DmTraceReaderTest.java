@@ -0,0 +1,367 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.traceview;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link DmTraceReader}, on generated traces.
+ */
+public class DmTraceReaderTest extends TestCase {
+
+    private final List<File> mFiles = new ArrayList<File>();
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (File f : mFiles) {
+            f.delete();
+        }
+    }
+
+    /**
+     * Test the times and calls of the methods of a wall clock trace, which are computed
+     * exactly by the trace generator.
+     */
+    public void testWallClock() throws IOException {
+        assertWallClock(new TraceGenerator("wall", 4, 50, 42), 200000);
+    }
+
+    /**
+     * Same as {@link #testWallClock()} with a trace of millions of records, to check the
+     * arrays holding the calls as they grow.
+     */
+    public void testLargeTrace() throws IOException {
+        assertWallClock(new TraceGenerator("wall", 8, 2000, 3), 3000000);
+    }
+
+    private void assertWallClock(TraceGenerator generator, int records) throws IOException {
+        DmTraceReader reader = new DmTraceReader(generator.write(createTempFile(), records),
+                false);
+
+        assertEquals(generator.mTotalRealTime, reader.getTotalRealTime());
+        for (MethodData md : reader.getMethods()) {
+            if (md.getId() <= 0) {
+                continue;
+            }
+            Integer id = Integer.valueOf(md.getId());
+            assertEquals(md.getName(), generator.mCalls.get(id).intValue(), md.getTotalCalls());
+            assertEquals(md.getName(), generator.mExclusiveTimes.get(id).longValue(),
+                    md.getElapsedExclusiveRealTime());
+        }
+        assertEquals(generator.mCalls.size(), reader.getMethods().length - 1);
+    }
+
+    /**
+     * Test that the cpu time of the threads is split among the methods, including the
+     * context switches inserted by the reader.
+     */
+    public void testThreadCpuClock() throws IOException {
+        assertCpuTimes(new TraceGenerator("thread-cpu", 3, 40, 7));
+    }
+
+    /**
+     * Same as {@link #testThreadCpuClock()} with both clocks.
+     */
+    public void testDualClock() throws IOException {
+        assertCpuTimes(new TraceGenerator("dual", 5, 80, 1234));
+    }
+
+    private void assertCpuTimes(TraceGenerator generator) throws IOException {
+        DmTraceReader reader = new DmTraceReader(generator.write(createTempFile(), 200000),
+                false);
+
+        assertEquals(generator.mTotalCpuTime, reader.getTotalCpuTime());
+        long exclusive = 0;
+        for (MethodData md : reader.getMethods()) {
+            exclusive += md.getElapsedExclusiveCpuTime();
+            if (md.getId() > 0) {
+                Integer id = Integer.valueOf(md.getId());
+                assertEquals(md.getName(), generator.mCalls.get(id).intValue(),
+                        md.getTotalCalls());
+            }
+        }
+        assertEquals(reader.getTotalCpuTime(), exclusive);
+
+        // every call but the root calls of the threads is in the timeline.
+        int calls = 0;
+        for (TimeLineView.Record record : reader.getThreadTimeRecords()) {
+            if (record.block.getMethodData().getId() > 0) {
+                calls++;
+            }
+        }
+        assertEquals(generator.mTotalCalls, calls);
+    }
+
+    /**
+     * Test that computing the profile in parallel gives the same results as computing it
+     * sequentially, down to the order of the parents and children of the methods.
+     */
+    public void testParallel() throws IOException {
+        String[] clocks = new String[] { "wall", "thread-cpu", "dual" };
+        for (int i = 0; i < clocks.length; i++) {
+            TraceGenerator generator = new TraceGenerator(clocks[i], 6, 60, i);
+            String file = generator.write(createTempFile(), 200000);
+            assertSameProfile(new DmTraceReader(file, false, 1),
+                    new DmTraceReader(file, false, 4));
+        }
+    }
+
+    private static void assertSameProfile(DmTraceReader expected, DmTraceReader actual) {
+        assertEquals(expected.getTotalCpuTime(), actual.getTotalCpuTime());
+        assertEquals(expected.getTotalRealTime(), actual.getTotalRealTime());
+
+        MethodData[] expectedMethods = expected.getMethods();
+        MethodData[] actualMethods = actual.getMethods();
+        assertEquals(expectedMethods.length, actualMethods.length);
+        for (int i = 0; i < expectedMethods.length; i++) {
+            MethodData md1 = expectedMethods[i];
+            MethodData md2 = actualMethods[i];
+            String name = md1.getName();
+            assertEquals(name, md2.getName());
+            assertEquals(name, md1.getRank(), md2.getRank());
+            assertEquals(name, md1.getCalls(), md2.getCalls());
+            assertEquals(name, md1.getElapsedExclusiveCpuTime(), md2.getElapsedExclusiveCpuTime());
+            assertEquals(name, md1.getElapsedExclusiveRealTime(),
+                    md2.getElapsedExclusiveRealTime());
+            assertEquals(name, md1.getElapsedInclusiveCpuTime(), md2.getElapsedInclusiveCpuTime());
+            assertEquals(name, md1.getElapsedInclusiveRealTime(),
+                    md2.getElapsedInclusiveRealTime());
+            assertEquals(name, md1.getTopExclusiveCpuTime(), md2.getTopExclusiveCpuTime());
+            assertEquals(name, md1.getTopExclusiveRealTime(), md2.getTopExclusiveRealTime());
+
+            ProfileNode[] nodes1 = md1.getProfileNodes();
+            ProfileNode[] nodes2 = md2.getProfileNodes();
+            assertEquals(name, nodes1.length, nodes2.length);
+            for (int j = 0; j < nodes1.length; j++) {
+                assertEquals(name, nodes1[j].getLabel(), nodes2[j].getLabel());
+                ProfileData[] children1 = nodes1[j].getChildren();
+                ProfileData[] children2 = nodes2[j].getChildren();
+                assertEquals(name, children1.length, children2.length);
+                for (int k = 0; k < children1.length; k++) {
+                    assertEquals(name, children1[k].getProfileName(),
+                            children2[k].getProfileName());
+                    assertEquals(name, children1[k].getNumCalls(), children2[k].getNumCalls());
+                    assertEquals(name, children1[k].getElapsedInclusiveCpuTime(),
+                            children2[k].getElapsedInclusiveCpuTime());
+                    assertEquals(name, children1[k].getElapsedInclusiveRealTime(),
+                            children2[k].getElapsedInclusiveRealTime());
+                }
+            }
+        }
+
+        ThreadData[] threads1 = expected.getThreads();
+        ThreadData[] threads2 = actual.getThreads();
+        assertEquals(threads1.length, threads2.length);
+        for (int i = 0; i < threads1.length; i++) {
+            assertEquals(threads1[i].getName(), threads2[i].getName());
+            assertEquals(threads1[i].getCpuTime(), threads2[i].getCpuTime());
+            assertEquals(threads1[i].getRealTime(), threads2[i].getRealTime());
+        }
+
+        List<TimeLineView.Record> records1 = expected.getThreadTimeRecords();
+        List<TimeLineView.Record> records2 = actual.getThreadTimeRecords();
+        assertEquals(records1.size(), records2.size());
+        for (int i = 0; i < records1.size(); i++) {
+            TimeLineView.Block block1 = records1.get(i).block;
+            TimeLineView.Block block2 = records2.get(i).block;
+            assertEquals(records1.get(i).row.getName(), records2.get(i).row.getName());
+            assertEquals(block1.getName(), block2.getName());
+            assertEquals(block1.getStartTime(), block2.getStartTime());
+            assertEquals(block1.getEndTime(), block2.getEndTime());
+            assertEquals(block1.getExclusiveCpuTime(), block2.getExclusiveCpuTime());
+            assertEquals(block1.getInclusiveRealTime(), block2.getInclusiveRealTime());
+        }
+    }
+
+    private File createTempFile() throws IOException {
+        File f = File.createTempFile("traceview", ".trace");
+        mFiles.add(f);
+        return f;
+    }
+
+    /**
+     * Generates a version 3 trace of random nested calls on several threads, and computes
+     * the expected results.
+     */
+    static final class TraceGenerator {
+        private static final int TRACE_MAGIC = 0x574f4c53;
+        private static final int FIRST_METHOD_ID = 0x1000;
+        private static final int MAX_DEPTH = 30;
+
+        private final String mClock;
+        private final int mThreadCount;
+        private final int mMethodCount;
+        private final Random mRandom;
+
+        /** number of calls of each method, by method id */
+        final Map<Integer, Integer> mCalls = new HashMap<Integer, Integer>();
+        /** exclusive real time of each method, by method id, for wall clock traces */
+        final Map<Integer, Long> mExclusiveTimes = new HashMap<Integer, Long>();
+        long mTotalRealTime;
+        long mTotalCpuTime;
+        int mTotalCalls;
+
+        TraceGenerator(String clock, int threadCount, int methodCount, long seed) {
+            mClock = clock;
+            mThreadCount = threadCount;
+            mMethodCount = methodCount;
+            mRandom = new Random(seed);
+        }
+
+        String write(File file, int recordCount) throws IOException {
+            boolean dual = mClock.equals("dual");
+            boolean wall = mClock.equals("wall");
+            int recordSize = dual ? 14 : 10;
+
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 65536);
+            try {
+                StringBuilder keys = new StringBuilder();
+                keys.append("*version\n3\nclock=").append(mClock).append('\n');
+                keys.append("*threads\n");
+                for (int t = 1; t <= mThreadCount; t++) {
+                    keys.append(t).append("\tthread-").append(t).append('\n');
+                }
+                keys.append("*methods\n");
+                for (int m = 0; m < mMethodCount; m++) {
+                    keys.append(String.format("0x%1$x\tcom/example/Class%2$d\tmethod%3$d\t()V"
+                            + "\tClass%2$d.java\t%3$d\n", getMethodId(m), m % 10, m));
+                }
+                keys.append("*end\n");
+                out.write(keys.toString().getBytes("US-ASCII"));
+
+                ByteBuffer header = ByteBuffer.allocate(18).order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(TRACE_MAGIC).putShort((short) 3).putShort((short) 18);
+                header.putLong(0).putShort((short) recordSize);
+                out.write(header.array());
+
+                Frame[][] stacks = new Frame[mThreadCount][MAX_DEPTH];
+                int[] depths = new int[mThreadCount];
+                long[] threadTimes = new long[mThreadCount];
+                long[] lastGlobalTimes = new long[mThreadCount];
+                boolean[] started = new boolean[mThreadCount];
+                long[] firstThreadTimes = new long[mThreadCount];
+                long globalTime = 1000;
+
+                ByteBuffer record = ByteBuffer.allocate(recordSize);
+                record.order(ByteOrder.LITTLE_ENDIAN);
+                for (int i = 0; i < recordCount; i++) {
+                    int t = mRandom.nextInt(mThreadCount);
+                    Frame[] stack = stacks[t];
+                    threadTimes[t] += 1 + mRandom.nextInt(20);
+                    globalTime += 1 + mRandom.nextInt(20);
+                    if (mRandom.nextInt(50) == 0) {
+                        // a thread was scheduled out.
+                        globalTime += 500;
+                    }
+                    if (!started[t]) {
+                        started[t] = true;
+                        firstThreadTimes[t] = threadTimes[t];
+                    }
+                    lastGlobalTimes[t] = globalTime;
+
+                    int methodId;
+                    boolean enter = depths[t] == 0
+                            || (depths[t] < MAX_DEPTH && mRandom.nextInt(100) < 55);
+                    if (enter) {
+                        // a few methods are called much more often, so that some calls
+                        // are recursive.
+                        int m = mRandom.nextBoolean() ? mRandom.nextInt(5)
+                                : mRandom.nextInt(mMethodCount);
+                        methodId = getMethodId(m);
+                        stack[depths[t]++] = new Frame(methodId, globalTime);
+                        increment(mCalls, methodId, 1);
+                        mTotalCalls++;
+                    } else {
+                        Frame frame = stack[--depths[t]];
+                        methodId = frame.mMethodId | 0x01;
+                        exit(stack, depths[t], frame, globalTime);
+                    }
+
+                    record.clear();
+                    record.putShort((short) (t + 1)).putInt(methodId);
+                    if (dual) {
+                        record.putInt((int) threadTimes[t]).putInt((int) globalTime);
+                    } else {
+                        record.putInt((int) (wall ? globalTime : threadTimes[t]));
+                    }
+                    out.write(record.array());
+                }
+
+                // the calls still on the stacks end at the last time of their thread.
+                for (int t = 0; t < mThreadCount; t++) {
+                    while (depths[t] > 0) {
+                        Frame frame = stacks[t][--depths[t]];
+                        exit(stacks[t], depths[t], frame, lastGlobalTimes[t]);
+                    }
+                    if (started[t]) {
+                        mTotalCpuTime += threadTimes[t] - firstThreadTimes[t];
+                    }
+                }
+            } finally {
+                out.close();
+            }
+            return file.getPath();
+        }
+
+        private void exit(Frame[] stack, int depth, Frame frame, long time) {
+            long inclusive = time - frame.mStartTime;
+            increment(mExclusiveTimes, frame.mMethodId, inclusive - frame.mChildTime);
+            if (depth > 0) {
+                stack[depth - 1].mChildTime += inclusive;
+            } else {
+                mTotalRealTime += inclusive;
+            }
+        }
+
+        private static int getMethodId(int method) {
+            return FIRST_METHOD_ID + method * 4;
+        }
+
+        private static void increment(Map<Integer, Integer> map, int key, int value) {
+            Integer v = map.get(key);
+            map.put(key, v == null ? value : v + value);
+        }
+
+        private static void increment(Map<Integer, Long> map, int key, long value) {
+            Long v = map.get(key);
+            map.put(key, v == null ? value : v + value);
+        }
+
+        private static final class Frame {
+            final int mMethodId;
+            final long mStartTime;
+            long mChildTime;
+
+            Frame(int methodId, long startTime) {
+                mMethodId = methodId;
+                mStartTime = startTime;
+            }
+        }
+    }
+}
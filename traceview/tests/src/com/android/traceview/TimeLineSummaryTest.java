@@ -0,0 +1,315 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.traceview;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link TimeLineSummary}.
+ */
+public class TimeLineSummaryTest extends TestCase {
+
+    private static final int PIXELS = 1000;
+
+    private long[] mStarts;
+    private long[] mEnds;
+    private Object[] mMethods;
+    private BitSet mContextSwitches;
+
+    /**
+     * Test that the buckets of level 0 hold the dominant method of the segments they contain.
+     */
+    public void testLevel0() {
+        createRow(20000, 30, 42);
+        TimeLineSummary summary = createSummary();
+
+        long width = summary.getBucketWidth(0);
+        assertEquals(0, Long.bitCount(width) - 1);
+        for (int bucket = 0; bucket < summary.getBucketCount(0); bucket++) {
+            long bucketStart = summary.getBucketStart(0, bucket);
+            long bucketEnd = bucketStart + width;
+
+            // add up the time covered by each method in the bucket.
+            Map<Object, Long> coverages = new HashMap<Object, Long>();
+            long maxCoverage = 0;
+            int contextSwitch = -1;
+            for (int i = 0; i < mStarts.length; i++) {
+                long coverage = Math.min(mEnds[i], bucketEnd) - Math.max(mStarts[i], bucketStart);
+                if (coverage <= 0 || mMethods[i] == null) {
+                    continue;
+                }
+                if (mContextSwitches.get(i)) {
+                    if (contextSwitch < 0) {
+                        contextSwitch = i;
+                    }
+                    continue;
+                }
+                Long c = coverages.get(mMethods[i]);
+                coverage += c == null ? 0 : c.longValue();
+                coverages.put(mMethods[i], Long.valueOf(coverage));
+                maxCoverage = Math.max(maxCoverage, coverage);
+            }
+
+            int segment = summary.getSegment(0, bucket);
+            assertEquals(maxCoverage, summary.getCoverage(0, bucket));
+            if (maxCoverage == 0) {
+                assertEquals(contextSwitch, segment);
+            } else {
+                assertEquals(maxCoverage, coverages.get(mMethods[segment]).longValue());
+                assertFalse(mContextSwitches.get(segment));
+            }
+        }
+    }
+
+    /**
+     * Test that each level summarizes the level below it, up to a single bucket.
+     */
+    public void testLevels() {
+        createRow(5000, 10, 7);
+        TimeLineSummary summary = createSummary();
+
+        int top = summary.getLevelCount() - 1;
+        assertEquals(1, summary.getBucketCount(top));
+        for (int level = 1; level <= top; level++) {
+            assertEquals(2 * summary.getBucketWidth(level - 1), summary.getBucketWidth(level));
+            assertEquals((summary.getBucketCount(level - 1) + 1) / 2,
+                    summary.getBucketCount(level));
+
+            for (int bucket = 0; bucket < summary.getBucketCount(level); bucket++) {
+                int segment1 = summary.getSegment(level - 1, 2 * bucket);
+                int segment2 = -1;
+                long coverage2 = 0;
+                if (2 * bucket + 1 < summary.getBucketCount(level - 1)) {
+                    segment2 = summary.getSegment(level - 1, 2 * bucket + 1);
+                    coverage2 = summary.getCoverage(level - 1, 2 * bucket + 1);
+                }
+                long coverage1 = summary.getCoverage(level - 1, 2 * bucket);
+
+                int segment = summary.getSegment(level, bucket);
+                assertTrue(segment == segment1 || segment == segment2);
+                assertTrue(summary.getCoverage(level, bucket) >= Math.max(coverage1, coverage2));
+                assertTrue(summary.getCoverage(level, bucket) <= coverage1 + coverage2);
+            }
+        }
+
+        // the whole row is covered by the top bucket.
+        assertTrue(summary.getBucketStart(top, 0) <= mStarts[0]);
+        assertTrue(summary.getBucketStart(top, 0) + summary.getBucketWidth(top)
+                >= mEnds[mEnds.length - 1]);
+        assertEquals(0, summary.getBucket(0, Double.NEGATIVE_INFINITY));
+        assertEquals(summary.getBucketCount(0) - 1,
+                summary.getBucket(0, Double.POSITIVE_INFINITY));
+    }
+
+    /**
+     * Test the choice of the level to draw with.
+     */
+    public void testGetLevel() {
+        createRow(10000, 10, 3);
+        TimeLineSummary summary = createSummary();
+
+        long width = summary.getBucketWidth(0);
+        assertEquals(-1, summary.getLevel(width / 2.0));
+        assertEquals(0, summary.getLevel(width));
+        assertEquals(0, summary.getLevel(width * 1.9));
+        assertEquals(3, summary.getLevel(width * 8));
+        assertEquals(summary.getLevelCount() - 1, summary.getLevel(Double.MAX_VALUE));
+    }
+
+    /**
+     * Test the summary of a row without segments.
+     */
+    public void testEmptyRow() {
+        TimeLineSummary summary = new TimeLineSummary(new long[0], new long[0], new Object[0],
+                new BitSet());
+        assertEquals(1, summary.getLevelCount());
+        assertEquals(1, summary.getBucketCount(0));
+        assertEquals(-1, summary.getSegment(0, 0));
+    }
+
+    /**
+     * Test that drawing a whole row from its summary only uses a few buckets per pixel, each
+     * pixel showing a segment of its time range, and that drawing a zoomed in row from its
+     * segments gives the same pixels as going through all the segments.
+     */
+    public void testDraw() {
+        createRow(1000000, 2000, 1);
+        TimeLineSummary summary = createSummary();
+
+        double minVal = mStarts[0];
+        double maxVal = mEnds[mEnds.length - 1];
+        double rangePerPixel = (maxVal - minVal) / PIXELS;
+        int level = summary.getLevel(rangePerPixel);
+        assertTrue(level >= 0);
+        assertTrue(summary.getBucket(level, maxVal) - summary.getBucket(level, minVal) + 1
+                <= 2 * PIXELS + 2);
+
+        int[] pixels = draw(summary, minVal, maxVal);
+        long width = summary.getBucketWidth(level);
+        for (int pixel = 0; pixel < pixels.length; pixel++) {
+            int segment = pixels[pixel];
+            if (segment < 0) {
+                continue;
+            }
+            double from = minVal + (pixel - 0.5) * rangePerPixel - width;
+            double to = minVal + (pixel + 0.5) * rangePerPixel + width;
+            assertTrue(mEnds[segment] > from && mStarts[segment] < to);
+        }
+
+        // less than a bucket of level 0 per pixel.
+        double zoomMinVal = minVal + (maxVal - minVal) / 2;
+        double zoomMaxVal = zoomMinVal + summary.getBucketWidth(0) * PIXELS / 4.0;
+        assertEquals(-1, summary.getLevel((zoomMaxVal - zoomMinVal) / PIXELS));
+        assertTrue(Arrays.equals(drawSegments(zoomMinVal, zoomMaxVal),
+                draw(summary, zoomMinVal, zoomMaxVal)));
+    }
+
+    /**
+     * Creates a row of consecutive segments, with a few gaps and context switches.
+     */
+    private void createRow(int count, int methodCount, long seed) {
+        Random random = new Random(seed);
+        Object[] methods = new Object[methodCount];
+        for (int i = 0; i < methodCount; i++) {
+            methods[i] = new Object();
+        }
+
+        mStarts = new long[count];
+        mEnds = new long[count];
+        mMethods = new Object[count];
+        mContextSwitches = new BitSet();
+        long time = 1000;
+        for (int i = 0; i < count; i++) {
+            if (random.nextInt(20) == 0) {
+                time += random.nextInt(100);
+            }
+            mStarts[i] = time;
+            // a few long segments cover several buckets.
+            time += random.nextInt(100) == 0 ? 1 + random.nextInt(1000) : 1 + random.nextInt(20);
+            mEnds[i] = time;
+            // a few methods are much more frequent than the others.
+            int method = random.nextBoolean() ? random.nextInt(4) : random.nextInt(methodCount);
+            mMethods[i] = random.nextInt(50) == 0 ? null : methods[method];
+            if (random.nextInt(20) == 0) {
+                mContextSwitches.set(i);
+            }
+        }
+    }
+
+    private TimeLineSummary createSummary() {
+        return new TimeLineSummary(mStarts, mEnds, mMethods, mContextSwitches);
+    }
+
+    /**
+     * Computes the longest segment of each pixel, going through all the segments. Pixels
+     * without segments are set to -1.
+     */
+    private int[] drawSegments(double minVal, double maxVal) {
+        double pixelsPerRange = PIXELS / (maxVal - minVal);
+        int[] pixels = createPixels();
+        long[] weights = new long[PIXELS + 1];
+        for (int i = 0; i < mStarts.length; i++) {
+            if (mEnds[i] <= minVal || mStarts[i] >= maxVal || mMethods[i] == null) {
+                continue;
+            }
+            int pixel = (int) Math.ceil(pixelsPerRange * (mStarts[i] - minVal) - 0.5);
+            pixel = Math.max(pixel, 0);
+            long weight = mEnds[i] - mStarts[i];
+            if (weight > weights[pixel]) {
+                weights[pixel] = weight;
+                pixels[pixel] = i;
+            }
+        }
+        return pixels;
+    }
+
+    /**
+     * Computes the pixels as the timeline does: from the summary if there are many segments
+     * in each pixel, and from the visible segments otherwise. Pixels without segments are set
+     * to -1.
+     */
+    private int[] draw(TimeLineSummary summary, double minVal, double maxVal) {
+        double rangePerPixel = (maxVal - minVal) / PIXELS;
+        int level = summary.getLevel(rangePerPixel);
+        if (level >= 0) {
+            return drawSummary(summary, level, minVal, maxVal);
+        }
+
+        // find the first visible segment.
+        int low = 0;
+        int high = mEnds.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mEnds[mid] > minVal) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        int[] pixels = createPixels();
+        long[] weights = new long[PIXELS + 1];
+        for (int i = low; i < mStarts.length && mStarts[i] < maxVal; i++) {
+            int pixel = (int) Math.ceil((Math.max(mStarts[i], minVal) - minVal) / rangePerPixel
+                    - 0.5);
+            long weight = mEnds[i] - mStarts[i];
+            if (mMethods[i] != null && weight > weights[pixel]) {
+                weights[pixel] = weight;
+                pixels[pixel] = i;
+            }
+        }
+        return pixels;
+    }
+
+    /**
+     * Computes the dominant segment of each pixel from a level of a summary.
+     */
+    private static int[] drawSummary(TimeLineSummary summary, int level, double minVal,
+            double maxVal) {
+        double rangePerPixel = (maxVal - minVal) / PIXELS;
+        int[] pixels = createPixels();
+        long[] weights = new long[PIXELS + 1];
+        double halfBucket = summary.getBucketWidth(level) / 2.0;
+        int first = summary.getBucket(level, minVal);
+        int last = summary.getBucket(level, maxVal);
+        for (int bucket = first; bucket <= last; bucket++) {
+            int segment = summary.getSegment(level, bucket);
+            if (segment < 0) {
+                continue;
+            }
+            double center = summary.getBucketStart(level, bucket) + halfBucket;
+            center = Math.max(minVal, Math.min(center, maxVal));
+            int pixel = (int) Math.ceil((center - minVal) / rangePerPixel - 0.5);
+            long weight = summary.getCoverage(level, bucket);
+            if (weight >= weights[pixel]) {
+                weights[pixel] = weight;
+                pixels[pixel] = segment;
+            }
+        }
+        return pixels;
+    }
+
+    private static int[] createPixels() {
+        int[] pixels = new int[PIXELS + 1];
+        Arrays.fill(pixels, -1);
+        return pixels;
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.traceview;
+
+import com.android.traceview.DmTraceReaderTest.TraceGenerator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link TraceQuery}, on generated traces.
+ */
+public class TraceQueryTest extends TestCase {
+
+    private final List<File> mFiles = new ArrayList<File>();
+    private String mOutput;
+    private String mErrors;
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (File f : mFiles) {
+            f.delete();
+        }
+    }
+
+    /**
+     * Test the methods with the most exclusive time, in CSV.
+     */
+    public void testTop() throws IOException {
+        String trace = createTrace("dual", 42);
+        assertEquals(0, run("top", "-n", "10", "-t", "real", trace));
+
+        String[] lines = getLines();
+        assertEquals(11, lines.length);
+        assertEquals("trace,clock,total,rank,method,exclusive,exclusive_percent,inclusive,"
+                + "inclusive_percent,calls", lines[0]);
+
+        DmTraceReader reader = new DmTraceReader(trace, false);
+        Map<String, MethodData> methods = getMethods(reader);
+        long previous = Long.MAX_VALUE;
+        for (int i = 1; i < lines.length; i++) {
+            String[] values = lines[i].split(",");
+            assertEquals(trace, values[0]);
+            assertEquals("real", values[1]);
+            assertEquals(reader.getTotalRealTime(), Long.parseLong(values[2]));
+
+            MethodData md = methods.get(values[4]);
+            assertEquals(md.getRank(), Integer.parseInt(values[3]));
+            long exclusive = Long.parseLong(values[5]);
+            assertEquals(md.getElapsedExclusiveRealTime(), exclusive);
+            assertEquals(md.getElapsedInclusiveRealTime(), Long.parseLong(values[7]));
+            assertEquals(md.getTotalCalls(), Integer.parseInt(values[9]));
+            assertTrue(exclusive <= previous);
+            previous = exclusive;
+        }
+    }
+
+    /**
+     * Test the output of several traces in JSON, one line per trace.
+     */
+    public void testTopJson() throws IOException {
+        String trace1 = createTrace("thread-cpu", 1);
+        String trace2 = createTrace("wall", 2);
+        assertEquals(0, run("top", "-f", "json", "-n", "2", "-s", "inclusive", trace1, trace2));
+
+        String[] lines = getLines();
+        assertEquals(2, lines.length);
+        assertTrue(lines[0], lines[0].startsWith("{\"trace\":\"" + trace1
+                + "\",\"clock\":\"cpu\",\"total\":"));
+        assertTrue(lines[1], lines[1].startsWith("{\"trace\":\"" + trace2
+                + "\",\"clock\":\"real\",\"total\":"));
+        // the top level method includes all the others.
+        assertTrue(lines[0], lines[0].contains(
+                ",\"rows\":[{\"rank\":0,\"method\":\"(toplevel)\",\"exclusive\":"));
+        assertTrue(lines[0], lines[0].endsWith("}]}"));
+    }
+
+    /**
+     * Test that the paths to a method add up to the inclusive time and calls of the method.
+     */
+    public void testPaths() throws IOException {
+        String trace = createTrace("wall", 7);
+        DmTraceReader reader = new DmTraceReader(trace, false);
+        MethodData md = getMethods(reader).get("com/example/Class3.method3 ()V");
+        assertEquals(0, run("paths", "-n", "0", "-m", "Class3\\.method3 ", trace));
+
+        String[] lines = getLines();
+        assertEquals("trace,clock,pattern,method,path,calls,inclusive", lines[0]);
+        assertTrue(lines.length > 2);
+        int calls = 0;
+        long inclusive = 0;
+        for (int i = 1; i < lines.length; i++) {
+            String[] values = lines[i].split(",");
+            assertEquals(md.getName(), values[3]);
+            assertTrue(values[4], values[4].endsWith(" > " + md.getName())
+                    || values[4].equals(md.getName()));
+            calls += Integer.parseInt(values[5]);
+            inclusive += Long.parseLong(values[6]);
+        }
+        assertEquals(md.getCalls(), calls + "+" + (md.getTotalCalls() - calls));
+        assertEquals(md.getElapsedInclusiveRealTime(), inclusive);
+    }
+
+    /**
+     * Test the difference between traces.
+     */
+    public void testDiff() throws IOException {
+        String base = createTrace("wall", 3);
+        String trace = createTrace("wall", 4);
+        assertEquals(0, run("diff", "-n", "0", base, base, trace));
+
+        String[] lines = getLines();
+        assertEquals("base,trace,clock,method,base_exclusive,exclusive,exclusive_delta,"
+                + "base_inclusive,inclusive,inclusive_delta,base_calls,calls", lines[0]);
+
+        Map<String, MethodData> baseMethods = getMethods(new DmTraceReader(base, false));
+        Map<String, MethodData> methods = getMethods(new DmTraceReader(trace, false));
+        int count = 0;
+        int selfCount = 0;
+        for (int i = 1; i < lines.length; i++) {
+            String[] values = lines[i].split(",");
+            assertEquals(base, values[0]);
+            if (values[1].equals(base)) {
+                // a trace doesn't differ from itself.
+                assertEquals("0", values[6]);
+                assertEquals("0", values[9]);
+                selfCount++;
+                continue;
+            }
+            count++;
+            MethodData before = baseMethods.get(values[3]);
+            MethodData after = methods.get(values[3]);
+            long exclusiveBefore = before == null ? 0 : before.getElapsedExclusiveRealTime();
+            long exclusiveAfter = after == null ? 0 : after.getElapsedExclusiveRealTime();
+            assertEquals(exclusiveBefore, Long.parseLong(values[4]));
+            assertEquals(exclusiveAfter - exclusiveBefore, Long.parseLong(values[6]));
+        }
+        assertEquals(baseMethods.size(), selfCount);
+        assertTrue(count >= methods.size());
+        assertEquals(count + selfCount + 1, lines.length);
+    }
+
+    /**
+     * Test that a bad trace is reported, and that the other traces are still processed.
+     */
+    public void testErrors() throws IOException {
+        File bad = File.createTempFile("traceview", ".trace");
+        mFiles.add(bad);
+        String trace = createTrace("wall", 5);
+        assertEquals(1, run("top", bad.getPath(), trace));
+        assertTrue(mErrors, mErrors.contains(bad.getPath()));
+        assertEquals(21, getLines().length);
+
+        assertEquals(2, run("top"));
+        assertEquals(2, run("paths", trace));
+        assertEquals(2, run("top", "-f", "xml", trace));
+        assertEquals(2, run("diff", trace));
+        assertEquals(2, run("sort", trace));
+    }
+
+    private String createTrace(String clock, long seed) throws IOException {
+        File f = File.createTempFile("traceview", ".trace");
+        mFiles.add(f);
+        return new TraceGenerator(clock, 3, 30, seed).write(f, 50000);
+    }
+
+    private int run(String... args) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        int status = TraceQuery.run(args, new PrintStream(out), new PrintStream(err));
+        mOutput = out.toString();
+        mErrors = err.toString();
+        return status;
+    }
+
+    private String[] getLines() {
+        return mOutput.split("\n");
+    }
+
+    private static Map<String, MethodData> getMethods(TraceReader reader) {
+        Map<String, MethodData> methods = new HashMap<String, MethodData>();
+        for (MethodData md : reader.getMethods()) {
+            methods.put(md.getName(), md);
+        }
+        return methods;
+    }
+}